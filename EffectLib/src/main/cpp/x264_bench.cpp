@@ -0,0 +1,112 @@
+//
+// x264编码吞吐的主机基准测试，与Android使用同一个X264Encoder
+// 用法: x264_bench [宽 高 帧数 码率kbps 预设 调优 线程数]
+//
+
+#include "x264_encoder.h"
+
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <vector>
+
+namespace {
+
+/**
+ * 生成移动的渐变和方块，避免全静止画面让编码器过于轻松
+ */
+void fillFrame(std::vector<uint8_t> &y, std::vector<uint8_t> &u, std::vector<uint8_t> &v,
+               int width, int height, int index) {
+    for (int row = 0; row < height; row++) {
+        uint8_t *line = y.data() + row * width;
+        for (int col = 0; col < width; col++) {
+            line[col] = static_cast<uint8_t>((col + row + index * 3) & 0xFF);
+        }
+    }
+    int box = height / 4;
+    int boxX = (index * 7) % (width - box);
+    int boxY = (index * 5) % (height - box);
+    for (int row = boxY; row < boxY + box; row++) {
+        for (int col = boxX; col < boxX + box; col++) {
+            y[row * width + col] = static_cast<uint8_t>(255 - ((row * col + index) & 0x3F));
+        }
+    }
+    int chromaWidth = (width + 1) / 2;
+    int chromaHeight = (height + 1) / 2;
+    for (int row = 0; row < chromaHeight; row++) {
+        for (int col = 0; col < chromaWidth; col++) {
+            u[row * chromaWidth + col] = static_cast<uint8_t>(128 + ((col + index) & 0x1F));
+            v[row * chromaWidth + col] = static_cast<uint8_t>(128 - ((row + index) & 0x1F));
+        }
+    }
+}
+
+}
+
+int main(int argc, char **argv) {
+    X264EncoderConfig config;
+    config.width = argc > 1 ? atoi(argv[1]) : 1280;
+    config.height = argc > 2 ? atoi(argv[2]) : 720;
+    int frames = argc > 3 ? atoi(argv[3]) : 300;
+    config.bitrateKbps = argc > 4 ? atoi(argv[4]) : 4000;
+    config.preset = argc > 5 ? argv[5] : "superfast";
+    config.tune = argc > 6 && argv[6][0] != '-' ? argv[6] : "";
+    config.threads = argc > 7 ? atoi(argv[7]) : 0;
+    config.frameRate = 30;
+
+    if (!X264Encoder::isAvailable()) {
+        fprintf(stderr, "built without x264\n");
+        return 1;
+    }
+    X264Encoder encoder;
+    if (!encoder.open(config)) {
+        return 1;
+    }
+
+    const int width = config.width;
+    const int height = config.height;
+    const int chromaSize = ((width + 1) / 2) * ((height + 1) / 2);
+    //预先生成几帧循环使用，只测量编码的耗时
+    const int kSourceFrames = 8;
+    std::vector<std::vector<uint8_t>> ys(kSourceFrames, std::vector<uint8_t>(width * height));
+    std::vector<std::vector<uint8_t>> us(kSourceFrames, std::vector<uint8_t>(chromaSize));
+    std::vector<std::vector<uint8_t>> vs(kSourceFrames, std::vector<uint8_t>(chromaSize));
+    for (int i = 0; i < kSourceFrames; i++) {
+        fillFrame(ys[i], us[i], vs[i], width, height, i * 4);
+    }
+
+    using Clock = std::chrono::steady_clock;
+    const int64_t frameIntervalUs = 1000000 / config.frameRate;
+    int outputs = 0;
+    int keyFrames = 0;
+    int64_t bytes = 0;
+    X264EncodedFrame out;
+    auto start = Clock::now();
+    for (int i = 0; i < frames; i++) {
+        int s = i % kSourceFrames;
+        int status = encoder.encode(ys[s].data(), width, us[s].data(), (width + 1) / 2,
+                                    vs[s].data(), (width + 1) / 2, i * frameIntervalUs, &out);
+        if (status < 0) {
+            return 1;
+        }
+        if (status > 0) {
+            outputs++;
+            keyFrames += out.keyFrame ? 1 : 0;
+            bytes += out.size;
+        }
+    }
+    while (encoder.flush(&out) > 0) {
+        outputs++;
+        keyFrames += out.keyFrame ? 1 : 0;
+        bytes += out.size;
+    }
+    double seconds = std::chrono::duration<double>(Clock::now() - start).count();
+
+    printf("%dx%d preset=%s tune=%s threads=%d maxDelayed=%d\n", width, height, config.preset.c_str(),
+           config.tune.empty() ? "none" : config.tune.c_str(), encoder.threads(),
+           encoder.maxDelayedFrames());
+    printf("frames=%d outputs=%d keyFrames=%d time=%.2fs fps=%.1f bitrate=%.0fkbps\n",
+           frames, outputs, keyFrames, seconds, outputs / seconds,
+           outputs > 0 ? bytes * 8.0 / 1000 / (outputs / static_cast<double>(config.frameRate)) : 0);
+    return 0;
+}
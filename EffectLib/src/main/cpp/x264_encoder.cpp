@@ -0,0 +1,227 @@
+//
+// x264编码器的封装
+//
+
+#include "x264_encoder.h"
+
+#include <cstdio>
+
+#ifdef __ANDROID__
+#include <android/log.h>
+#define LOGI(...) __android_log_print(ANDROID_LOG_INFO, "X264Encoder", __VA_ARGS__)
+#define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, "X264Encoder", __VA_ARGS__)
+#else
+#define LOGI(...) do { fprintf(stderr, "X264Encoder: " __VA_ARGS__); fputc('\n', stderr); } while (0)
+#define LOGE(...) LOGI(__VA_ARGS__)
+#endif
+
+static const std::vector<uint8_t> kEmptyHeader;
+
+X264Encoder::~X264Encoder() {
+    close();
+}
+
+bool X264Encoder::isAvailable() {
+#ifdef HAVE_X264
+    return true;
+#else
+    return false;
+#endif
+}
+
+#ifdef HAVE_X264
+
+bool X264Encoder::open(const X264EncoderConfig &config) {
+    close();
+    if (config.width <= 0 || config.height <= 0 || config.bitrateKbps <= 0 || config.frameRate <= 0) {
+        LOGE("invalid config %dx%d %dkbps %dfps", config.width, config.height,
+             config.bitrateKbps, config.frameRate);
+        return false;
+    }
+    x264_param_t param;
+    const char *preset = config.preset.empty() ? nullptr : config.preset.c_str();
+    const char *tune = config.tune.empty() ? nullptr : config.tune.c_str();
+    if (x264_param_default_preset(&param, preset, tune) < 0) {
+        LOGE("unknown preset %s or tune %s", preset ? preset : "", tune ? tune : "");
+        return false;
+    }
+    param.i_log_level = X264_LOG_WARNING;
+    param.i_csp = X264_CSP_I420;
+    param.i_width = config.width;
+    param.i_height = config.height;
+    //默认使用frame多线程，tune为zerolatency时x264改用slice多线程，两种方式的前瞻分析都有独立的线程
+    param.i_threads = config.threads > 0 ? config.threads : X264_THREADS_AUTO;
+    param.i_lookahead_threads = X264_THREADS_AUTO;
+    param.i_fps_num = static_cast<uint32_t>(config.frameRate);
+    param.i_fps_den = 1;
+    //时间戳以微秒为单位，码率控制按实际时间戳计算，变速和丢帧都不影响码率
+    param.i_timebase_num = 1;
+    param.i_timebase_den = 1000000;
+    param.b_vfr_input = 1;
+    param.i_keyint_max = config.frameRate * config.keyFrameIntervalSec;
+    //MediaMuxer只使用显示时间戳，不输出B帧
+    param.i_bframe = 0;
+    param.rc.i_rc_method = X264_RC_ABR;
+    param.rc.i_bitrate = config.bitrateKbps;
+    param.rc.i_vbv_max_bitrate = config.bitrateKbps;
+    param.rc.i_vbv_buffer_size = config.bitrateKbps;
+    //SPS、PPS单独获取，不重复写在关键帧前面
+    param.b_repeat_headers = 0;
+    param.b_annexb = 1;
+    if (!config.profile.empty() && x264_param_apply_profile(&param, config.profile.c_str()) < 0) {
+        LOGE("unsupported profile %s", config.profile.c_str());
+        return false;
+    }
+
+    encoder_ = x264_encoder_open(&param);
+    if (encoder_ == nullptr) {
+        LOGE("x264_encoder_open failed");
+        return false;
+    }
+    x264_encoder_parameters(encoder_, &param_);
+
+    x264_nal_t *nals = nullptr;
+    int nalCount = 0;
+    if (x264_encoder_headers(encoder_, &nals, &nalCount) < 0) {
+        LOGE("x264_encoder_headers failed");
+        close();
+        return false;
+    }
+    for (int i = 0; i < nalCount; i++) {
+        const uint8_t *begin = nals[i].p_payload;
+        const uint8_t *end = begin + nals[i].i_payload;
+        if (nals[i].i_type == NAL_SPS) {
+            sps_.assign(begin, end);
+        } else if (nals[i].i_type == NAL_PPS) {
+            pps_.assign(begin, end);
+        }
+    }
+
+    x264_picture_init(&picIn_);
+    x264_picture_init(&picOut_);
+    picIn_.img.i_csp = X264_CSP_I420;
+    picIn_.img.i_plane = 3;
+    LOGI("open %dx%d %dkbps %dfps preset=%s tune=%s threads=%d sliced=%d lookahead=%d",
+         param_.i_width, param_.i_height, param_.rc.i_bitrate, config.frameRate,
+         preset ? preset : "default", tune ? tune : "none", param_.i_threads,
+         param_.b_sliced_threads, param_.rc.i_lookahead);
+    return true;
+}
+
+int X264Encoder::encode(const uint8_t *y, int strideY, const uint8_t *u, int strideU,
+                        const uint8_t *v, int strideV, int64_t ptsUs, X264EncodedFrame *out) {
+    if (encoder_ == nullptr) {
+        return -1;
+    }
+    //x264在编码前把输入拷贝到自己的帧缓存中，不会修改输入
+    picIn_.img.plane[0] = const_cast<uint8_t *>(y);
+    picIn_.img.plane[1] = const_cast<uint8_t *>(u);
+    picIn_.img.plane[2] = const_cast<uint8_t *>(v);
+    picIn_.img.i_stride[0] = strideY;
+    picIn_.img.i_stride[1] = strideU;
+    picIn_.img.i_stride[2] = strideV;
+    picIn_.i_pts = ptsUs;
+    picIn_.i_type = X264_TYPE_AUTO;
+
+    x264_nal_t *nals = nullptr;
+    int nalCount = 0;
+    int frameSize = x264_encoder_encode(encoder_, &nals, &nalCount, &picIn_, &picOut_);
+    return output(nals, nalCount, frameSize, out);
+}
+
+int X264Encoder::flush(X264EncodedFrame *out) {
+    if (encoder_ == nullptr) {
+        return 0;
+    }
+    while (x264_encoder_delayed_frames(encoder_) > 0) {
+        x264_nal_t *nals = nullptr;
+        int nalCount = 0;
+        int frameSize = x264_encoder_encode(encoder_, &nals, &nalCount, nullptr, &picOut_);
+        if (frameSize != 0) {
+            return output(nals, nalCount, frameSize, out);
+        }
+    }
+    return 0;
+}
+
+int X264Encoder::output(x264_nal_t *nals, int nalCount, int frameSize, X264EncodedFrame *out) {
+    if (frameSize < 0) {
+        LOGE("x264_encoder_encode failed: %d", frameSize);
+        return frameSize;
+    }
+    if (frameSize == 0 || nalCount <= 0) {
+        return 0;
+    }
+    //一帧的所有NAL在内存中是连续的
+    out->data = nals[0].p_payload;
+    out->size = frameSize;
+    out->ptsUs = picOut_.i_pts;
+    out->keyFrame = picOut_.b_keyframe != 0;
+    return 1;
+}
+
+int X264Encoder::delayedFrames() const {
+    return encoder_ != nullptr ? x264_encoder_delayed_frames(encoder_) : 0;
+}
+
+int X264Encoder::maxDelayedFrames() const {
+    return encoder_ != nullptr ? x264_encoder_maximum_delayed_frames(encoder_) : 0;
+}
+
+int X264Encoder::threads() const {
+    return encoder_ != nullptr ? param_.i_threads : 0;
+}
+
+void X264Encoder::close() {
+    if (encoder_ != nullptr) {
+        x264_encoder_close(encoder_);
+        encoder_ = nullptr;
+    }
+    sps_.clear();
+    pps_.clear();
+}
+
+#else
+
+bool X264Encoder::open(const X264EncoderConfig &) {
+    LOGE("built without x264");
+    return false;
+}
+
+int X264Encoder::encode(const uint8_t *, int, const uint8_t *, int, const uint8_t *, int,
+                        int64_t, X264EncodedFrame *) {
+    return -1;
+}
+
+int X264Encoder::flush(X264EncodedFrame *) {
+    return 0;
+}
+
+int X264Encoder::delayedFrames() const {
+    return 0;
+}
+
+int X264Encoder::maxDelayedFrames() const {
+    return 0;
+}
+
+int X264Encoder::threads() const {
+    return 0;
+}
+
+void X264Encoder::close() {
+    sps_.clear();
+    pps_.clear();
+}
+
+#endif
+
+const std::vector<uint8_t> &X264Encoder::header(int type) const {
+    if (type == 7) {
+        return sps_;
+    }
+    if (type == 8) {
+        return pps_;
+    }
+    return kEmptyHeader;
+}
@@ -0,0 +1,108 @@
+//
+// x264编码器的封装，不依赖JNI，Android和主机上的基准测试共用
+//
+
+#ifndef EFFECTCAMERA_X264_ENCODER_H
+#define EFFECTCAMERA_X264_ENCODER_H
+
+#include <cstdint>
+#include <string>
+#include <vector>
+
+#ifdef HAVE_X264
+extern "C" {
+#include <x264.h>
+}
+#endif
+
+struct X264EncoderConfig {
+    int width = 0;
+    int height = 0;
+    int bitrateKbps = 0;
+    int frameRate = 30;
+    //关键帧间隔（秒），与硬编码器一致
+    int keyFrameIntervalSec = 20;
+    //速度预设和调优，为空时使用x264的默认值
+    std::string preset;
+    std::string tune;
+    //baseline、main或high，为空时不限制
+    std::string profile;
+    //线程数，0表示由x264按CPU核数决定
+    int threads = 0;
+};
+
+struct X264EncodedFrame {
+    //Annex-B格式的NAL，引用编码器内部的内存，下一次调用encode或flush之前有效
+    const uint8_t *data = nullptr;
+    int size = 0;
+    int64_t ptsUs = 0;
+    bool keyFrame = false;
+};
+
+class X264Encoder {
+public:
+    X264Encoder() = default;
+
+    ~X264Encoder();
+
+    X264Encoder(const X264Encoder &) = delete;
+
+    X264Encoder &operator=(const X264Encoder &) = delete;
+
+    /**
+     * @return 是否编译了x264
+     */
+    static bool isAvailable();
+
+    bool open(const X264EncoderConfig &config);
+
+    /**
+     * 编码一帧I420，平面数据不拷贝，x264在返回前读取完毕
+     * @return 1表示out中有输出，0表示没有输出，小于0表示失败
+     */
+    int encode(const uint8_t *y, int strideY, const uint8_t *u, int strideU,
+               const uint8_t *v, int strideV, int64_t ptsUs, X264EncodedFrame *out);
+
+    /**
+     * 输出编码器中缓存的一帧
+     * @return 1表示out中有输出，0表示已经没有缓存的帧，小于0表示失败
+     */
+    int flush(X264EncodedFrame *out);
+
+    /**
+     * @return 已经送入、还没有输出的帧数
+     */
+    int delayedFrames() const;
+
+    /**
+     * @return 按当前参数最多缓存的帧数
+     */
+    int maxDelayedFrames() const;
+
+    /**
+     * @return 实际使用的线程数
+     */
+    int threads() const;
+
+    /**
+     * @param type 7为SPS，8为PPS
+     * @return 带起始码的NAL，没有时为空
+     */
+    const std::vector<uint8_t> &header(int type) const;
+
+    void close();
+
+private:
+    std::vector<uint8_t> sps_;
+    std::vector<uint8_t> pps_;
+#ifdef HAVE_X264
+    x264_t *encoder_ = nullptr;
+    x264_param_t param_;
+    x264_picture_t picIn_;
+    x264_picture_t picOut_;
+
+    int output(x264_nal_t *nals, int nalCount, int frameSize, X264EncodedFrame *out);
+#endif
+};
+
+#endif //EFFECTCAMERA_X264_ENCODER_H
@@ -3,10 +3,149 @@
 //
 #include <jni.h>
 #include <string>
+
+#include "x264_encoder.h"
+
+namespace {
+
+//与X264VideoEncoder中的下标一致
+const int INFO_PTS_US = 0;
+const int INFO_KEY_FRAME = 1;
+const int INFO_STATUS = 2;
+
+//句柄为0（打开失败或者已经释放）时返回nullptr，调用者需要检查
+X264Encoder *fromHandle(jlong handle) {
+    return reinterpret_cast<X264Encoder *>(handle);
+}
+
+std::string toString(JNIEnv *env, jstring value) {
+    if (value == nullptr) {
+        return std::string();
+    }
+    const char *chars = env->GetStringUTFChars(value, nullptr);
+    std::string result(chars != nullptr ? chars : "");
+    env->ReleaseStringUTFChars(value, chars);
+    return result;
+}
+
+/**
+ * 把输出信息写入outInfo，有输出时返回引用编码器内存的direct buffer，不拷贝
+ */
+jobject deliver(JNIEnv *env, int status, const X264EncodedFrame &frame, jlongArray outInfo) {
+    jlong info[3] = {0, 0, status < 0 ? status : 0};
+    if (status > 0) {
+        info[INFO_PTS_US] = frame.ptsUs;
+        info[INFO_KEY_FRAME] = frame.keyFrame ? 1 : 0;
+    }
+    env->SetLongArrayRegion(outInfo, 0, 3, info);
+    if (status <= 0) {
+        return nullptr;
+    }
+    return env->NewDirectByteBuffer(const_cast<uint8_t *>(frame.data), frame.size);
+}
+
+}
+
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_gpufast_recorder_video_encoder_X264VideoEncoder_nativeIsAvailable(JNIEnv *, jclass) {
+    return static_cast<jboolean>(X264Encoder::isAvailable());
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_gpufast_recorder_video_encoder_X264VideoEncoder_nativeCreate(JNIEnv *env, jclass,
+                                                                      jint width, jint height,
+                                                                      jint bitrate_kbps,
+                                                                      jint frame_rate,
+                                                                      jstring preset,
+                                                                      jstring tune,
+                                                                      jstring profile) {
+    X264EncoderConfig config;
+    config.width = width;
+    config.height = height;
+    config.bitrateKbps = bitrate_kbps;
+    config.frameRate = frame_rate;
+    config.preset = toString(env, preset);
+    config.tune = toString(env, tune);
+    config.profile = toString(env, profile);
+    auto *encoder = new X264Encoder();
+    if (!encoder->open(config)) {
+        delete encoder;
+        return 0;
+    }
+    return reinterpret_cast<jlong>(encoder);
+}
+
+extern "C"
+JNIEXPORT jbyteArray JNICALL
+Java_com_gpufast_recorder_video_encoder_X264VideoEncoder_nativeGetHeader(JNIEnv *env, jclass,
+                                                                         jlong handle, jint type) {
+    X264Encoder *encoder = fromHandle(handle);
+    if (encoder == nullptr) {
+        return env->NewByteArray(0);
+    }
+    const std::vector<uint8_t> &header = encoder->header(type);
+    jbyteArray result = env->NewByteArray(static_cast<jsize>(header.size()));
+    if (result != nullptr && !header.empty()) {
+        env->SetByteArrayRegion(result, 0, static_cast<jsize>(header.size()),
+                                reinterpret_cast<const jbyte *>(header.data()));
+    }
+    return result;
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_gpufast_recorder_video_encoder_X264VideoEncoder_nativeEncode(JNIEnv *env, jclass,
+                                                                      jlong handle,
+                                                                      jobject data_y, jint stride_y,
+                                                                      jobject data_u, jint stride_u,
+                                                                      jobject data_v, jint stride_v,
+                                                                      jlong pts_us,
+                                                                      jlongArray out_info) {
+    //direct buffer直接取地址，不拷贝
+    auto *y = static_cast<const uint8_t *>(env->GetDirectBufferAddress(data_y));
+    auto *u = static_cast<const uint8_t *>(env->GetDirectBufferAddress(data_u));
+    auto *v = static_cast<const uint8_t *>(env->GetDirectBufferAddress(data_v));
+    X264Encoder *encoder = fromHandle(handle);
+    X264EncodedFrame frame;
+    int status = -1;
+    if (encoder != nullptr && y != nullptr && u != nullptr && v != nullptr) {
+        status = encoder->encode(y, stride_y, u, stride_u, v, stride_v, pts_us, &frame);
+    }
+    return deliver(env, status, frame, out_info);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_gpufast_recorder_video_encoder_X264VideoEncoder_nativeFlush(JNIEnv *env, jclass,
+                                                                     jlong handle,
+                                                                     jlongArray out_info) {
+    X264Encoder *encoder = fromHandle(handle);
+    X264EncodedFrame frame;
+    int status = encoder != nullptr ? encoder->flush(&frame) : 0;
+    return deliver(env, status, frame, out_info);
+}
+
 extern "C"
 JNIEXPORT jint JNICALL
-Java_com_gpufast_recorder_video_encoder_X264VideoEncoder_nativeInit(JNIEnv *env, jobject thiz,
-                                                                    jobject settings,
-                                                                    jobject encode_callback) {
-    // TODO: implement nativeInit()
+Java_com_gpufast_recorder_video_encoder_X264VideoEncoder_nativeDelayedFrames(JNIEnv *, jclass,
+                                                                             jlong handle) {
+    X264Encoder *encoder = fromHandle(handle);
+    return encoder != nullptr ? encoder->delayedFrames() : 0;
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_gpufast_recorder_video_encoder_X264VideoEncoder_nativeMaxDelayedFrames(JNIEnv *, jclass,
+                                                                                jlong handle) {
+    X264Encoder *encoder = fromHandle(handle);
+    return encoder != nullptr ? encoder->maxDelayedFrames() : 0;
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_gpufast_recorder_video_encoder_X264VideoEncoder_nativeRelease(JNIEnv *, jclass,
+                                                                       jlong handle) {
+    delete fromHandle(handle);
 }
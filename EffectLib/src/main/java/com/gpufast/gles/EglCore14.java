@@ -226,12 +226,15 @@ public class EglCore14 implements EglCore {
         if (sharedContext != null && sharedContext == EGL14.EGL_NO_CONTEXT) {
             throw new RuntimeException("Invalid sharedContext");
         }
-        int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
         EGLContext rootContext =
             sharedContext == null ? EGL14.EGL_NO_CONTEXT : sharedContext;
-        final EGLContext eglContext;
-        synchronized (EglCore.lock) {
-            eglContext = EGL14.eglCreateContext(eglDisplay, eglConfig, rootContext, contextAttributes, 0);
+        //优先创建ES3上下文，同步对象和PBO需要ES3；不支持时回退到ES2
+        EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+        for (int version = 3; version >= 2 && eglContext == EGL14.EGL_NO_CONTEXT; version--) {
+            int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, version, EGL14.EGL_NONE};
+            synchronized (EglCore.lock) {
+                eglContext = EGL14.eglCreateContext(eglDisplay, eglConfig, rootContext, contextAttributes, 0);
+            }
         }
         if (eglContext == EGL14.EGL_NO_CONTEXT) {
             throw new RuntimeException(
@@ -16,6 +16,8 @@
 
 package com.gpufast.gles;
 
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
 import android.opengl.GLES20;
 import android.opengl.GLES30;
 import android.opengl.Matrix;
@@ -194,6 +196,27 @@ public class GLESUtil {
 
 
 
+    /**
+     * 当前线程EGL上下文创建时请求的客户端版本
+     * <p>
+     * 不能用GL_VERSION判断：很多设备对ES2上下文也返回"OpenGL ES 3.x"，但ES3的函数在ES2上下文中不可用。
+     * 需要在每个上下文中分别查询，不同线程的上下文版本可能不同
+     *
+     * @return 2或3，没有当前上下文时返回0
+     */
+    public static int getCurrentClientVersion() {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        if (context == null || context.equals(EGL14.EGL_NO_CONTEXT)) {
+            return 0;
+        }
+        int[] version = new int[1];
+        if (!EGL14.eglQueryContext(EGL14.eglGetCurrentDisplay(), context,
+                EGL14.EGL_CONTEXT_CLIENT_VERSION, version, 0)) {
+            return 0;
+        }
+        return version[0];
+    }
+
     /**
      * Generate texture with standard parameters.
      */
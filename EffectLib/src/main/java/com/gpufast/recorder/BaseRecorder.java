@@ -5,10 +5,13 @@ import android.opengl.EGLContext;
 import com.gpufast.logger.ELog;
 import com.gpufast.recorder.audio.AudioClient;
 import com.gpufast.recorder.audio.AudioProcessor;
+import com.gpufast.recorder.audio.AudioProcessorChain;
 import com.gpufast.recorder.audio.AudioSetting;
 import com.gpufast.recorder.audio.encoder.AudioCodecInfo;
 import com.gpufast.recorder.audio.encoder.AudioEncoder;
 import com.gpufast.recorder.audio.encoder.AudioEncoderFactory;
+import com.gpufast.recorder.audio.music.BackgroundMusicMixer;
+import com.gpufast.recorder.audio.music.PcmFileSource;
 import com.gpufast.recorder.muxer.IMediaMuxer;
 import com.gpufast.recorder.video.EncoderType;
 import com.gpufast.recorder.video.VideoClient;
@@ -16,6 +19,11 @@ import com.gpufast.recorder.video.VideoEncoder;
 import com.gpufast.recorder.video.VideoEncoderFactory;
 import com.gpufast.recorder.video.encoder.VideoCodecInfo;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 public abstract class BaseRecorder implements IRecorder {
     private static final String TAG = "BaseRecorder";
 
@@ -28,6 +36,9 @@ public abstract class BaseRecorder implements IRecorder {
 
     private VideoEncoder.Settings videoSettings;
 
+    //同时录制的其他分辨率，与RecordParams.getVideoLayers()一一对应
+    private final List<VideoEncoder.Settings> videoLayerSettings = new ArrayList<>();
+
 
     private AudioSetting audioSetting;
 
@@ -35,12 +46,32 @@ public abstract class BaseRecorder implements IRecorder {
 
     private AudioCodecInfo audioCodecInfo;
 
+    //成片播放速度倍数
+    private float speed = 1f;
+
 
-    protected AudioProcessor mAudioProcessor;
+    //音频预处理链，跨多次录制保留
+    protected final AudioProcessorChain mAudioProcessorChain = new AudioProcessorChain();
+
+    private AudioProcessor mAudioProcessor;
 
     @Override
-    public void setAudioProcessor(AudioProcessor processor) {
+    public synchronized void setAudioProcessor(AudioProcessor processor) {
+        if (mAudioProcessor != null) {
+            mAudioProcessorChain.remove(mAudioProcessor);
+        }
         mAudioProcessor = processor;
+        mAudioProcessorChain.add(processor);
+    }
+
+    @Override
+    public void addAudioProcessor(AudioProcessor processor) {
+        mAudioProcessorChain.add(processor);
+    }
+
+    @Override
+    public void removeAudioProcessor(AudioProcessor processor) {
+        mAudioProcessorChain.remove(processor);
     }
 
 
@@ -50,14 +81,45 @@ public abstract class BaseRecorder implements IRecorder {
      * @param params 录音器参数
      */
     void initVideoParams(RecordParams params) {
+        speed = params.getSpeed();
         videoSettings = new VideoEncoder.Settings(params.getVideoWidth(),
-                params.getVideoHeight(), params.getVideoBitrate(), params.getVideoFrameRate());
+                params.getVideoHeight(), params.getVideoBitrate(), params.getVideoFrameRate(),
+                params.getSwEncoderPreset(), params.getSwEncoderTune());
+        videoLayerSettings.clear();
+        for (RecordParams.VideoLayer layer : params.getVideoLayers()) {
+            videoLayerSettings.add(new VideoEncoder.Settings(layer.width, layer.height,
+                    layer.bitrate, layer.frameRate, params.getSwEncoderPreset(), params.getSwEncoderTune()));
+        }
 
+        videoCodecInfo = null;
         if (params.isEnableHwEncoder()) {
-            videoEncoderFactory = EncoderFactory.getVideoEncoderFactory(EncoderType.HW_VIDEO_ENCODER);
-        } else {
-            videoEncoderFactory = EncoderFactory.getVideoEncoderFactory(EncoderType.SW_VIDEO_ENCODER);
+            selectVideoEncoder(EncoderType.HW_VIDEO_ENCODER);
+        }
+        //硬编码器不可用时，退回到软编码器；软编码器需要I420输入，不能提供时不选择
+        if (videoCodecInfo == null) {
+            if (!canProvideI420()) {
+                ELog.e(TAG, "no I420 source for software video encoder");
+                return;
+            }
+            if (params.isEnableHwEncoder()) {
+                ELog.w(TAG, "hardware video encoder unavailable, fallback to software encoder");
+            }
+            selectVideoEncoder(EncoderType.SW_VIDEO_ENCODER);
         }
+    }
+
+    /**
+     * 软编码器只接受I420，纹理的{@link com.gpufast.recorder.video.VideoFrame.Buffer#toI420()}返回null，
+     * 需要子类在渲染线程把纹理读回成I420交给{@link VideoClient}
+     *
+     * @return 是否能给软编码器提供I420帧
+     */
+    boolean canProvideI420() {
+        return false;
+    }
+
+    private void selectVideoEncoder(EncoderType type) {
+        videoEncoderFactory = EncoderFactory.getVideoEncoderFactory(type);
         if (videoEncoderFactory != null) {
             if (shareContext != null) {
                 videoEncoderFactory.setShareContext(shareContext);
@@ -80,11 +142,36 @@ public abstract class BaseRecorder implements IRecorder {
         }
     }
 
+    /**
+     * @return 是否已经设置了EGL共享上下文，硬编码器需要它才能初始化
+     */
+    boolean hasShareContext() {
+        return shareContext != null;
+    }
+
     VideoClient createVideoClient(IMediaMuxer muxer) {
+        return createVideoClient(muxer, videoSettings);
+    }
+
+    /**
+     * 创建同时录制的第layer路视频
+     *
+     * @param layer 下标，见{@link RecordParams#getVideoLayers()}
+     */
+    VideoClient createLayerVideoClient(IMediaMuxer muxer, int layer) {
+        return createVideoClient(muxer, videoLayerSettings.get(layer));
+    }
+
+    int getVideoLayerCount() {
+        return videoLayerSettings.size();
+    }
+
+    private VideoClient createVideoClient(IMediaMuxer muxer, VideoEncoder.Settings settings) {
         if (videoEncoderFactory != null && videoCodecInfo != null) {
+            //每一路使用单独的编码器，共享渲染线程的EGL上下文
             VideoEncoder videoEncoder = videoEncoderFactory.createEncoder(videoCodecInfo);
             if (videoEncoder != null) {
-                return new VideoClient(videoEncoder, videoSettings, muxer);
+                return new VideoClient(videoEncoder, settings, muxer, speed);
             }
             ELog.e(TAG, "can't create video encoder.");
         }
@@ -107,17 +194,50 @@ public abstract class BaseRecorder implements IRecorder {
         if (audioEncoderFactory != null) {
             audioCodecInfo = audioEncoderFactory.getSupportCodecInfo();
         }
+        //硬编码器不可用时，退回到软编码器
+        if (audioCodecInfo == null && params.isEnableHwEncoder()) {
+            ELog.w(TAG, "hardware audio encoder unavailable, fallback to software encoder");
+            audioEncoderFactory = EncoderFactory.getAudioEncoder(EncoderType.SW_AUDIO_ENCODER);
+            if (audioEncoderFactory != null) {
+                audioCodecInfo = audioEncoderFactory.getSupportCodecInfo();
+            }
+        }
     }
 
     AudioClient createAudioClient(IMediaMuxer muxer) {
         if (audioEncoderFactory != null && audioCodecInfo != null) {
             AudioEncoder audioEncoder = audioEncoderFactory.createEncoder(audioCodecInfo);
             if (audioEncoder != null) {
-                return new AudioClient(audioEncoder, audioSetting, muxer);
+                AudioClient client = new AudioClient(audioEncoder, audioSetting, muxer);
+                client.setSpeed(speed);
+                return client;
             }
             ELog.e(TAG, "create audio encoder");
         }
         ELog.e(TAG, "create audio client failed.");
         return null;
     }
+
+    /**
+     * 创建背景音乐混音器，只支持本地的WAV或16位裸PCM文件（按采集参数解释）
+     *
+     * @param musicUrl 音乐文件路径
+     * @return 不需要背景音乐或文件无法打开时返回null
+     */
+    BackgroundMusicMixer createMusicMixer(String musicUrl) {
+        if (musicUrl == null || musicUrl.isEmpty() || audioSetting == null) {
+            return null;
+        }
+        String path = musicUrl.startsWith("file://") ? musicUrl.substring("file://".length()) : musicUrl;
+        try {
+            PcmFileSource source = PcmFileSource.open(new File(path),
+                    audioSetting.getSampleRate(), audioSetting.getChannels());
+            ELog.i(TAG, "background music: " + source);
+            return new BackgroundMusicMixer(source, audioSetting.getSampleRate(),
+                    audioSetting.getChannels(), false);
+        } catch (IOException e) {
+            ELog.e(TAG, "can't open background music " + musicUrl + ": " + e.getMessage());
+            return null;
+        }
+    }
 }
@@ -3,6 +3,7 @@ package com.gpufast.recorder;
 import android.os.Handler;
 
 import com.gpufast.recorder.audio.AudioProcessor;
+import com.gpufast.recorder.video.VideoBackpressure;
 
 public abstract class BaseWorker implements IRecorder {
 
@@ -13,6 +14,15 @@ public abstract class BaseWorker implements IRecorder {
         public void sendVideoFrame(int textureId, int srcWidth, int srcHeight) {
         }
 
+        @Override
+        public int getVideoCredits() {
+            return 0;
+        }
+
+        @Override
+        public void setVideoBackpressureListener(VideoBackpressure.Listener listener) {
+        }
+
         @Override
         public void setRecordListener(RecordListener listener) {
 
@@ -22,6 +32,19 @@ public abstract class BaseWorker implements IRecorder {
 
         }
 
+        @Override
+        public void addAudioProcessor(AudioProcessor processor) {
+        }
+
+        @Override
+        public void removeAudioProcessor(AudioProcessor processor) {
+        }
+
+        @Override
+        public RecordStartMetrics getStartMetrics() {
+            return null;
+        }
+
     }
 
 
@@ -33,6 +56,15 @@ public abstract class BaseWorker implements IRecorder {
         public void sendVideoFrame(int textureId, int srcWidth, int srcHeight) {
         }
 
+        @Override
+        public int getVideoCredits() {
+            return 0;
+        }
+
+        @Override
+        public void setVideoBackpressureListener(VideoBackpressure.Listener listener) {
+        }
+
         @Override
         public void setRecordListener(RecordListener listener) {
         }
@@ -40,10 +72,23 @@ public abstract class BaseWorker implements IRecorder {
         public void setAudioProcessor(AudioProcessor callback) {
         }
 
+        @Override
+        public void addAudioProcessor(AudioProcessor processor) {
+        }
+
+        @Override
+        public void removeAudioProcessor(AudioProcessor processor) {
+        }
+
         @Override
         public boolean isRecording() {
             return false;
         }
+
+        @Override
+        public RecordStartMetrics getStartMetrics() {
+            return null;
+        }
     }
 
 }
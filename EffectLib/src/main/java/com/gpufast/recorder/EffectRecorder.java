@@ -4,22 +4,78 @@ import android.opengl.EGLContext;
 
 import com.gpufast.logger.ELog;
 import com.gpufast.recorder.audio.AudioClient;
+import com.gpufast.recorder.audio.music.BackgroundMusicMixer;
+import com.gpufast.recorder.muxer.DeferredMuxer;
+import com.gpufast.recorder.muxer.EncodedSampleRing;
 import com.gpufast.recorder.muxer.IMediaMuxer;
 import com.gpufast.recorder.muxer.MediaMuxerFactory;
+import com.gpufast.recorder.muxer.MuxerFanOut;
 import com.gpufast.recorder.muxer.MuxerType;
+import com.gpufast.recorder.muxer.PreRollMuxer;
+import com.gpufast.recorder.video.RgbaToI420Converter;
+import com.gpufast.recorder.video.VideoBackpressure;
 import com.gpufast.recorder.video.VideoClient;
+import com.gpufast.recorder.video.encoder.CodecRanker;
+import com.gpufast.recorder.video.texture.EncodeTextureRing;
+import com.gpufast.recorder.video.texture.GlTextureRingOps;
+import com.gpufast.recorder.video.texture.YuvReadbackRing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class EffectRecorder extends BaseRecorder {
     private static final String TAG = EffectRecorder.class.getSimpleName();
 
     private volatile boolean recordStarting = false;
     private volatile boolean recordStarted = false;
+    private volatile boolean preRolling = false;
     private VideoClient mVideoClient;
+    //同时录制的其他分辨率，各自有独立的编码线程、抽帧和背压，慢的一路不影响其他路
+    private volatile VideoClient[] mLayerClients = new VideoClient[0];
     private AudioClient mAudioClient;
+    private BackgroundMusicMixer mMusicMixer;
+    //预录制时编码器的输出先进入这里，开始录制后写入真正的复用器
+    private PreRollMuxer mPreRollMuxer;
+    //预录制缓存，跨多次录制复用，参数变化时重新分配
+    private EncodedSampleRing mPreRollRing;
+    private int mPreRollRingWindowMs;
     private RecordParams mRecordParams;
+    //视频编码的背压状态，跨多次录制保留监听和统计
+    private final VideoBackpressure mVideoBackpressure = new VideoBackpressure();
+    //渲染线程交给编码线程的纹理槽位：每一路视频一个在编码、一个在排队，另外一个正在写入
+    private static final int TEXTURE_SLOTS_PER_CLIENT = 2;
+    //所有分辨率共用的纹理环，每一帧只拷贝一次。纹理属于渲染线程的EGL上下文，上下文变化时重新创建
+    private volatile EncodeTextureRing mTextureRing;
+    //上下文变化前的纹理环，编码线程归还所有槽位后在渲染线程释放
+    private final List<EncodeTextureRing> mRetiredTextureRings = new CopyOnWriteArrayList<>();
+    //软编码器的I420读回环，两个PBO交替使用，下标和纹理环相同
+    private static final int YUV_READBACK_SLOTS = 2;
+    private volatile List<YuvReadbackRing> mYuvRings = new CopyOnWriteArrayList<>();
+    //上下文变化前的读回环，没有录制时在渲染线程释放
+    private final List<YuvReadbackRing> mRetiredYuvRings = new CopyOnWriteArrayList<>();
+    //正在停止的视频，渲染线程把读回中的帧交给它们之后才结束编码
+    private volatile VideoClient[] mStoppingClients = new VideoClient[0];
     private RecordListener mRecordListener;
+    //提前初始化的编码器，录制结束后回收重用
+    private final EncoderWarmPool mWarmPool;
+    //本次录制使用的编码，停止时归还
+    private EncoderWarmPool.Entry<VideoClient> mVideoEntry;
+    private EncoderWarmPool.Entry<AudioClient> mAudioEntry;
+    private final RecordStartMetrics mStartMetrics = new RecordStartMetrics();
 
     EffectRecorder() {
+        mWarmPool = new EncoderWarmPool(new EncoderWarmPool.ClientFactory() {
+            @Override
+            public VideoClient createVideoClient(IMediaMuxer muxer) {
+                return EffectRecorder.this.createVideoClient(muxer);
+            }
+
+            @Override
+            public AudioClient createAudioClient(IMediaMuxer muxer) {
+                return EffectRecorder.this.createAudioClient(muxer);
+            }
+        });
     }
 
     @Override
@@ -32,11 +88,58 @@ public class EffectRecorder extends BaseRecorder {
             initAudioParams(params);
         }
         mRecordParams = params;
+        //参数变化后旧的预热编码不再可用，硬编码器需要共享上下文才能初始化
+        mWarmPool.setVideoEnabled(hasShareContext());
+        mWarmPool.setAudioEnabled(!params.isMuteMic());
     }
 
     @Override
     public void setShareContext(EGLContext shareContext) {
         setEGLShareContext(shareContext);
+        //旧的纹理环可能还有槽位在编码线程中，交给渲染线程在归还后释放；
+        //渲染线程的上下文已经不是创建纹理的上下文时只丢弃编号，纹理随旧的上下文销毁
+        retireTextureRing();
+        List<YuvReadbackRing> yuvRings = mYuvRings;
+        mYuvRings = new CopyOnWriteArrayList<>();
+        mRetiredYuvRings.addAll(yuvRings);
+        //预热的视频编码共享的是旧的上下文
+        mWarmPool.setVideoEnabled(mRecordParams != null && shareContext != null);
+    }
+
+    /**
+     * @param clients 共用纹理环的视频路数
+     */
+    private EncodeTextureRing obtainTextureRing(int clients) {
+        final int slots = clients * TEXTURE_SLOTS_PER_CLIENT + 1;
+        EncodeTextureRing ring = mTextureRing;
+        if (ring == null || ring.getSlotCount() != slots) {
+            retireTextureRing();
+            ring = new EncodeTextureRing(slots, new GlTextureRingOps());
+            mTextureRing = ring;
+        }
+        return ring;
+    }
+
+    private void retireTextureRing() {
+        EncodeTextureRing ring = mTextureRing;
+        mTextureRing = null;
+        if (ring != null) {
+            mRetiredTextureRings.add(ring);
+        }
+    }
+
+    private YuvReadbackRing obtainYuvRing(int index) {
+        List<YuvReadbackRing> rings = mYuvRings;
+        while (rings.size() <= index) {
+            rings.add(new YuvReadbackRing(YUV_READBACK_SLOTS, RgbaToI420Converter.ColorStandard.BT601));
+        }
+        return rings.get(index);
+    }
+
+    @Override
+    boolean canProvideI420() {
+        //每一路视频都设置了YuvReadbackRing
+        return true;
     }
 
     @Override
@@ -44,57 +147,300 @@ public class EffectRecorder extends BaseRecorder {
         return recordStarted;
     }
 
+    @Override
+    public void startPreRoll() {
+        if (recordStarting || recordStarted || preRolling) {
+            return;
+        }
+        if (mRecordParams == null || mRecordParams.getPreRollMs() <= 0) {
+            ELog.w(TAG, "pre-roll is disabled");
+            return;
+        }
+        ELog.i(TAG, "startPreRoll " + mRecordParams.getPreRollMs() + "ms");
+        //编码器的基准测试让给录制
+        CodecRanker.getInstance().setBusy(true);
+        mPreRollMuxer = new PreRollMuxer(obtainPreRollRing(), mRecordParams.getPreRollMs(),
+                true, !mRecordParams.isMuteMic());
+        //背景音乐从按下录制时开始，预录制阶段只设置不启动
+        startClients(mPreRollMuxer, false, false);
+        if (mVideoClient == null) {
+            ELog.e(TAG, "pre-roll needs a video encoder");
+            stopClients();
+            mPreRollMuxer = null;
+            CodecRanker.getInstance().setBusy(false);
+            return;
+        }
+        preRolling = true;
+    }
+
+    private EncodedSampleRing obtainPreRollRing() {
+        int maxBytes = mRecordParams.getPreRollMaxBytes();
+        int windowMs = mRecordParams.getPreRollMs();
+        if (mPreRollRing == null || mPreRollRing.getCapacityBytes() != maxBytes
+                || mPreRollRingWindowMs < windowMs) {
+            mPreRollRing = new EncodedSampleRing(maxBytes, windowMs);
+            mPreRollRingWindowMs = windowMs;
+        }
+        return mPreRollRing;
+    }
+
     @Override
     public void startRecorder() {
         if (recordStarting || recordStarted) {
+            mStartMetrics.markRejected();
             return;
         }
         ELog.i(TAG, "startRecorder");
         recordStarting = true;
+        CodecRanker.getInstance().setBusy(true);
+        mStartMetrics.markStarting();
         IMediaMuxer mediaMuxer = MediaMuxerFactory.createMediaMuxer(mRecordParams, MuxerType.MP4);
-        mVideoClient = createVideoClient(mediaMuxer);
+        if (preRolling) {
+            if (mMusicMixer != null) {
+                mMusicMixer.start();
+            }
+            //把缓存的内容写入文件，之后的输出直接写入
+            mPreRollMuxer.attach(mediaMuxer);
+            preRolling = false;
+            markClientsReady(true);
+            //缓存的第一帧已经写入
+            mStartMetrics.markFirstVideoFrame();
+        } else {
+            startClients(mediaMuxer, true, true);
+            markClientsReady(false);
+            if (mVideoClient == null) {
+                //没有视频不会有第一帧
+                mStartMetrics.markAbandoned();
+            }
+        }
+        ELog.i(TAG, "record start: " + mStartMetrics);
+        if (mRecordListener != null) {
+            mRecordListener.onRecordStart();
+        }
+        recordStarted = true;
+    }
+
+    /**
+     * @param startLayers 是否同时录制其他分辨率，预录制时只录制主视频
+     */
+    private void startClients(IMediaMuxer mediaMuxer, boolean startMusic, boolean startLayers) {
+        mVideoEntry = mWarmPool.obtainVideo();
+        mVideoClient = mVideoEntry != null ? mVideoEntry.client : null;
         if (mVideoClient != null) {
+            //预录制的第一帧不计入开始录制的耗时
+            mVideoEntry.muxer.attach(mediaMuxer, startLayers ? mFirstFrameListener : null);
+            mVideoClient.setBackpressure(mVideoBackpressure);
+            //其他分辨率和主视频共用纹理环
+            mVideoClient.setTextureRing(obtainTextureRing(startLayers ? getVideoLayerCount() + 1 : 1));
+            mVideoClient.setYuvReadbackRing(obtainYuvRing(0));
             mVideoClient.start();
         }
-        mAudioClient = createAudioClient(mediaMuxer);
+        IMediaMuxer audioMuxer = mediaMuxer;
+        if (startLayers && mVideoClient != null && getVideoLayerCount() > 0) {
+            audioMuxer = startLayerClients(mediaMuxer);
+        }
+        mAudioEntry = mWarmPool.obtainAudio();
+        mAudioClient = mAudioEntry != null ? mAudioEntry.client : null;
         if (mAudioClient != null) {
-            if (mAudioProcessor != null) {
-                mAudioClient.setAudioPreprocessor(mAudioProcessor);
+            mAudioEntry.muxer.attach(audioMuxer, null);
+            mMusicMixer = createMusicMixer(mRecordParams.getBackgroundMusicUrl());
+            if (mMusicMixer != null) {
+                //音乐在变速之后混入，保持原速
+                mAudioClient.setOutputProcessor(mMusicMixer);
+                if (startMusic) {
+                    mMusicMixer.start();
+                }
             }
+            mAudioClient.setAudioProcessorChain(mAudioProcessorChain);
             mAudioClient.start();
         }
-        if (mRecordListener != null) {
-            mRecordListener.onRecordStart();
+    }
+
+
+    /**
+     * 为每一路其他分辨率创建复用器和编码，音频通过{@link MuxerFanOut}写入所有复用器
+     *
+     * @return 音频使用的复用器
+     */
+    private IMediaMuxer startLayerClients(IMediaMuxer mediaMuxer) {
+        List<RecordParams.VideoLayer> layers = mRecordParams.getVideoLayers();
+        List<IMediaMuxer> muxers = new ArrayList<>();
+        List<VideoClient> clients = new ArrayList<>();
+        muxers.add(mediaMuxer);
+        for (int i = 0; i < layers.size(); i++) {
+            RecordParams.VideoLayer layer = layers.get(i);
+            IMediaMuxer layerMuxer = MediaMuxerFactory.createMediaMuxer(mRecordParams, layer, MuxerType.MP4);
+            VideoClient client = layerMuxer == null ? null : createLayerVideoClient(layerMuxer, i);
+            if (client == null) {
+                ELog.e(TAG, "can't start video layer " + layer);
+                continue;
+            }
+            client.setOutputSize(layer.width, layer.height);
+            client.setTextureRing(mTextureRing);
+            client.setYuvReadbackRing(obtainYuvRing(i + 1));
+            client.start();
+            ELog.i(TAG, "video layer started: " + layer);
+            clients.add(client);
+            muxers.add(layerMuxer);
         }
-        recordStarted = true;
+        mLayerClients = clients.toArray(new VideoClient[0]);
+        return muxers.size() > 1 ? new MuxerFanOut(muxers) : mediaMuxer;
     }
 
 
     @Override
     public void sendVideoFrame(int textureId, int srcWidth, int srcHeight) {
-        if (mVideoClient != null && recordStarted) {
+        releaseRetiredRings();
+        if (mVideoClient != null && (recordStarted || preRolling)) {
+            EncodeTextureRing textureRing = mTextureRing;
+            if (textureRing != null) {
+                textureRing.nextFrame();
+            }
             mVideoClient.sendVideoFrame(textureId, srcWidth, srcHeight);
+            //每一路各自抽帧和判断额度
+            for (VideoClient layer : mLayerClients) {
+                layer.sendVideoFrame(textureId, srcWidth, srcHeight);
+            }
+            return;
+        }
+        //停止录制时先把读回中的帧交给编码线程
+        VideoClient[] stopping = mStoppingClients;
+        for (VideoClient client : stopping) {
+            client.drainReadback();
+        }
+        //没有录制时在渲染线程释放纹理，编码线程归还所有槽位之前不会释放
+        EncodeTextureRing textureRing = mTextureRing;
+        if (textureRing != null && textureRing.isAllocated() && textureRing.release()) {
+            ELog.i(TAG, "texture ring released: " + textureRing);
+        }
+        if (stopping.length > 0) {
+            //交出之前不能丢弃读回中的帧
+            return;
+        }
+        for (YuvReadbackRing ring : mYuvRings) {
+            if (ring.isInitialized()) {
+                ring.release();
+                ELog.i(TAG, "yuv readback ring released: " + ring);
+            }
+        }
+        //渲染线程的上下文已经不是创建时的上下文时只丢弃编号
+        for (YuvReadbackRing ring : mRetiredYuvRings) {
+            ring.release();
+            mRetiredYuvRings.remove(ring);
+            ELog.i(TAG, "retired yuv readback ring released: " + ring);
+        }
+    }
+
+
+    /**
+     * 渲染线程调用
+     */
+    private void releaseRetiredRings() {
+        if (mRetiredTextureRings.isEmpty()) {
+            return;
+        }
+        for (EncodeTextureRing ring : mRetiredTextureRings) {
+            if (ring.release()) {
+                mRetiredTextureRings.remove(ring);
+                ELog.i(TAG, "retired texture ring released: " + ring);
+            }
+        }
+    }
+
+    private final DeferredMuxer.FirstFrameListener mFirstFrameListener = new DeferredMuxer.FirstFrameListener() {
+        @Override
+        public void onFirstVideoFrame() {
+            mStartMetrics.markFirstVideoFrame();
+        }
+    };
+
+    private void markClientsReady(boolean fromPreRoll) {
+        mStartMetrics.markClientsReady(mVideoEntry != null && mVideoEntry.warm,
+                mAudioEntry != null && mAudioEntry.warm, fromPreRoll);
+    }
+
+    @Override
+    public RecordStartMetrics getStartMetrics() {
+        return mStartMetrics;
+    }
+
+
+    @Override
+    public int getVideoCredits() {
+        //任意一路还有额度，这一帧就需要渲染
+        int credits = mVideoBackpressure.getCredits();
+        for (VideoClient layer : mLayerClients) {
+            credits = Math.max(credits, layer.getBackpressure().getCredits());
         }
+        return credits;
+    }
+
+    @Override
+    public void setVideoBackpressureListener(VideoBackpressure.Listener listener) {
+        mVideoBackpressure.setListener(listener);
     }
 
 
     @Override
     public void stopRecorder() {
         ELog.i(TAG, "do stop recorder");
+        //先于recordStarted设置，渲染线程在交出读回中的帧之前不会释放读回环
+        mStoppingClients = getVideoClients();
         recordStarted = false;
-        if (mVideoClient != null) {
-            mVideoClient.stop();
-        }
-        if (mAudioClient != null) {
-            mAudioClient.stop();
+        preRolling = false;
+        //第一帧之前停止时结束计时
+        mStartMetrics.markAbandoned();
+        stopClients();
+        mStoppingClients = new VideoClient[0];
+        if (mPreRollMuxer != null) {
+            if (!mPreRollMuxer.isAttached()) {
+                mPreRollMuxer.discard();
+            }
+            ELog.i(TAG, "pre-roll: " + mPreRollMuxer);
+            mPreRollMuxer = null;
         }
         recordStarting = false;
+        CodecRanker.getInstance().setBusy(false);
         ELog.i(TAG, "stop recorder finish");
         if (mRecordListener != null) {
             mRecordListener.onRecordStop();
         }
     }
 
+    private VideoClient[] getVideoClients() {
+        List<VideoClient> clients = new ArrayList<>();
+        if (mVideoClient != null) {
+            clients.add(mVideoClient);
+        }
+        for (VideoClient layer : mLayerClients) {
+            clients.add(layer);
+        }
+        return clients.toArray(new VideoClient[0]);
+    }
+
+    private void stopClients() {
+        if (mVideoEntry != null) {
+            //等待剩余的帧编码完成后回收，编码器保留给下一次录制
+            mWarmPool.recycleVideo(mVideoEntry);
+            mVideoEntry = null;
+        }
+        VideoClient[] layers = mLayerClients;
+        mLayerClients = new VideoClient[0];
+        for (VideoClient layer : layers) {
+            layer.stop();
+        }
+        if (mAudioEntry != null) {
+            mWarmPool.recycleAudio(mAudioEntry);
+            mAudioEntry = null;
+        }
+        if (mMusicMixer != null) {
+            //采集和编码已经停止，可以安全地释放混音器
+            mMusicMixer.release();
+            ELog.i(TAG, "background music: " + mMusicMixer);
+            mMusicMixer = null;
+        }
+    }
+
 
     @Override
     public void jointVideo() {
@@ -110,7 +456,10 @@ public class EffectRecorder extends BaseRecorder {
 
     @Override
     public void release() {
-
+        //之后归还的编码直接停止，不再预热
+        mWarmPool.clear();
+        stopRecorder();
+        mPreRollRing = null;
     }
 
 
@@ -2,9 +2,11 @@ package com.gpufast.recorder;
 
 import com.gpufast.recorder.audio.encoder.AudioEncoderFactory;
 import com.gpufast.recorder.audio.encoder.HwAudioEncoderFactory;
+import com.gpufast.recorder.audio.encoder.SwAudioEncoderFactory;
 import com.gpufast.recorder.video.EncoderType;
 import com.gpufast.recorder.video.VideoEncoderFactory;
 import com.gpufast.recorder.video.encoder.HwVideoEncoderFactory;
+import com.gpufast.recorder.video.encoder.SwVideoEncoderFactory;
 
 /**
  * @author Sivin 2019/3/27
@@ -17,8 +19,7 @@ class EncoderFactory {
             case HW_VIDEO_ENCODER:
                 return new HwVideoEncoderFactory();
             case SW_VIDEO_ENCODER:
-                //TODO:编写视频软编码实现
-                return null;
+                return new SwVideoEncoderFactory();
         }
         return null;
     }
@@ -29,8 +30,7 @@ class EncoderFactory {
             case HW_AUDIO_ENCODER:
                 return new HwAudioEncoderFactory();
             case SW_AUDIO_ENCODER:
-                //TODO:编写音频软编码实现
-                return null;
+                return new SwAudioEncoderFactory();
         }
         return null;
     }
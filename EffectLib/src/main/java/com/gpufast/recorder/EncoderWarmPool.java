@@ -0,0 +1,193 @@
+package com.gpufast.recorder;
+
+import com.gpufast.logger.ELog;
+import com.gpufast.recorder.audio.AudioClient;
+import com.gpufast.recorder.muxer.DeferredMuxer;
+import com.gpufast.recorder.muxer.IMediaMuxer;
+import com.gpufast.recorder.video.VideoClient;
+
+/**
+ * 预热的编码器
+ * <p>
+ * 设置录制参数之后提前创建并初始化一路视频和一路音频编码，开始录制时直接取用，按下录制不再等待编解码器、
+ * EGL上下文和输入Surface的创建。编码的输出先交给{@link DeferredMuxer}，开始录制时再指定真正的复用器。
+ * <p>
+ * 视频录制结束后回收：编码线程、编解码器和EGL上下文保留，只重新配置编解码器；
+ * 音频编码线程在停止时退出，只能重新创建一个预热。参数或共享上下文变化之后，旧的编码不再放回。
+ * 只在录制的工作线程中访问
+ */
+class EncoderWarmPool {
+    private static final String TAG = EncoderWarmPool.class.getSimpleName();
+
+    interface ClientFactory {
+        /**
+         * @return 创建失败时返回null
+         */
+        VideoClient createVideoClient(IMediaMuxer muxer);
+
+        /**
+         * @return 创建失败时返回null
+         */
+        AudioClient createAudioClient(IMediaMuxer muxer);
+    }
+
+    /**
+     * 一路编码和它的复用器
+     */
+    static final class Entry<T> {
+        final T client;
+        final DeferredMuxer muxer;
+        //是否是预热好的
+        final boolean warm;
+        //创建时的参数版本
+        final int generation;
+
+        Entry(T client, DeferredMuxer muxer, boolean warm, int generation) {
+            this.client = client;
+            this.muxer = muxer;
+            this.warm = warm;
+            this.generation = generation;
+        }
+    }
+
+    private final ClientFactory mFactory;
+
+    private Entry<VideoClient> mVideo;
+    private Entry<AudioClient> mAudio;
+    private boolean mVideoEnabled;
+    private boolean mAudioEnabled;
+    private int mVideoGeneration;
+    private int mAudioGeneration;
+
+    private int mVideoReused;
+    private int mVideoCreated;
+
+    EncoderWarmPool(ClientFactory factory) {
+        mFactory = factory;
+    }
+
+    /**
+     * 视频参数或共享上下文变化时调用，丢弃旧的预热编码，enabled为true时重新预热
+     */
+    void setVideoEnabled(boolean enabled) {
+        mVideoGeneration++;
+        mVideoEnabled = enabled;
+        if (mVideo != null) {
+            mVideo.client.stop();
+            mVideo = null;
+        }
+        warmVideo();
+    }
+
+    /**
+     * 音频参数变化时调用，丢弃旧的预热编码，enabled为true时重新预热
+     */
+    void setAudioEnabled(boolean enabled) {
+        mAudioGeneration++;
+        mAudioEnabled = enabled;
+        if (mAudio != null) {
+            mAudio.client.stop();
+            mAudio = null;
+        }
+        warmAudio();
+    }
+
+    /**
+     * 释放所有预热的编码，之后归还的编码直接停止
+     */
+    void clear() {
+        setVideoEnabled(false);
+        setAudioEnabled(false);
+    }
+
+    /**
+     * @return 预热的视频编码，没有时新建一个，创建失败返回null
+     */
+    Entry<VideoClient> obtainVideo() {
+        Entry<VideoClient> entry = mVideo;
+        if (entry != null) {
+            mVideo = null;
+            return entry;
+        }
+        DeferredMuxer muxer = new DeferredMuxer();
+        VideoClient client = mFactory.createVideoClient(muxer);
+        if (client == null) {
+            return null;
+        }
+        mVideoCreated++;
+        return new Entry<>(client, muxer, false, mVideoGeneration);
+    }
+
+    /**
+     * @return 预热的音频编码，没有时新建一个，创建失败返回null
+     */
+    Entry<AudioClient> obtainAudio() {
+        Entry<AudioClient> entry = mAudio;
+        if (entry != null) {
+            mAudio = null;
+            return entry;
+        }
+        DeferredMuxer muxer = new DeferredMuxer();
+        AudioClient client = mFactory.createAudioClient(muxer);
+        return client == null ? null : new Entry<>(client, muxer, false, mAudioGeneration);
+    }
+
+    /**
+     * 结束一次录制的视频编码，等待已经送出的帧编码完成。参数没有变化时回收后重新预热，否则停止
+     */
+    void recycleVideo(Entry<VideoClient> entry) {
+        if (!mVideoEnabled || mVideo != null || entry.generation != mVideoGeneration) {
+            entry.client.stop();
+            entry.muxer.detach();
+            return;
+        }
+        boolean kept = entry.client.recycle();
+        entry.muxer.detach();
+        if (kept) {
+            mVideoReused++;
+        }
+        //没有保留资源时编码线程还在，预热会重新创建编解码器
+        entry.client.prepare();
+        mVideo = new Entry<>(entry.client, entry.muxer, true, entry.generation);
+        ELog.i(TAG, "video encoder back to pool, kept=" + kept + ", reused=" + mVideoReused
+                + ", created=" + mVideoCreated);
+    }
+
+    /**
+     * 结束一次录制的音频编码，之后重新预热一个
+     */
+    void recycleAudio(Entry<AudioClient> entry) {
+        entry.client.stop();
+        entry.muxer.detach();
+        warmAudio();
+    }
+
+    private void warmVideo() {
+        if (!mVideoEnabled || mVideo != null) {
+            return;
+        }
+        DeferredMuxer muxer = new DeferredMuxer();
+        VideoClient client = mFactory.createVideoClient(muxer);
+        if (client == null) {
+            ELog.w(TAG, "can't warm up video encoder");
+            return;
+        }
+        mVideoCreated++;
+        client.prepare();
+        mVideo = new Entry<>(client, muxer, true, mVideoGeneration);
+    }
+
+    private void warmAudio() {
+        if (!mAudioEnabled || mAudio != null) {
+            return;
+        }
+        DeferredMuxer muxer = new DeferredMuxer();
+        AudioClient client = mFactory.createAudioClient(muxer);
+        if (client == null) {
+            ELog.w(TAG, "can't warm up audio encoder");
+            return;
+        }
+        client.prepare();
+        mAudio = new Entry<>(client, muxer, true, mAudioGeneration);
+    }
+}
@@ -3,6 +3,7 @@ package com.gpufast.recorder;
 import android.opengl.EGLContext;
 
 import com.gpufast.recorder.audio.AudioProcessor;
+import com.gpufast.recorder.video.VideoBackpressure;
 
 public interface IRecorder {
 
@@ -30,6 +31,26 @@ public interface IRecorder {
      */
     void sendVideoFrame(int textureId, int srcWidth, int srcHeight);
 
+    /**
+     * 视频编码剩余的额度，小于等于0时{@link #sendVideoFrame(int, int, int)}送来的帧会被丢弃，
+     * 前端可以跳过只为编码准备的渲染
+     *
+     * @return 剩余额度
+     */
+    int getVideoCredits();
+
+    /**
+     * 设置视频编码拥塞等级的监听，在渲染线程或编码线程中回调
+     * @param listener listener
+     */
+    void setVideoBackpressureListener(VideoBackpressure.Listener listener);
+
+
+    /**
+     * 开始预录制：编码器提前启动，只在内存中保留最近{@link RecordParams#getPreRollMs()}的内容，
+     * 调用{@link #startRecorder()}时写入文件；调用{@link #stopRecorder()}丢弃缓存
+     */
+    void startPreRoll();
 
     /**
      * 开始录制
@@ -49,6 +70,13 @@ public interface IRecorder {
      */
     boolean isRecording();
 
+    /**
+     * 开始录制的耗时统计：从调用{@link #startRecorder()}到编码器启动、第一帧写入复用器
+     *
+     * @return 统计，不支持时返回null
+     */
+    RecordStartMetrics getStartMetrics();
+
     /**
      * 拼接视频
      */
@@ -61,11 +89,23 @@ public interface IRecorder {
     void setRecordListener(RecordListener listener);
 
     /**
-     * 设置音频预处理
+     * 设置音频预处理，替换之前设置的处理器
      * @param processor processor
      */
     void setAudioProcessor(AudioProcessor processor);
 
+    /**
+     * 在音频预处理链尾添加处理器，可在录制过程中调用
+     * @param processor processor
+     */
+    void addAudioProcessor(AudioProcessor processor);
+
+    /**
+     * 从音频预处理链中移除处理器，可在录制过程中调用
+     * @param processor processor
+     */
+    void removeAudioProcessor(AudioProcessor processor);
+
     void release();
 
     interface RecordListener {
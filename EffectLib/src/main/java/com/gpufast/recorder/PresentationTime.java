@@ -1,12 +1,32 @@
 package com.gpufast.recorder;
 
+/**
+ * 视频帧时间戳
+ * <p>
+ * 按实际经过的时间除以播放速度计算，变速录制时与音频的变速保持同步
+ */
 public class PresentationTime {
     public long presentationTimeNs;
     private long timestamp;
+    private final int fps;
+    private final float speed;
 
     public PresentationTime(int fps) {
+        this(fps, 1f);
+    }
+
+    /**
+     * @param fps   帧率
+     * @param speed 播放速度倍数，见{@link RecordParams.SpeedType}
+     */
+    public PresentationTime(int fps, float speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed=" + speed);
+        }
         this.presentationTimeNs = 0L;
         this.timestamp = 0L;
+        this.fps = fps;
+        this.speed = speed;
     }
 
     public void start() {
@@ -14,6 +34,22 @@ public class PresentationTime {
     }
 
     public void record() {
-        presentationTimeNs = (System.nanoTime() - timestamp);
+        long elapsedNs = System.nanoTime() - timestamp;
+        presentationTimeNs = speed == 1f ? elapsedNs : (long) (elapsedNs / (double) speed);
+    }
+
+    public int getFps() {
+        return fps;
+    }
+
+    /**
+     * @return 帧率对应的帧间隔，帧率无效时返回0
+     */
+    public long getFrameIntervalNs() {
+        return fps > 0 ? 1000000000L / fps : 0;
+    }
+
+    public float getSpeed() {
+        return speed;
     }
 }
@@ -5,6 +5,10 @@ import android.media.AudioFormat;
 
 import com.gpufast.logger.ELog;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class RecordParams {
 
     private static final String TAG = "RecordParams";
@@ -21,9 +25,24 @@ public class RecordParams {
     private final static int DEFAULT_AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
     //默认麦克风声音输入声音通道个数
     private final static int DEFAULT_AUDIO_CHANNELS = 1;
+    //预录制缓存的默认内存上限
+    private final static int DEFAULT_PRE_ROLL_MAX_BYTES = 16 * 1024 * 1024;
 
+    /**
+     * 录制速度，成片的播放速度相对于实际拍摄速度的倍数，例如fast的成片时长是拍摄时长的一半
+     */
     public enum SpeedType {
-        hyperslow, slow, standard, fast, veryFast
+        hyperslow(1f / 3), slow(0.5f), standard(1f), fast(2f), veryFast(3f);
+
+        private final float speed;
+
+        SpeedType(float speed) {
+            this.speed = speed;
+        }
+
+        public float getSpeed() {
+            return speed;
+        }
     }
 
     /**
@@ -56,7 +75,7 @@ public class RecordParams {
     private SpeedType speedType;
 
     /**
-     * 背景音乐路径
+     * 背景音乐路径，支持本地WAV或16位裸PCM文件，需要开启麦克风录制
      */
     private String backgroundMusicUrl;
 
@@ -65,6 +84,56 @@ public class RecordParams {
      */
     private boolean enableHwEncoder;
 
+    /**
+     * 预录制时长（毫秒），大于0时开始录制后会包含按下录制之前的这段内容，见{@link IRecorder#startPreRoll()}
+     */
+    private int preRollMs;
+
+    /**
+     * 预录制缓存的内存上限
+     */
+    private int preRollMaxBytes;
+
+    /**
+     * 同时录制的其他分辨率，每一路写入单独的文件
+     */
+    private List<VideoLayer> videoLayers;
+
+    /**
+     * 视频软编码器的速度预设和调优，见{@link com.gpufast.recorder.video.VideoEncoder.Settings#preset}
+     */
+    private String swEncoderPreset;
+    private String swEncoderTune;
+
+    /**
+     * 额外的一路视频，和主视频使用同一帧渲染结果、同一路音频，单独编码并写入自己的文件
+     */
+    public static class VideoLayer {
+        public final int width;
+        public final int height;
+        //码率(Kilobits per second）
+        public final int bitrate;
+        public final int frameRate;
+        public final String savePath;
+
+        public VideoLayer(int width, int height, int bitrate, int frameRate, String savePath) {
+            if (width <= 0 || height <= 0 || bitrate <= 0 || frameRate <= 0 || savePath == null) {
+                throw new IllegalArgumentException("width=" + width + " height=" + height
+                        + " bitrate=" + bitrate + " frameRate=" + frameRate + " savePath=" + savePath);
+            }
+            this.width = width;
+            this.height = height;
+            this.bitrate = bitrate;
+            this.frameRate = frameRate;
+            this.savePath = savePath;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@" + frameRate + " " + bitrate + "kbps " + savePath;
+        }
+    }
+
     private RecordParams(Builder builder) {
         videoWidth = builder.videoWidth;
         videoHeight = builder.videoHeight;
@@ -74,6 +143,11 @@ public class RecordParams {
         speedType = builder.speedType;
         backgroundMusicUrl = builder.backgroundMusicUrl;
         enableHwEncoder = builder.enableHwEncoder;
+        preRollMs = builder.preRollMs;
+        preRollMaxBytes = builder.preRollMaxBytes;
+        videoLayers = Collections.unmodifiableList(new ArrayList<>(builder.videoLayers));
+        swEncoderPreset = builder.swEncoderPreset;
+        swEncoderTune = builder.swEncoderTune;
         ELog.i(TAG, builder.toString());
     }
 
@@ -102,6 +176,13 @@ public class RecordParams {
         return speedType;
     }
 
+    /**
+     * @return 成片播放速度倍数，未设置速度时为1
+     */
+    public float getSpeed() {
+        return speedType == null ? 1f : speedType.getSpeed();
+    }
+
     public String getBackgroundMusicUrl() {
         return backgroundMusicUrl;
     }
@@ -110,6 +191,29 @@ public class RecordParams {
         return enableHwEncoder;
     }
 
+    public int getPreRollMs() {
+        return preRollMs;
+    }
+
+    public int getPreRollMaxBytes() {
+        return preRollMaxBytes;
+    }
+
+    /**
+     * @return 主视频之外同时录制的其他分辨率，没有时为空
+     */
+    public List<VideoLayer> getVideoLayers() {
+        return videoLayers;
+    }
+
+    public String getSwEncoderPreset() {
+        return swEncoderPreset;
+    }
+
+    public String getSwEncoderTune() {
+        return swEncoderTune;
+    }
+
     public int getVideoBitrate() {
         return DEFAULT_VIDEO_BITRATE;
     }
@@ -143,6 +247,11 @@ public class RecordParams {
         private SpeedType speedType;
         private String backgroundMusicUrl;
         private boolean enableHwEncoder = true;
+        private int preRollMs;
+        private int preRollMaxBytes = DEFAULT_PRE_ROLL_MAX_BYTES;
+        private final List<VideoLayer> videoLayers = new ArrayList<>();
+        private String swEncoderPreset;
+        private String swEncoderTune;
 
         public Builder setVideoWidth(int videoWidth) {
             this.videoWidth = videoWidth;
@@ -183,6 +292,48 @@ public class RecordParams {
             return this;
         }
 
+        /**
+         * @param preRollMs 预录制时长（毫秒），0表示不预录制
+         */
+        public Builder setPreRollMs(int preRollMs) {
+            this.preRollMs = preRollMs;
+            return this;
+        }
+
+        /**
+         * @param preRollMaxBytes 预录制缓存的内存上限，码率高时实际预录时长可能小于预录制时长
+         */
+        public Builder setPreRollMaxBytes(int preRollMaxBytes) {
+            this.preRollMaxBytes = preRollMaxBytes;
+            return this;
+        }
+
+        /**
+         * 添加一路同时录制的视频，例如用于上传的低分辨率版本。预录制时只录制主视频
+         */
+        public Builder addVideoLayer(VideoLayer layer) {
+            if (layer != null) {
+                videoLayers.add(layer);
+            }
+            return this;
+        }
+
+        /**
+         * @param preset 视频软编码器（x264）的速度预设，例如superfast，为null时使用默认值
+         */
+        public Builder setSwEncoderPreset(String preset) {
+            this.swEncoderPreset = preset;
+            return this;
+        }
+
+        /**
+         * @param tune 视频软编码器（x264）的调优，例如zerolatency，可以为null
+         */
+        public Builder setSwEncoderTune(String tune) {
+            this.swEncoderTune = tune;
+            return this;
+        }
+
         public RecordParams build() {
             return new RecordParams(this);
         }
@@ -198,6 +349,11 @@ public class RecordParams {
                     ", speedType=" + speedType +
                     ", backgroundMusicUrl='" + backgroundMusicUrl + '\'' +
                     ", enableHwEncoder=" + enableHwEncoder +
+                    ", preRollMs=" + preRollMs +
+                    ", preRollMaxBytes=" + preRollMaxBytes +
+                    ", videoLayers=" + videoLayers +
+                    ", swEncoderPreset=" + swEncoderPreset +
+                    ", swEncoderTune=" + swEncoderTune +
                     '}';
         }
     }
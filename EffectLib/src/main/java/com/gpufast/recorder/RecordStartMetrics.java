@@ -0,0 +1,172 @@
+package com.gpufast.recorder;
+
+/**
+ * 开始录制的耗时统计
+ * <p>
+ * 从调用{@link IRecorder#startRecorder()}开始计时，分别记录编码器全部启动完成和第一帧视频写入复用器的时间，
+ * 并区分是否使用了预热的编码器。预录制时缓存的内容在开始录制时直接写入，两个时间基本相同
+ */
+public class RecordStartMetrics {
+
+    //调用线程发出、工作线程还没有处理的开始录制请求的时间，-1表示没有
+    private volatile long pendingRequestNs = -1;
+    //正在开始的录制的请求时间，-1表示没有等待第一帧的录制
+    private volatile long requestNs = -1;
+    private volatile boolean warmVideo;
+    private volatile boolean warmAudio;
+    private volatile boolean fromPreRoll;
+
+    private volatile long lastReadyMs = -1;
+    private volatile long lastFirstFrameMs = -1;
+    private volatile long sessions;
+    private volatile long warmSessions;
+    private volatile long totalFirstFrameMs;
+    private volatile long totalWarmFirstFrameMs;
+    private volatile long rejected;
+
+    /**
+     * 调用开始录制的线程中调用，转发到工作线程之前
+     */
+    void markRequested() {
+        pendingRequestNs = nowNs();
+    }
+
+    /**
+     * 工作线程没有处理这次请求（已经在录制或者正在开始录制），丢弃请求时间，不影响正在进行的统计
+     */
+    void markRejected() {
+        pendingRequestNs = -1;
+        rejected++;
+    }
+
+    /**
+     * 开始录制时调用，每次都重新开始计时：有{@link #markRequested()}的时间时从请求开始，否则从这里开始
+     */
+    void markStarting() {
+        long pending = pendingRequestNs;
+        pendingRequestNs = -1;
+        requestNs = pending >= 0 ? pending : nowNs();
+        lastReadyMs = -1;
+        lastFirstFrameMs = -1;
+    }
+
+    /**
+     * 本次录制不会有第一帧视频（没有视频编码或者在第一帧之前停止），结束计时
+     */
+    void markAbandoned() {
+        requestNs = -1;
+    }
+
+    /**
+     * 单元测试可以覆盖
+     */
+    long nowNs() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 编码器全部启动完成
+     *
+     * @param warmVideo   视频编码器是否是预热的
+     * @param warmAudio   音频编码器是否是预热的
+     * @param fromPreRoll 是否从预录制转为录制
+     */
+    void markClientsReady(boolean warmVideo, boolean warmAudio, boolean fromPreRoll) {
+        long request = requestNs;
+        if (request < 0) {
+            return;
+        }
+        this.warmVideo = warmVideo;
+        this.warmAudio = warmAudio;
+        this.fromPreRoll = fromPreRoll;
+        lastReadyMs = (nowNs() - request) / 1000000;
+    }
+
+    /**
+     * 第一帧视频写入复用器，在编码器输出线程中调用
+     */
+    void markFirstVideoFrame() {
+        long request = requestNs;
+        if (request < 0) {
+            return;
+        }
+        requestNs = -1;
+        long ms = (nowNs() - request) / 1000000;
+        lastFirstFrameMs = ms;
+        sessions++;
+        totalFirstFrameMs += ms;
+        if (warmVideo) {
+            warmSessions++;
+            totalWarmFirstFrameMs += ms;
+        }
+    }
+
+    /**
+     * @return 最近一次从请求开始录制到编码器全部启动的耗时，没有时返回-1
+     */
+    public long getLastReadyMs() {
+        return lastReadyMs;
+    }
+
+    /**
+     * @return 最近一次从请求开始录制到第一帧视频写入的耗时，没有时返回-1
+     */
+    public long getLastFirstFrameMs() {
+        return lastFirstFrameMs;
+    }
+
+    public boolean isLastWarmVideo() {
+        return warmVideo;
+    }
+
+    public boolean isLastWarmAudio() {
+        return warmAudio;
+    }
+
+    public long getSessions() {
+        return sessions;
+    }
+
+    public long getWarmSessions() {
+        return warmSessions;
+    }
+
+    /**
+     * @return 因为已经在录制而被忽略的开始录制请求数
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return 使用预热视频编码器时第一帧的平均耗时，没有时返回-1
+     */
+    public long getAverageWarmFirstFrameMs() {
+        long n = warmSessions;
+        return n > 0 ? totalWarmFirstFrameMs / n : -1;
+    }
+
+    /**
+     * @return 没有使用预热视频编码器时第一帧的平均耗时，没有时返回-1
+     */
+    public long getAverageColdFirstFrameMs() {
+        long n = sessions - warmSessions;
+        return n > 0 ? (totalFirstFrameMs - totalWarmFirstFrameMs) / n : -1;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordStartMetrics{" +
+                "readyMs=" + lastReadyMs +
+                ", firstFrameMs=" + lastFirstFrameMs +
+                ", warmVideo=" + warmVideo +
+                ", warmAudio=" + warmAudio +
+                ", fromPreRoll=" + fromPreRoll +
+                ", sessions=" + sessions +
+                ", warmSessions=" + warmSessions +
+                ", rejected=" + rejected +
+                ", avgWarmMs=" + getAverageWarmFirstFrameMs() +
+                ", avgColdMs=" + getAverageColdFirstFrameMs() +
+                '}';
+    }
+}
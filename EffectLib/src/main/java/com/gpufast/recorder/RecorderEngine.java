@@ -4,6 +4,10 @@ package com.gpufast.recorder;
 import android.opengl.EGLContext;
 
 import com.gpufast.recorder.audio.AudioProcessor;
+import com.gpufast.recorder.hardware.DeviceCache;
+import com.gpufast.recorder.video.VideoBackpressure;
+
+import java.io.File;
 
 public class RecorderEngine {
     private static IRecorder worker;
@@ -19,6 +23,14 @@ public class RecorderEngine {
         return worker;
     }
 
+    /**
+     * 设置设备相关缓存（编码器测试结果等）的目录，需要在设置录制参数之前调用
+     * @param cacheDir 通常为Context.getCacheDir()
+     */
+    public static void setCacheDir(File cacheDir) {
+        DeviceCache.setDirectory(cacheDir);
+    }
+
     /**
      * 设置录制参数
      * @param params 参数
@@ -40,6 +52,22 @@ public class RecorderEngine {
         create().setAudioProcessor(callback);
     }
 
+    /**
+     * 在音频预处理链尾添加处理器，录制过程中也可以调用
+     * @param processor 处理器
+     */
+    public static void addAudioProcessor(AudioProcessor processor) {
+        create().addAudioProcessor(processor);
+    }
+
+    /**
+     * 从音频预处理链中移除处理器
+     * @param processor 处理器
+     */
+    public static void removeAudioProcessor(AudioProcessor processor) {
+        create().removeAudioProcessor(processor);
+    }
+
 
     /***
      * 送入视频数据给录音器
@@ -51,6 +79,22 @@ public class RecorderEngine {
         create().sendVideoFrame(textureId,srcTexWidth,srcTexHeight);
     }
 
+    /**
+     * 视频编码剩余的额度，小于等于0时送入的帧会被丢弃，可以跳过只为编码准备的渲染
+     * @return 剩余额度
+     */
+    public static int getVideoCredits() {
+        return create().getVideoCredits();
+    }
+
+    /**
+     * 监听视频编码的拥塞等级，拥塞时可以降低特效的开销
+     * @param listener 在渲染线程或编码线程中回调
+     */
+    public static void setVideoBackpressureListener(VideoBackpressure.Listener listener) {
+        create().setVideoBackpressureListener(listener);
+    }
+
     /**
      * 是否正在录制
      * @return
@@ -59,6 +103,21 @@ public class RecorderEngine {
         return create().isRecording();
     }
 
+    /**
+     * 开始录制的耗时统计，可以用来比较编码器预热的效果
+     * @return 统计
+     */
+    public static RecordStartMetrics getStartMetrics() {
+        return create().getStartMetrics();
+    }
+
+
+    /**
+     * 开始预录制，之后调用{@link #startRecorder()}时成片包含之前的一段内容
+     */
+    public static void startPreRoll() {
+        create().startPreRoll();
+    }
 
     public static void startRecorder() {
         create().startRecorder();
@@ -7,6 +7,7 @@ import android.os.Message;
 
 import com.gpufast.logger.ELog;
 import com.gpufast.recorder.audio.AudioProcessor;
+import com.gpufast.recorder.video.VideoBackpressure;
 
 import java.lang.ref.WeakReference;
 
@@ -46,12 +47,39 @@ class Worker extends BaseWorker {
         }
     }
 
+    @Override
+    public int getVideoCredits() {
+        //背压状态本身是线程安全的，不用转发
+        return recorder != null ? recorder.getVideoCredits() : 0;
+    }
 
     @Override
-    public void startRecorder() {
+    public void setVideoBackpressureListener(VideoBackpressure.Listener listener) {
+        if (recorder != null) {
+            recorder.setVideoBackpressureListener(listener);
+        }
+    }
+
+
+    @Override
+    public void startPreRoll() {
         if (mWorkHandler != null) {
-            mWorkHandler.startRecorder();
+            mWorkHandler.startPreRoll();
+        }
+    }
+
+    @Override
+    public void startRecorder() {
+        //从调用线程开始计时，包括在工作线程中排队的时间
+        //没有转发到工作线程时不记录，否则请求时间会留到下一次开始录制
+        if (mWorkHandler == null) {
+            return;
+        }
+        RecordStartMetrics metrics = getStartMetrics();
+        if (metrics != null) {
+            metrics.markRequested();
         }
+        mWorkHandler.startRecorder();
     }
 
     @Override
@@ -66,6 +94,12 @@ class Worker extends BaseWorker {
         return recorder != null && recorder.isRecording();
     }
 
+    @Override
+    public RecordStartMetrics getStartMetrics() {
+        //统计本身是线程安全的，不用转发
+        return recorder != null ? recorder.getStartMetrics() : null;
+    }
+
     @Override
     public void jointVideo() {
         if (mWorkHandler != null) {
@@ -88,6 +122,21 @@ class Worker extends BaseWorker {
         }
     }
 
+    @Override
+    public void addAudioProcessor(AudioProcessor processor) {
+        //处理链本身是线程安全的，不用转发
+        if (recorder != null) {
+            recorder.addAudioProcessor(processor);
+        }
+    }
+
+    @Override
+    public void removeAudioProcessor(AudioProcessor processor) {
+        if (recorder != null) {
+            recorder.removeAudioProcessor(processor);
+        }
+    }
+
     @Override
     public void release() {
         if (mWorkHandler != null) {
@@ -131,6 +180,13 @@ class Worker extends BaseWorker {
             }
         }
 
+        @Override
+        public void startPreRoll() {
+            if (mRecorder != null) {
+                mRecorder.startPreRoll();
+            }
+        }
+
         @Override
         public void startRecorder() {
             if (mRecorder != null) {
@@ -164,7 +220,10 @@ class Worker extends BaseWorker {
 
         @Override
         public void release() {
-            stopRecorder();
+            //停止录制并释放预热的编码器
+            if (mRecorder != null) {
+                mRecorder.release();
+            }
             Looper.myLooper().quit();
         }
 
@@ -199,6 +258,7 @@ class Worker extends BaseWorker {
         private static final int MSG_STOP_RECORDER = 4;
         private static final int MSG_JOINT_VIDEO = 5;
         private static final int MSG_RELEASE = 6;
+        private static final int MSG_START_PRE_ROLL = 7;
 
         private WeakReference<WorkerThread> mWeakWorkThread;
 
@@ -216,6 +276,11 @@ class Worker extends BaseWorker {
             sendMessage(obtainMessage(MSG_SET_EGL_CONTEXT,shareContext));
         }
 
+        @Override
+        public void startPreRoll() {
+            sendMessage(obtainMessage(MSG_START_PRE_ROLL));
+        }
+
         @Override
         public void startRecorder() {
             sendMessage(obtainMessage(MSG_START_RECORDER));
@@ -247,6 +312,9 @@ class Worker extends BaseWorker {
                 case MSG_SET_EGL_CONTEXT:
                     workerThread.setShareContext((EGLContext) msg.obj);
                     break;
+                case MSG_START_PRE_ROLL:
+                    workerThread.startPreRoll();
+                    break;
                 case MSG_START_RECORDER:
                     workerThread.startRecorder();
                     break;
@@ -1,26 +1,37 @@
 package com.gpufast.recorder.audio;
 
-import android.os.Handler;
-import android.os.Looper;
-import android.os.Message;
+import android.media.AudioFormat;
 
 import com.gpufast.logger.ELog;
 import com.gpufast.recorder.audio.encoder.AudioEncoder;
+import com.gpufast.utils.SpscRingBuffer;
 
-import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
 
 public class AudioClient implements AudioCollector.OnAudioFrameCallback {
 
+    //编码队列容量，不小于采集缓冲池的帧数
+    private static final int FRAME_QUEUE_CAPACITY = AudioFramePool.DEFAULT_CAPACITY * 2;
+
     //音频编码线程
     private AudioEncoderThread mEncoderThread;
 
-    private EncoderHandler mEncoderHandler;
-
     //音频采集器
     private AudioCollector mAudioCollector;
 
-    //音频预处理器
-    private AudioProcessor mAudioPreprocessor;
+    private AudioSetting mSettings;
+
+    //音频预处理链
+    private AudioProcessorChain mProcessorChain;
+
+    //编码线程是否已经启动
+    private boolean mPrepared;
+
+    //被处理器丢弃的帧，只由采集线程写入
+    private volatile long mSkippedFrames;
+    private volatile long mSkippedBytes;
 
 
     public AudioClient(AudioEncoder encoder,
@@ -28,19 +39,33 @@ public class AudioClient implements AudioCollector.OnAudioFrameCallback {
                        AudioEncoder.AudioEncoderCallback callback) {
         if (encoder == null || settings == null) return;
 
+        mSettings = settings;
         mAudioCollector = new AudioCollector();
         mAudioCollector.init(settings, this);
         mEncoderThread = new AudioEncoderThread(encoder, settings, callback);
     }
 
 
+    /**
+     * 启动编码线程并在其中初始化编码器，不等待完成。在录制开始前调用可以把编码器的创建移出{@link #start()}
+     */
+    public void prepare() {
+        //停止之后不能再次启动
+        if (mEncoderThread == null || mPrepared || mEncoderThread.getState() != Thread.State.NEW) {
+            return;
+        }
+        mPrepared = true;
+        mEncoderThread.start();
+    }
+
     public void start() {
+        //变速和输出处理的缓冲区在采集开始前分配，编码线程在收到第一帧之后才会访问
+        mEncoderThread.prepareOutputStage(mAudioCollector.getFramePool().getBufferSize());
         //启动音频编码线程
-        mEncoderThread.start();
+        prepare();
         mEncoderThread.waitUntilReady();
         //启动音频采集器
         mAudioCollector.start();
-        mEncoderHandler = mEncoderThread.getHandler();
     }
 
     /**
@@ -50,10 +75,39 @@ public class AudioClient implements AudioCollector.OnAudioFrameCallback {
         if (mAudioCollector != null) {
             mAudioCollector.stop();
         }
-        if (mEncoderHandler != null && mEncoderThread.mReady) {
-            mEncoderHandler.stop();
+        if (mEncoderThread != null && mPrepared) {
+            mPrepared = false;
+            //预热的编码线程可能还在初始化
+            mEncoderThread.waitUntilReady();
+            mEncoderThread.shutdown();
             mEncoderThread.waitUntilStop();
         }
+        if (mProcessorChain != null) {
+            ELog.i("AudioClient", "audio processors: " + mProcessorChain);
+        }
+        if (mSkippedFrames > 0) {
+            ELog.i("AudioClient", "skipped " + mSkippedFrames + " silent frames, "
+                    + mSkippedBytes * 1000L / mSettings.getSampleRate() / mSettings.getChannels()
+                    / mSettings.getBytesPerSample() + "ms audio, encoder time saved about "
+                    + getEncoderTimeSavedNs() / 1000000 + "ms");
+        }
+    }
+
+    /**
+     * @return 因处理器丢弃帧（如静音跳过）而省下的编码耗时估计，按平均每字节编码耗时计算
+     */
+    public long getEncoderTimeSavedNs() {
+        if (mEncoderThread == null || mEncoderThread.mEncodedBytes == 0) {
+            return 0;
+        }
+        return (long) (mSkippedBytes * (mEncoderThread.mEncodeNs / (double) mEncoderThread.mEncodedBytes));
+    }
+
+    /**
+     * @return 被处理器丢弃、没有送给编码器的帧数
+     */
+    public long getSkippedFrames() {
+        return mSkippedFrames;
     }
 
     /**
@@ -64,39 +118,110 @@ public class AudioClient implements AudioCollector.OnAudioFrameCallback {
     }
 
     /**
-     * 设置音频预处理器
+     * 设置音频预处理链，需要在{@link #start()}之前调用；链中的处理器可以在录制过程中增删
      *
-     * @param preprocessor 处理器对象
+     * @param chain 处理链
      */
-    public void setAudioPreprocessor(AudioProcessor preprocessor) {
-        mAudioPreprocessor = preprocessor;
+    public void setAudioProcessorChain(AudioProcessorChain chain) {
+        if (chain != null && mAudioCollector != null) {
+            chain.prepare(mSettings, mAudioCollector.getFramePool().getBufferSize());
+        }
+        mProcessorChain = chain;
+    }
+
+    /**
+     * 设置成片播放速度，不为1时在编码线程中做变速不变调，需要在{@link #start()}之前调用
+     *
+     * @param speed 播放速度倍数
+     */
+    public void setSpeed(float speed) {
+        if (mEncoderThread != null) {
+            mEncoderThread.mSpeed = speed;
+        }
+    }
+
+    /**
+     * 设置在编码线程中、变速之后调用的处理器，例如背景音乐混音，需要在{@link #start()}之前调用
+     *
+     * @param processor 处理器
+     */
+    public void setOutputProcessor(AudioProcessor processor) {
+        if (mEncoderThread != null) {
+            mEncoderThread.mOutputProcessor = processor;
+        }
     }
 
     @Override
     public void onReceiveAudioFrame(AudioFrame frame) {
-        AudioFrame newFrame = null;
-        if (mAudioPreprocessor != null) {
-            newFrame = mAudioPreprocessor.onReceiveAudioFrame(frame);
-        }
-        if (newFrame != null) {
-            frame = newFrame;
+        //在池化帧上原地处理，处理器要求丢弃时不送编码器
+        if (mProcessorChain != null && !mProcessorChain.process(frame)) {
+            mSkippedFrames++;
+            mSkippedBytes += frame.len;
+            frame.release();
+            return;
         }
         if (mEncoderThread.mReady) {
-            mEncoderThread.getHandler().sendAudioFrame(frame);
+            mEncoderThread.sendAudioFrame(frame);
+        } else {
+            frame.release();
         }
     }
 
+    /**
+     * @return 采集帧缓冲池
+     */
+    public AudioFramePool getFramePool() {
+        return mAudioCollector != null ? mAudioCollector.getFramePool() : null;
+    }
+
+    /**
+     * @return 采集线程到编码线程的帧队列，可用于查看队列深度和溢出统计
+     */
+    public SpscRingBuffer<AudioFrame> getFrameQueue() {
+        return mEncoderThread != null ? mEncoderThread.getFrameQueue() : null;
+    }
+
 
     private static class AudioEncoderThread extends Thread {
         private static final String TAG = AudioEncoderThread.class.getSimpleName();
+        //队列为空时，编码线程单次挂起的最长时间
+        private static final long POLL_TIMEOUT_MS = 100;
+        //变速时输入时间戳比预期晚超过该值，认为中间有输入被丢弃
+        private static final long INPUT_GAP_US = 1000;
         private final Object mStartLock = new Object();
         private volatile boolean mReady = false;
-        private EncoderHandler mEncoderHandler;
+        private volatile boolean mRunning = true;
 
+        //采集线程 -> 编码线程 的单生产者单消费者队列
+        private final SpscRingBuffer<AudioFrame> mFrameQueue =
+                new SpscRingBuffer<>(FRAME_QUEUE_CAPACITY);
 
         private AudioEncoder mAudioEncoder;
         private AudioSetting mSettings;
 
+        //变速和输出处理，在线程启动前设置
+        private float mSpeed = 1f;
+        private AudioProcessor mOutputProcessor;
+        private WsolaTimeStretcher mStretcher;
+        private PcmBuffer mOutputPcm;
+        private short[] mInputPcm;
+        //变速器的输出
+        private short[] mStretchPcm;
+        private ShortBuffer mStretchView;
+        //变速后送给编码器的帧，只分配一次
+        private AudioFrame mOutputFrame;
+        //变速后的时间戳 = 第一帧时间戳 / speed + 输入间隙 / speed + 已输出采样数对应的时长
+        private long mFirstPtsUs = -1;
+        private long mOutputFrames;
+        //下一帧输入的预期时间戳，用于发现被丢弃的输入
+        private long mNextInputPtsUs;
+        //输入时间轴上的间隙总时长
+        private long mInputGapUs;
+
+        //编码耗时统计，只由编码线程写入
+        private volatile long mEncodeNs;
+        private volatile long mEncodedBytes;
+
         AudioEncoder.AudioEncoderCallback mCallback;
 
         AudioEncoderThread(AudioEncoder encoder, AudioSetting settings,
@@ -109,15 +234,25 @@ public class AudioClient implements AudioCollector.OnAudioFrameCallback {
 
         @Override
         public void run() {
-            Looper.prepare();
-            mEncoderHandler = new EncoderHandler(this);
             initEncoder();
             synchronized (mStartLock) {
                 mReady = true;
                 mStartLock.notify();
             }
-            Looper.loop();
+            while (mRunning) {
+                AudioFrame frame = mFrameQueue.take(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (frame != null) {
+                    encodeFrame(frame);
+                }
+            }
+            //采集器已经停止，把队列中剩余的数据编码完
+            AudioFrame frame;
+            while ((frame = mFrameQueue.poll()) != null) {
+                encodeFrame(frame);
+            }
+            flushStretcher();
             release();
+            ELog.i(TAG, "audio frame queue: " + mFrameQueue);
             synchronized (mStartLock) {
                 mReady = false;
                 mStartLock.notify();
@@ -151,65 +286,158 @@ public class AudioClient implements AudioCollector.OnAudioFrameCallback {
             }
         }
 
+        /**
+         * 采集线程调用，不会阻塞
+         */
         void sendAudioFrame(AudioFrame frame) {
-            if (mAudioEncoder != null && mReady) {
-                mAudioEncoder.encode(frame);
+            if (!mFrameQueue.offer(frame)) {
+                //编码线程处理不过来，丢弃该帧
+                frame.release();
             }
         }
 
-        EncoderHandler getHandler() {
-            return mEncoderHandler;
+        /**
+         * 启动前按帧大小分配变速和输出处理所需的缓冲区
+         */
+        void prepareOutputStage(int maxFrameBytes) {
+            boolean stretch = mSpeed != 1f;
+            if (!stretch && mOutputProcessor == null) {
+                return;
+            }
+            if (mSettings.getAudioFormat() != AudioFormat.ENCODING_PCM_16BIT) {
+                ELog.w(TAG, "output stage requires PCM16, speed and output processor are ignored");
+                mOutputProcessor = null;
+                return;
+            }
+            int channels = mSettings.getChannels();
+            int maxFrames = maxFrameBytes / 2 / channels;
+            if (stretch) {
+                mStretcher = new WsolaTimeStretcher(mSettings.getSampleRate(), channels, mSpeed, maxFrames);
+                mInputPcm = new short[maxFrames * channels];
+                mStretchPcm = new short[maxFrames * channels];
+                mStretchView = ShortBuffer.wrap(mStretchPcm);
+                mOutputFrame = new AudioFrame(ByteBuffer.allocateDirect(maxFrames * channels * 2), 0, 0);
+            }
+            //输出处理器在帧上原地处理，只有升混时用到备用缓冲区
+            mOutputPcm = new PcmBuffer(maxFrames * 2, mSettings.getSampleRate());
         }
 
-        private void shutdown() {
-            Looper.myLooper().quit();
+        private void encodeFrame(AudioFrame frame) {
+            long start = System.nanoTime();
+            if (mOutputPcm != null) {
+                processOutputStage(frame);
+            } else if (mAudioEncoder != null) {
+                mAudioEncoder.encode(frame);
+            }
+            mEncodeNs += System.nanoTime() - start;
+            mEncodedBytes += frame.len;
+            //编码器已经消费完PCM数据，归还到缓冲池
+            frame.release();
         }
 
-        private void release() {
-            if (mAudioEncoder != null) {
-                mAudioEncoder.release();
-                mAudioEncoder = null;
+        private void processOutputStage(AudioFrame frame) {
+            int channels = mSettings.getChannels();
+            int frames = frame.len / 2 / channels;
+            ShortBuffer view = frame.asShortBuffer();
+            if (mStretcher == null) {
+                //不变速时直接在采集帧上处理，处理完送编码器
+                mOutputPcm.wrap(view, frames, channels, frame.timeStamp_us);
+                emit(frame);
+                return;
+            }
+            //变速器按数组读写，这里的拷贝不可避免
+            view.clear();
+            view.limit(frames * channels);
+            view.get(mInputPcm, 0, frames * channels);
+            if (mFirstPtsUs < 0) {
+                mFirstPtsUs = (long) (frame.timeStamp_us / (double) mSpeed);
+            } else {
+                long gapUs = frame.timeStamp_us - mNextInputPtsUs;
+                if (gapUs > INPUT_GAP_US) {
+                    //采集端跳过了部分输入（例如静音丢帧），输出时间轴也要留出按速度换算后的间隙
+                    mFirstPtsUs += (long) (gapUs / (double) mSpeed);
+                    mInputGapUs += gapUs;
+                }
+            }
+            mNextInputPtsUs = frame.timeStamp_us + frames * 1000000L / mSettings.getSampleRate();
+            int offset = 0;
+            while (offset < frames) {
+                offset += mStretcher.put(mInputPcm, offset * channels, frames - offset);
+                drainStretcher();
             }
         }
-    }
-
-
-    private static class EncoderHandler extends Handler {
 
-        private static final String TAG = EncoderHandler.class.getSimpleName();
-
-        private static final int MSG_FRAME_AVAILABLE = 0x001;
-        private static final int MSG_STOP = 0x002;
-
-        private WeakReference<AudioClient.AudioEncoderThread> mWeakEncoderThread;
+        private void drainStretcher() {
+            int channels = mSettings.getChannels();
+            int capacity = mStretchPcm.length / channels;
+            int n;
+            while ((n = mStretcher.receive(mStretchPcm, 0, capacity)) > 0) {
+                long ptsUs = mFirstPtsUs + mOutputFrames * 1000000L / mSettings.getSampleRate();
+                mOutputFrames += n;
+                mOutputPcm.wrap(mStretchView, n, channels, ptsUs);
+                emit(mOutputFrame);
+            }
+        }
 
-        EncoderHandler(AudioEncoderThread thread) {
-            mWeakEncoderThread = new WeakReference<>(thread);
+        /**
+         * 输入结束后，把变速器中剩余的数据编码完，保证输出时长准确
+         */
+        private void flushStretcher() {
+            if (mStretcher == null || mFirstPtsUs < 0) {
+                return;
+            }
+            while (!mStretcher.isFinished()) {
+                mStretcher.flush();
+                drainStretcher();
+            }
+            ELog.i(TAG, "time stretch: " + mStretcher + " inputGapUs=" + mInputGapUs);
         }
 
+        /**
+         * 对{@link #mOutputPcm}执行输出处理后送编码器
+         *
+         * @param target 送给编码器的帧，数据不在该帧中时先拷贝进去
+         */
+        private void emit(AudioFrame target) {
+            PcmBuffer pcm = mOutputPcm;
+            if (mOutputProcessor != null) {
+                mOutputProcessor.process(pcm);
+            }
+            if (mAudioEncoder == null || pcm.discard || pcm.channels != mSettings.getChannels()) {
+                return;
+            }
+            int samples = pcm.samples();
+            ShortBuffer view = target.asShortBuffer();
+            if (pcm.data != view) {
+                if (samples > view.capacity()) {
+                    return;
+                }
+                ShortBuffer source = pcm.data;
+                source.clear();
+                source.limit(samples);
+                view.clear();
+                view.put(source);
+            }
+            target.buf.clear();
+            target.buf.limit(samples * 2);
+            target.len = samples * 2;
+            target.timeStamp_us = pcm.timeStamp_us;
+            mAudioEncoder.encode(target);
+        }
 
-        void sendAudioFrame(AudioFrame frame) {
-            sendMessage(obtainMessage(MSG_FRAME_AVAILABLE, frame));
+        SpscRingBuffer<AudioFrame> getFrameQueue() {
+            return mFrameQueue;
         }
 
-        private void stop() {
-            sendMessage(obtainMessage(MSG_STOP));
+        private void shutdown() {
+            mRunning = false;
+            mFrameQueue.wakeUp();
         }
 
-        @Override
-        public void handleMessage(Message msg) {
-            AudioEncoderThread encoderThread = mWeakEncoderThread.get();
-            if (encoderThread == null) {
-                ELog.e(TAG, "mWeakEncoderThread.get() == null");
-                return;
-            }
-            switch (msg.what) {
-                case MSG_FRAME_AVAILABLE:
-                    encoderThread.sendAudioFrame((AudioFrame) msg.obj);
-                    break;
-                case MSG_STOP:
-                    encoderThread.shutdown();
-                    break;
+        private void release() {
+            if (mAudioEncoder != null) {
+                mAudioEncoder.release();
+                mAudioEncoder = null;
             }
         }
     }
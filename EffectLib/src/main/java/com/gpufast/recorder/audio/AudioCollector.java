@@ -19,11 +19,20 @@ public class AudioCollector {
 
     private int minBufferSize;
 
+    //采集帧缓冲池，帧在编码线程消费完成后归还
+    private AudioFramePool framePool;
+
+    //由采样数推算时间戳
+    private AudioTimestamper timestamper;
+
     public void init(AudioSetting settings, OnAudioFrameCallback callback) {
         minBufferSize = settings.getInputBufferSize();
         if (minBufferSize == AudioRecord.ERROR || minBufferSize == AudioRecord.ERROR_BAD_VALUE) {
             ELog.e(TAG, "AudioRecord.getMinBufferSize failed: " + minBufferSize);
         }
+        framePool = new AudioFramePool(AudioFramePool.DEFAULT_CAPACITY, minBufferSize);
+        timestamper = new AudioTimestamper(settings.getSampleRate(),
+                settings.getChannels() * settings.getBytesPerSample());
         mAudioRecord = new AudioRecord(
                 MediaRecorder.AudioSource.MIC,
                 settings.getSampleRate(),
@@ -44,10 +53,28 @@ public class AudioCollector {
         if (collectThread != null) {
             collectThread.stopThread();
             collectThread = null;
-            ELog.i(TAG, "audio collector has stop");
+            ELog.i(TAG, "audio collector has stop. " + framePool + " " + timestamper);
+        } else if (mAudioRecord != null) {
+            //预热后没有开始采集，录音器由这里释放
+            mAudioRecord.release();
+            mAudioRecord = null;
         }
     }
 
+    /**
+     * @return 采集帧缓冲池，可用于查看池耗尽统计
+     */
+    public AudioFramePool getFramePool() {
+        return framePool;
+    }
+
+    /**
+     * @return 时间戳生成器，可用于查看漂移和抖动统计
+     */
+    public AudioTimestamper getTimestamper() {
+        return timestamper;
+    }
+
     /**
      * 音频采集线程
      */
@@ -93,13 +120,29 @@ public class AudioCollector {
             }
 
             //------------------------开始读取麦克风数据------------------
-            ByteBuffer buffer = ByteBuffer.allocateDirect(minBufferSize);
-            start = System.nanoTime();
+            //缓冲池耗尽时，仍需从麦克风读走数据，防止AudioRecord内部溢出，读到的数据直接丢弃
+            ByteBuffer dropBuffer = ByteBuffer.allocateDirect(minBufferSize);
+            timestamper.start(System.nanoTime());
             while (keepAlive) {
-                buffer.clear();
-                int num = mAudioRecord.read(buffer, buffer.limit());
+                AudioFrame frame = framePool.acquire();
+                if (frame == null) {
+                    dropBuffer.clear();
+                    int num = mAudioRecord.read(dropBuffer, dropBuffer.limit());
+                    if (num > 0) {
+                        //丢弃的数据同样计入时间轴
+                        timestamper.onRead(num, System.nanoTime());
+                    }
+                    continue;
+                }
+                int num = mAudioRecord.read(frame.buf, frame.buf.limit());
                 if (num > 0) {
-                    callback.onReceiveAudioFrame(new AudioFrame(buffer, num, (System.nanoTime() - start) / 1000));
+                    frame.buf.limit(num);
+                    frame.len = num;
+                    frame.timeStamp_us = timestamper.onRead(num, System.nanoTime());
+                    //帧的所有权交给接收者，由接收者负责release
+                    callback.onReceiveAudioFrame(frame);
+                } else {
+                    frame.release();
                 }
             }
 
@@ -145,6 +188,9 @@ public class AudioCollector {
     }
 
     public interface OnAudioFrameCallback {
+        /**
+         * 接收采集到的音频帧，帧来自缓冲池，接收者消费完成后必须调用{@link AudioFrame#release()}
+         */
         void onReceiveAudioFrame(AudioFrame frame);
     }
 
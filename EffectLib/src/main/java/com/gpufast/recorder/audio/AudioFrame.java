@@ -1,6 +1,9 @@
 package com.gpufast.recorder.audio;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class AudioFrame {
 
@@ -9,10 +12,49 @@ public class AudioFrame {
     //时间戳（微秒）
     public long timeStamp_us;
 
+    //所属的缓冲池，非池化的帧为null
+    final AudioFramePool pool;
+    //是否被借出，归还时用CAS，重复release只有一次生效
+    final AtomicBoolean inUse = new AtomicBoolean();
+
+    //buf的16位视图，池化的帧只创建一次
+    private ShortBuffer shortView;
+    private ByteBuffer shortViewSource;
+
     public AudioFrame(ByteBuffer buf, int len, long timeStamp_us) {
         this.buf = buf;
         this.len = len;
         this.timeStamp_us = timeStamp_us;
+        this.pool = null;
+    }
+
+    AudioFrame(AudioFramePool pool, ByteBuffer buf) {
+        this.pool = pool;
+        this.buf = buf;
+    }
+
+    /**
+     * 数据消费完成后归还到缓冲池，非池化的帧调用无效果；
+     * 归还之后不能再访问该帧的数据
+     */
+    public void release() {
+        if (pool == null || !inUse.compareAndSet(true, false)) {
+            return;
+        }
+        pool.recycle(this);
+    }
+
+    /**
+     * @return 以本机字节序覆盖整个buf的16位视图，position和limit由调用者设置
+     */
+    ShortBuffer asShortBuffer() {
+        if (shortView == null || shortViewSource != buf) {
+            ByteBuffer view = buf.duplicate();
+            view.clear();
+            shortView = view.order(ByteOrder.nativeOrder()).asShortBuffer();
+            shortViewSource = buf;
+        }
+        return shortView;
     }
 
 }
@@ -0,0 +1,120 @@
+package com.gpufast.recorder.audio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 固定容量的音频帧缓冲池
+ * <p>
+ * 所有的AudioFrame及其direct ByteBuffer在创建时一次性分配，采集线程通过{@link #acquire()}获取空闲帧，
+ * 编码线程消费完成后通过{@link AudioFrame#release()}归还。在帧被归还之前，采集线程不会复用该帧的PCM数据。
+ * 池耗尽时{@link #acquire()}返回null，并记录耗尽次数，用于判断编码器是否跟不上采集速度。
+ */
+public class AudioFramePool {
+
+    //默认缓冲帧个数
+    public static final int DEFAULT_CAPACITY = 8;
+
+    private final int capacity;
+    private final int bufferSize;
+    private final ArrayBlockingQueue<AudioFrame> freeFrames;
+
+    //获取成功的次数
+    private final AtomicLong acquiredCount = new AtomicLong();
+    //池耗尽（获取失败）的次数
+    private final AtomicLong exhaustedCount = new AtomicLong();
+    //已被借出的最大帧数
+    private volatile int peakInUse;
+
+    /**
+     * @param capacity   帧个数
+     * @param bufferSize 每一帧PCM buffer的字节数
+     */
+    public AudioFramePool(int capacity, int bufferSize) {
+        if (capacity <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("capacity=" + capacity + " bufferSize=" + bufferSize);
+        }
+        this.capacity = capacity;
+        this.bufferSize = bufferSize;
+        freeFrames = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            freeFrames.offer(new AudioFrame(this, ByteBuffer.allocateDirect(bufferSize)));
+        }
+    }
+
+    /**
+     * 获取一个空闲帧，不会阻塞
+     *
+     * @return 空闲帧，池耗尽时返回null
+     */
+    public AudioFrame acquire() {
+        AudioFrame frame = freeFrames.poll();
+        if (frame == null) {
+            exhaustedCount.incrementAndGet();
+            return null;
+        }
+        acquiredCount.incrementAndGet();
+        int inUse = capacity - freeFrames.size();
+        if (inUse > peakInUse) {
+            peakInUse = inUse;
+        }
+        frame.buf.clear();
+        frame.len = 0;
+        frame.timeStamp_us = 0;
+        frame.inUse.set(true);
+        return frame;
+    }
+
+    /**
+     * 归还帧，由{@link AudioFrame#release()}调用
+     */
+    void recycle(AudioFrame frame) {
+        if (frame.pool != this) {
+            throw new IllegalArgumentException("frame does not belong to this pool");
+        }
+        freeFrames.offer(frame);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return 当前空闲帧个数
+     */
+    public int getAvailableCount() {
+        return freeFrames.size();
+    }
+
+    public long getAcquiredCount() {
+        return acquiredCount.get();
+    }
+
+    /**
+     * @return 池耗尽的次数，大于0说明编码线程处理速度跟不上采集速度
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.get();
+    }
+
+    public int getPeakInUse() {
+        return peakInUse;
+    }
+
+    @Override
+    public String toString() {
+        return "AudioFramePool{" +
+                "capacity=" + capacity +
+                ", bufferSize=" + bufferSize +
+                ", available=" + getAvailableCount() +
+                ", acquired=" + getAcquiredCount() +
+                ", exhausted=" + getExhaustedCount() +
+                ", peakInUse=" + peakInUse +
+                '}';
+    }
+}
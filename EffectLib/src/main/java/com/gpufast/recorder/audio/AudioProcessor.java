@@ -1,9 +1,17 @@
 package com.gpufast.recorder.audio;
 
 /**
- * 音频回调接收器
+ * 音频预处理器，在采集线程中被{@link AudioProcessorChain}依次调用
  */
 public interface AudioProcessor {
 
-    AudioFrame onReceiveAudioFrame(AudioFrame frame);
+    /**
+     * 在buffer上原地处理一帧PCM数据，{@link PcmBuffer#data}通常就是池化帧本身的数据。
+     * 该方法运行在采集线程中，不能分配内存，也不能阻塞；
+     * 如果改变了声道数，需要同时更新{@link PcmBuffer#channels}，写入超过当前容量的数据之前需要调用{@link PcmBuffer#ensureCapacity(int)}；
+     * 设置{@link PcmBuffer#discard}可以丢弃该帧
+     *
+     * @param buffer 16位交织PCM
+     */
+    void process(PcmBuffer buffer);
 }
@@ -0,0 +1,291 @@
+package com.gpufast.recorder.audio;
+
+import android.media.AudioFormat;
+
+import com.gpufast.logger.ELog;
+
+import java.nio.ShortBuffer;
+
+/**
+ * 音频预处理链
+ * <p>
+ * 采集线程把池化帧的16位视图交给复用的{@link PcmBuffer}，各个{@link AudioProcessor}直接在帧的数据上原地处理，
+ * 不拷贝也不分配内存。只有处理器需要的空间超过帧的容量时（例如单声道升为双声道）才拷贝到备用缓冲区，
+ * 处理完成后再写回帧中，见{@link PcmBuffer#ensureCapacity(int)}。处理器列表采用写时复制：{@link #add(AudioProcessor)}、
+ * {@link #remove(AudioProcessor)}可以在任意线程调用，采集线程只读取volatile数组快照，不需要加锁。
+ * 链为空或采集格式不是16位PCM时直接跳过，不做任何拷贝。
+ */
+public class AudioProcessorChain {
+    private static final String TAG = "AudioProcessorChain";
+
+    private static final Stage[] EMPTY = new Stage[0];
+    //处理器最多输出的声道数
+    private static final int MAX_CHANNELS = 2;
+
+    //只用于串行化修改操作，采集线程不会获取该锁
+    private final Object mWriteLock = new Object();
+    private volatile Stage[] mStages = EMPTY;
+
+    //以下字段只在prepare和采集线程中访问
+    private PcmBuffer mPcm;
+    private int mSpareCapacity;
+    private int mChannels;
+    private boolean mPcm16;
+
+    private volatile long processedFrames;
+    private volatile long bypassedFrames;
+    private volatile long rejectedFrames;
+    private volatile long discardedFrames;
+
+    /**
+     * 按采集参数分配工作缓冲区，需要在采集开始之前调用
+     *
+     * @param settings      采集参数
+     * @param maxFrameBytes 单帧PCM的最大字节数
+     */
+    public void prepare(AudioSetting settings, int maxFrameBytes) {
+        mChannels = settings.getChannels();
+        mPcm16 = settings.getAudioFormat() == AudioFormat.ENCODING_PCM_16BIT;
+        int capacity = maxFrameBytes / 2 / mChannels * MAX_CHANNELS;
+        if (mPcm == null || mSpareCapacity < capacity || mPcm.sampleRate != settings.getSampleRate()) {
+            mPcm = new PcmBuffer(capacity, settings.getSampleRate());
+            mSpareCapacity = capacity;
+        }
+        if (!mPcm16) {
+            ELog.w(TAG, "audio format is not PCM16, processors are bypassed");
+        }
+    }
+
+    /**
+     * 在链尾添加处理器，可在录制过程中调用
+     *
+     * @return false表示处理器为null或已经在链中
+     */
+    public boolean add(AudioProcessor processor) {
+        if (processor == null) {
+            return false;
+        }
+        synchronized (mWriteLock) {
+            Stage[] current = mStages;
+            if (indexOf(current, processor) >= 0) {
+                return false;
+            }
+            Stage[] next = new Stage[current.length + 1];
+            System.arraycopy(current, 0, next, 0, current.length);
+            next[current.length] = new Stage(processor);
+            mStages = next;
+            return true;
+        }
+    }
+
+    /**
+     * 移除处理器，可在录制过程中调用。正在处理的帧仍可能用到该处理器
+     *
+     * @return false表示处理器不在链中
+     */
+    public boolean remove(AudioProcessor processor) {
+        synchronized (mWriteLock) {
+            Stage[] current = mStages;
+            int index = indexOf(current, processor);
+            if (index < 0) {
+                return false;
+            }
+            if (current.length == 1) {
+                mStages = EMPTY;
+                return true;
+            }
+            Stage[] next = new Stage[current.length - 1];
+            System.arraycopy(current, 0, next, 0, index);
+            System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+            mStages = next;
+            return true;
+        }
+    }
+
+    public void clear() {
+        synchronized (mWriteLock) {
+            mStages = EMPTY;
+        }
+    }
+
+    public boolean contains(AudioProcessor processor) {
+        return indexOf(mStages, processor) >= 0;
+    }
+
+    public int size() {
+        return mStages.length;
+    }
+
+    /**
+     * @return 当前各级处理器及其耗时统计的快照
+     */
+    public Stage[] getStages() {
+        return mStages.clone();
+    }
+
+    /**
+     * 采集线程调用，原地处理一帧数据
+     *
+     * @return false表示处理器要求丢弃该帧
+     */
+    boolean process(AudioFrame frame) {
+        final Stage[] stages = mStages;
+        final PcmBuffer pcm = mPcm;
+        if (stages.length == 0 || pcm == null || !mPcm16) {
+            bypassedFrames++;
+            return true;
+        }
+        final int samples = frame.len / 2;
+        ShortBuffer view = frame.asShortBuffer();
+        pcm.wrap(view, samples / mChannels, mChannels, frame.timeStamp_us);
+
+        for (Stage stage : stages) {
+            long start = System.nanoTime();
+            try {
+                stage.processor.process(pcm);
+            } catch (RuntimeException e) {
+                //已经原地修改过的数据无法恢复，按当前内容继续送编码器
+                ELog.e(TAG, "audio processor failed: " + stage.processor + " " + e);
+                rejectedFrames++;
+                return true;
+            } finally {
+                stage.record(System.nanoTime() - start);
+            }
+            if (pcm.discard) {
+                discardedFrames++;
+                return false;
+            }
+        }
+
+        //输出格式不对时不写回，帧中保留切换到备用缓冲区之前的数据
+        int outSamples = pcm.samples();
+        if (pcm.channels != mChannels || outSamples < 0 || outSamples > view.capacity()) {
+            rejectedFrames++;
+            return true;
+        }
+        if (pcm.isSpare()) {
+            ShortBuffer spare = pcm.data;
+            spare.clear();
+            spare.limit(outSamples);
+            view.clear();
+            view.put(spare);
+        }
+        frame.len = outSamples * 2;
+        frame.buf.limit(frame.len);
+        frame.timeStamp_us = pcm.timeStamp_us;
+        processedFrames++;
+        return true;
+    }
+
+    private static int indexOf(Stage[] stages, AudioProcessor processor) {
+        for (int i = 0; i < stages.length; i++) {
+            if (stages[i].processor == processor) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return 帧的容量不够、拷贝到备用缓冲区处理的次数
+     */
+    public long getSpareCopies() {
+        PcmBuffer pcm = mPcm;
+        return pcm != null ? pcm.getSpareCopies() : 0;
+    }
+
+    public long getProcessedFrames() {
+        return processedFrames;
+    }
+
+    /**
+     * @return 因链为空或格式不支持而跳过的帧数
+     */
+    public long getBypassedFrames() {
+        return bypassedFrames;
+    }
+
+    /**
+     * @return 处理器出错或输出格式不对，保留原始数据的帧数
+     */
+    public long getRejectedFrames() {
+        return rejectedFrames;
+    }
+
+    /**
+     * @return 被处理器丢弃、没有送给编码器的帧数
+     */
+    public long getDiscardedFrames() {
+        return discardedFrames;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("AudioProcessorChain{processed=").append(processedFrames)
+                .append(", bypassed=").append(bypassedFrames)
+                .append(", rejected=").append(rejectedFrames)
+                .append(", discarded=").append(discardedFrames)
+                .append(", spareCopies=").append(getSpareCopies())
+                .append(", stages=[");
+        Stage[] stages = mStages;
+        for (int i = 0; i < stages.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(stages[i]);
+        }
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * 链中的一级处理器及其耗时统计，统计只由采集线程写入
+     */
+    public static final class Stage {
+        private final AudioProcessor processor;
+        private volatile long calls;
+        private volatile long totalNs;
+        private volatile long maxNs;
+
+        Stage(AudioProcessor processor) {
+            this.processor = processor;
+        }
+
+        void record(long costNs) {
+            calls++;
+            totalNs += costNs;
+            if (costNs > maxNs) {
+                maxNs = costNs;
+            }
+        }
+
+        public AudioProcessor getProcessor() {
+            return processor;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getTotalNs() {
+            return totalNs;
+        }
+
+        public long getMaxNs() {
+            return maxNs;
+        }
+
+        public long getAverageNs() {
+            long n = calls;
+            return n > 0 ? totalNs / n : 0;
+        }
+
+        @Override
+        public String toString() {
+            return processor.getClass().getSimpleName() +
+                    "{calls=" + calls +
+                    ", avgNs=" + getAverageNs() +
+                    ", maxNs=" + maxNs +
+                    '}';
+        }
+    }
+}
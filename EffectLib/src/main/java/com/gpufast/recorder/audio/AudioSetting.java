@@ -70,4 +70,19 @@ public class AudioSetting {
     public int getChannels() {
         return channels;
     }
+
+    /**
+     * @return 每个采样的字节数
+     */
+    public int getBytesPerSample() {
+        switch (audioFormat) {
+            case AudioFormat.ENCODING_PCM_8BIT:
+                return 1;
+            case AudioFormat.ENCODING_PCM_FLOAT:
+                return 4;
+            case AudioFormat.ENCODING_PCM_16BIT:
+            default:
+                return 2;
+        }
+    }
 }
@@ -0,0 +1,223 @@
+package com.gpufast.recorder.audio;
+
+/**
+ * 音频时间戳生成器
+ * <p>
+ * 时间戳由累计读取的采样数按采样率推算，不受采集线程调度抖动影响。同时把每次读取返回的单调时钟
+ * 作为参考，估算采样时钟与系统时钟之间的漂移，并以不超过{@link #MAX_SLEW_PPM}的速度平滑修正，
+ * 不会出现时间戳跳变。只有在采集出现大段丢失时才直接向前跳到系统时钟：漂移需要连续
+ * {@link #RESYNC_CONFIRMATIONS}次、并且在至少{@link #RESYNC_CONFIRM_US}的采样时长内都超过
+ * {@link #RESYNC_THRESHOLD_US}。单次调度延迟造成的超限读数，以及延迟之后读取缓存数据追赶的过程都不会触发。
+ * <p>
+ * 只能在采集线程中使用
+ */
+public class AudioTimestamper {
+
+    //最大修正速度：每秒最多修正5毫秒，足以覆盖常见的采样时钟误差
+    static final long MAX_SLEW_PPM = 5000;
+    //漂移超过该值，认为采集丢失了数据，直接重新同步
+    static final long RESYNC_THRESHOLD_US = 200000;
+    //确认丢失需要连续超过阈值的读取次数和采样时长。采集线程被延迟后，之后的读取会立即返回缓存的数据，
+    //漂移随读取的采样逐渐减小，在确认时长内就会回到阈值以下
+    static final int RESYNC_CONFIRMATIONS = 3;
+    static final long RESYNC_CONFIRM_US = 100000;
+    //漂移小于该值时不做修正
+    private static final long DEAD_BAND_US = 2000;
+    //漂移平滑系数
+    private static final double DRIFT_SMOOTHING = 0.05;
+
+    private final int sampleRate;
+    private final int bytesPerFrame;
+
+    private long startNs;
+    //累计读取的采样数（每声道）
+    private long framesRead;
+    //已经应用到时间戳上的修正量
+    private long correctionUs;
+
+    //平滑后的漂移：系统时钟 - 采样时钟
+    private double smoothedDriftUs;
+    private long maxAbsDriftUs;
+    //抖动：单次参考时钟与平滑漂移的偏差
+    private double jitterSumUs;
+    private long maxJitterUs;
+    private long measurements;
+    private long resyncCount;
+    private long lastPtsUs = -1;
+    //连续超过阈值的读取次数、采样时长，以及这几次中最小的漂移
+    private int resyncPending;
+    private long resyncPendingUs;
+    private long resyncDriftUs;
+    //被忽略的单次超限读数
+    private long driftSpikes;
+
+    /**
+     * @param sampleRate    采样率
+     * @param bytesPerFrame 一个采样点（所有声道）的字节数
+     */
+    public AudioTimestamper(int sampleRate, int bytesPerFrame) {
+        if (sampleRate <= 0 || bytesPerFrame <= 0) {
+            throw new IllegalArgumentException("sampleRate=" + sampleRate + " bytesPerFrame=" + bytesPerFrame);
+        }
+        this.sampleRate = sampleRate;
+        this.bytesPerFrame = bytesPerFrame;
+    }
+
+    /**
+     * 开始计时，之后的时间戳相对于该时刻
+     *
+     * @param nowNs 单调时钟，如{@link System#nanoTime()}
+     */
+    public void start(long nowNs) {
+        startNs = nowNs;
+        framesRead = 0;
+        correctionUs = 0;
+        smoothedDriftUs = 0;
+        maxAbsDriftUs = 0;
+        jitterSumUs = 0;
+        maxJitterUs = 0;
+        measurements = 0;
+        resyncCount = 0;
+        lastPtsUs = -1;
+        resyncPending = 0;
+        resyncPendingUs = 0;
+        resyncDriftUs = 0;
+        driftSpikes = 0;
+    }
+
+    /**
+     * 读取到一段数据后调用
+     *
+     * @param bytes 本次读取的字节数
+     * @param nowNs 读取返回时的单调时钟
+     * @return 这段数据第一个采样的时间戳（微秒）
+     */
+    public long onRead(int bytes, long nowNs) {
+        final long frames = bytes / bytesPerFrame;
+        final long durationUs = frames * 1000000L / sampleRate;
+        final long samplePtsUs = framesRead * 1000000L / sampleRate;
+
+        //read返回时整段数据已经采集完，第一个采样的参考时间需要减去这段数据的时长
+        long clockPtsUs = (nowNs - startNs) / 1000 - durationUs;
+        long driftUs = clockPtsUs - (samplePtsUs + correctionUs);
+
+        if (driftUs > RESYNC_THRESHOLD_US) {
+            //超限的读数不参与平滑，连续几次都超限才认为采集丢失了大段数据
+            if (resyncPending == 0 || driftUs < resyncDriftUs) {
+                resyncDriftUs = driftUs;
+            }
+            resyncPending++;
+            resyncPendingUs += durationUs;
+            if (resyncPending >= RESYNC_CONFIRMATIONS && resyncPendingUs >= RESYNC_CONFIRM_US) {
+                //调度延迟只会让读数偏大，取这几次中最小的漂移作为丢失的时长，向前跳到系统时钟
+                correctionUs += resyncDriftUs;
+                smoothedDriftUs = 0;
+                resyncCount++;
+                resyncPending = 0;
+                resyncPendingUs = 0;
+            }
+        } else {
+            if (resyncPending > 0) {
+                driftSpikes += resyncPending;
+                resyncPending = 0;
+                resyncPendingUs = 0;
+            }
+            smoothDrift(driftUs, durationUs);
+        }
+
+        long ptsUs = samplePtsUs + correctionUs;
+        if (ptsUs <= lastPtsUs) {
+            ptsUs = lastPtsUs + 1;
+        }
+        lastPtsUs = ptsUs;
+        framesRead += frames;
+        return ptsUs;
+    }
+
+    private void smoothDrift(long driftUs, long durationUs) {
+        if (measurements == 0) {
+            smoothedDriftUs = driftUs;
+        } else {
+            long jitter = Math.abs(driftUs - Math.round(smoothedDriftUs));
+            jitterSumUs += jitter;
+            if (jitter > maxJitterUs) {
+                maxJitterUs = jitter;
+            }
+            smoothedDriftUs += (driftUs - smoothedDriftUs) * DRIFT_SMOOTHING;
+        }
+        measurements++;
+
+        long drift = Math.round(smoothedDriftUs);
+        if (Math.abs(drift) > maxAbsDriftUs) {
+            maxAbsDriftUs = Math.abs(drift);
+        }
+        if (Math.abs(drift) > DEAD_BAND_US) {
+            //按采样时长限速修正，保证时间戳单调且连续
+            long maxStep = Math.max(1, durationUs * MAX_SLEW_PPM / 1000000L);
+            long step = Math.max(-maxStep, Math.min(maxStep, drift));
+            correctionUs += step;
+            smoothedDriftUs -= step;
+        }
+    }
+
+    public long getFramesRead() {
+        return framesRead;
+    }
+
+    /**
+     * @return 当前平滑后的漂移（系统时钟 - 采样时钟，微秒）
+     */
+    public long getDriftUs() {
+        return Math.round(smoothedDriftUs);
+    }
+
+    public long getMaxAbsDriftUs() {
+        return maxAbsDriftUs;
+    }
+
+    /**
+     * @return 累计应用到时间戳上的修正量（微秒）
+     */
+    public long getCorrectionUs() {
+        return correctionUs;
+    }
+
+    /**
+     * @return 读取返回时间相对采样时钟的平均抖动（微秒）
+     */
+    public long getMeanJitterUs() {
+        return measurements > 1 ? Math.round(jitterSumUs / (measurements - 1)) : 0;
+    }
+
+    public long getMaxJitterUs() {
+        return maxJitterUs;
+    }
+
+    /**
+     * @return 因采集数据丢失而直接重新同步的次数
+     */
+    public long getResyncCount() {
+        return resyncCount;
+    }
+
+    /**
+     * @return 超过重新同步阈值但没有连续出现、被忽略的读数个数
+     */
+    public long getDriftSpikes() {
+        return driftSpikes;
+    }
+
+    @Override
+    public String toString() {
+        return "AudioTimestamper{" +
+                "framesRead=" + framesRead +
+                ", driftUs=" + getDriftUs() +
+                ", maxAbsDriftUs=" + maxAbsDriftUs +
+                ", correctionUs=" + correctionUs +
+                ", meanJitterUs=" + getMeanJitterUs() +
+                ", maxJitterUs=" + maxJitterUs +
+                ", resync=" + resyncCount +
+                ", spikes=" + driftSpikes +
+                '}';
+    }
+}
@@ -0,0 +1,107 @@
+package com.gpufast.recorder.audio;
+
+import java.nio.ShortBuffer;
+
+/**
+ * 16位交织PCM的工作缓冲区，由{@link AudioProcessorChain}持有并复用
+ * <p>
+ * {@link #data}默认直接指向池化帧的16位视图，处理器用绝对下标读写，修改的就是帧本身的数据，不发生拷贝。
+ * 只有处理器需要的空间超过了帧的容量（例如单声道升为双声道）时，{@link #ensureCapacity(int)}才把当前数据
+ * 拷贝到备用缓冲区，之后的处理器都在备用缓冲区上进行，处理完成后再由处理链写回帧中。
+ */
+public class PcmBuffer {
+
+    //交织的PCM数据，下标0是第一个采样，只能用绝对下标访问，position和limit没有意义
+    public ShortBuffer data;
+    //每个声道的采样数
+    public int frames;
+    //当前声道数，处理器改变声道数时需要同时更新
+    public int channels;
+    public final int sampleRate;
+    //时间戳（微秒）
+    public long timeStamp_us;
+    //处理器设置为true时，该帧不再送给后续处理器和编码器
+    public boolean discard;
+
+    //帧本身的数据放不下时使用的备用缓冲区
+    private final ShortBuffer spare;
+    //从帧切换到备用缓冲区的次数
+    private long spareCopies;
+
+    /**
+     * @param spareCapacity 备用缓冲区的采样个数，为0时不支持扩容
+     */
+    PcmBuffer(int spareCapacity, int sampleRate) {
+        this.spare = spareCapacity > 0 ? ShortBuffer.allocate(spareCapacity) : null;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * 指向一段新的PCM数据，处理器在其上原地处理
+     */
+    void wrap(ShortBuffer source, int frames, int channels, long timeStamp_us) {
+        this.data = source;
+        this.frames = frames;
+        this.channels = channels;
+        this.timeStamp_us = timeStamp_us;
+        this.discard = false;
+    }
+
+    /**
+     * @return 有效的采样个数（所有声道）
+     */
+    public int samples() {
+        return frames * channels;
+    }
+
+    /**
+     * @return 在不越界的前提下能容纳的最大声道数，包括可以切换到的备用缓冲区
+     */
+    public int maxChannels() {
+        if (frames <= 0) {
+            return 0;
+        }
+        int capacity = data.capacity();
+        if (spare != null && spare.capacity() > capacity) {
+            capacity = spare.capacity();
+        }
+        return capacity / frames;
+    }
+
+    /**
+     * 保证{@link #data}至少能容纳samples个采样。当前数据放不下时，把已有的{@link #samples()}个采样
+     * 拷贝到备用缓冲区并切换过去；需要写入超过当前容量的数据之前调用
+     *
+     * @return false表示备用缓冲区也放不下，数据保持不变
+     */
+    public boolean ensureCapacity(int samples) {
+        if (samples <= data.capacity()) {
+            return true;
+        }
+        if (spare == null || samples > spare.capacity()) {
+            return false;
+        }
+        ShortBuffer source = data;
+        source.clear();
+        source.limit(samples());
+        spare.clear();
+        spare.put(source);
+        data = spare;
+        spareCopies++;
+        return true;
+    }
+
+    /**
+     * @return 是否已经切换到了备用缓冲区
+     */
+    boolean isSpare() {
+        return spare != null && data == spare;
+    }
+
+    /**
+     * @return 从帧切换到备用缓冲区的次数
+     */
+    long getSpareCopies() {
+        return spareCopies;
+    }
+}
@@ -0,0 +1,384 @@
+package com.gpufast.recorder.audio;
+
+import java.util.Arrays;
+
+/**
+ * 多相FIR重采样器
+ * <p>
+ * 采样率之比约分为L/M，按L个相位预先计算Kaiser窗sinc低通滤波器，每个输出采样只计算一个相位上的
+ * 点积。输入可以分段送入，跨段所需的历史数据保存在内部，输出与输入时间对齐（没有群延迟），
+ * 但最后约半个滤波器长度的输入要等到后续数据送入后才会产生输出。
+ * <p>
+ * {@link Quality#FAST}使用Q14定点系数和int累加，{@link Quality#HIGH}使用float系数，阻带衰减更高。
+ * 内部按声道分开存放历史数据，点积是连续数组上的简单循环，便于JIT向量化。
+ * L过大时（例如44100到48001）相位数限制为{@link #MAX_PHASES}，取不超过当前位置的最近相位，时间位置仍然精确累加。
+ * <p>
+ * 非线程安全
+ */
+public class PolyphaseResampler {
+
+    public enum Quality {
+        //16个抽头，Q14定点
+        FAST(16, 6.0, 0.90),
+        //48个抽头，float
+        HIGH(48, 9.0, 0.95);
+
+        final int taps;
+        final double kaiserBeta;
+        final double rolloff;
+
+        Quality(int taps, double kaiserBeta, double rolloff) {
+            this.taps = taps;
+            this.kaiserBeta = kaiserBeta;
+            this.rolloff = rolloff;
+        }
+    }
+
+    static final int MAX_PHASES = 512;
+    private static final int COEF_BITS = 14;
+
+    private final int inRate;
+    private final int outRate;
+    private final int channels;
+    private final Quality quality;
+
+    //约分后的上采样/下采样因子
+    private final int up;
+    private final int down;
+    private final int phases;
+    private final int taps;
+    //每次输出前进的输入采样数 = stepInt + stepFrac / up
+    private final int stepInt;
+    private final int stepFrac;
+
+    //phases个相位，每个相位taps个系数，相位之间首尾相接
+    private final short[] fixedCoefs;
+    private final float[] floatCoefs;
+
+    //按声道分开的历史输入
+    private short[][] shortHistory;
+    private float[][] floatHistory;
+    private int historyLength;
+    //下一个输出在历史数据中的位置
+    private int position;
+    private int phase;
+
+    public PolyphaseResampler(int inRate, int outRate, int channels, Quality quality) {
+        if (inRate <= 0 || outRate <= 0 || channels <= 0) {
+            throw new IllegalArgumentException("inRate=" + inRate + " outRate=" + outRate + " channels=" + channels);
+        }
+        this.inRate = inRate;
+        this.outRate = outRate;
+        this.channels = channels;
+        this.quality = quality;
+        int g = gcd(inRate, outRate);
+        up = outRate / g;
+        down = inRate / g;
+        phases = Math.min(up, MAX_PHASES);
+        stepInt = down / up;
+        stepFrac = down % up;
+
+        //下采样时截止频率降低，按比例加长滤波器以保持过渡带宽度
+        int t = (int) Math.ceil(quality.taps * Math.max(1.0, down / (double) up));
+        taps = (t + 3) & ~3;
+        float[] coefs = designFilter();
+        if (quality == Quality.FAST) {
+            fixedCoefs = toFixed(coefs);
+            floatCoefs = null;
+            shortHistory = new short[channels][taps * 2];
+        } else {
+            fixedCoefs = null;
+            floatCoefs = coefs;
+            floatHistory = new float[channels][taps * 2];
+        }
+        reset();
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private float[] designFilter() {
+        final double cutoff = 0.5 * Math.min(1.0, up / (double) down) * quality.rolloff;
+        final double half = taps / 2.0;
+        final double delay = taps / 2 - 1;
+        final double i0Beta = besselI0(quality.kaiserBeta);
+        float[] coefs = new float[phases * taps];
+        for (int p = 0; p < phases; p++) {
+            double sum = 0;
+            double[] h = new double[taps];
+            for (int k = 0; k < taps; k++) {
+                //输出位于输入 position + p/phases + delay 处，第k个抽头对应输入 position + k
+                double x = delay + p / (double) phases - k;
+                double r = x / half;
+                double window = Math.abs(r) >= 1 ? 0 : besselI0(quality.kaiserBeta * Math.sqrt(1 - r * r)) / i0Beta;
+                double arg = 2 * cutoff * x;
+                double sinc = arg == 0 ? 1 : Math.sin(Math.PI * arg) / (Math.PI * arg);
+                h[k] = 2 * cutoff * sinc * window;
+                sum += h[k];
+            }
+            //每个相位的直流增益归一化为1
+            for (int k = 0; k < taps; k++) {
+                coefs[p * taps + k] = (float) (h[k] / sum);
+            }
+        }
+        return coefs;
+    }
+
+    private short[] toFixed(float[] coefs) {
+        final int one = 1 << COEF_BITS;
+        short[] fixed = new short[coefs.length];
+        for (int p = 0; p < phases; p++) {
+            int sum = 0;
+            int peak = p * taps;
+            for (int k = 0; k < taps; k++) {
+                int i = p * taps + k;
+                fixed[i] = (short) Math.round(coefs[i] * one);
+                sum += fixed[i];
+                if (coefs[i] > coefs[peak]) {
+                    peak = i;
+                }
+            }
+            //舍入误差补到最大的系数上，保证直流增益精确为1
+            fixed[peak] += one - sum;
+        }
+        return fixed;
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        double q = x * x / 4;
+        for (int k = 1; k < 64; k++) {
+            term *= q / (k * (double) k);
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 清空历史数据，重新开始一段流
+     */
+    public void reset() {
+        //预先填充半个滤波器长度的静音，抵消滤波器延迟
+        int delay = taps / 2 - 1;
+        for (int c = 0; c < channels; c++) {
+            if (shortHistory != null) {
+                Arrays.fill(shortHistory[c], 0, delay, (short) 0);
+            } else {
+                Arrays.fill(floatHistory[c], 0, delay, 0f);
+            }
+        }
+        historyLength = delay;
+        position = 0;
+        phase = 0;
+    }
+
+    /**
+     * @return 送入inFrames个采样帧后，最多可能产生的输出帧数
+     */
+    public int getMaxOutputFrames(int inFrames) {
+        long available = (long) historyLength - position + inFrames;
+        return (int) (available * up / down) + 2;
+    }
+
+    /**
+     * 重采样16位交织PCM，FAST使用定点运算，HIGH使用浮点运算
+     *
+     * @param out         输出，容量不足时剩余的数据留在内部，下次调用时继续输出
+     * @param maxOutFrames out能容纳的采样帧数
+     * @return 输出的采样帧数
+     */
+    public int resample(short[] in, int inOffset, int inFrames, short[] out, int outOffset, int maxOutFrames) {
+        ensureCapacity(inFrames);
+        if (shortHistory != null) {
+            for (int c = 0; c < channels; c++) {
+                short[] h = shortHistory[c];
+                for (int i = 0, s = inOffset + c; i < inFrames; i++, s += channels) {
+                    h[historyLength + i] = in[s];
+                }
+            }
+            historyLength += inFrames;
+            return produceFixed(out, outOffset, maxOutFrames);
+        }
+        for (int c = 0; c < channels; c++) {
+            float[] h = floatHistory[c];
+            for (int i = 0, s = inOffset + c; i < inFrames; i++, s += channels) {
+                h[historyLength + i] = in[s];
+            }
+        }
+        historyLength += inFrames;
+        return produceFloat(null, out, outOffset, maxOutFrames);
+    }
+
+    /**
+     * 重采样float交织PCM，只支持{@link Quality#HIGH}
+     */
+    public int resample(float[] in, int inOffset, int inFrames, float[] out, int outOffset, int maxOutFrames) {
+        if (floatHistory == null) {
+            throw new IllegalStateException("float path requires Quality.HIGH");
+        }
+        ensureCapacity(inFrames);
+        for (int c = 0; c < channels; c++) {
+            float[] h = floatHistory[c];
+            for (int i = 0, s = inOffset + c; i < inFrames; i++, s += channels) {
+                h[historyLength + i] = in[s];
+            }
+        }
+        historyLength += inFrames;
+        return produceFloat(out, null, outOffset, maxOutFrames);
+    }
+
+    private int produceFixed(short[] out, int outOffset, int maxOutFrames) {
+        final short[] coefs = fixedCoefs;
+        final int taps = this.taps;
+        final int round = 1 << (COEF_BITS - 1);
+        int frames = 0;
+        while (frames < maxOutFrames && position + taps <= historyLength) {
+            final int base = phaseIndex() * taps;
+            for (int c = 0; c < channels; c++) {
+                final short[] h = shortHistory[c];
+                final int start = position;
+                int acc = 0;
+                for (int k = 0; k < taps; k++) {
+                    acc += coefs[base + k] * h[start + k];
+                }
+                int value = (acc + round) >> COEF_BITS;
+                out[outOffset + frames * channels + c] = (short) (value > Short.MAX_VALUE ? Short.MAX_VALUE
+                        : value < Short.MIN_VALUE ? Short.MIN_VALUE : value);
+            }
+            frames++;
+            advance();
+        }
+        compact();
+        return frames;
+    }
+
+    private int produceFloat(float[] floatOut, short[] shortOut, int outOffset, int maxOutFrames) {
+        final float[] coefs = floatCoefs;
+        final int taps = this.taps;
+        int frames = 0;
+        while (frames < maxOutFrames && position + taps <= historyLength) {
+            final int base = phaseIndex() * taps;
+            for (int c = 0; c < channels; c++) {
+                final float[] h = floatHistory[c];
+                final int start = position;
+                float acc = 0;
+                for (int k = 0; k < taps; k++) {
+                    acc += coefs[base + k] * h[start + k];
+                }
+                int index = outOffset + frames * channels + c;
+                if (floatOut != null) {
+                    floatOut[index] = acc;
+                } else {
+                    int value = Math.round(acc);
+                    shortOut[index] = (short) (value > Short.MAX_VALUE ? Short.MAX_VALUE
+                            : value < Short.MIN_VALUE ? Short.MIN_VALUE : value);
+                }
+            }
+            frames++;
+            advance();
+        }
+        compact();
+        return frames;
+    }
+
+    private int phaseIndex() {
+        return phases == up ? phase : (int) ((long) phase * phases / up);
+    }
+
+    private void advance() {
+        position += stepInt;
+        phase += stepFrac;
+        if (phase >= up) {
+            phase -= up;
+            position++;
+        }
+    }
+
+    /**
+     * 丢弃已经不再需要的历史数据
+     */
+    private void compact() {
+        //大比例下采样时position可能越过已有数据，越过的部分在下次送入数据时跳过
+        int drop = Math.min(position, historyLength);
+        if (drop == 0) {
+            return;
+        }
+        int keep = historyLength - drop;
+        if (keep > 0) {
+            for (int c = 0; c < channels; c++) {
+                if (shortHistory != null) {
+                    System.arraycopy(shortHistory[c], drop, shortHistory[c], 0, keep);
+                } else {
+                    System.arraycopy(floatHistory[c], drop, floatHistory[c], 0, keep);
+                }
+            }
+        }
+        historyLength = keep;
+        position -= drop;
+    }
+
+    private void ensureCapacity(int inFrames) {
+        int required = historyLength + inFrames;
+        int capacity = shortHistory != null ? shortHistory[0].length : floatHistory[0].length;
+        if (required <= capacity) {
+            return;
+        }
+        int size = Math.max(required, capacity * 2);
+        for (int c = 0; c < channels; c++) {
+            if (shortHistory != null) {
+                shortHistory[c] = Arrays.copyOf(shortHistory[c], size);
+            } else {
+                floatHistory[c] = Arrays.copyOf(floatHistory[c], size);
+            }
+        }
+    }
+
+    public int getInRate() {
+        return inRate;
+    }
+
+    public int getOutRate() {
+        return outRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public Quality getQuality() {
+        return quality;
+    }
+
+    /**
+     * @return 每个相位的抽头数
+     */
+    public int getTaps() {
+        return taps;
+    }
+
+    public int getPhases() {
+        return phases;
+    }
+
+    @Override
+    public String toString() {
+        return "PolyphaseResampler{" +
+                inRate + "->" + outRate +
+                ", ratio=" + up + "/" + down +
+                ", channels=" + channels +
+                ", quality=" + quality +
+                ", taps=" + taps +
+                ", phases=" + phases +
+                '}';
+    }
+}
@@ -0,0 +1,298 @@
+package com.gpufast.recorder.audio;
+
+import java.util.Arrays;
+
+/**
+ * WSOLA变速不变调
+ * <p>
+ * 每次迭代从输入中取一个长度为{@link #SEQUENCE_MS}的片段输出，片段起点在名义位置之后
+ * {@link #SEEK_MS}范围内搜索，选取与上一片段尾部相关性最大的位置，再用{@link #OVERLAP_MS}长度的
+ * 交叉淡化拼接，避免相位跳变。名义位置每次按speed倍的输出长度前进，所以输出时长等于输入时长除以speed。
+ * <p>
+ * 输入和输出缓冲区在构造时一次性分配，运行过程中不分配内存。调用者送入数据后需要及时取走输出，
+ * {@link #put(short[], int, int)}在内部缓冲区满时只接收一部分输入。
+ * <p>
+ * 非线程安全
+ */
+public class WsolaTimeStretcher {
+
+    static final int SEQUENCE_MS = 40;
+    static final int SEEK_MS = 15;
+    static final int OVERLAP_MS = 8;
+    //粗搜索的步长和相关性计算的抽取间隔
+    private static final int COARSE_STEP = 4;
+    private static final int CORRELATION_DECIMATION = 2;
+
+    private final int sampleRate;
+    private final int channels;
+    private final float speed;
+
+    //以下长度单位都是采样帧
+    private final int sequence;
+    private final int seek;
+    private final int overlap;
+    private final double nominalSkip;
+    private double skipFraction;
+
+    //交织的输入数据，[inputPosition, inputLength)为未处理部分
+    private final short[] input;
+    private int inputLength;
+    private int inputPosition;
+    //上一片段末尾overlap长度的数据，用于和下一片段交叉淡化
+    private final short[] mid;
+    private boolean first = true;
+
+    //交织的输出数据，[outputPosition, outputLength)为未取走部分
+    private final short[] output;
+    private int outputLength;
+    private int outputPosition;
+
+    private long inputFrames;
+    private long producedFrames;
+    private boolean flushing;
+    private long targetFrames;
+
+    /**
+     * @param sampleRate     采样率
+     * @param channels       声道数
+     * @param speed          播放速度，大于1变快，小于1变慢
+     * @param maxInputFrames 单次送入的最大采样帧数
+     */
+    public WsolaTimeStretcher(int sampleRate, int channels, float speed, int maxInputFrames) {
+        if (sampleRate <= 0 || channels <= 0 || maxInputFrames <= 0 || !(speed > 0)) {
+            throw new IllegalArgumentException("sampleRate=" + sampleRate + " channels=" + channels
+                    + " speed=" + speed + " maxInputFrames=" + maxInputFrames);
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.speed = speed;
+        sequence = sampleRate * SEQUENCE_MS / 1000;
+        seek = sampleRate * SEEK_MS / 1000;
+        overlap = sampleRate * OVERLAP_MS / 1000;
+        nominalSkip = speed * (sequence - overlap);
+
+        //能容纳一次完整迭代所需的数据，加上一次送入的数据
+        int inputCapacity = maxInputFrames + (int) Math.ceil(nominalSkip) + seek + sequence;
+        input = new short[inputCapacity * channels];
+        mid = new short[overlap * channels];
+        //每次迭代输出sequence - overlap帧，至少容纳一次送入数据对应的输出
+        int outputCapacity = (int) Math.ceil(maxInputFrames / speed) + 2 * sequence;
+        output = new short[outputCapacity * channels];
+    }
+
+    /**
+     * 送入交织的PCM数据
+     *
+     * @return 实际接收的采样帧数，内部缓冲区满时小于frames，需要先取走输出再送入剩余部分
+     */
+    public int put(short[] in, int offset, int frames) {
+        if (flushing) {
+            throw new IllegalStateException("put after flush");
+        }
+        compactInput();
+        int accepted = Math.min(frames, input.length / channels - inputLength);
+        System.arraycopy(in, offset, input, inputLength * channels, accepted * channels);
+        inputLength += accepted;
+        inputFrames += accepted;
+        pump();
+        return accepted;
+    }
+
+    /**
+     * 取走输出数据
+     *
+     * @return 输出的采样帧数，0表示暂时没有输出
+     */
+    public int receive(short[] out, int offset, int maxFrames) {
+        int frames = Math.min(maxFrames, outputLength - outputPosition);
+        System.arraycopy(output, outputPosition * channels, out, offset, frames * channels);
+        outputPosition += frames;
+        if (outputPosition == outputLength) {
+            outputPosition = 0;
+            outputLength = 0;
+        }
+        pump();
+        return frames;
+    }
+
+    /**
+     * 输入结束后调用，用静音补齐最后不完整的片段，并把总输出截断为输入时长除以speed。
+     * 之后反复调用{@link #receive(short[], int, int)}直到{@link #isFinished()}
+     */
+    public void flush() {
+        if (!flushing) {
+            flushing = true;
+            targetFrames = Math.round(inputFrames / (double) speed);
+        }
+        pump();
+    }
+
+    /**
+     * @return flush之后所有输出都已经被取走
+     */
+    public boolean isFinished() {
+        return flushing && producedFrames >= targetFrames && outputLength == outputPosition;
+    }
+
+    private void pump() {
+        while (true) {
+            if (flushing && producedFrames >= targetFrames) {
+                return;
+            }
+            compactOutput();
+            if (output.length / channels - outputLength < sequence - overlap) {
+                return;
+            }
+            int base = inputPosition;
+            if (base + seek + sequence > inputLength) {
+                if (!flushing) {
+                    return;
+                }
+                //输入已经结束，补静音凑满最后一个片段
+                compactInput();
+                int pad = Math.min(input.length / channels - inputLength, seek + sequence);
+                if (pad <= 0) {
+                    return;
+                }
+                Arrays.fill(input, inputLength * channels, (inputLength + pad) * channels, (short) 0);
+                inputLength += pad;
+                continue;
+            }
+            iterate(base);
+        }
+    }
+
+    private void iterate(int base) {
+        final int ch = channels;
+        int frames = sequence - overlap;
+        int out = outputLength * ch;
+        if (first) {
+            System.arraycopy(input, base * ch, output, out, frames * ch);
+            System.arraycopy(input, (base + frames) * ch, mid, 0, overlap * ch);
+            first = false;
+        } else {
+            int start = base + bestOffset(base);
+            //交叉淡化：上一片段尾部淡出，本片段头部淡入
+            for (int i = 0; i < overlap; i++) {
+                int fadeIn = i;
+                int fadeOut = overlap - i;
+                for (int c = 0; c < ch; c++) {
+                    int a = mid[i * ch + c];
+                    int b = input[(start + i) * ch + c];
+                    output[out + i * ch + c] = (short) ((a * fadeOut + b * fadeIn) / overlap);
+                }
+            }
+            int body = sequence - 2 * overlap;
+            System.arraycopy(input, (start + overlap) * ch, output, out + overlap * ch, body * ch);
+            System.arraycopy(input, (start + sequence - overlap) * ch, mid, 0, overlap * ch);
+        }
+        outputLength += frames;
+        int produced = frames;
+        if (flushing && producedFrames + produced > targetFrames) {
+            //截断到目标时长
+            int excess = (int) (producedFrames + produced - targetFrames);
+            outputLength -= excess;
+            produced -= excess;
+        }
+        producedFrames += produced;
+
+        skipFraction += nominalSkip;
+        int skip = (int) skipFraction;
+        skipFraction -= skip;
+        inputPosition += skip;
+    }
+
+    /**
+     * 在[base, base + seek)中找与mid相关性最大的片段起点，先粗搜索再在附近细搜索
+     */
+    private int bestOffset(int base) {
+        int best = 0;
+        double bestScore = -Double.MAX_VALUE;
+        for (int offset = 0; offset < seek; offset += COARSE_STEP) {
+            double score = correlation(base + offset);
+            if (score > bestScore) {
+                bestScore = score;
+                best = offset;
+            }
+        }
+        int from = Math.max(0, best - COARSE_STEP + 1);
+        int to = Math.min(seek - 1, best + COARSE_STEP - 1);
+        int coarse = best;
+        for (int offset = from; offset <= to; offset++) {
+            if (offset == coarse) {
+                continue;
+            }
+            double score = correlation(base + offset);
+            if (score > bestScore) {
+                bestScore = score;
+                best = offset;
+            }
+        }
+        return best;
+    }
+
+    private double correlation(int start) {
+        final int ch = channels;
+        final int step = CORRELATION_DECIMATION * ch;
+        final int end = overlap * ch;
+        final int in = start * ch;
+        long corr = 0;
+        long norm = 0;
+        for (int i = 0; i < end; i += step) {
+            int b = input[in + i];
+            corr += mid[i] * b;
+            norm += b * b;
+        }
+        return corr / Math.sqrt(norm + 1.0);
+    }
+
+    private void compactInput() {
+        int drop = Math.min(inputPosition, inputLength);
+        if (drop == 0) {
+            return;
+        }
+        int keep = inputLength - drop;
+        System.arraycopy(input, drop * channels, input, 0, keep * channels);
+        inputLength = keep;
+        inputPosition -= drop;
+    }
+
+    private void compactOutput() {
+        if (outputPosition == 0) {
+            return;
+        }
+        int keep = outputLength - outputPosition;
+        System.arraycopy(output, outputPosition * channels, output, 0, keep * channels);
+        outputLength = keep;
+        outputPosition = 0;
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public long getInputFrames() {
+        return inputFrames;
+    }
+
+    public long getProducedFrames() {
+        return producedFrames;
+    }
+
+    @Override
+    public String toString() {
+        return "WsolaTimeStretcher{" +
+                "speed=" + speed +
+                ", in=" + inputFrames +
+                ", out=" + producedFrames +
+                '}';
+    }
+}
@@ -0,0 +1,60 @@
+package com.gpufast.recorder.audio.encoder;
+
+/**
+ * 按高位在前的顺序写入比特，写到预先分配的数组中
+ */
+final class AacBitWriter {
+
+    private final byte[] data;
+    private int bitPosition;
+
+    AacBitWriter(int capacityBytes) {
+        data = new byte[capacityBytes];
+    }
+
+    void reset() {
+        bitPosition = 0;
+    }
+
+    /**
+     * @param value 写入低bits位
+     * @param bits  0到32
+     */
+    void write(int value, int bits) {
+        if (bitPosition + bits > data.length * 8) {
+            throw new IllegalStateException("bit buffer overflow: " + (bitPosition + bits) + " bits");
+        }
+        for (int i = bits - 1; i >= 0; i--) {
+            int index = bitPosition >> 3;
+            int shift = 7 - (bitPosition & 7);
+            if (shift == 7) {
+                data[index] = 0;
+            }
+            data[index] |= ((value >>> i) & 1) << shift;
+            bitPosition++;
+        }
+    }
+
+    /**
+     * 补0到整字节
+     */
+    void byteAlign() {
+        int padding = (8 - (bitPosition & 7)) & 7;
+        write(0, padding);
+    }
+
+    int getBitPosition() {
+        return bitPosition;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return 已经写入的字节数，不足一个字节的部分算一个字节
+     */
+    int getByteLength() {
+        return (bitPosition + 7) >> 3;
+    }
+}
@@ -0,0 +1,655 @@
+package com.gpufast.recorder.audio.encoder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 纯Java的AAC-LC编码器，不依赖MediaCodec
+ * <p>
+ * 每帧1024个采样（每声道），输出不带ADTS头的raw_data_block，配合{@link #getAudioSpecificConfig()}写入MP4。
+ * 只使用长窗和正弦窗，单声道为SCE，双声道为两个独立窗口的CPE，不使用TNS、M/S和PNS。
+ * <p>
+ * 编码流程：MDCT得到频谱，按尺度因子频带计算能量，由频带能量向高频扩散和绝对听阈得到每个频带允许的噪声；
+ * 每个频带用二分查找选出噪声不超过允许值的最大尺度因子（量化最粗）；外层对目标信噪比做二分查找，
+ * 使整帧比特数不超过码率分配的比特加上比特池中可用的部分。量化后的每个频带选择比特最少的码本，
+ * 相邻相同码本合并成一个区段。
+ * <p>
+ * 非线程安全，只能在一个线程中使用
+ */
+public final class AacLcEncoder {
+
+    /**
+     * 每帧的采样数（每声道）
+     */
+    public static final int FRAME_LENGTH = AacMdct.FRAME_LENGTH;
+
+    private static final int ID_SCE = 0;
+    private static final int ID_CPE = 1;
+    private static final int ID_END = 7;
+
+    //解码器每个声道的输入缓冲，一帧不能超过这个比特数
+    private static final int MAX_CHANNEL_BITS = 6144;
+    private static final int MAX_QUANT = 8191;
+    private static final int MAX_SCALEFACTOR = 255;
+    private static final int MAX_SCALEFACTOR_DIFF = 60;
+    //量化时的舍入偏移，使量化误差的期望接近0
+    private static final float ROUNDING = 0.4054f;
+
+    //目标信噪比的搜索范围（dB），下限时几乎所有频带量化为0
+    private static final float MIN_SNR_DB = -30f;
+    private static final float MAX_SNR_DB = 60f;
+    private static final int RATE_LOOP_ITERATIONS = 7;
+    //频带能量向高频一个频带衰减10dB，向低频衰减20dB
+    private static final float SPREAD_UP = 0.1f;
+    private static final float SPREAD_DOWN = 0.01f;
+    //满幅正弦波在MDCT域一条谱线的能量，对应96dB SPL，用于把绝对听阈换算到频谱能量
+    private static final double FULL_SCALE_LINE_ENERGY = 3.9e14;
+    private static final double FULL_SCALE_SPL = 96;
+
+    //q^(4/3)
+    private static final float[] POW43 = new float[MAX_QUANT + 1];
+    //2^(0.25 * (sf - 100))和2^(-0.1875 * (sf - 100))
+    private static final float[] STEP = new float[MAX_SCALEFACTOR + 1];
+    private static final float[] INV_STEP_POW34 = new float[MAX_SCALEFACTOR + 1];
+
+    static {
+        for (int i = 0; i <= MAX_QUANT; i++) {
+            POW43[i] = (float) Math.pow(i, 4.0 / 3.0);
+        }
+        for (int sf = 0; sf <= MAX_SCALEFACTOR; sf++) {
+            STEP[sf] = (float) Math.pow(2, 0.25 * (sf - 100));
+            INV_STEP_POW34[sf] = (float) Math.pow(2, -0.1875 * (sf - 100));
+        }
+    }
+
+    private final int sampleRate;
+    private final int channels;
+    private final int bitrate;
+    private final int sampleRateIndex;
+    private final int[] swbOffsets;
+    private final int maxSfb;
+    //每个频带的绝对听阈能量
+    private final float[] athEnergy;
+    private final ChannelState[] states;
+    private final AacBitWriter writer;
+
+    //每帧平均分到的比特数和比特池
+    private final int meanBits;
+    private final int maxFrameBits;
+    private final int maxReservoir;
+    private int reservoir;
+
+    private volatile long frames;
+    private volatile long totalBits;
+    private volatile long encodeNs;
+
+    /**
+     * @param sampleRate 采样率，需要是AAC支持的标准采样率
+     * @param channels   1或2
+     * @param bitrate    目标码率（bps）
+     */
+    public AacLcEncoder(int sampleRate, int channels, int bitrate) {
+        sampleRateIndex = AacTables.sampleRateIndex(sampleRate);
+        if (sampleRateIndex < 0 || channels < 1 || channels > 2 || bitrate <= 0) {
+            throw new IllegalArgumentException("sampleRate=" + sampleRate + " channels=" + channels
+                    + " bitrate=" + bitrate);
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitrate = bitrate;
+        swbOffsets = AacTables.swbOffsets(sampleRateIndex);
+        maxSfb = bandLimit(swbOffsets, sampleRate, bitrate / channels);
+        athEnergy = computeAth(swbOffsets, maxSfb, sampleRate);
+
+        maxFrameBits = MAX_CHANNEL_BITS * channels;
+        meanBits = (int) Math.min((long) bitrate * FRAME_LENGTH / sampleRate, maxFrameBits);
+        maxReservoir = maxFrameBits - meanBits;
+        states = new ChannelState[channels];
+        for (int i = 0; i < channels; i++) {
+            states[i] = new ChannelState(maxSfb);
+        }
+        writer = new AacBitWriter(maxFrameBits / 8 + 8);
+    }
+
+    /**
+     * 按每声道码率决定编码的带宽，码率低时不编码高频
+     *
+     * @return 编码的频带个数
+     */
+    private static int bandLimit(int[] offsets, int sampleRate, int channelBitrate) {
+        int cutoffHz;
+        if (channelBitrate >= 64000) {
+            cutoffHz = 17000;
+        } else if (channelBitrate >= 48000) {
+            cutoffHz = 15000;
+        } else if (channelBitrate >= 32000) {
+            cutoffHz = 12000;
+        } else if (channelBitrate >= 24000) {
+            cutoffHz = 9000;
+        } else {
+            cutoffHz = 6000;
+        }
+        int cutoffLine = (int) Math.min(FRAME_LENGTH, (long) cutoffHz * FRAME_LENGTH * 2 / sampleRate);
+        int bands = 0;
+        while (bands < offsets.length - 1 && offsets[bands] < cutoffLine) {
+            bands++;
+        }
+        return bands;
+    }
+
+    /**
+     * Terhardt绝对听阈，每个频带取频带内的最小值
+     */
+    private static float[] computeAth(int[] offsets, int bands, int sampleRate) {
+        float[] ath = new float[bands];
+        for (int b = 0; b < bands; b++) {
+            double minDb = Double.MAX_VALUE;
+            for (int k = offsets[b]; k < offsets[b + 1]; k++) {
+                double f = Math.max(0.02, (k + 0.5) * sampleRate / (2.0 * FRAME_LENGTH) / 1000);
+                double db = 3.64 * Math.pow(f, -0.8) - 6.5 * Math.exp(-0.6 * (f - 3.3) * (f - 3.3))
+                        + 1e-3 * Math.pow(f, 4);
+                minDb = Math.min(minDb, db);
+            }
+            int width = offsets[b + 1] - offsets[b];
+            ath[b] = (float) (FULL_SCALE_LINE_ENERGY * Math.pow(10, (minDb - FULL_SCALE_SPL) / 10) * width);
+        }
+        return ath;
+    }
+
+    /**
+     * @return AudioSpecificConfig，作为MediaFormat的csd-0
+     */
+    public byte[] getAudioSpecificConfig() {
+        //对象类型AAC-LC(2)，采样率下标，声道配置，GASpecificConfig三个标志位都为0
+        return new byte[]{
+                (byte) ((2 << 3) | (sampleRateIndex >> 1)),
+                (byte) (((sampleRateIndex & 1) << 7) | (channels << 3)),
+        };
+    }
+
+    /**
+     * @return 一帧输出的最大字节数
+     */
+    public int getMaxFrameBytes() {
+        return maxFrameBits / 8 + 8;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * 编码一帧
+     *
+     * @param pcm 16位小端PCM，多声道交错，从position开始读取{@link #FRAME_LENGTH} * channels个采样
+     * @param out 从position开始写入，至少有{@link #getMaxFrameBytes()}字节的空间
+     * @return 写入的字节数
+     */
+    public int encode(ByteBuffer pcm, ByteBuffer out) {
+        final long start = System.nanoTime();
+        ByteBuffer in = pcm.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < FRAME_LENGTH; i++) {
+            for (int ch = 0; ch < channels; ch++) {
+                states[ch].input[FRAME_LENGTH + i] = in.getShort();
+            }
+        }
+        pcm.position(in.position());
+        for (ChannelState state : states) {
+            state.analyze();
+        }
+
+        rateLoop(Math.min(maxFrameBits, meanBits + reservoir / 4));
+        writeFrame();
+        writer.byteAlign();
+        int bytes = writer.getByteLength();
+        out.put(writer.getData(), 0, bytes);
+
+        //没用完的比特留在比特池中给后面的帧
+        int bits = bytes * 8;
+        reservoir = Math.max(0, Math.min(maxReservoir, reservoir + meanBits - bits));
+        for (ChannelState state : states) {
+            state.shift();
+        }
+        frames++;
+        totalBits += bits;
+        encodeNs += System.nanoTime() - start;
+        return bytes;
+    }
+
+    /**
+     * 二分查找满足比特预算的最高信噪比，结果保留在各声道的状态中
+     */
+    private void rateLoop(int targetBits) {
+        float low = MIN_SNR_DB;
+        float high = MAX_SNR_DB;
+        float best = MIN_SNR_DB;
+        for (int i = 0; i < RATE_LOOP_ITERATIONS; i++) {
+            float snr = (low + high) / 2;
+            if (quantizeFrame(snr) <= targetBits) {
+                best = snr;
+                low = snr;
+            } else {
+                high = snr;
+            }
+        }
+        quantizeFrame(best);
+    }
+
+    /**
+     * @return 按给定信噪比量化所有声道后整帧的比特数
+     */
+    private int quantizeFrame(float snrDb) {
+        float ratio = (float) Math.pow(10, -snrDb / 10);
+        //元素头和结束标志
+        int bits = 3 + 4 + (channels == 2 ? 1 : 0) + 3 + 7;
+        for (ChannelState state : states) {
+            bits += state.quantize(ratio);
+        }
+        return bits;
+    }
+
+    private void writeFrame() {
+        writer.reset();
+        if (channels == 1) {
+            writer.write(ID_SCE, 3);
+            writer.write(0, 4);
+            states[0].write(writer);
+        } else {
+            writer.write(ID_CPE, 3);
+            writer.write(0, 4);
+            //两个声道各自有ics_info
+            writer.write(0, 1);
+            states[0].write(writer);
+            states[1].write(writer);
+        }
+        writer.write(ID_END, 3);
+    }
+
+    /**
+     * 一个声道的编码状态
+     */
+    private final class ChannelState {
+        private final AacMdct mdct = new AacMdct();
+        //上一帧和当前帧的采样
+        final float[] input = new float[FRAME_LENGTH * 2];
+        private final float[] spectrum = new float[FRAME_LENGTH];
+        //|x|^(3/4)
+        private final float[] spectrumPow34 = new float[FRAME_LENGTH];
+        private final int[] quant = new int[FRAME_LENGTH];
+        private final int bands;
+        private final float[] energy;
+        private final float[] masking;
+        private final float[] maxPow34;
+        private final int[] scalefactors;
+        private final int[] codebooks;
+        private final int[] bandBits;
+        private int globalGain;
+
+        ChannelState(int bands) {
+            this.bands = bands;
+            energy = new float[bands];
+            masking = new float[bands];
+            maxPow34 = new float[bands];
+            scalefactors = new int[bands];
+            codebooks = new int[bands];
+            bandBits = new int[bands];
+        }
+
+        /**
+         * MDCT和频带能量，与码率无关，每帧只计算一次
+         */
+        void analyze() {
+            mdct.forward(input, spectrum);
+            for (int b = 0; b < bands; b++) {
+                float sum = 0;
+                float max = 0;
+                for (int k = swbOffsets[b]; k < swbOffsets[b + 1]; k++) {
+                    float x = spectrum[k];
+                    sum += x * x;
+                    float p = (float) Math.sqrt(Math.sqrt(Math.abs(x)));
+                    p = p * p * p;
+                    spectrumPow34[k] = p;
+                    max = Math.max(max, p);
+                }
+                energy[b] = sum;
+                maxPow34[b] = max;
+            }
+            //频带之间的掩蔽
+            for (int b = 0; b < bands; b++) {
+                masking[b] = energy[b];
+            }
+            for (int b = 1; b < bands; b++) {
+                masking[b] = Math.max(masking[b], masking[b - 1] * SPREAD_UP);
+            }
+            for (int b = bands - 2; b >= 0; b--) {
+                masking[b] = Math.max(masking[b], masking[b + 1] * SPREAD_DOWN);
+            }
+        }
+
+        /**
+         * 当前帧移到历史部分
+         */
+        void shift() {
+            System.arraycopy(input, FRAME_LENGTH, input, 0, FRAME_LENGTH);
+        }
+
+        /**
+         * 选择尺度因子、量化并选择码本
+         *
+         * @param ratio 允许的噪声和掩蔽能量之比
+         * @return 这个声道的比特数
+         */
+        int quantize(float ratio) {
+            int previous = -1;
+            for (int b = 0; b < bands; b++) {
+                float allowed = Math.max(masking[b] * ratio, athEnergy[b]);
+                if (energy[b] <= allowed) {
+                    codebooks[b] = AacTables.ZERO_HCB;
+                    continue;
+                }
+                int sf = searchScalefactor(b, allowed);
+                //相邻尺度因子的差值不能超过60，以前一个编码的频带为准，超出最大量化值的系数在量化时截断
+                if (previous >= 0) {
+                    sf = Math.max(previous - MAX_SCALEFACTOR_DIFF, Math.min(previous + MAX_SCALEFACTOR_DIFF, sf));
+                }
+                scalefactors[b] = sf;
+                int maxAbs = quantizeBand(b, sf);
+                codebooks[b] = chooseCodebook(b, maxAbs);
+                previous = sf;
+            }
+
+            //global_gain 8 + ics_info 11 + pulse/tns/gain_control 3
+            int bits = 8 + 11 + 3;
+            int lastSf = -1;
+            for (int b = 0; b < bands; b++) {
+                if (codebooks[b] == AacTables.ZERO_HCB) {
+                    continue;
+                }
+                if (lastSf < 0) {
+                    globalGain = scalefactors[b];
+                    lastSf = globalGain;
+                }
+                bits += AacTables.SCALEFACTOR_BITS[scalefactors[b] - lastSf + MAX_SCALEFACTOR_DIFF];
+                lastSf = scalefactors[b];
+                bits += bandBits[b];
+            }
+            if (lastSf < 0) {
+                globalGain = 100;
+            }
+            return bits + sectionBits();
+        }
+
+        /**
+         * @return 最大量化值不超过8191的最小尺度因子
+         */
+        private int minScalefactor(int band) {
+            float max = maxPow34[band];
+            int sf = 0;
+            while (sf < MAX_SCALEFACTOR && max * INV_STEP_POW34[sf] + ROUNDING > MAX_QUANT) {
+                sf++;
+            }
+            return sf;
+        }
+
+        /**
+         * 二分查找噪声不超过allowed的最大尺度因子
+         */
+        private int searchScalefactor(int band, float allowed) {
+            int low = minScalefactor(band);
+            int high = MAX_SCALEFACTOR;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (bandNoise(band, middle) <= allowed) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+
+        private float bandNoise(int band, int sf) {
+            final float invStep = INV_STEP_POW34[sf];
+            final float step = STEP[sf];
+            float noise = 0;
+            for (int k = swbOffsets[band]; k < swbOffsets[band + 1]; k++) {
+                int q = Math.min(MAX_QUANT, (int) (spectrumPow34[k] * invStep + ROUNDING));
+                float error = Math.abs(spectrum[k]) - POW43[q] * step;
+                noise += error * error;
+            }
+            return noise;
+        }
+
+        /**
+         * @return 频带内量化值的最大绝对值
+         */
+        private int quantizeBand(int band, int sf) {
+            final float invStep = INV_STEP_POW34[sf];
+            int maxAbs = 0;
+            for (int k = swbOffsets[band]; k < swbOffsets[band + 1]; k++) {
+                int q = Math.min(MAX_QUANT, (int) (spectrumPow34[k] * invStep + ROUNDING));
+                maxAbs = Math.max(maxAbs, q);
+                quant[k] = spectrum[k] < 0 ? -q : q;
+            }
+            return maxAbs;
+        }
+
+        /**
+         * 在能表示maxAbs的码本中选择比特最少的一个，比特数记在bandBits中。
+         * 编码的频带即使全部量化为0也使用码本1，保证尺度因子的差值链不断开
+         */
+        private int chooseCodebook(int band, int maxAbs) {
+            int first;
+            if (maxAbs <= 1) {
+                first = 1;
+            } else if (maxAbs <= 2) {
+                first = 3;
+            } else if (maxAbs <= 4) {
+                first = 5;
+            } else if (maxAbs <= 7) {
+                first = 7;
+            } else if (maxAbs <= 12) {
+                first = 9;
+            } else {
+                first = AacTables.ESC_HCB;
+            }
+            int start = swbOffsets[band];
+            int end = swbOffsets[band + 1];
+            int bestCodebook = first;
+            int bestBits = spectralBits(first, start, end);
+            if (first != AacTables.ESC_HCB) {
+                int bits = spectralBits(first + 1, start, end);
+                if (bits < bestBits) {
+                    bestBits = bits;
+                    bestCodebook = first + 1;
+                }
+            }
+            bandBits[band] = bestBits;
+            return bestCodebook;
+        }
+
+        private int spectralBits(int codebook, int start, int end) {
+            final byte[] table = AacTables.SPECTRAL_BITS[codebook];
+            final boolean unsigned = AacTables.isUnsigned(codebook);
+            final int modulo = AacTables.modulo(codebook);
+            final int offset = unsigned ? 0 : AacTables.LAV[codebook];
+            final int dimension = AacTables.isQuad(codebook) ? 4 : 2;
+            int bits = 0;
+            for (int k = start; k < end; k += dimension) {
+                int index = 0;
+                for (int j = 0; j < dimension; j++) {
+                    int q = quant[k + j];
+                    if (unsigned) {
+                        int abs = Math.abs(q);
+                        if (abs != 0) {
+                            bits++;
+                        }
+                        if (abs >= AacTables.ESC_FLAG) {
+                            bits += escapeBits(abs);
+                            abs = AacTables.ESC_FLAG;
+                        }
+                        index = index * modulo + abs;
+                    } else {
+                        index = index * modulo + q + offset;
+                    }
+                }
+                bits += table[index];
+            }
+            return bits;
+        }
+
+        /**
+         * 相邻相同码本的频带合并成一个区段，每个区段4位码本和若干个5位长度
+         */
+        private int sectionBits() {
+            int bits = 0;
+            int b = 0;
+            while (b < bands) {
+                int end = b + 1;
+                while (end < bands && codebooks[end] == codebooks[b]) {
+                    end++;
+                }
+                bits += 4 + 5 * ((end - b) / 31 + 1);
+                b = end;
+            }
+            return bits;
+        }
+
+        /**
+         * individual_channel_stream，不使用公共窗口
+         */
+        void write(AacBitWriter out) {
+            out.write(globalGain, 8);
+            //ics_info：保留位、ONLY_LONG_SEQUENCE、正弦窗、max_sfb、没有预测
+            out.write(0, 1);
+            out.write(0, 2);
+            out.write(0, 1);
+            out.write(bands, 6);
+            out.write(0, 1);
+
+            //section_data
+            int b = 0;
+            while (b < bands) {
+                int end = b + 1;
+                while (end < bands && codebooks[end] == codebooks[b]) {
+                    end++;
+                }
+                out.write(codebooks[b], 4);
+                int length = end - b;
+                while (length >= 31) {
+                    out.write(31, 5);
+                    length -= 31;
+                }
+                out.write(length, 5);
+                b = end;
+            }
+
+            //scale_factor_data，第一个编码频带的尺度因子等于global_gain
+            int lastSf = globalGain;
+            for (b = 0; b < bands; b++) {
+                if (codebooks[b] == AacTables.ZERO_HCB) {
+                    continue;
+                }
+                int index = scalefactors[b] - lastSf + MAX_SCALEFACTOR_DIFF;
+                out.write(AacTables.SCALEFACTOR_CODES[index], AacTables.SCALEFACTOR_BITS[index]);
+                lastSf = scalefactors[b];
+            }
+
+            //pulse_data_present、tns_data_present、gain_control_data_present
+            out.write(0, 3);
+
+            //spectral_data
+            for (b = 0; b < bands; b++) {
+                if (codebooks[b] != AacTables.ZERO_HCB) {
+                    writeSpectral(out, codebooks[b], swbOffsets[b], swbOffsets[b + 1]);
+                }
+            }
+        }
+
+        private void writeSpectral(AacBitWriter out, int codebook, int start, int end) {
+            final int[] codes = AacTables.SPECTRAL_CODES[codebook];
+            final byte[] lengths = AacTables.SPECTRAL_BITS[codebook];
+            final boolean unsigned = AacTables.isUnsigned(codebook);
+            final int modulo = AacTables.modulo(codebook);
+            final int offset = unsigned ? 0 : AacTables.LAV[codebook];
+            final int dimension = AacTables.isQuad(codebook) ? 4 : 2;
+            for (int k = start; k < end; k += dimension) {
+                int index = 0;
+                for (int j = 0; j < dimension; j++) {
+                    int q = quant[k + j];
+                    if (unsigned) {
+                        index = index * modulo + Math.min(Math.abs(q), AacTables.ESC_FLAG);
+                    } else {
+                        index = index * modulo + q + offset;
+                    }
+                }
+                out.write(codes[index], lengths[index]);
+                if (!unsigned) {
+                    continue;
+                }
+                //无符号码本在码字之后依次写非零值的符号，1表示负数
+                for (int j = 0; j < dimension; j++) {
+                    int q = quant[k + j];
+                    if (q != 0) {
+                        out.write(q < 0 ? 1 : 0, 1);
+                    }
+                }
+                if (codebook == AacTables.ESC_HCB) {
+                    for (int j = 0; j < dimension; j++) {
+                        int abs = Math.abs(quant[k + j]);
+                        if (abs >= AacTables.ESC_FLAG) {
+                            writeEscape(out, abs);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 逃逸码：N - 4个1和一个0作为前缀，再用N位写出abs - 2^N，N = floor(log2(abs))
+     */
+    private static int escapeBits(int abs) {
+        int n = 31 - Integer.numberOfLeadingZeros(abs);
+        return (n - 4) + 1 + n;
+    }
+
+    private static void writeEscape(AacBitWriter out, int abs) {
+        int n = 31 - Integer.numberOfLeadingZeros(abs);
+        for (int i = 4; i < n; i++) {
+            out.write(1, 1);
+        }
+        out.write(0, 1);
+        out.write(abs - (1 << n), n);
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return 实际的平均码率（bps）
+     */
+    public long getAverageBitrate() {
+        long count = frames;
+        return count > 0 ? totalBits * sampleRate / (count * FRAME_LENGTH) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "AacLcEncoder{" +
+                "sampleRate=" + sampleRate +
+                ", channels=" + channels +
+                ", bitrate=" + bitrate +
+                ", maxSfb=" + maxSfb +
+                ", frames=" + frames +
+                ", avgBitrate=" + getAverageBitrate() +
+                ", reservoir=" + reservoir +
+                ", avgEncodeUs=" + (frames > 0 ? encodeNs / 1000 / frames : 0) +
+                '}';
+    }
+}
@@ -0,0 +1,119 @@
+package com.gpufast.recorder.audio.encoder;
+
+/**
+ * AAC长窗的MDCT，2048个输入采样得到1024个频谱系数
+ * <p>
+ * 定义与ISO 14496-3一致：X[k] = 2 * Σ z[n] * cos(2π/N * (n + n0) * (k + 1/2))，n0 = (N/2 + 1) / 2，
+ * 解码端的IMDCT带有2/N的系数，两者合起来可以完整重建输入。
+ * 先把加窗后的输入折叠成N/2点的DCT-IV，再通过N/4点的复数FFT计算，旋转因子全部预先计算。
+ * 非线程安全，每个声道使用自己的实例
+ */
+final class AacMdct {
+
+    static final int FRAME_LENGTH = 1024;
+    private static final int N = FRAME_LENGTH * 2;
+    private static final int N2 = N / 2;
+    private static final int N4 = N / 4;
+
+    //正弦窗
+    private final float[] window = new float[N];
+    //DCT-IV的预旋转和后旋转因子
+    private final float[] preCos = new float[N4];
+    private final float[] preSin = new float[N4];
+    private final float[] postCos = new float[N4];
+    private final float[] postSin = new float[N4];
+    //FFT的旋转因子和位反转表
+    private final float[] fftCos = new float[N4 / 2];
+    private final float[] fftSin = new float[N4 / 2];
+    private final int[] bitReverse = new int[N4];
+
+    private final float[] folded = new float[N2];
+    private final float[] re = new float[N4];
+    private final float[] im = new float[N4];
+
+    AacMdct() {
+        for (int n = 0; n < N; n++) {
+            window[n] = (float) Math.sin(Math.PI / N * (n + 0.5));
+        }
+        for (int n = 0; n < N4; n++) {
+            double angle = Math.PI * (4 * n + 1) / (4.0 * N2);
+            preCos[n] = (float) Math.cos(angle);
+            preSin[n] = (float) Math.sin(angle);
+            angle = Math.PI * n / N2;
+            postCos[n] = (float) Math.cos(angle);
+            postSin[n] = (float) Math.sin(angle);
+        }
+        for (int n = 0; n < N4 / 2; n++) {
+            double angle = 2 * Math.PI * n / N4;
+            fftCos[n] = (float) Math.cos(angle);
+            fftSin[n] = (float) Math.sin(angle);
+        }
+        int bits = Integer.numberOfTrailingZeros(N4);
+        for (int n = 0; n < N4; n++) {
+            bitReverse[n] = Integer.reverse(n) >>> (32 - bits);
+        }
+    }
+
+    /**
+     * @param input 2048个采样，上一帧的1024个采样在前，不需要预先加窗
+     * @param out   1024个频谱系数
+     */
+    void forward(float[] input, float[] out) {
+        //加窗后平移N/4并折叠：u[n] = -z[3N/4 - 1 - n] - z[3N/4 + n]，u[N/4 + n] = z[n] - z[N/2 - 1 - n]
+        final float[] w = window;
+        final float[] u = folded;
+        for (int n = 0; n < N4; n++) {
+            int a = 3 * N4 - 1 - n;
+            int b = 3 * N4 + n;
+            u[n] = -input[a] * w[a] - input[b] * w[b];
+            int c = n;
+            int d = N2 - 1 - n;
+            u[N4 + n] = input[c] * w[c] - input[d] * w[d];
+        }
+
+        //DCT-IV：偶数下标和反序的奇数下标组成复数，预旋转后做N/4点FFT
+        for (int n = 0; n < N4; n++) {
+            float x = u[2 * n];
+            float y = u[N2 - 1 - 2 * n];
+            float c = preCos[n];
+            float s = preSin[n];
+            int j = bitReverse[n];
+            re[j] = x * c + y * s;
+            im[j] = y * c - x * s;
+        }
+        fft();
+        //后旋转，输出系数乘2与标准定义一致
+        for (int k = 0; k < N4; k++) {
+            float x = re[k];
+            float y = im[k];
+            float c = postCos[k];
+            float s = postSin[k];
+            out[2 * k] = 2 * (x * c + y * s);
+            out[N2 - 1 - 2 * k] = 2 * (x * s - y * c);
+        }
+    }
+
+    /**
+     * 原位基2 FFT，输入已经按位反转排列
+     */
+    private void fft() {
+        for (int size = 2; size <= N4; size <<= 1) {
+            int half = size >> 1;
+            int step = N4 / size;
+            for (int start = 0; start < N4; start += size) {
+                for (int k = 0; k < half; k++) {
+                    float c = fftCos[k * step];
+                    float s = fftSin[k * step];
+                    int p = start + k;
+                    int q = p + half;
+                    float tr = re[q] * c + im[q] * s;
+                    float ti = im[q] * c - re[q] * s;
+                    re[q] = re[p] - tr;
+                    im[q] = im[p] - ti;
+                    re[p] += tr;
+                    im[p] += ti;
+                }
+            }
+        }
+    }
+}
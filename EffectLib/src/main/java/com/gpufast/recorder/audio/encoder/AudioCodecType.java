@@ -18,4 +18,20 @@ public enum  AudioCodecType {
         return mimeType;
     }
 
+    /**
+     * 编码器每帧的采样数（每声道）
+     *
+     * @param sampleRate 采样率
+     */
+    int samplesPerFrame(int sampleRate) {
+        switch (this) {
+            case OPUS:
+                //20ms
+                return sampleRate / 50;
+            case AAC:
+            default:
+                return 1024;
+        }
+    }
+
 }
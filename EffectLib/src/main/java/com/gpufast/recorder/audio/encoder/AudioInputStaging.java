@@ -0,0 +1,231 @@
+package com.gpufast.recorder.audio.encoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 编码器输入暂存区
+ * <p>
+ * 把AudioRecord读到的任意长度PCM累积成编码器帧长度（AAC-LC每个声道1024个采样）的数据块，
+ * 每个数据块的时间戳由最近一次写入的时间戳加上两者之间的采样数推算，不受采集回调时间抖动的影响，
+ * 同时跟随采集端{@link com.gpufast.recorder.audio.AudioTimestamper}做的漂移修正。
+ * 编码器暂时没有空闲的输入buffer时，数据留在暂存区等待下一次送入；暂存区写满时丢弃最旧的数据块，
+ * 丢弃的采样同样计入时间轴，保证后续数据的时间戳正确。
+ * <p>
+ * 只能在编码线程中使用
+ */
+public class AudioInputStaging {
+
+    private final int sampleRate;
+    private final int samplesPerChunk;
+    //一个采样点（所有声道）的字节数
+    private final int bytesPerFrame;
+    private final int chunkSize;
+    private final ByteBuffer staging;
+
+    //最近一次写入数据第一个采样的时间戳，及其在采样流中的位置
+    private long anchorPtsUs = -1;
+    private long anchorSample;
+    //已经写入的采样数（每声道）
+    private long writtenSamples;
+    //已经送出或丢弃的采样数（每声道）
+    private long consumedSamples;
+    private long lastChunkPtsUs = -1;
+
+    private long queuedChunks;
+    private long droppedChunks;
+    private long inputStalls;
+
+    /**
+     * @param sampleRate      采样率
+     * @param channels        声道数
+     * @param bytesPerSample  每个采样的字节数
+     * @param samplesPerChunk 编码器每帧的采样数（每声道）
+     * @param capacityBytes   暂存区最小容量
+     */
+    public AudioInputStaging(int sampleRate, int channels, int bytesPerSample,
+                             int samplesPerChunk, int capacityBytes) {
+        if (sampleRate <= 0 || channels <= 0 || bytesPerSample <= 0 || samplesPerChunk <= 0) {
+            throw new IllegalArgumentException("sampleRate=" + sampleRate + " channels=" + channels
+                    + " bytesPerSample=" + bytesPerSample + " samplesPerChunk=" + samplesPerChunk);
+        }
+        this.sampleRate = sampleRate;
+        this.samplesPerChunk = samplesPerChunk;
+        this.bytesPerFrame = channels * bytesPerSample;
+        this.chunkSize = samplesPerChunk * bytesPerFrame;
+        //容量取整到数据块大小，至少能放两块
+        int chunks = Math.max(2, (capacityBytes + chunkSize - 1) / chunkSize);
+        staging = ByteBuffer.allocateDirect(chunks * chunkSize);
+    }
+
+    /**
+     * 写入一段PCM数据
+     *
+     * @param src   数据，从position读到limit
+     * @param ptsUs 该段数据第一个采样的时间戳
+     */
+    public void write(ByteBuffer src, long ptsUs) {
+        int length = src.remaining();
+        anchorPtsUs = ptsUs;
+        anchorSample = writtenSamples;
+        writtenSamples += length / bytesPerFrame;
+        //单次写入比整个暂存区还大，清空暂存区，只保留最新的数据
+        if (length > staging.capacity()) {
+            int skip = length - staging.capacity();
+            skip -= skip % bytesPerFrame;
+            if (skip < length - staging.capacity()) {
+                skip += bytesPerFrame;
+            }
+            dropAll();
+            src.position(src.position() + skip);
+            consumedSamples += skip / bytesPerFrame;
+            droppedChunks += (skip + chunkSize - 1) / chunkSize;
+            length = src.remaining();
+        }
+        while (staging.remaining() < length) {
+            if (!hasChunk()) {
+                dropAll();
+                break;
+            }
+            consumeChunk(null);
+            droppedChunks++;
+        }
+        staging.put(src);
+    }
+
+    /**
+     * @return 是否已经有一个完整的数据块
+     */
+    public boolean hasChunk() {
+        return staging.position() >= chunkSize;
+    }
+
+    /**
+     * @return 下一个数据块第一个采样的时间戳（微秒）
+     */
+    public long nextChunkPtsUs() {
+        if (anchorPtsUs < 0) {
+            return 0;
+        }
+        long ptsUs = anchorPtsUs + (consumedSamples - anchorSample) * 1000000L / sampleRate;
+        //修正只会让时间戳缓慢变化，这里再保证一次单调递增
+        return Math.max(ptsUs, lastChunkPtsUs + 1);
+    }
+
+    /**
+     * 把下一个完整数据块拷贝到dst，调用前需确认{@link #hasChunk()}
+     */
+    public void readChunk(ByteBuffer dst) {
+        if (!hasChunk()) {
+            throw new IllegalStateException("no complete chunk staged");
+        }
+        if (dst.remaining() < chunkSize) {
+            throw new IllegalArgumentException("dst too small: " + dst.remaining() + " < " + chunkSize);
+        }
+        lastChunkPtsUs = nextChunkPtsUs();
+        consumeChunk(dst);
+        queuedChunks++;
+    }
+
+    /**
+     * 结束时把不足一个数据块的剩余数据拷贝到dst，时间戳取{@link #nextChunkPtsUs()}，
+     * 调用前需要先读完完整的数据块
+     *
+     * @return 拷贝的字节数，没有剩余数据时返回0
+     */
+    public int readRemainder(ByteBuffer dst) {
+        if (hasChunk()) {
+            throw new IllegalStateException("complete chunk still staged");
+        }
+        int stored = staging.position();
+        if (stored == 0) {
+            return 0;
+        }
+        if (dst.remaining() < stored) {
+            throw new IllegalArgumentException("dst too small: " + dst.remaining() + " < " + stored);
+        }
+        lastChunkPtsUs = nextChunkPtsUs();
+        staging.flip();
+        dst.put(staging);
+        staging.clear();
+        consumedSamples += stored / bytesPerFrame;
+        queuedChunks++;
+        return stored;
+    }
+
+    /**
+     * 编码器没有空闲输入buffer时调用
+     */
+    public void markInputStall() {
+        inputStalls++;
+    }
+
+    /**
+     * 清空暂存数据并重置时间轴
+     */
+    public void reset() {
+        staging.clear();
+        anchorPtsUs = -1;
+        anchorSample = 0;
+        writtenSamples = 0;
+        consumedSamples = 0;
+        lastChunkPtsUs = -1;
+    }
+
+    private void consumeChunk(ByteBuffer dst) {
+        staging.flip();
+        int stored = staging.limit();
+        staging.limit(chunkSize);
+        if (dst != null) {
+            dst.put(staging);
+        } else {
+            staging.position(chunkSize);
+        }
+        staging.limit(stored);
+        staging.compact();
+        consumedSamples += samplesPerChunk;
+    }
+
+    private void dropAll() {
+        int stored = staging.position();
+        consumedSamples += stored / bytesPerFrame;
+        droppedChunks += (stored + chunkSize - 1) / chunkSize;
+        staging.clear();
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getStagedBytes() {
+        return staging.position();
+    }
+
+    public long getQueuedChunks() {
+        return queuedChunks;
+    }
+
+    /**
+     * @return 暂存区满时被丢弃的数据块个数
+     */
+    public long getDroppedChunks() {
+        return droppedChunks;
+    }
+
+    /**
+     * @return 有完整数据块但编码器没有空闲输入buffer的次数
+     */
+    public long getInputStalls() {
+        return inputStalls;
+    }
+
+    @Override
+    public String toString() {
+        return "AudioInputStaging{" +
+                "chunkSize=" + chunkSize +
+                ", staged=" + getStagedBytes() +
+                ", queued=" + queuedChunks +
+                ", dropped=" + droppedChunks +
+                ", stalls=" + inputStalls +
+                '}';
+    }
+}
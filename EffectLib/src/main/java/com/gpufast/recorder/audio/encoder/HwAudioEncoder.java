@@ -23,6 +23,11 @@ public class HwAudioEncoder implements AudioEncoder {
 
     private static final String TAG = "HwAudioEncoder";
 
+    //结束时等待编码器输入、输出buffer的超时
+    private static final long END_OF_STREAM_DEQUEUE_TIMEOUT_US = 10000;
+    //结束时送出剩余数据并取完输出的总时长上限
+    private static final long END_OF_STREAM_TIMEOUT_NS = 500 * 1000000L;
+
     private MediaCodecWrapperFactory mediaCodecFactory;
 
     /**
@@ -43,6 +48,11 @@ public class HwAudioEncoder implements AudioEncoder {
 
     private MediaCodec.BufferInfo mBufferInfo;
 
+    /**
+     * 输入暂存区，按编码器帧长度送入数据
+     */
+    private AudioInputStaging inputStaging;
+
     /**
      * 音频编码回调
      */
@@ -79,6 +89,10 @@ public class HwAudioEncoder implements AudioEncoder {
                 " sampleRate=" + settings.getSampleRate() +
                 " mimeType=" + codecType.mimeType());
 
+        inputStaging = new AudioInputStaging(settings.getSampleRate(), settings.getChannels(),
+                settings.getBytesPerSample(), codecType.samplesPerFrame(settings.getSampleRate()),
+                settings.getInputBufferSize() * 2);
+
         try {
             MediaFormat format = new MediaFormat();
             format.setString(MediaFormat.KEY_MIME, codecType.mimeType());
@@ -87,7 +101,8 @@ public class HwAudioEncoder implements AudioEncoder {
             format.setInteger(MediaFormat.KEY_CHANNEL_COUNT, settings.getChannels());
             format.setInteger(MediaFormat.KEY_CHANNEL_MASK, settings.getChannelConfig());
             format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
-            format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, settings.getInputBufferSize());
+            //每次只送入一个编码帧长度的数据
+            format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, inputStaging.getChunkSize());
             codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
             codec.start();
         } catch (IllegalStateException e) {
@@ -103,43 +118,144 @@ public class HwAudioEncoder implements AudioEncoder {
     @Override
     public void encode(AudioFrame frame) {
         checker.checkIsOnValidThread();
-        int inputBufferIndex = codec.dequeueInputBuffer(0);
-        if (inputBufferIndex >= 0) {
+        if (codec == null) {
+            return;
+        }
+        ByteBuffer pcm = frame.buf;
+        if (pcm.remaining() > frame.len) {
+            pcm.limit(pcm.position() + frame.len);
+        }
+        inputStaging.write(pcm, frame.timeStamp_us);
+        feedInput();
+        drainOutput();
+    }
+
+    /**
+     * 把暂存区中完整的数据块送入编码器，编码器没有空闲输入buffer时，数据留到下一次再送
+     */
+    private void feedInput() {
+        while (inputStaging.hasChunk()) {
+            int inputBufferIndex = codec.dequeueInputBuffer(0);
+            if (inputBufferIndex < 0) {
+                inputStaging.markInputStall();
+                return;
+            }
             ByteBuffer inputBuffer = codec.getInputBuffer(inputBufferIndex);
-            if (inputBuffer == null) {
-                ELog.e(TAG, "dequeue input buffer is null. inputBufferIndex = " + inputBufferIndex);
+            if (inputBuffer == null || inputBuffer.capacity() < inputStaging.getChunkSize()) {
+                ELog.e(TAG, "invalid input buffer. inputBufferIndex = " + inputBufferIndex
+                        + " buffer = " + inputBuffer);
+                codec.queueInputBuffer(inputBufferIndex, 0, 0, inputStaging.nextChunkPtsUs(), 0);
                 return;
             }
             inputBuffer.clear();
-            inputBuffer.put(frame.buf);
-            inputBuffer.limit(frame.len);
-            codec.queueInputBuffer(
-                    inputBufferIndex, 0, frame.len, frame.timeStamp_us, 0);
+            long ptsUs = inputStaging.nextChunkPtsUs();
+            inputStaging.readChunk(inputBuffer);
+            codec.queueInputBuffer(inputBufferIndex, 0, inputStaging.getChunkSize(), ptsUs, 0);
         }
+    }
+
+    private void drainOutput() {
         int outputBufferIndex = codec.dequeueOutputBuffer(mBufferInfo, 0);
         while (outputBufferIndex >= 0) {
-            ByteBuffer outputData = codec.getOutputBuffer(outputBufferIndex);
-            EncodedAudio encodedAudio = new EncodedAudio.Builder()
-                    .setBuffer(outputData)
-                    .setBufferInfo(mBufferInfo)
-                    .createEncodedAudio();
-            if (encoderCallback != null) {
-                encoderCallback.onUpdateAudioMediaFormat(codec.getOutputFormat());
-                encoderCallback.onEncodedAudio(encodedAudio);
-            }
-            codec.releaseOutputBuffer(outputBufferIndex, 0);
+            deliverOutput(outputBufferIndex);
             outputBufferIndex = codec.dequeueOutputBuffer(mBufferInfo, 0);
         }
     }
 
+    private void deliverOutput(int outputBufferIndex) {
+        ByteBuffer outputData = codec.getOutputBuffer(outputBufferIndex);
+        EncodedAudio encodedAudio = new EncodedAudio.Builder()
+                .setBuffer(outputData)
+                .setBufferInfo(mBufferInfo)
+                .createEncodedAudio();
+        if (encoderCallback != null) {
+            encoderCallback.onUpdateAudioMediaFormat(codec.getOutputFormat());
+            encoderCallback.onEncodedAudio(encodedAudio);
+        }
+        codec.releaseOutputBuffer(outputBufferIndex, 0);
+    }
+
+    /**
+     * 把暂存区剩余的数据连同结束标志送入编码器，并取出编码器缓存的全部输出。
+     * 编码器内部会缓存若干帧，不先取完就stop，最后一段音频会丢失
+     */
+    private void signalEndOfStream() {
+        final long deadlineNs = System.nanoTime() + END_OF_STREAM_TIMEOUT_NS;
+        boolean eosQueued = false;
+        while (!eosQueued && System.nanoTime() < deadlineNs) {
+            int inputBufferIndex = codec.dequeueInputBuffer(END_OF_STREAM_DEQUEUE_TIMEOUT_US);
+            if (inputBufferIndex < 0) {
+                //取走输出，编码器才会空出输入buffer
+                drainOutput();
+                continue;
+            }
+            long ptsUs = inputStaging.nextChunkPtsUs();
+            ByteBuffer inputBuffer = codec.getInputBuffer(inputBufferIndex);
+            if (inputBuffer == null || inputBuffer.capacity() < inputStaging.getChunkSize()) {
+                ELog.e(TAG, "invalid input buffer for end of stream. buffer = " + inputBuffer);
+                codec.queueInputBuffer(inputBufferIndex, 0, 0, ptsUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                eosQueued = true;
+            } else if (inputStaging.hasChunk()) {
+                inputBuffer.clear();
+                inputStaging.readChunk(inputBuffer);
+                codec.queueInputBuffer(inputBufferIndex, 0, inputStaging.getChunkSize(), ptsUs, 0);
+            } else {
+                //最后不足一帧的数据
+                inputBuffer.clear();
+                int size = inputStaging.readRemainder(inputBuffer);
+                codec.queueInputBuffer(inputBufferIndex, 0, size, ptsUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                eosQueued = true;
+            }
+        }
+        if (!eosQueued) {
+            ELog.w(TAG, "no input buffer for end of stream. " + inputStaging);
+            return;
+        }
+        while (System.nanoTime() < deadlineNs) {
+            int outputBufferIndex = codec.dequeueOutputBuffer(mBufferInfo, END_OF_STREAM_DEQUEUE_TIMEOUT_US);
+            if (outputBufferIndex < 0) {
+                continue;
+            }
+            boolean eos = (mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            if (mBufferInfo.size > 0) {
+                deliverOutput(outputBufferIndex);
+            } else {
+                codec.releaseOutputBuffer(outputBufferIndex, 0);
+            }
+            if (eos) {
+                return;
+            }
+        }
+        ELog.w(TAG, "end of stream timeout");
+    }
+
+    /**
+     * @return 输入暂存区，可用于查看丢弃和输入等待统计
+     */
+    public AudioInputStaging getInputStaging() {
+        return inputStaging;
+    }
+
     @Override
     public void release() {
         checker.checkIsOnValidThread();
+        //init成功之后才有需要送出的数据
+        if (codec != null && mBufferInfo != null) {
+            try {
+                signalEndOfStream();
+            } catch (IllegalStateException e) {
+                ELog.e(TAG, "end of stream failed:" + e.getLocalizedMessage());
+            }
+        }
+        if (inputStaging != null) {
+            ELog.i(TAG, "audioEncoder release. " + inputStaging);
+        }
         if (codec != null) {
             codec.stop();
         }
         if (codec != null) {
             codec.release();
+            codec = null;
         }
         checker.detachThread();
         if (encoderCallback != null) {
@@ -1,9 +1,8 @@
 package com.gpufast.recorder.audio.encoder;
 
-import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
-
 import com.gpufast.logger.ELog;
+import com.gpufast.recorder.hardware.CodecCapabilityCache;
+import com.gpufast.recorder.hardware.MediaCodecUtils;
 import com.gpufast.recorder.hardware.MediaCodecWrapperFactoryImpl;
 
 public class HwAudioEncoderFactory implements AudioEncoderFactory {
@@ -15,7 +14,7 @@ public class HwAudioEncoderFactory implements AudioEncoderFactory {
     public AudioCodecInfo getSupportCodecInfo() {
         AudioCodecInfo info = null;
         for(AudioCodecType type : new AudioCodecType[]{AudioCodecType.AAC}){
-            MediaCodecInfo codecInfo = findCodecForType(type);
+            CodecCapabilityCache.Codec codecInfo = findCodecForType(type);
             if(codecInfo != null){
                 String name = type.name();
                 info = new AudioCodecInfo(name,type);
@@ -24,17 +23,8 @@ public class HwAudioEncoderFactory implements AudioEncoderFactory {
         return info;
     }
 
-    private MediaCodecInfo findCodecForType(AudioCodecType type) {
-        for (int i = 0; i < MediaCodecList.getCodecCount(); ++i) {
-            MediaCodecInfo info = null;
-            try {
-                info = MediaCodecList.getCodecInfoAt(i);
-            } catch (IllegalArgumentException e) {
-                ELog.e(TAG, "Cannot retrieve encoder codec info:" + e);
-            }
-            if (info == null || !info.isEncoder()) {
-                continue;
-            }
+    private CodecCapabilityCache.Codec findCodecForType(AudioCodecType type) {
+        for (CodecCapabilityCache.Codec info : MediaCodecUtils.getEncoders()) {
             if (codecSupportsType(info, type)) {
                 return info;
             }
@@ -47,7 +37,7 @@ public class HwAudioEncoderFactory implements AudioEncoderFactory {
         return null;
     }
 
-    private boolean isHWCodec(MediaCodecInfo info) {
+    private boolean isHWCodec(CodecCapabilityCache.Codec info) {
 
 
 
@@ -55,13 +45,8 @@ public class HwAudioEncoderFactory implements AudioEncoderFactory {
     }
 
 
-    private boolean codecSupportsType(MediaCodecInfo info, AudioCodecType type) {
-        for (String mimeType : info.getSupportedTypes()) {
-            if (type.mimeType().equals(mimeType)) {
-                return true;
-            }
-        }
-        return false;
+    private boolean codecSupportsType(CodecCapabilityCache.Codec info, AudioCodecType type) {
+        return info.supportsType(type.mimeType());
     }
 
     @Override
@@ -69,12 +54,12 @@ public class HwAudioEncoderFactory implements AudioEncoderFactory {
         //编码器的类型
         AudioCodecType type = AudioCodecType.valueOf(inputCodecInfo.name);
         //根据类型查找编码器的信息
-        MediaCodecInfo info = findCodecForType(type);
+        CodecCapabilityCache.Codec info = findCodecForType(type);
         if (info == null) {
             ELog.e(TAG, "can't find Encoder by type" + inputCodecInfo.name);
             return null;
         }
-        String name = info.getName();
+        String name = info.name;
         String mime = type.mimeType();
         ELog.i(TAG,"crate audio encoder, name:"+name +" mime:"+mime);
         return new HwAudioEncoder(new MediaCodecWrapperFactoryImpl(),type,name);
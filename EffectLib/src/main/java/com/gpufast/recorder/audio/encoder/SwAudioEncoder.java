@@ -0,0 +1,153 @@
+package com.gpufast.recorder.audio.encoder;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+
+import com.gpufast.logger.ELog;
+import com.gpufast.recorder.audio.AudioFrame;
+import com.gpufast.recorder.audio.AudioSetting;
+import com.gpufast.recorder.audio.EncodedAudio;
+import com.gpufast.utils.ThreadUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 音频软编码器，使用{@link AacLcEncoder}在编码线程中直接编码，不经过MediaCodec
+ * <p>
+ * 输入同样先经过{@link AudioInputStaging}凑成1024个采样的数据块，每个数据块同步编码成一帧，
+ * 帧的时间戳是数据块第一个采样的时间戳。只支持16位PCM
+ */
+public class SwAudioEncoder implements AudioEncoder {
+
+    private static final String TAG = "SwAudioEncoder";
+
+    private final AudioCodecType codecType;
+
+    private AacLcEncoder encoder;
+
+    /**
+     * 输入暂存区，按编码器帧长度送入数据
+     */
+    private AudioInputStaging inputStaging;
+
+    private ByteBuffer chunkBuffer;
+    private ByteBuffer outputBuffer;
+    private MediaCodec.BufferInfo mBufferInfo;
+    private MediaFormat mediaFormat;
+    private boolean formatReported;
+
+    /**
+     * 音频编码回调
+     */
+    private AudioEncoderCallback encoderCallback;
+
+    private ThreadUtils.ThreadChecker checker;
+
+    SwAudioEncoder(AudioCodecType codecType) {
+        this.codecType = codecType;
+        checker = new ThreadUtils.ThreadChecker();
+        checker.detachThread();
+    }
+
+    @Override
+    public AudioCodecStatus init(AudioSetting settings, AudioEncoderCallback callback) {
+        checker.checkIsOnValidThread();
+        if (settings == null || settings.getBytesPerSample() != 2) {
+            return AudioCodecStatus.ERR_PARAMETER;
+        }
+        encoderCallback = callback;
+        try {
+            encoder = new AacLcEncoder(settings.getSampleRate(), settings.getChannels(), settings.getBitrate());
+        } catch (IllegalArgumentException e) {
+            ELog.e(TAG, "init failed:" + e.getLocalizedMessage());
+            return AudioCodecStatus.ERR_PARAMETER;
+        }
+        ELog.i(TAG, "audioEncoder init. bitrate=" + settings.getBitrate() +
+                " sampleRate=" + settings.getSampleRate() +
+                " channels=" + settings.getChannels());
+
+        inputStaging = new AudioInputStaging(settings.getSampleRate(), settings.getChannels(),
+                settings.getBytesPerSample(), codecType.samplesPerFrame(settings.getSampleRate()),
+                settings.getInputBufferSize() * 2);
+        chunkBuffer = ByteBuffer.allocateDirect(inputStaging.getChunkSize());
+        outputBuffer = ByteBuffer.allocateDirect(encoder.getMaxFrameBytes());
+        mBufferInfo = new MediaCodec.BufferInfo();
+
+        mediaFormat = MediaFormat.createAudioFormat(codecType.mimeType(), settings.getSampleRate(),
+                settings.getChannels());
+        mediaFormat.setInteger(MediaFormat.KEY_BIT_RATE, settings.getBitrate());
+        mediaFormat.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        mediaFormat.setByteBuffer("csd-0", ByteBuffer.wrap(encoder.getAudioSpecificConfig()));
+        formatReported = false;
+        return AudioCodecStatus.OK;
+    }
+
+    @Override
+    public void encode(AudioFrame frame) {
+        checker.checkIsOnValidThread();
+        if (encoder == null) {
+            return;
+        }
+        ByteBuffer pcm = frame.buf;
+        if (pcm.remaining() > frame.len) {
+            pcm.limit(pcm.position() + frame.len);
+        }
+        inputStaging.write(pcm, frame.timeStamp_us);
+        while (inputStaging.hasChunk()) {
+            long ptsUs = inputStaging.nextChunkPtsUs();
+            chunkBuffer.clear();
+            inputStaging.readChunk(chunkBuffer);
+            chunkBuffer.flip();
+            encodeChunk(ptsUs);
+        }
+    }
+
+    private void encodeChunk(long ptsUs) {
+        outputBuffer.clear();
+        int size = encoder.encode(chunkBuffer, outputBuffer);
+        outputBuffer.flip();
+        mBufferInfo.set(0, size, ptsUs, 0);
+        if (encoderCallback == null) {
+            return;
+        }
+        if (!formatReported) {
+            encoderCallback.onUpdateAudioMediaFormat(mediaFormat);
+            formatReported = true;
+        }
+        encoderCallback.onEncodedAudio(new EncodedAudio.Builder()
+                .setBuffer(outputBuffer)
+                .setBufferInfo(mBufferInfo)
+                .createEncodedAudio());
+    }
+
+    /**
+     * @return 输入暂存区，可用于查看丢弃和输入等待统计
+     */
+    public AudioInputStaging getInputStaging() {
+        return inputStaging;
+    }
+
+    @Override
+    public void release() {
+        checker.checkIsOnValidThread();
+        if (encoder != null) {
+            //最后一个数据块的后半部分要和下一帧重叠相加才能还原，补一帧静音
+            if (encoder.getFrames() > 0) {
+                long ptsUs = inputStaging.nextChunkPtsUs();
+                chunkBuffer.clear();
+                while (chunkBuffer.hasRemaining()) {
+                    chunkBuffer.put((byte) 0);
+                }
+                chunkBuffer.flip();
+                encodeChunk(ptsUs);
+            }
+            ELog.i(TAG, "audioEncoder release. " + encoder + " " + inputStaging);
+            encoder = null;
+        }
+        checker.detachThread();
+        if (encoderCallback != null) {
+            encoderCallback.onAudioEncoderStop();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.gpufast.recorder.audio.encoder;
+
+import com.gpufast.logger.ELog;
+
+/**
+ * 音频软编码器工厂
+ * <p>
+ * 使用纯Java实现的{@link AacLcEncoder}，不依赖设备上的任何MediaCodec编码器，
+ * 硬件编码器被占用或者不可用时作为兜底方案。
+ */
+public class SwAudioEncoderFactory implements AudioEncoderFactory {
+
+    private static final String TAG = "SwAudioEncoderFactory";
+
+    @Override
+    public AudioCodecInfo getSupportCodecInfo() {
+        return new AudioCodecInfo(AudioCodecType.AAC.name(), AudioCodecType.AAC);
+    }
+
+    @Override
+    public AudioEncoder createEncoder(AudioCodecInfo inputCodecInfo) {
+        if (inputCodecInfo == null || inputCodecInfo.type != AudioCodecType.AAC) {
+            ELog.e(TAG, "unsupported software audio codec:" + inputCodecInfo);
+            return null;
+        }
+        ELog.i(TAG, "create software audio encoder, mime:" + AudioCodecType.AAC.mimeType());
+        return new SwAudioEncoder(AudioCodecType.AAC);
+    }
+}
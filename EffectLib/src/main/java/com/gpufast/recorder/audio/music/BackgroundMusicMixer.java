@@ -0,0 +1,340 @@
+package com.gpufast.recorder.audio.music;
+
+import com.gpufast.recorder.audio.AudioProcessor;
+import com.gpufast.recorder.audio.PcmBuffer;
+import com.gpufast.recorder.audio.PolyphaseResampler;
+import com.gpufast.utils.SpscRingBuffer;
+
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 背景音乐混音
+ * <p>
+ * 预读线程从{@link PcmFileSource}中读取音乐，经{@link PolyphaseResampler}重采样并转换声道后写入固定个数的数据块，
+ * 经单生产者单消费者队列交给采集线程；采集线程在{@link #process(PcmBuffer)}中只做混音，
+ * 不访问文件，也不会阻塞。预读始终保持在采集进度之前最多{@link #BLOCK_COUNT}个数据块。
+ * 音乐和麦克风的增益可以分别设置。预读跟不上时，缺少的部分只输出麦克风声音，并计入欠载统计。
+ */
+public class BackgroundMusicMixer implements AudioProcessor {
+
+    //每个数据块的采样帧数
+    static final int BLOCK_FRAMES = 1024;
+    //数据块个数，48kHz下约340毫秒
+    static final int BLOCK_COUNT = 16;
+
+    private static final int Q_BITS = 12;
+    private static final int Q_ONE = 1 << Q_BITS;
+    //最大增益
+    static final float MAX_GAIN = 16f;
+    //预读线程每次从文件读取的采样帧数
+    private static final int READ_FRAMES = 1024;
+    private static final long PREFETCH_WAIT_MS = 100;
+
+    private final PcmFileSource source;
+    private final int outSampleRate;
+    private final int outChannels;
+    private final boolean loop;
+
+    //预读线程 -> 采集线程：已经填好的数据块
+    private final SpscRingBuffer<Block> readyBlocks = new SpscRingBuffer<>(BLOCK_COUNT);
+    //采集线程 -> 预读线程：已经混完的空数据块
+    private final SpscRingBuffer<Block> freeBlocks = new SpscRingBuffer<>(BLOCK_COUNT);
+
+    private volatile int musicGainQ = Q_ONE;
+    private volatile int micGainQ = Q_ONE;
+
+    private Thread prefetchThread;
+    private volatile boolean running;
+    private volatile boolean sourceEnded;
+
+    //以下字段只在预读线程中访问
+    private long srcFrame;
+    //采样率相同时为null
+    private final PolyphaseResampler resampler;
+    //从文件读出的音乐原始数据
+    private final short[] readBuffer;
+    //重采样后、尚未写入数据块的数据，声道数与音乐相同
+    private final short[] pending;
+    private int pendingOffset;
+    private int pendingFrames;
+
+    //以下字段只在采集线程中访问
+    private Block current;
+    private int currentOffset;
+
+    private volatile long mixedFrames;
+    private volatile long underrunFrames;
+    private volatile long prefetchedBlocks;
+
+    /**
+     * @param source        音乐文件
+     * @param outSampleRate 采集采样率
+     * @param outChannels   采集声道数
+     * @param loop          音乐结束后是否从头循环
+     */
+    public BackgroundMusicMixer(PcmFileSource source, int outSampleRate, int outChannels, boolean loop) {
+        if (outSampleRate <= 0 || outChannels <= 0) {
+            throw new IllegalArgumentException("outSampleRate=" + outSampleRate + " outChannels=" + outChannels);
+        }
+        this.source = source;
+        this.outSampleRate = outSampleRate;
+        this.outChannels = outChannels;
+        this.loop = loop;
+        int srcChannels = source.getChannels();
+        readBuffer = new short[READ_FRAMES * srcChannels];
+        if (source.getSampleRate() != outSampleRate) {
+            resampler = new PolyphaseResampler(source.getSampleRate(), outSampleRate, srcChannels,
+                    PolyphaseResampler.Quality.FAST);
+            pending = new short[resampler.getMaxOutputFrames(READ_FRAMES) * srcChannels];
+        } else {
+            resampler = null;
+            pending = readBuffer;
+        }
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            freeBlocks.offer(new Block(BLOCK_FRAMES * outChannels));
+        }
+    }
+
+    /**
+     * 启动预读线程，需要在采集开始之前调用
+     */
+    public synchronized void start() {
+        if (prefetchThread != null) {
+            return;
+        }
+        running = true;
+        prefetchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                prefetchLoop();
+            }
+        }, "MusicPrefetchThread");
+        prefetchThread.start();
+    }
+
+    /**
+     * 停止预读线程并关闭音乐文件，调用前需要确认采集线程已经不再调用{@link #process(PcmBuffer)}
+     */
+    public synchronized void release() {
+        running = false;
+        if (prefetchThread != null) {
+            freeBlocks.wakeUp();
+            try {
+                prefetchThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            prefetchThread = null;
+        }
+        try {
+            source.close();
+        } catch (IOException e) {
+            //只读文件，关闭失败不影响录制结果
+        }
+    }
+
+    /**
+     * @param gain 音乐的线性增益，超过16按16处理
+     */
+    public void setMusicGain(float gain) {
+        musicGainQ = toQ(gain);
+    }
+
+    /**
+     * @param gain 麦克风的线性增益，超过16按16处理
+     */
+    public void setMicGain(float gain) {
+        micGainQ = toQ(gain);
+    }
+
+    private static int toQ(float gain) {
+        if (gain < 0 || Float.isNaN(gain)) {
+            throw new IllegalArgumentException("gain=" + gain);
+        }
+        return Math.round(Math.min(gain, MAX_GAIN) * Q_ONE);
+    }
+
+    private void prefetchLoop() {
+        while (running) {
+            Block block = freeBlocks.take(PREFETCH_WAIT_MS, TimeUnit.MILLISECONDS);
+            if (block == null) {
+                continue;
+            }
+            block.frames = fill(block.data);
+            if (block.frames == 0) {
+                sourceEnded = true;
+                return;
+            }
+            readyBlocks.offer(block);
+            prefetchedBlocks++;
+        }
+    }
+
+    /**
+     * 重采样并把音乐声道映射到采集声道
+     *
+     * @return 写入的采样帧数，0表示音乐已经结束
+     */
+    private int fill(short[] out) {
+        final int srcChannels = source.getChannels();
+        int frames = 0;
+        while (frames < BLOCK_FRAMES) {
+            if (pendingOffset == pendingFrames && !refill()) {
+                break;
+            }
+            int n = Math.min(BLOCK_FRAMES - frames, pendingFrames - pendingOffset);
+            for (int f = 0; f < n; f++) {
+                int src = (pendingOffset + f) * srcChannels;
+                int dst = (frames + f) * outChannels;
+                if (srcChannels == 2 && outChannels == 1) {
+                    out[dst] = (short) ((pending[src] + pending[src + 1]) >> 1);
+                } else {
+                    for (int c = 0; c < outChannels; c++) {
+                        out[dst + c] = pending[src + Math.min(c, srcChannels - 1)];
+                    }
+                }
+            }
+            pendingOffset += n;
+            frames += n;
+        }
+        return frames;
+    }
+
+    /**
+     * 从文件读取下一段音乐到pending
+     *
+     * @return false表示音乐已经结束
+     */
+    private boolean refill() {
+        final long total = source.getFrameCount();
+        final int srcChannels = source.getChannels();
+        pendingOffset = 0;
+        pendingFrames = 0;
+        while (pendingFrames == 0) {
+            if (srcFrame >= total) {
+                if (!loop || total == 0) {
+                    return false;
+                }
+                srcFrame = 0;
+            }
+            int n = (int) Math.min(READ_FRAMES, total - srcFrame);
+            for (int f = 0, i = 0; f < n; f++) {
+                for (int c = 0; c < srcChannels; c++) {
+                    readBuffer[i++] = source.sample(srcFrame + f, c);
+                }
+            }
+            srcFrame += n;
+            pendingFrames = resampler == null ? n
+                    : resampler.resample(readBuffer, 0, n, pending, 0, pending.length / srcChannels);
+        }
+        return true;
+    }
+
+    @Override
+    public void process(PcmBuffer buffer) {
+        final ShortBuffer data = buffer.data;
+        final int channels = buffer.channels;
+        final int frames = buffer.frames;
+        final int micGain = micGainQ;
+        final int musicGain = musicGainQ;
+        if (channels != outChannels) {
+            //上游处理器改变了声道数，无法混音
+            return;
+        }
+        int frame = 0;
+        while (frame < frames) {
+            if (current == null) {
+                current = readyBlocks.poll();
+                currentOffset = 0;
+                if (current == null) {
+                    break;
+                }
+            }
+            int n = Math.min(frames - frame, current.frames - currentOffset);
+            short[] music = current.data;
+            int start = frame * channels;
+            int end = start + n * channels;
+            int m = currentOffset * channels;
+            for (int i = start; i < end; i++, m++) {
+                data.put(i, mix(data.get(i), micGain, music[m], musicGain));
+            }
+            frame += n;
+            currentOffset += n;
+            mixedFrames += n;
+            if (currentOffset == current.frames) {
+                freeBlocks.offer(current);
+                current = null;
+            }
+        }
+        if (frame < frames) {
+            //没有音乐数据，剩余部分只输出麦克风
+            if (!sourceEnded) {
+                underrunFrames += frames - frame;
+            }
+            if (micGain != Q_ONE) {
+                for (int i = frame * channels, end = frames * channels; i < end; i++) {
+                    data.put(i, mix(data.get(i), micGain, 0, 0));
+                }
+            }
+        }
+    }
+
+    /**
+     * 按Q12增益混合两个采样并饱和到16位。增益最大为16（Q12下是65536），两路满幅采样相加会超出int，
+     * 所以在long中累加
+     */
+    static short mix(int mic, int micGainQ, int music, int musicGainQ) {
+        long value = ((long) mic * micGainQ + (long) music * musicGainQ) >> Q_BITS;
+        if (value > Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        }
+        if (value < Short.MIN_VALUE) {
+            return Short.MIN_VALUE;
+        }
+        return (short) value;
+    }
+
+    /**
+     * @return 音乐是否已经播放完（非循环模式）
+     */
+    public boolean isFinished() {
+        return sourceEnded && readyBlocks.isEmpty() && current == null;
+    }
+
+    public long getMixedFrames() {
+        return mixedFrames;
+    }
+
+    /**
+     * @return 预读跟不上采集、只输出了麦克风的采样帧数
+     */
+    public long getUnderrunFrames() {
+        return underrunFrames;
+    }
+
+    public long getPrefetchedBlocks() {
+        return prefetchedBlocks;
+    }
+
+    @Override
+    public String toString() {
+        return "BackgroundMusicMixer{" +
+                "source=" + source +
+                ", mixed=" + mixedFrames +
+                ", underrun=" + underrunFrames +
+                ", prefetched=" + prefetchedBlocks +
+                ", ended=" + sourceEnded +
+                '}';
+    }
+
+    private static final class Block {
+        final short[] data;
+        int frames;
+
+        Block(int capacity) {
+            data = new short[capacity];
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.gpufast.recorder.audio.music;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 16位PCM音乐文件，支持WAV和裸PCM
+ * <p>
+ * 数据区通过{@link FileChannel#map}映射到内存，不会把整首音乐读进Java堆。
+ * 访问映射区可能触发缺页读盘，只应在预读线程中调用{@link #sample(long, int)}。
+ */
+public class PcmFileSource implements Closeable {
+
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer data;
+    private final int sampleRate;
+    private final int channels;
+    private final long frameCount;
+
+    private PcmFileSource(RandomAccessFile file, long offset, long length,
+                          int sampleRate, int channels) throws IOException {
+        if (sampleRate <= 0 || channels <= 0) {
+            throw new IOException("invalid pcm format: sampleRate=" + sampleRate + " channels=" + channels);
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("pcm data too large: " + length);
+        }
+        this.file = file;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.frameCount = length / (2L * channels);
+        data = file.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, frameCount * 2 * channels);
+        data.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 打开16位PCM编码的WAV文件
+     */
+    public static PcmFileSource openWav(File path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != 0x46464952 /* RIFF */ || header.getInt(8) != 0x45564157 /* WAVE */) {
+                throw new IOException("not a wav file: " + path);
+            }
+            int sampleRate = 0;
+            int channels = 0;
+            long position = 12;
+            long size = channel.size();
+            ByteBuffer chunk = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            while (position + 8 <= size) {
+                chunk.clear().limit(8);
+                readFully(channel, chunk, position);
+                int id = chunk.getInt(0);
+                long chunkSize = chunk.getInt(4) & 0xFFFFFFFFL;
+                position += 8;
+                if (id == 0x20746d66 /* fmt  */) {
+                    chunk.clear().limit(16);
+                    readFully(channel, chunk, position);
+                    int format = chunk.getShort(0) & 0xFFFF;
+                    channels = chunk.getShort(2) & 0xFFFF;
+                    sampleRate = chunk.getInt(4);
+                    int bits = chunk.getShort(14) & 0xFFFF;
+                    if ((format != WAVE_FORMAT_PCM && format != WAVE_FORMAT_EXTENSIBLE) || bits != 16) {
+                        throw new IOException("unsupported wav format=" + format + " bits=" + bits);
+                    }
+                } else if (id == 0x61746164 /* data */) {
+                    if (channels == 0) {
+                        throw new IOException("wav data chunk before fmt chunk");
+                    }
+                    //流式写出的WAV可能没有回填长度
+                    long length = Math.min(chunkSize, size - position);
+                    return new PcmFileSource(file, position, length, sampleRate, channels);
+                }
+                position += chunkSize + (chunkSize & 1);
+            }
+            throw new IOException("wav data chunk not found: " + path);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 打开小端16位裸PCM文件
+     */
+    public static PcmFileSource openRaw(File path, int sampleRate, int channels) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            return new PcmFileSource(file, 0, file.length(), sampleRate, channels);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 按扩展名打开，.wav按WAV解析，其它按裸PCM处理
+     *
+     * @param rawSampleRate 裸PCM的采样率
+     * @param rawChannels   裸PCM的声道数
+     */
+    public static PcmFileSource open(File path, int rawSampleRate, int rawChannels) throws IOException {
+        if (path.getName().toLowerCase().endsWith(".wav")) {
+            return openWav(path);
+        }
+        return openRaw(path, rawSampleRate, rawChannels);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0) {
+                throw new IOException("unexpected end of file");
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * @param frame   采样帧下标，范围[0, {@link #getFrameCount()})
+     * @param channel 声道
+     */
+    public short sample(long frame, int channel) {
+        return data.getShort((int) ((frame * channels + channel) * 2));
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public long getDurationUs() {
+        return frameCount * 1000000L / sampleRate;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    @Override
+    public String toString() {
+        return "PcmFileSource{" +
+                "sampleRate=" + sampleRate +
+                ", channels=" + channels +
+                ", frames=" + frameCount +
+                '}';
+    }
+}
@@ -0,0 +1,261 @@
+package com.gpufast.recorder.audio.processor;
+
+import com.gpufast.recorder.audio.AudioProcessor;
+import com.gpufast.recorder.audio.PcmBuffer;
+
+import java.nio.ShortBuffer;
+
+/**
+ * 音量电平表和静音检测
+ * <p>
+ * 每帧计算RMS和峰值（dBFS），按能量阈值加拖尾时间判断是否有声音（VAD），并按设定的间隔把
+ * 这段时间内的电平回调给{@link OnAudioLevelListener}，计算和回调都不分配内存。
+ * <p>
+ * 静音持续超过{@link #setSilenceHoldMs(int)}后，按{@link SilenceMode}处理：
+ * {@link SilenceMode#FEED_SILENCE}把数据清零，编码器输出的码率更低；
+ * {@link SilenceMode#SKIP}直接丢弃该帧，不送编码器，后续帧的时间戳仍按采样数计算，静音段在文件中表现为时间戳间隙。
+ * 检测到声音时立即恢复，当前帧不会被清零或丢弃。
+ */
+public class AudioLevelMeter implements AudioProcessor {
+
+    public enum SilenceMode {
+        //只测量
+        OFF,
+        //静音时送入全零数据
+        FEED_SILENCE,
+        //静音时丢弃帧
+        SKIP
+    }
+
+    /**
+     * 电平回调，在采集线程中调用，不能阻塞，更新UI需要切到主线程
+     */
+    public interface OnAudioLevelListener {
+        /**
+         * @param rmsDb  回调间隔内的RMS电平（dBFS，静音为{@link #MIN_DB}）
+         * @param peakDb 回调间隔内的峰值电平（dBFS）
+         * @param voice  回调间隔内是否检测到声音
+         */
+        void onAudioLevel(float rmsDb, float peakDb, boolean voice);
+    }
+
+    public static final float MIN_DB = -96f;
+    private static final double FULL_SCALE_SQUARE = 32768.0 * 32768.0;
+
+    private volatile float thresholdDb = -45f;
+    private volatile int hangoverMs = 300;
+    private volatile int silenceHoldMs = 500;
+    private volatile SilenceMode silenceMode = SilenceMode.OFF;
+
+    private volatile OnAudioLevelListener listener;
+    private volatile int intervalMs = 100;
+
+    //以下字段只在采集线程中访问
+    private long windowSquareSum;
+    private long windowSamples;
+    private int windowPeak;
+    private boolean windowVoice;
+    private long windowUs;
+    //距离最后一次检测到声音的时长
+    private long sinceVoiceUs = Long.MAX_VALUE / 2;
+
+    private volatile float lastRmsDb = MIN_DB;
+    private volatile float lastPeakDb = MIN_DB;
+    private volatile boolean voice;
+
+    private volatile long meteredFrames;
+    private volatile long voiceUs;
+    private volatile long silentUs;
+    private volatile long zeroedUs;
+    private volatile long skippedFrames;
+    private volatile long skippedUs;
+
+    /**
+     * @param listener   电平回调，可以为null
+     * @param intervalMs 回调间隔
+     */
+    public void setListener(OnAudioLevelListener listener, int intervalMs) {
+        if (intervalMs <= 0) {
+            throw new IllegalArgumentException("intervalMs=" + intervalMs);
+        }
+        this.intervalMs = intervalMs;
+        this.listener = listener;
+    }
+
+    /**
+     * @param thresholdDb RMS高于该电平（dBFS）认为有声音，默认-45
+     */
+    public void setThresholdDb(float thresholdDb) {
+        this.thresholdDb = thresholdDb;
+    }
+
+    /**
+     * @param hangoverMs 声音消失后继续认为有声音的时长，避免句子中的停顿被判为静音，默认300
+     */
+    public void setHangoverMs(int hangoverMs) {
+        this.hangoverMs = Math.max(0, hangoverMs);
+    }
+
+    /**
+     * @param silenceHoldMs 静音持续超过该时长才开始清零或丢弃，默认500
+     */
+    public void setSilenceHoldMs(int silenceHoldMs) {
+        this.silenceHoldMs = Math.max(0, silenceHoldMs);
+    }
+
+    public void setSilenceMode(SilenceMode mode) {
+        this.silenceMode = mode == null ? SilenceMode.OFF : mode;
+    }
+
+    public SilenceMode getSilenceMode() {
+        return silenceMode;
+    }
+
+    @Override
+    public void process(PcmBuffer buffer) {
+        final ShortBuffer data = buffer.data;
+        final int samples = buffer.samples();
+        if (samples <= 0) {
+            return;
+        }
+        long squareSum = 0;
+        int peak = 0;
+        for (int i = 0; i < samples; i++) {
+            int s = data.get(i);
+            squareSum += s * s;
+            int abs = s < 0 ? -s : s;
+            if (abs > peak) {
+                peak = abs;
+            }
+        }
+        final long durationUs = buffer.frames * 1000000L / buffer.sampleRate;
+        final float rmsDb = toDb(squareSum / (double) samples);
+        final boolean active = rmsDb > thresholdDb;
+        if (active) {
+            sinceVoiceUs = 0;
+        } else {
+            sinceVoiceUs += durationUs;
+        }
+        final boolean isVoice = sinceVoiceUs <= hangoverMs * 1000L;
+        voice = isVoice;
+        lastRmsDb = rmsDb;
+        lastPeakDb = toDb(peak * (double) peak);
+        meteredFrames++;
+        if (isVoice) {
+            voiceUs += durationUs;
+        } else {
+            silentUs += durationUs;
+        }
+
+        publish(squareSum, samples, peak, isVoice, durationUs);
+
+        //当前帧有声音时不处理，避免吞掉语音开头
+        if (active || sinceVoiceUs < (hangoverMs + (long) silenceHoldMs) * 1000L) {
+            return;
+        }
+        switch (silenceMode) {
+            case FEED_SILENCE:
+                for (int i = 0; i < samples; i++) {
+                    data.put(i, (short) 0);
+                }
+                zeroedUs += durationUs;
+                break;
+            case SKIP:
+                buffer.discard = true;
+                skippedFrames++;
+                skippedUs += durationUs;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void publish(long squareSum, int samples, int peak, boolean isVoice, long durationUs) {
+        final OnAudioLevelListener l = listener;
+        if (l == null) {
+            return;
+        }
+        windowSquareSum += squareSum;
+        windowSamples += samples;
+        if (peak > windowPeak) {
+            windowPeak = peak;
+        }
+        windowVoice |= isVoice;
+        windowUs += durationUs;
+        if (windowUs < intervalMs * 1000L) {
+            return;
+        }
+        l.onAudioLevel(toDb(windowSquareSum / (double) windowSamples),
+                toDb(windowPeak * (double) windowPeak), windowVoice);
+        windowSquareSum = 0;
+        windowSamples = 0;
+        windowPeak = 0;
+        windowVoice = false;
+        windowUs = 0;
+    }
+
+    private static float toDb(double meanSquare) {
+        if (meanSquare <= 0) {
+            return MIN_DB;
+        }
+        return Math.max(MIN_DB, (float) (10 * Math.log10(meanSquare / FULL_SCALE_SQUARE)));
+    }
+
+    /**
+     * @return 最近一帧的RMS电平（dBFS）
+     */
+    public float getRmsDb() {
+        return lastRmsDb;
+    }
+
+    public float getPeakDb() {
+        return lastPeakDb;
+    }
+
+    public boolean isVoice() {
+        return voice;
+    }
+
+    public long getMeteredFrames() {
+        return meteredFrames;
+    }
+
+    public long getVoiceUs() {
+        return voiceUs;
+    }
+
+    public long getSilentUs() {
+        return silentUs;
+    }
+
+    /**
+     * @return {@link SilenceMode#FEED_SILENCE}模式下被清零的时长
+     */
+    public long getZeroedUs() {
+        return zeroedUs;
+    }
+
+    /**
+     * @return {@link SilenceMode#SKIP}模式下被丢弃的帧数
+     */
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    public long getSkippedUs() {
+        return skippedUs;
+    }
+
+    @Override
+    public String toString() {
+        return "AudioLevelMeter{" +
+                "mode=" + silenceMode +
+                ", frames=" + meteredFrames +
+                ", voiceMs=" + voiceUs / 1000 +
+                ", silentMs=" + silentUs / 1000 +
+                ", zeroedMs=" + zeroedUs / 1000 +
+                ", skipped=" + skippedFrames +
+                ", skippedMs=" + skippedUs / 1000 +
+                '}';
+    }
+}
@@ -0,0 +1,60 @@
+package com.gpufast.recorder.audio.processor;
+
+import com.gpufast.recorder.audio.AudioProcessor;
+import com.gpufast.recorder.audio.PcmBuffer;
+
+import java.nio.ShortBuffer;
+
+/**
+ * 单声道/双声道互转
+ * <p>
+ * 单声道升为双声道时复制到左右声道，双声道降为单声道时取左右声道的平均值，都在原数据上完成；
+ * 升混时帧的容量不够才会切换到处理链的备用缓冲区。
+ * 处理链的输出声道数必须与编码参数一致，升混之后需要再接一个降混（例如只对双声道生效的效果器），
+ * 否则该帧会保留原始数据。
+ */
+public class ChannelMixer implements AudioProcessor {
+
+    private final int outputChannels;
+
+    /**
+     * @param outputChannels 输出声道数，1或2
+     */
+    public ChannelMixer(int outputChannels) {
+        if (outputChannels != 1 && outputChannels != 2) {
+            throw new IllegalArgumentException("outputChannels=" + outputChannels);
+        }
+        this.outputChannels = outputChannels;
+    }
+
+    public int getOutputChannels() {
+        return outputChannels;
+    }
+
+    @Override
+    public void process(PcmBuffer buffer) {
+        if (buffer.channels == outputChannels) {
+            return;
+        }
+        final int frames = buffer.frames;
+        if (buffer.channels == 1 && outputChannels == 2) {
+            if (!buffer.ensureCapacity(frames * 2)) {
+                return;
+            }
+            final ShortBuffer data = buffer.data;
+            //从后往前写，避免覆盖还没有读取的数据
+            for (int i = frames - 1; i >= 0; i--) {
+                short s = data.get(i);
+                data.put(2 * i, s);
+                data.put(2 * i + 1, s);
+            }
+            buffer.channels = 2;
+        } else if (buffer.channels == 2 && outputChannels == 1) {
+            final ShortBuffer data = buffer.data;
+            for (int i = 0; i < frames; i++) {
+                data.put(i, (short) ((data.get(2 * i) + data.get(2 * i + 1)) >> 1));
+            }
+            buffer.channels = 1;
+        }
+    }
+}
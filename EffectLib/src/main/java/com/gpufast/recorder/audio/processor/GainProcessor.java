@@ -0,0 +1,89 @@
+package com.gpufast.recorder.audio.processor;
+
+import com.gpufast.recorder.audio.AudioProcessor;
+import com.gpufast.recorder.audio.PcmBuffer;
+
+import java.nio.ShortBuffer;
+
+/**
+ * 音量增益
+ * <p>
+ * 使用Q12定点运算，结果饱和到16位。录制过程中修改增益时，在下一帧内线性过渡到新的增益，避免产生爆音。
+ */
+public class GainProcessor implements AudioProcessor {
+
+    private static final int Q_BITS = 12;
+    private static final int Q_ONE = 1 << Q_BITS;
+    //最大增益，超过后Q12定点与16位采样相乘可能溢出int
+    private static final float MAX_GAIN = 16f;
+
+    private volatile int targetGainQ;
+    //只在采集线程中访问
+    private int currentGainQ;
+
+    public GainProcessor(float gain) {
+        setGain(gain);
+        currentGainQ = targetGainQ;
+    }
+
+    /**
+     * @param gain 线性增益，1为原始音量
+     */
+    public void setGain(float gain) {
+        if (gain < 0 || Float.isNaN(gain)) {
+            throw new IllegalArgumentException("gain=" + gain);
+        }
+        targetGainQ = Math.round(Math.min(gain, MAX_GAIN) * Q_ONE);
+    }
+
+    /**
+     * @param db 分贝增益，0为原始音量
+     */
+    public void setGainDb(float db) {
+        setGain((float) Math.pow(10, db / 20.0));
+    }
+
+    public float getGain() {
+        return targetGainQ / (float) Q_ONE;
+    }
+
+    @Override
+    public void process(PcmBuffer buffer) {
+        final ShortBuffer data = buffer.data;
+        final int samples = buffer.samples();
+        final int target = targetGainQ;
+        if (target == currentGainQ) {
+            if (target == Q_ONE) {
+                return;
+            }
+            for (int i = 0; i < samples; i++) {
+                data.put(i, saturate((data.get(i) * target) >> Q_BITS));
+            }
+            return;
+        }
+        //按帧（所有声道同一增益）线性过渡，在Q12基础上再放大8位保证斜率精度
+        final int channels = buffer.channels;
+        final int frames = buffer.frames;
+        long gain = (long) currentGainQ << 8;
+        final long step = frames > 0 ? (((long) target << 8) - gain) / frames : 0;
+        int i = 0;
+        for (int f = 0; f < frames; f++) {
+            gain += step;
+            int g = (int) (gain >> 8);
+            for (int c = 0; c < channels; c++, i++) {
+                data.put(i, saturate((data.get(i) * g) >> Q_BITS));
+            }
+        }
+        currentGainQ = target;
+    }
+
+    private static short saturate(int value) {
+        if (value > Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        }
+        if (value < Short.MIN_VALUE) {
+            return Short.MIN_VALUE;
+        }
+        return (short) value;
+    }
+}
@@ -0,0 +1,51 @@
+package com.gpufast.recorder.audio.processor;
+
+import com.gpufast.recorder.audio.AudioProcessor;
+import com.gpufast.recorder.audio.PcmBuffer;
+
+import java.nio.ShortBuffer;
+
+/**
+ * 软削波
+ * <p>
+ * 幅度低于阈值的采样保持不变，高于阈值的部分按tanh曲线平滑压缩到满幅以内，
+ * 用于在增益之后抑制硬削波带来的失真。曲线在构造时查表，处理时每个采样只做一次查表。
+ */
+public class SoftClipper implements AudioProcessor {
+
+    //幅度 -> 输出幅度，下标0..32768
+    private final short[] curve = new short[Short.MAX_VALUE + 2];
+    private final float threshold;
+
+    /**
+     * @param threshold 开始压缩的幅度，相对满幅，取值(0, 1)
+     */
+    public SoftClipper(float threshold) {
+        if (!(threshold > 0 && threshold < 1)) {
+            throw new IllegalArgumentException("threshold=" + threshold);
+        }
+        this.threshold = threshold;
+        final double full = Short.MAX_VALUE;
+        final double knee = 1 - threshold;
+        for (int i = 0; i < curve.length; i++) {
+            double x = Math.min(i / full, 1.0 + 1.0 / full);
+            double y = x <= threshold ? x : threshold + knee * Math.tanh((x - threshold) / knee);
+            curve[i] = (short) Math.min(Math.round(y * full), Short.MAX_VALUE);
+        }
+    }
+
+    public float getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public void process(PcmBuffer buffer) {
+        final ShortBuffer data = buffer.data;
+        final short[] curve = this.curve;
+        final int samples = buffer.samples();
+        for (int i = 0; i < samples; i++) {
+            int s = data.get(i);
+            data.put(i, s >= 0 ? curve[s] : (short) -curve[-s]);
+        }
+    }
+}
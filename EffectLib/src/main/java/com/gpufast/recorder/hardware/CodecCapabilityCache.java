@@ -0,0 +1,384 @@
+package com.gpufast.recorder.hardware;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecInfo.CodecCapabilities;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.util.Range;
+
+import com.gpufast.logger.ELog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 编码器能力的缓存
+ * <p>
+ * 遍历MediaCodecList并查询每个编码器的能力在低端机上需要几百毫秒。这里只查询一次，
+ * 把编码器名字、支持的类型、颜色格式、profile和尺寸限制写成紧凑的二进制文件，之后的启动直接内存映射读取。
+ * 文件头记录{@link DeviceCache#fingerprint()}，系统升级后重新查询。
+ * 没有设置缓存目录时只在进程内缓存，之后设置了目录时在下一次{@link #getInstance()}写入文件
+ */
+public final class CodecCapabilityCache {
+    private static final String TAG = CodecCapabilityCache.class.getSimpleName();
+
+    private static final String CACHE_FILE = "codec_caps.bin";
+    private static final int MAGIC = 0x43415053;
+    private static final int VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static volatile CodecCapabilityCache sInstance;
+
+    /**
+     * 编码器对某个类型的能力
+     */
+    public static final class TypeCapabilities {
+        public final String mime;
+        public final int[] colorFormats;
+        //与profiles一一对应
+        public final int[] profiles;
+        public final int[] levels;
+        //尺寸限制，系统版本低于5.0时无法查询，为0
+        public final int maxWidth;
+        public final int maxHeight;
+        public final int widthAlignment;
+        public final int heightAlignment;
+
+        TypeCapabilities(String mime, int[] colorFormats, int[] profiles, int[] levels,
+                         int maxWidth, int maxHeight, int widthAlignment, int heightAlignment) {
+            this.mime = mime;
+            this.colorFormats = colorFormats;
+            this.profiles = profiles;
+            this.levels = levels;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.widthAlignment = widthAlignment;
+            this.heightAlignment = heightAlignment;
+        }
+
+        public boolean supportsProfile(int profile) {
+            for (int p : profiles) {
+                if (p == profile) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 一个编码器
+     */
+    public static final class Codec {
+        public final String name;
+        private final List<TypeCapabilities> types;
+
+        Codec(String name, List<TypeCapabilities> types) {
+            this.name = name;
+            this.types = types;
+        }
+
+        /**
+         * @return 对mime的能力，不支持时返回null
+         */
+        public TypeCapabilities getCapabilitiesForType(String mime) {
+            for (TypeCapabilities caps : types) {
+                if (caps.mime.equals(mime)) {
+                    return caps;
+                }
+            }
+            return null;
+        }
+
+        public boolean supportsType(String mime) {
+            return getCapabilitiesForType(mime) != null;
+        }
+
+        public List<TypeCapabilities> getTypes() {
+            return types;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final List<Codec> encoders;
+    private final String fingerprint;
+    //是否已经和缓存文件一致，创建时还没有设置缓存目录则为false
+    private volatile boolean persisted;
+
+    CodecCapabilityCache(List<Codec> encoders, String fingerprint, boolean persisted) {
+        this.encoders = Collections.unmodifiableList(encoders);
+        this.fingerprint = fingerprint;
+        this.persisted = persisted;
+    }
+
+    public static CodecCapabilityCache getInstance() {
+        if (sInstance == null) {
+            synchronized (CodecCapabilityCache.class) {
+                if (sInstance == null) {
+                    sInstance = create(DeviceCache.getFile(CACHE_FILE), DeviceCache.fingerprint());
+                }
+            }
+        }
+        CodecCapabilityCache instance = sInstance;
+        if (!instance.persisted) {
+            //缓存目录可能在第一次查询之后才设置
+            instance.persist(DeviceCache.getFile(CACHE_FILE));
+        }
+        return instance;
+    }
+
+    private static CodecCapabilityCache create(File file, String fingerprint) {
+        long start = System.nanoTime();
+        List<Codec> encoders = file == null ? null : read(file, fingerprint);
+        if (encoders != null) {
+            ELog.d(TAG, "load " + encoders.size() + " encoders from cache in "
+                    + (System.nanoTime() - start) / 1000 + "us");
+            return new CodecCapabilityCache(encoders, fingerprint, true);
+        }
+        encoders = queryPlatform();
+        ELog.i(TAG, "query " + encoders.size() + " encoders in "
+                + (System.nanoTime() - start) / 1000000 + "ms");
+        return new CodecCapabilityCache(encoders, fingerprint, false);
+    }
+
+    /**
+     * 把查询结果写入缓存文件，写入失败时不再重试，下一次启动重新查询
+     *
+     * @param file 为null时表示还没有设置缓存目录，什么都不做
+     * @return 是否写入了文件
+     */
+    synchronized boolean persist(File file) {
+        if (persisted || file == null) {
+            return false;
+        }
+        persisted = true;
+        return write(file, encode(fingerprint, encoders));
+    }
+
+    /**
+     * @return 系统中的编码器，按MediaCodecList中的顺序
+     */
+    public List<Codec> getEncoders() {
+        return encoders;
+    }
+
+    /**
+     * @return 名字为name的编码器，没有时返回null
+     */
+    public Codec findEncoder(String name) {
+        for (Codec codec : encoders) {
+            if (codec.name.equals(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    private static List<Codec> queryPlatform() {
+        List<Codec> encoders = new ArrayList<>();
+        for (int i = 0; i < MediaCodecList.getCodecCount(); ++i) {
+            MediaCodecInfo info = null;
+            try {
+                info = MediaCodecList.getCodecInfoAt(i);
+            } catch (IllegalArgumentException e) {
+                ELog.e(TAG, "Cannot retrieve encoder codec info:" + e);
+            }
+            if (info == null || !info.isEncoder()) {
+                continue;
+            }
+            List<TypeCapabilities> types = new ArrayList<>();
+            for (String mime : info.getSupportedTypes()) {
+                try {
+                    types.add(queryType(mime, info.getCapabilitiesForType(mime)));
+                } catch (RuntimeException e) {
+                    //部分设备上查询某些类型会抛出IllegalArgumentException
+                    ELog.w(TAG, "query " + info.getName() + " " + mime + " failed: " + e);
+                }
+            }
+            encoders.add(new Codec(info.getName(), types));
+        }
+        return encoders;
+    }
+
+    private static TypeCapabilities queryType(String mime, CodecCapabilities capabilities) {
+        int[] colorFormats = capabilities.colorFormats == null ? new int[0] : capabilities.colorFormats.clone();
+        MediaCodecInfo.CodecProfileLevel[] profileLevels = capabilities.profileLevels;
+        int count = profileLevels == null ? 0 : profileLevels.length;
+        int[] profiles = new int[count];
+        int[] levels = new int[count];
+        for (int i = 0; i < count; i++) {
+            profiles[i] = profileLevels[i].profile;
+            levels[i] = profileLevels[i].level;
+        }
+        int maxWidth = 0;
+        int maxHeight = 0;
+        int widthAlignment = 0;
+        int heightAlignment = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            MediaCodecInfo.VideoCapabilities video = capabilities.getVideoCapabilities();
+            if (video != null) {
+                maxWidth = upper(video.getSupportedWidths());
+                maxHeight = upper(video.getSupportedHeights());
+                widthAlignment = video.getWidthAlignment();
+                heightAlignment = video.getHeightAlignment();
+            }
+        }
+        return new TypeCapabilities(mime, colorFormats, profiles, levels,
+                maxWidth, maxHeight, widthAlignment, heightAlignment);
+    }
+
+    private static int upper(Range<Integer> range) {
+        return range == null || range.getUpper() == null ? 0 : range.getUpper();
+    }
+
+    /**
+     * 文件格式：magic、版本、设备标识，之后是编码器个数和每个编码器的名字、类型个数及各类型的能力。
+     * 字符串为2字节长度加UTF-8内容，数组为4字节个数加内容，字节序为大端
+     */
+    static ByteBuffer encode(String fingerprint, List<Codec> encoders) {
+        int size = 12 + stringSize(fingerprint);
+        for (Codec codec : encoders) {
+            size += stringSize(codec.name) + 4;
+            for (TypeCapabilities caps : codec.types) {
+                size += stringSize(caps.mime) + 4 * (3 + caps.colorFormats.length + caps.profiles.length * 2) + 16;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        putString(buffer, fingerprint);
+        buffer.putInt(encoders.size());
+        for (Codec codec : encoders) {
+            putString(buffer, codec.name);
+            buffer.putInt(codec.types.size());
+            for (TypeCapabilities caps : codec.types) {
+                putString(buffer, caps.mime);
+                putInts(buffer, caps.colorFormats);
+                putInts(buffer, caps.profiles);
+                putInts(buffer, caps.levels);
+                buffer.putInt(caps.maxWidth).putInt(caps.maxHeight)
+                        .putInt(caps.widthAlignment).putInt(caps.heightAlignment);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return 解析出的编码器，格式错误或设备标识不一致时返回null
+     */
+    static List<Codec> decode(ByteBuffer buffer, String fingerprint) {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !fingerprint.equals(getString(buffer))) {
+                return null;
+            }
+            int codecCount = buffer.getInt();
+            List<Codec> encoders = new ArrayList<>(codecCount);
+            for (int i = 0; i < codecCount; i++) {
+                String name = getString(buffer);
+                int typeCount = buffer.getInt();
+                List<TypeCapabilities> types = new ArrayList<>(typeCount);
+                for (int j = 0; j < typeCount; j++) {
+                    String mime = getString(buffer);
+                    int[] colorFormats = getInts(buffer);
+                    int[] profiles = getInts(buffer);
+                    int[] levels = getInts(buffer);
+                    if (levels.length != profiles.length) {
+                        return null;
+                    }
+                    types.add(new TypeCapabilities(mime, colorFormats, profiles, levels,
+                            buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt()));
+                }
+                encoders.add(new Codec(name, types));
+            }
+            return buffer.hasRemaining() ? null : encoders;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            //文件被截断或内容损坏
+            return null;
+        }
+    }
+
+    static List<Codec> read(File file, String fingerprint) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            List<Codec> encoders = decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), fingerprint);
+            if (encoders == null) {
+                ELog.i(TAG, "codec capability cache is stale, query again");
+            }
+            return encoders;
+        } catch (IOException e) {
+            ELog.w(TAG, "read codec capability cache failed: " + e);
+            return null;
+        }
+    }
+
+    private static boolean write(File file, ByteBuffer data) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } catch (IOException e) {
+            ELog.w(TAG, "write codec capability cache failed: " + e);
+            tmp.delete();
+            return false;
+        }
+        if (!tmp.renameTo(file)) {
+            ELog.w(TAG, "rename codec capability cache failed");
+            tmp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private static int stringSize(String value) {
+        return 2 + value.getBytes(UTF_8).length;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.putInt(values.length);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+    }
+
+    private static int[] getInts(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / 4) {
+            throw new IllegalArgumentException("count=" + count);
+        }
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = buffer.getInt();
+        }
+        return values;
+    }
+}
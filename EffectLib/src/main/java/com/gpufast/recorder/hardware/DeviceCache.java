@@ -0,0 +1,47 @@
+package com.gpufast.recorder.hardware;
+
+import android.os.Build;
+
+import java.io.File;
+
+/**
+ * 设备相关缓存文件的存放位置
+ * <p>
+ * 编码器的基准测试结果、能力信息只和设备及系统版本有关，写入一次后在之后的启动中直接读取。
+ * 需要应用通过{@link #setDirectory(File)}提供目录，没有设置时不使用缓存
+ */
+public final class DeviceCache {
+
+    private static volatile File sDirectory;
+
+    private DeviceCache() {
+    }
+
+    /**
+     * @param directory 缓存目录，通常为Context.getCacheDir()
+     */
+    public static void setDirectory(File directory) {
+        sDirectory = directory;
+    }
+
+    /**
+     * @return 缓存文件，没有设置目录时返回null
+     */
+    public static File getFile(String name) {
+        File directory = sDirectory;
+        if (directory == null) {
+            return null;
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            return null;
+        }
+        return new File(directory, name);
+    }
+
+    /**
+     * @return 设备和系统版本的标识，系统升级后会变化，缓存需要随之失效
+     */
+    public static String fingerprint() {
+        return Build.FINGERPRINT + "|" + Build.VERSION.SDK_INT + "|" + Build.VERSION.INCREMENTAL;
+    }
+}
@@ -6,6 +6,8 @@ import android.media.MediaCodecInfo.CodecCapabilities;
 
 import com.gpufast.recorder.video.encoder.VideoCodecType;
 
+import java.util.List;
+
 /**
  * Container class for static constants and helpers used with MediaCodec.
  */
@@ -52,8 +54,17 @@ public class MediaCodecUtils {
     }
 
     public static Integer selectColorFormat(int[] supportedColorFormats, CodecCapabilities capabilities) {
+        return selectColorFormat(supportedColorFormats, capabilities.colorFormats);
+    }
+
+    public static Integer selectColorFormat(int[] supportedColorFormats,
+                                            CodecCapabilityCache.TypeCapabilities capabilities) {
+        return selectColorFormat(supportedColorFormats, capabilities.colorFormats);
+    }
+
+    private static Integer selectColorFormat(int[] supportedColorFormats, int[] codecColorFormats) {
         for (int supportedColorFormat : supportedColorFormats) {
-            for (int codecColorFormat : capabilities.colorFormats) {
+            for (int codecColorFormat : codecColorFormats) {
                 if (codecColorFormat == supportedColorFormat) {
                     return codecColorFormat;
                 }
@@ -71,6 +82,17 @@ public class MediaCodecUtils {
         return false;
     }
 
+    public static boolean codecSupportsType(CodecCapabilityCache.Codec codec, VideoCodecType type) {
+        return codec.supportsType(type.mimeType());
+    }
+
+    /**
+     * 系统中的编码器，优先从{@link CodecCapabilityCache}读取，不需要每次遍历MediaCodecList
+     */
+    public static List<CodecCapabilityCache.Codec> getEncoders() {
+        return CodecCapabilityCache.getInstance().getEncoders();
+    }
+
     private MediaCodecUtils() {
     }
 }
@@ -4,11 +4,44 @@ import android.media.MediaCodec;
 import android.media.MediaCrypto;
 import android.media.MediaFormat;
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.Surface;
 
 import java.nio.ByteBuffer;
 
 public interface MediaCodecWrapper {
+
+    /**
+     * 异步模式的回调，与{@link MediaCodec.Callback}一一对应，参数换成了包装类，
+     * 可以用脚本化的假编解码器在JVM上驱动调用者的状态机
+     */
+    interface Callback {
+        void onInputBufferAvailable(MediaCodecWrapper codec, int index);
+
+        /**
+         * @param info 只在本次回调中有效
+         */
+        void onOutputBufferAvailable(MediaCodecWrapper codec, int index, MediaCodec.BufferInfo info);
+
+        void onOutputFormatChanged(MediaCodecWrapper codec, MediaFormat format);
+
+        void onError(MediaCodecWrapper codec, Exception e);
+    }
+
+    /**
+     * @return 是否支持{@link #setCallback(Callback, Handler)}
+     */
+    boolean isAsyncSupported();
+
+    /**
+     * 切换到异步模式，需要在{@link #configure(MediaFormat, Surface, MediaCrypto, int)}之前调用。
+     * 异步模式下不能再调用dequeueInputBuffer和dequeueOutputBuffer
+     *
+     * @param callback 回调
+     * @param handler  回调所在的线程，为null时使用创建编解码器的线程的Looper
+     */
+    void setCallback(Callback callback, Handler handler);
+
     void configure(MediaFormat format, Surface surface, MediaCrypto crypto, int flags);
 
     void start();
@@ -1,10 +1,12 @@
 package com.gpufast.recorder.hardware;
 
+import android.annotation.TargetApi;
 import android.media.MediaCodec;
 import android.media.MediaCrypto;
 import android.media.MediaFormat;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.Surface;
 
 import java.io.IOException;
@@ -18,6 +20,43 @@ public class MediaCodecWrapperFactoryImpl implements MediaCodecWrapperFactory {
             this.mediaCodec = mediaCodec;
         }
 
+        @Override
+        public boolean isAsyncSupported() {
+            //带Handler参数的setCallback在API 23才加入
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+        }
+
+        @TargetApi(Build.VERSION_CODES.M)
+        @Override
+        public void setCallback(final Callback callback, Handler handler) {
+            if (callback == null) {
+                mediaCodec.setCallback(null, handler);
+                return;
+            }
+            final MediaCodecWrapper wrapper = this;
+            mediaCodec.setCallback(new MediaCodec.Callback() {
+                @Override
+                public void onInputBufferAvailable(MediaCodec codec, int index) {
+                    callback.onInputBufferAvailable(wrapper, index);
+                }
+
+                @Override
+                public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+                    callback.onOutputBufferAvailable(wrapper, index, info);
+                }
+
+                @Override
+                public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+                    callback.onError(wrapper, e);
+                }
+
+                @Override
+                public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+                    callback.onOutputFormatChanged(wrapper, format);
+                }
+            }, handler);
+        }
+
         @Override
         public void configure(MediaFormat format, Surface surface, MediaCrypto crypto, int flags) {
             mediaCodec.configure(format, surface, crypto, flags);
@@ -0,0 +1,153 @@
+package com.gpufast.recorder.muxer;
+
+import android.media.MediaFormat;
+
+import com.gpufast.recorder.audio.EncodedAudio;
+import com.gpufast.recorder.video.EncodedImage;
+
+/**
+ * 可以在编码器创建之后再指定的复用器，用于提前预热的编码器
+ * <p>
+ * 预热时编码器以这个对象作为回调，开始录制时{@link #attach}真正的复用器，录制结束、编码器回收后{@link #detach()}，
+ * 可以在下一次录制中继续使用。没有复用器时收到的数据被丢弃，格式信息保留到attach时补发
+ */
+public class DeferredMuxer extends IMediaMuxer {
+
+    public interface FirstFrameListener {
+        /**
+         * attach之后第一帧视频交给复用器时回调，在编码器的输出线程中
+         */
+        void onFirstVideoFrame();
+    }
+
+    private final Object mLock = new Object();
+    private volatile IMediaMuxer mTarget;
+    private volatile FirstFrameListener mFirstFrameListener;
+    //没有复用器时收到的格式，attach时补发
+    private MediaFormat mVideoFormat;
+    private MediaFormat mAudioFormat;
+
+    private volatile long mDroppedVideo;
+    private volatile long mDroppedAudio;
+
+    /**
+     * @param target   本次录制的复用器
+     * @param listener 第一帧视频的回调，可以为null
+     */
+    public void attach(IMediaMuxer target, FirstFrameListener listener) {
+        synchronized (mLock) {
+            mFirstFrameListener = listener;
+            mTarget = target;
+            if (mVideoFormat != null) {
+                target.onUpdateVideoMediaFormat(mVideoFormat);
+                mVideoFormat = null;
+            }
+            if (mAudioFormat != null) {
+                target.onUpdateAudioMediaFormat(mAudioFormat);
+                mAudioFormat = null;
+            }
+        }
+    }
+
+    /**
+     * 在编码器停止回调之后调用
+     */
+    public void detach() {
+        synchronized (mLock) {
+            mTarget = null;
+            mFirstFrameListener = null;
+            mVideoFormat = null;
+            mAudioFormat = null;
+        }
+    }
+
+    public boolean isAttached() {
+        return mTarget != null;
+    }
+
+    @Override
+    public void onUpdateVideoMediaFormat(MediaFormat format) {
+        synchronized (mLock) {
+            IMediaMuxer target = mTarget;
+            if (target != null) {
+                target.onUpdateVideoMediaFormat(format);
+            } else {
+                mVideoFormat = format;
+            }
+        }
+    }
+
+    @Override
+    public void onEncodedFrame(EncodedImage frame) {
+        IMediaMuxer target = mTarget;
+        if (target == null) {
+            mDroppedVideo++;
+            return;
+        }
+        target.onEncodedFrame(frame);
+        FirstFrameListener listener = mFirstFrameListener;
+        if (listener != null) {
+            mFirstFrameListener = null;
+            listener.onFirstVideoFrame();
+        }
+    }
+
+    @Override
+    public void onVideoEncoderStop() {
+        synchronized (mLock) {
+            IMediaMuxer target = mTarget;
+            if (target != null) {
+                target.onVideoEncoderStop();
+            }
+        }
+    }
+
+    @Override
+    public void onUpdateAudioMediaFormat(MediaFormat mediaFormat) {
+        synchronized (mLock) {
+            IMediaMuxer target = mTarget;
+            if (target != null) {
+                target.onUpdateAudioMediaFormat(mediaFormat);
+            } else {
+                mAudioFormat = mediaFormat;
+            }
+        }
+    }
+
+    @Override
+    public void onEncodedAudio(EncodedAudio frame) {
+        IMediaMuxer target = mTarget;
+        if (target == null) {
+            mDroppedAudio++;
+            return;
+        }
+        target.onEncodedAudio(frame);
+    }
+
+    @Override
+    public void onAudioEncoderStop() {
+        synchronized (mLock) {
+            IMediaMuxer target = mTarget;
+            if (target != null) {
+                target.onAudioEncoderStop();
+            }
+        }
+    }
+
+    @Override
+    void release() {
+        IMediaMuxer target = mTarget;
+        if (target != null) {
+            target.release();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DeferredMuxer{" +
+                "attached=" + (mTarget != null) +
+                ", droppedVideo=" + mDroppedVideo +
+                ", droppedAudio=" + mDroppedAudio +
+                '}';
+    }
+}
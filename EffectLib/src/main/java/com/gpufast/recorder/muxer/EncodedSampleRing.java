@@ -0,0 +1,363 @@
+package com.gpufast.recorder.muxer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 编码样本环形缓存，用于预录制
+ * <p>
+ * 样本数据按到达顺序拷贝到一块预先分配的堆外内存中循环使用，样本描述保存在定长的基本类型数组里，
+ * 追加和淘汰都不分配内存。淘汰总是以GOP为单位从头部进行，保证头部始终是一个同步帧（视频关键帧），
+ * 从头部开始可以完整解码。
+ * <p>
+ * 保留的时长达到{@link #setWindowUs(long)}后淘汰最旧的GOP；内存或样本数不足时也淘汰最旧的GOP，
+ * 如果只剩一个GOP仍放不下，就清空缓存并丢弃后续样本直到下一个同步帧。
+ * <p>
+ * 非线程安全，由调用者加锁。对象可以跨多次录制复用，{@link #clear()}之后内存不会释放
+ */
+public class EncodedSampleRing {
+
+    public static final int TRACK_VIDEO = 0;
+    public static final int TRACK_AUDIO = 1;
+
+    //视频加音频每秒大约75个样本，按每秒128个估算样本描述的个数
+    private static final int SAMPLES_PER_SECOND = 128;
+    private static final int MIN_SAMPLES = 256;
+
+    private final ByteBuffer arena;
+    private final int capacityBytes;
+
+    //样本描述，[head, head + count)为有效部分，下标对capacity取模
+    private final int[] track;
+    private final int[] offset;
+    private final int[] size;
+    private final int[] flags;
+    private final long[] ptsUs;
+    private final boolean[] sync;
+    private int head;
+    private int count;
+
+    //下一次写入的位置
+    private int writePos;
+    private int usedBytes;
+    private long windowUs;
+    //没有视频轨时，每个音频样本都是同步点
+    private boolean audioIsSync;
+    //缓存被清空后，在下一个同步帧之前丢弃样本
+    private boolean waitingForSync = true;
+
+    private long appendedSamples;
+    private long evictedGops;
+    private long evictedSamples;
+    private long droppedSamples;
+    private long overflows;
+    private int peakBytes;
+
+    /**
+     * @param capacityBytes 样本数据的内存上限
+     * @param maxWindowMs   预计的最大预录时长，用于估算样本描述的个数
+     */
+    public EncodedSampleRing(int capacityBytes, int maxWindowMs) {
+        if (capacityBytes <= 0 || maxWindowMs <= 0) {
+            throw new IllegalArgumentException("capacityBytes=" + capacityBytes + " maxWindowMs=" + maxWindowMs);
+        }
+        this.capacityBytes = capacityBytes;
+        arena = ByteBuffer.allocateDirect(capacityBytes);
+        //多留两个GOP的余量，淘汰以GOP为单位，实际保留的时长会超过预录时长
+        int samples = Math.max(MIN_SAMPLES, (maxWindowMs / 1000 + 4) * SAMPLES_PER_SECOND);
+        track = new int[samples];
+        offset = new int[samples];
+        size = new int[samples];
+        flags = new int[samples];
+        ptsUs = new long[samples];
+        sync = new boolean[samples];
+        windowUs = maxWindowMs * 1000L;
+    }
+
+    /**
+     * @param windowUs 需要保留的时长，超过后淘汰最旧的GOP
+     */
+    public void setWindowUs(long windowUs) {
+        this.windowUs = windowUs;
+    }
+
+    /**
+     * @param audioIsSync 为true时音频样本也作为同步点，用于没有视频轨的录制
+     */
+    public void setAudioIsSync(boolean audioIsSync) {
+        this.audioIsSync = audioIsSync;
+    }
+
+    /**
+     * 拷贝一个样本到缓存中
+     *
+     * @param trackType {@link #TRACK_VIDEO}或{@link #TRACK_AUDIO}
+     * @param src       样本数据，position和limit不会被改变
+     * @param srcOffset 数据在src中的起始位置
+     * @param srcSize   数据长度
+     * @param keyFrame  是否是视频关键帧
+     * @return false表示样本被丢弃
+     */
+    public boolean append(int trackType, ByteBuffer src, int srcOffset, int srcSize,
+                          long pts, int bufferFlags, boolean keyFrame) {
+        return append(trackType, null, src, srcOffset, srcSize, pts, bufferFlags, keyFrame);
+    }
+
+    /**
+     * 拷贝一个由两段组成的样本，例如SPS、PPS加关键帧数据，两段在缓存中连续存放
+     *
+     * @param prefix 样本的第一段，0到limit之间有效，可以为null
+     */
+    public boolean append(int trackType, ByteBuffer prefix, ByteBuffer src, int srcOffset, int srcSize,
+                          long pts, int bufferFlags, boolean keyFrame) {
+        final int prefixSize = prefix == null ? 0 : prefix.limit();
+        final int sampleSize = prefixSize + srcSize;
+        boolean isSync = trackType == TRACK_VIDEO ? keyFrame : audioIsSync;
+        if (waitingForSync && !isSync) {
+            droppedSamples++;
+            return false;
+        }
+        if (srcSize <= 0 || sampleSize > capacityBytes) {
+            droppedSamples++;
+            return false;
+        }
+        if (isSync) {
+            trimToWindow(pts);
+        }
+        int pos;
+        while (count == track.length || (pos = allocate(sampleSize)) < 0) {
+            if (!evictHeadGop()) {
+                //单个GOP超过了内存上限，保证头部可解码只能整体丢弃
+                overflows++;
+                droppedSamples += count;
+                clear();
+                if (!isSync) {
+                    droppedSamples++;
+                    return false;
+                }
+            }
+        }
+        waitingForSync = false;
+
+        arena.limit(pos + sampleSize).position(pos);
+        if (prefix != null) {
+            int prefixPosition = prefix.position();
+            prefix.position(0);
+            arena.put(prefix);
+            prefix.position(prefixPosition);
+        }
+        int limit = src.limit();
+        int position = src.position();
+        src.limit(srcOffset + srcSize).position(srcOffset);
+        arena.put(src);
+        src.limit(limit).position(position);
+
+        int index = (head + count) % track.length;
+        track[index] = trackType;
+        offset[index] = pos;
+        size[index] = sampleSize;
+        flags[index] = bufferFlags;
+        ptsUs[index] = pts;
+        sync[index] = isSync;
+        count++;
+        writePos = pos + sampleSize;
+        usedBytes += sampleSize;
+        if (usedBytes > peakBytes) {
+            peakBytes = usedBytes;
+        }
+        appendedSamples++;
+        return true;
+    }
+
+    /**
+     * 在arena中找一块连续空间，末尾放不下时回到开头
+     *
+     * @return 起始位置，空间不足时返回-1
+     */
+    private int allocate(int bytes) {
+        if (count == 0) {
+            writePos = 0;
+            return 0;
+        }
+        int start = offset[head];
+        if (writePos > start) {
+            if (capacityBytes - writePos >= bytes) {
+                return writePos;
+            }
+            //严格小于，避免写满后无法区分空和满
+            return bytes < start ? 0 : -1;
+        }
+        return writePos + bytes < start ? writePos : -1;
+    }
+
+    /**
+     * 新的同步帧到达时，如果去掉最旧的GOP后仍然覆盖预录时长，就把它淘汰
+     */
+    private void trimToWindow(long newestPtsUs) {
+        int next;
+        while ((next = nextSync()) > 0 && newestPtsUs - ptsUs[(head + next) % track.length] >= windowUs) {
+            evict(next);
+        }
+    }
+
+    private boolean evictHeadGop() {
+        int next = nextSync();
+        if (next <= 0) {
+            return false;
+        }
+        evict(next);
+        return true;
+    }
+
+    /**
+     * @return 头部之后第一个同步帧的相对下标，没有时返回-1
+     */
+    private int nextSync() {
+        for (int i = 1; i < count; i++) {
+            if (sync[(head + i) % track.length]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void evict(int samples) {
+        for (int i = 0; i < samples; i++) {
+            usedBytes -= size[head];
+            head = (head + 1) % track.length;
+        }
+        count -= samples;
+        evictedSamples += samples;
+        evictedGops++;
+    }
+
+    /**
+     * 清空缓存，之后需要等到下一个同步帧才开始缓存
+     */
+    public void clear() {
+        head = 0;
+        count = 0;
+        writePos = 0;
+        usedBytes = 0;
+        waitingForSync = true;
+    }
+
+    /**
+     * 清空缓存和统计，用于下一次录制
+     */
+    public void reset() {
+        clear();
+        appendedSamples = 0;
+        evictedGops = 0;
+        evictedSamples = 0;
+        droppedSamples = 0;
+        overflows = 0;
+        peakBytes = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private int at(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("index=" + i + " size=" + count);
+        }
+        return (head + i) % track.length;
+    }
+
+    public int getTrack(int i) {
+        return track[at(i)];
+    }
+
+    /**
+     * @return 第i个样本在{@link #getArena()}中的起始位置
+     */
+    public int getOffset(int i) {
+        return offset[at(i)];
+    }
+
+    public int getSize(int i) {
+        return size[at(i)];
+    }
+
+    public int getFlags(int i) {
+        return flags[at(i)];
+    }
+
+    public long getPtsUs(int i) {
+        return ptsUs[at(i)];
+    }
+
+    public boolean isSync(int i) {
+        return sync[at(i)];
+    }
+
+    /**
+     * @return 样本数据所在的堆外内存，调用者需要使用duplicate，不能修改其中的数据
+     */
+    public ByteBuffer getArena() {
+        return arena;
+    }
+
+    /**
+     * @return 缓存视频的时长，从头部关键帧到最新的视频帧
+     */
+    public long getBufferedDurationUs() {
+        long first = -1;
+        long last = -1;
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % track.length;
+            if (track[index] != TRACK_VIDEO && !audioIsSync) {
+                continue;
+            }
+            if (first < 0) {
+                first = ptsUs[index];
+            }
+            last = Math.max(last, ptsUs[index]);
+        }
+        return first < 0 ? 0 : last - first;
+    }
+
+    public int getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    public int getUsedBytes() {
+        return usedBytes;
+    }
+
+    public int getPeakBytes() {
+        return peakBytes;
+    }
+
+    public long getEvictedGops() {
+        return evictedGops;
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    /**
+     * @return 单个GOP超过内存上限、缓存被整体清空的次数
+     */
+    public long getOverflows() {
+        return overflows;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedSampleRing{" +
+                "samples=" + count +
+                ", durationMs=" + getBufferedDurationUs() / 1000 +
+                ", usedKB=" + usedBytes / 1024 +
+                ", peakKB=" + peakBytes / 1024 +
+                ", capacityKB=" + capacityBytes / 1024 +
+                ", appended=" + appendedSamples +
+                ", evictedGops=" + evictedGops +
+                ", evictedSamples=" + evictedSamples +
+                ", dropped=" + droppedSamples +
+                ", overflows=" + overflows +
+                '}';
+    }
+}
@@ -16,5 +16,17 @@ public class MediaMuxerFactory {
         return null;
     }
 
+    /**
+     * 创建同时录制的一路视频的复用器
+     *
+     * @param layer 分辨率和文件路径
+     */
+    public static IMediaMuxer createMediaMuxer(RecordParams params, RecordParams.VideoLayer layer, MuxerType type) {
+        if (type == MuxerType.MP4) {
+            return Mp4MuxerCreator.create(params, layer.savePath);
+        }
+        return null;
+    }
+
 
 }
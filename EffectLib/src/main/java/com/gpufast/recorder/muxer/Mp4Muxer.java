@@ -1,5 +1,6 @@
 package com.gpufast.recorder.muxer;
 
+import android.media.MediaCodec;
 import android.media.MediaFormat;
 import android.media.MediaMuxer;
 
@@ -24,6 +25,8 @@ public class Mp4Muxer extends IMediaMuxer {
     private boolean audioTrackReady = false;
 
     private boolean muteMic;
+    //写入视频的样本信息，BufferInfo属于编码器，不能修改。只在视频编码器的输出线程中使用
+    private final MediaCodec.BufferInfo videoSampleInfo = new MediaCodec.BufferInfo();
 
 
     Mp4Muxer(Setting setting) {
@@ -83,7 +86,11 @@ public class Mp4Muxer extends IMediaMuxer {
     public void onEncodedFrame(EncodedImage frame) {
         if ((videoTrackReady && audioTrackReady) || (videoTrackReady && muteMic)) {
             start();
-            mMediaMuxer.writeSampleData(videoTrackIndex, frame.buffer, frame.bufferInfo);
+            //SPS和PPS已经在轨道格式中，只写入buffer的有效部分
+            MediaCodec.BufferInfo info = frame.bufferInfo;
+            videoSampleInfo.set(frame.buffer.position(), frame.buffer.remaining(),
+                    info.presentationTimeUs, info.flags);
+            mMediaMuxer.writeSampleData(videoTrackIndex, frame.buffer, videoSampleInfo);
             ELog.i(TAG, "mux video data，index=" + frame.index
                     + " timeStamp:" + frame.bufferInfo.presentationTimeUs);
         }
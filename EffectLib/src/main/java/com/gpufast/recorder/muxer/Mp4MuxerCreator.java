@@ -10,6 +10,13 @@ public class Mp4MuxerCreator {
     }
 
 
+    /**
+     * @param savePath 文件路径，其他参数和params相同
+     */
+    public static Mp4Muxer create(RecordParams params, String savePath) {
+        return new Mp4Muxer(new IMediaMuxer.Setting(savePath, params.isMuteMic()));
+    }
+
     private static IMediaMuxer.Setting createMuxerSetting(RecordParams params) {
         if (params == null) return null;
         return new IMediaMuxer.Setting(params.getSavePath(), params.isMuteMic());
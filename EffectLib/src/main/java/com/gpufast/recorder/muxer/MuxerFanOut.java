@@ -0,0 +1,99 @@
+package com.gpufast.recorder.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import com.gpufast.recorder.audio.EncodedAudio;
+import com.gpufast.recorder.video.EncodedImage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 把一个编码器的输出转发给多个复用器，用于多路视频共用一路音频
+ * <p>
+ * 每个复用器拿到的是buffer的duplicate和BufferInfo的拷贝，复用器修改position或时间戳不会互相影响。
+ * 数据本身不拷贝，复用器需要在回调返回前写完
+ */
+public class MuxerFanOut extends IMediaMuxer {
+
+    private final List<IMediaMuxer> mTargets;
+
+    public MuxerFanOut(List<IMediaMuxer> targets) {
+        if (targets == null || targets.isEmpty()) {
+            throw new IllegalArgumentException("targets is empty");
+        }
+        mTargets = Collections.unmodifiableList(new ArrayList<>(targets));
+    }
+
+    @Override
+    public void onUpdateVideoMediaFormat(MediaFormat format) {
+        for (IMediaMuxer target : mTargets) {
+            target.onUpdateVideoMediaFormat(format);
+        }
+    }
+
+    @Override
+    public void onEncodedFrame(EncodedImage frame) {
+        for (IMediaMuxer target : mTargets) {
+            target.onEncodedFrame(EncodedImage.builder()
+                    .setBuffer(frame.buffer.duplicate())
+                    .setConfigBuffer(frame.configBuffer)
+                    .setBufferInfo(copy(frame.bufferInfo))
+                    .setEncodedWidth(frame.encodedWidth)
+                    .setEncodedHeight(frame.encodedHeight)
+                    .setCaptureTimeNs(frame.captureTimeNs)
+                    .setFrameType(frame.frameType)
+                    .setRotation(frame.rotation)
+                    .setCompleteFrame(frame.completeFrame)
+                    .setFrameIndex(frame.index)
+                    .setQp(frame.qp)
+                    .createEncodedImage());
+        }
+    }
+
+    @Override
+    public void onVideoEncoderStop() {
+        for (IMediaMuxer target : mTargets) {
+            target.onVideoEncoderStop();
+        }
+    }
+
+    @Override
+    public void onUpdateAudioMediaFormat(MediaFormat mediaFormat) {
+        for (IMediaMuxer target : mTargets) {
+            target.onUpdateAudioMediaFormat(mediaFormat);
+        }
+    }
+
+    @Override
+    public void onEncodedAudio(EncodedAudio frame) {
+        for (IMediaMuxer target : mTargets) {
+            target.onEncodedAudio(new EncodedAudio.Builder()
+                    .setBuffer(frame.buffer.duplicate())
+                    .setBufferInfo(copy(frame.bufferInfo))
+                    .createEncodedAudio());
+        }
+    }
+
+    @Override
+    public void onAudioEncoderStop() {
+        for (IMediaMuxer target : mTargets) {
+            target.onAudioEncoderStop();
+        }
+    }
+
+    private static MediaCodec.BufferInfo copy(MediaCodec.BufferInfo info) {
+        MediaCodec.BufferInfo copy = new MediaCodec.BufferInfo();
+        copy.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        return copy;
+    }
+
+    @Override
+    void release() {
+        for (IMediaMuxer target : mTargets) {
+            target.release();
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.gpufast.recorder.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import com.gpufast.logger.ELog;
+import com.gpufast.recorder.audio.EncodedAudio;
+import com.gpufast.recorder.video.EncodedImage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 预录制复用器
+ * <p>
+ * 编码器在开始录制之前就持续运行，输出先缓存在{@link EncodedSampleRing}中，只保留最近的一段；
+ * 调用{@link #attach(IMediaMuxer)}时把缓存的格式和样本按顺序写入真正的复用器，之后的样本直接转发。
+ * 所有时间戳都减去缓存头部关键帧的时间戳，成片从0开始。
+ * <p>
+ * 音视频编码器的输出线程分别回调本类，缓存和转发在同一把锁中完成，保证写入顺序
+ */
+public class PreRollMuxer extends IMediaMuxer {
+    private static final String TAG = PreRollMuxer.class.getSimpleName();
+
+    private final Object mLock = new Object();
+    private final EncodedSampleRing mRing;
+    private final boolean mHasVideo;
+    private final boolean mHasAudio;
+
+    private MediaFormat mVideoFormat;
+    private MediaFormat mAudioFormat;
+    //已经调用attach，但格式还没有到齐
+    private IMediaMuxer mPendingTarget;
+    private volatile IMediaMuxer mTarget;
+    //成片的时间起点，attach之前为-1
+    private long mBaseUs = -1;
+    private boolean mVideoStarted;
+
+    private boolean mVideoStopped;
+    private boolean mAudioStopped;
+
+    private int mFlushedSamples;
+    private long mFlushedDurationUs;
+    private long mDroppedLiveSamples;
+
+    /**
+     * @param ring      样本缓存，可以跨多次录制复用
+     * @param preRollMs 预录时长
+     * @param hasVideo  是否有视频轨
+     * @param hasAudio  是否有音频轨
+     */
+    public PreRollMuxer(EncodedSampleRing ring, int preRollMs, boolean hasVideo, boolean hasAudio) {
+        if (ring == null) {
+            throw new IllegalArgumentException("ring is null object");
+        }
+        mRing = ring;
+        mHasVideo = hasVideo;
+        mHasAudio = hasAudio;
+        ring.reset();
+        ring.setWindowUs(preRollMs * 1000L);
+        ring.setAudioIsSync(!hasVideo);
+    }
+
+    /**
+     * 开始写入真正的复用器。格式到齐之前继续缓存，到齐后由编码器输出线程完成写入
+     *
+     * @param target 复用器
+     */
+    public void attach(IMediaMuxer target) {
+        synchronized (mLock) {
+            if (mTarget != null || mPendingTarget != null) {
+                return;
+            }
+            ELog.i(TAG, "attach muxer, pre-roll: " + mRing);
+            mPendingTarget = target;
+            flushIfReady();
+        }
+    }
+
+    public boolean isAttached() {
+        return mTarget != null;
+    }
+
+    /**
+     * 调用时需要持有mLock
+     */
+    private void flushIfReady() {
+        IMediaMuxer target = mPendingTarget;
+        if (target == null || mHasVideo && mVideoFormat == null || mHasAudio && mAudioFormat == null) {
+            return;
+        }
+        //Mp4Muxer添加视频轨时会等待音频轨，所以先给音频格式
+        if (mAudioFormat != null) {
+            target.onUpdateAudioMediaFormat(mAudioFormat);
+        }
+        if (mVideoFormat != null) {
+            target.onUpdateVideoMediaFormat(mVideoFormat);
+        }
+        final EncodedSampleRing ring = mRing;
+        final ByteBuffer arena = ring.getArena();
+        final int n = ring.size();
+        long lastPtsUs = 0;
+        for (int i = 0; i < n; i++) {
+            long pts = ring.getPtsUs(i);
+            if (mBaseUs < 0) {
+                mBaseUs = pts;
+            }
+            if (pts < mBaseUs) {
+                //头部关键帧之前的音频
+                continue;
+            }
+            int offset = ring.getOffset(i);
+            int size = ring.getSize(i);
+            ByteBuffer view = arena.duplicate();
+            view.limit(offset + size).position(offset);
+            MediaCodec.BufferInfo info = newBufferInfo(offset, size, pts - mBaseUs, ring.getFlags(i));
+            if (ring.getTrack(i) == EncodedSampleRing.TRACK_VIDEO) {
+                mVideoStarted = true;
+                target.onEncodedFrame(EncodedImage.builder()
+                        .setBuffer(view)
+                        .setBufferInfo(info)
+                        .setFrameType(ring.isSync(i) ? EncodedImage.FrameType.VideoFrameKey
+                                : EncodedImage.FrameType.VideoFrameDelta)
+                        .setCompleteFrame(true)
+                        .createEncodedImage());
+            } else {
+                target.onEncodedAudio(new EncodedAudio.Builder()
+                        .setBuffer(view)
+                        .setBufferInfo(info)
+                        .createEncodedAudio());
+            }
+            mFlushedSamples++;
+            lastPtsUs = Math.max(lastPtsUs, pts - mBaseUs);
+        }
+        mFlushedDurationUs = lastPtsUs;
+        ELog.i(TAG, "pre-roll flushed " + mFlushedSamples + " samples, " + lastPtsUs / 1000 + "ms");
+        ring.clear();
+        mPendingTarget = null;
+        mTarget = target;
+    }
+
+    @Override
+    public void onUpdateVideoMediaFormat(MediaFormat format) {
+        synchronized (mLock) {
+            if (mVideoFormat != null) {
+                return;
+            }
+            mVideoFormat = format;
+            flushIfReady();
+        }
+    }
+
+    @Override
+    public void onUpdateAudioMediaFormat(MediaFormat mediaFormat) {
+        //音频编码器每次输出都会回调格式，只处理第一次
+        synchronized (mLock) {
+            if (mAudioFormat != null) {
+                return;
+            }
+            mAudioFormat = mediaFormat;
+            flushIfReady();
+        }
+    }
+
+    @Override
+    public void onEncodedFrame(EncodedImage frame) {
+        MediaCodec.BufferInfo info = frame.bufferInfo;
+        boolean keyFrame = frame.frameType == EncodedImage.FrameType.VideoFrameKey;
+        synchronized (mLock) {
+            IMediaMuxer target = mTarget;
+            if (target == null) {
+                ByteBuffer buffer = frame.buffer;
+                //SPS、PPS和编码数据在缓存中拼接成连续的一段
+                mRing.append(EncodedSampleRing.TRACK_VIDEO, frame.configBuffer, buffer, buffer.position(),
+                        buffer.remaining(), info.presentationTimeUs, info.flags, keyFrame);
+                return;
+            }
+            //缓存为空时，成片需要从一个关键帧开始
+            if (!mVideoStarted) {
+                if (!keyFrame) {
+                    mDroppedLiveSamples++;
+                    return;
+                }
+                mVideoStarted = true;
+                if (mBaseUs < 0) {
+                    mBaseUs = info.presentationTimeUs;
+                }
+            }
+            //BufferInfo属于编码器，转发拷贝，不修改原对象
+            target.onEncodedFrame(EncodedImage.builder()
+                    .setBuffer(frame.buffer)
+                    .setConfigBuffer(frame.configBuffer)
+                    .setBufferInfo(newBufferInfo(info.offset, info.size, info.presentationTimeUs - mBaseUs, info.flags))
+                    .setEncodedWidth(frame.encodedWidth)
+                    .setEncodedHeight(frame.encodedHeight)
+                    .setCaptureTimeNs(frame.captureTimeNs)
+                    .setFrameType(frame.frameType)
+                    .setRotation(frame.rotation)
+                    .setCompleteFrame(frame.completeFrame)
+                    .setFrameIndex(frame.index)
+                    .setQp(frame.qp)
+                    .createEncodedImage());
+        }
+    }
+
+    @Override
+    public void onEncodedAudio(EncodedAudio frame) {
+        MediaCodec.BufferInfo info = frame.bufferInfo;
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            //配置信息已经包含在格式中
+            return;
+        }
+        synchronized (mLock) {
+            IMediaMuxer target = mTarget;
+            if (target == null) {
+                mRing.append(EncodedSampleRing.TRACK_AUDIO, frame.buffer, info.offset, info.size,
+                        info.presentationTimeUs, info.flags, false);
+                return;
+            }
+            if (mBaseUs < 0 && !mHasVideo) {
+                mBaseUs = info.presentationTimeUs;
+            }
+            if (mBaseUs < 0 || info.presentationTimeUs < mBaseUs) {
+                mDroppedLiveSamples++;
+                return;
+            }
+            target.onEncodedAudio(new EncodedAudio.Builder()
+                    .setBuffer(frame.buffer)
+                    .setBufferInfo(newBufferInfo(info.offset, info.size, info.presentationTimeUs - mBaseUs, info.flags))
+                    .createEncodedAudio());
+        }
+    }
+
+    /**
+     * 直接给字段赋值，不依赖{@link MediaCodec.BufferInfo#set}的实现，JVM单元测试中也能使用
+     */
+    private static MediaCodec.BufferInfo newBufferInfo(int offset, int size, long ptsUs, int flags) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.offset = offset;
+        info.size = size;
+        info.presentationTimeUs = ptsUs;
+        info.flags = flags;
+        return info;
+    }
+
+    @Override
+    public void onVideoEncoderStop() {
+        IMediaMuxer target;
+        synchronized (mLock) {
+            mVideoStopped = true;
+            //格式没有到齐就停止时，也要让复用器释放
+            target = mTarget != null ? mTarget : mPendingTarget;
+        }
+        if (target != null) {
+            target.onVideoEncoderStop();
+        }
+    }
+
+    @Override
+    public void onAudioEncoderStop() {
+        IMediaMuxer target;
+        synchronized (mLock) {
+            mAudioStopped = true;
+            //格式没有到齐就停止时，也要让复用器释放
+            target = mTarget != null ? mTarget : mPendingTarget;
+        }
+        if (target != null) {
+            target.onAudioEncoderStop();
+        }
+    }
+
+    @Override
+    void release() {
+        discard();
+    }
+
+    /**
+     * 没有开始录制就停止时，丢弃缓存
+     */
+    public void discard() {
+        synchronized (mLock) {
+            if (mTarget == null) {
+                ELog.i(TAG, "pre-roll discarded: " + mRing);
+                mRing.clear();
+                mPendingTarget = null;
+            }
+        }
+    }
+
+    /**
+     * @return 缓存当前占用的内存
+     */
+    public int getBufferedBytes() {
+        synchronized (mLock) {
+            return mRing.getUsedBytes();
+        }
+    }
+
+    /**
+     * @return 缓存的内存上限
+     */
+    public int getCapacityBytes() {
+        return mRing.getCapacityBytes();
+    }
+
+    public long getBufferedDurationUs() {
+        synchronized (mLock) {
+            return mRing.getBufferedDurationUs();
+        }
+    }
+
+    /**
+     * @return attach时写入复用器的时长
+     */
+    public long getFlushedDurationUs() {
+        synchronized (mLock) {
+            return mFlushedDurationUs;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "PreRollMuxer{" +
+                    "attached=" + (mTarget != null) +
+                    ", flushed=" + mFlushedSamples +
+                    ", flushedMs=" + mFlushedDurationUs / 1000 +
+                    ", droppedLive=" + mDroppedLiveSamples +
+                    ", videoStopped=" + mVideoStopped +
+                    ", audioStopped=" + mAudioStopped +
+                    ", ring=" + mRing +
+                    '}';
+        }
+    }
+}
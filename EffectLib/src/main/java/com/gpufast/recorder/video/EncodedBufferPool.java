@@ -0,0 +1,91 @@
+package com.gpufast.recorder.video;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 编码数据的堆外buffer池
+ * <p>
+ * 用于确实需要连续数据的场景（例如复用器用{@link EncodedImage#copyTo(ByteBuffer)}把SPS、PPS和关键帧拼接在一起），
+ * 避免每次都分配新的direct buffer。
+ * 容量按{@link #GRANULARITY}向上取整，取出的buffer容量不小于申请的大小，用完需要{@link #release(ByteBuffer)}
+ */
+public class EncodedBufferPool {
+
+    //容量取整的粒度，码率变化时同一个buffer仍然可以复用
+    static final int GRANULARITY = 64 * 1024;
+
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private final int maxPooled;
+
+    private long acquired;
+    private long allocations;
+    private long allocatedBytes;
+
+    /**
+     * @param maxPooled 最多缓存的buffer个数
+     */
+    public EncodedBufferPool(int maxPooled) {
+        if (maxPooled <= 0) {
+            throw new IllegalArgumentException("maxPooled=" + maxPooled);
+        }
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return position为0、limit为size的buffer
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        acquired++;
+        ByteBuffer buffer = null;
+        for (ByteBuffer candidate : free) {
+            if (candidate.capacity() >= size) {
+                buffer = candidate;
+                break;
+            }
+        }
+        if (buffer != null) {
+            free.remove(buffer);
+        } else {
+            int capacity = (size + GRANULARITY - 1) / GRANULARITY * GRANULARITY;
+            buffer = ByteBuffer.allocateDirect(capacity);
+            allocations++;
+            allocatedBytes += capacity;
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || free.size() >= maxPooled) {
+            return;
+        }
+        free.addLast(buffer);
+    }
+
+    public synchronized long getAcquired() {
+        return acquired;
+    }
+
+    /**
+     * @return 池中没有合适的buffer、需要新分配的次数
+     */
+    public synchronized long getAllocations() {
+        return allocations;
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "EncodedBufferPool{" +
+                "acquired=" + acquired +
+                ", allocations=" + allocations +
+                ", allocatedKB=" + allocatedBytes / 1024 +
+                ", pooled=" + free.size() +
+                '}';
+    }
+}
@@ -3,7 +3,9 @@ package com.gpufast.recorder.video;
 import android.media.MediaCodec;
 import android.media.MediaFormat;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.util.concurrent.TimeUnit;
 
 
@@ -36,8 +38,18 @@ public class EncodedImage {
         }
     }
 
+    /**
+     * 编码数据，position到limit之间有效。H264关键帧不包含SPS和PPS，见{@link #configBuffer}
+     */
     public final ByteBuffer buffer;
 
+    /**
+     * H264关键帧对应的SPS和PPS，其他帧为null。与编码数据分开存放，避免每个关键帧都拼接拷贝，
+     * 需要连续数据时使用{@link #writeTo(GatheringByteChannel)}或{@link #copyTo(ByteBuffer)}。
+     * 由编码器持有并在多个关键帧之间共享，只能读取
+     */
+    public final ByteBuffer configBuffer;
+
     /**
      * 编码视频的宽度
      */
@@ -72,10 +84,11 @@ public class EncodedImage {
 
     public int index = 0;
 
-    private EncodedImage(ByteBuffer buffer, int encodedWidth, int encodedHeight, long captureTimeNs,
-                         FrameType frameType, int rotation, boolean completeFrame, Integer qp,
+    private EncodedImage(ByteBuffer buffer, ByteBuffer configBuffer, int encodedWidth, int encodedHeight,
+                         long captureTimeNs, FrameType frameType, int rotation, boolean completeFrame, Integer qp,
                          MediaFormat mediaFormat, MediaCodec.BufferInfo bufferInfo , int index) {
         this.buffer = buffer;
+        this.configBuffer = configBuffer;
         this.encodedWidth = encodedWidth;
         this.encodedHeight = encodedHeight;
         this.captureTimeNs = captureTimeNs;
@@ -88,12 +101,65 @@ public class EncodedImage {
         this.index = index;
     }
 
+    /**
+     * @return SPS、PPS和编码数据的总长度
+     */
+    public int size() {
+        return configSize() + buffer.remaining();
+    }
+
+    private int configSize() {
+        return configBuffer == null ? 0 : configBuffer.limit();
+    }
+
+    /**
+     * 把SPS、PPS和编码数据依次拷贝到dst的当前位置，不改变本帧各个buffer的position
+     *
+     * @return 拷贝的字节数
+     */
+    public int copyTo(ByteBuffer dst) {
+        int size = size();
+        if (dst.remaining() < size) {
+            throw new IllegalArgumentException("dst remaining " + dst.remaining() + " < " + size);
+        }
+        if (configBuffer != null) {
+            ByteBuffer config = configBuffer.duplicate();
+            config.clear().limit(configBuffer.limit());
+            dst.put(config);
+        }
+        dst.put(buffer.duplicate());
+        return size;
+    }
+
+    /**
+     * 用一次聚集写把SPS、PPS和编码数据写入channel，不需要拼接
+     *
+     * @return 写入的字节数
+     */
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        ByteBuffer payload = buffer.duplicate();
+        ByteBuffer[] segments;
+        if (configBuffer != null) {
+            ByteBuffer config = configBuffer.duplicate();
+            config.clear().limit(configBuffer.limit());
+            segments = new ByteBuffer[]{config, payload};
+        } else {
+            segments = new ByteBuffer[]{payload};
+        }
+        long written = 0;
+        while (payload.hasRemaining()) {
+            written += channel.write(segments);
+        }
+        return written;
+    }
+
     public static Builder builder() {
         return new Builder();
     }
 
     public static class Builder {
         private ByteBuffer buffer;
+        private ByteBuffer configBuffer;
         private int encodedWidth;
         private int encodedHeight;
         private long captureTimeNs;
@@ -113,6 +179,14 @@ public class EncodedImage {
             return this;
         }
 
+        /**
+         * @param configBuffer 关键帧的SPS和PPS，0到limit之间有效
+         */
+        public Builder setConfigBuffer(ByteBuffer configBuffer) {
+            this.configBuffer = configBuffer;
+            return this;
+        }
+
         public Builder setEncodedWidth(int encodedWidth) {
             this.encodedWidth = encodedWidth;
             return this;
@@ -165,7 +239,7 @@ public class EncodedImage {
         }
 
         public EncodedImage createEncodedImage() {
-            return new EncodedImage(buffer, encodedWidth, encodedHeight, captureTimeNs, frameType,
+            return new EncodedImage(buffer, configBuffer, encodedWidth, encodedHeight, captureTimeNs, frameType,
                     rotation, completeFrame, qp, mediaFormat, bufferInfo,frameIndex);
         }
     }
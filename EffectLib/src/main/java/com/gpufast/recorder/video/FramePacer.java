@@ -0,0 +1,141 @@
+package com.gpufast.recorder.video;
+
+/**
+ * 按目标帧率对前端送来的帧做抽帧
+ * <p>
+ * 维护下一帧的期望时间，帧到达时间不早于期望时间减去容差就接收，并把期望时间推进一个帧间隔，
+ * 否则丢弃。期望时间按固定间隔推进而不是以实际接收的帧为准，渲染线程的抖动不会累积，
+ * 输出的平均帧率等于目标帧率（输入帧率更低时全部接收）；渲染线程停顿过后从当前帧重新对齐，不会连续补发。
+ * 时间戳回退超过一个帧间隔时认为时间轴重新开始，同样从当前帧重新对齐。
+ * <p>
+ * 只在渲染线程调用{@link #accept(long)}和{@link #setFps(int)}，统计值可以在其他线程读取
+ */
+public class FramePacer {
+
+    //帧提前到达时允许的容差，按帧间隔的比例
+    private static final double EARLY_TOLERANCE = 0.25;
+    //帧晚到超过该比例时重新对齐，避免紧接着的下一帧也被接收
+    private static final double LATE_REALIGN = 0.5;
+
+    private volatile long intervalNs;
+    private long earlyToleranceNs;
+    private long lateRealignNs;
+
+    //下一帧的期望时间，-1表示还没有接收过帧
+    private long nextDueNs = -1;
+    private long lastAcceptedNs = -1;
+
+    private volatile long accepted;
+    private volatile long dropped;
+    private volatile long realigned;
+    private volatile long maxIntervalNs;
+
+    /**
+     * @param fps 目标帧率，小于等于0时不抽帧
+     */
+    public FramePacer(int fps) {
+        setInterval(fps);
+    }
+
+    /**
+     * 修改目标帧率，下一帧的期望时间按新的帧间隔从上一次接收的帧重新计算
+     *
+     * @param fps 目标帧率，小于等于0时不抽帧
+     */
+    public void setFps(int fps) {
+        setInterval(fps);
+        if (lastAcceptedNs >= 0) {
+            nextDueNs = lastAcceptedNs + intervalNs;
+        }
+    }
+
+    private void setInterval(int fps) {
+        long interval = fps > 0 ? 1000000000L / fps : 0;
+        earlyToleranceNs = (long) (interval * EARLY_TOLERANCE);
+        lateRealignNs = (long) (interval * LATE_REALIGN);
+        intervalNs = interval;
+    }
+
+    /**
+     * 时间戳重新从0开始时调用，例如复用到下一次录制，统计继续累加
+     */
+    public void reset() {
+        nextDueNs = -1;
+        lastAcceptedNs = -1;
+    }
+
+    /**
+     * @param timestampNs 帧的时间戳
+     * @return true表示该帧需要编码
+     */
+    public boolean accept(long timestampNs) {
+        final long intervalNs = this.intervalNs;
+        if (intervalNs > 0 && nextDueNs >= 0 && timestampNs < lastAcceptedNs - intervalNs) {
+            //时间戳回退，按新的时间轴重新对齐
+            nextDueNs = timestampNs + intervalNs;
+            realigned++;
+        } else if (intervalNs > 0 && nextDueNs >= 0) {
+            if (timestampNs < nextDueNs - earlyToleranceNs) {
+                dropped++;
+                return false;
+            }
+            if (timestampNs - nextDueNs > lateRealignNs) {
+                nextDueNs = timestampNs + intervalNs;
+                realigned++;
+            } else {
+                nextDueNs += intervalNs;
+            }
+        } else {
+            nextDueNs = timestampNs + intervalNs;
+        }
+        if (lastAcceptedNs >= 0 && timestampNs - lastAcceptedNs > maxIntervalNs) {
+            maxIntervalNs = timestampNs - lastAcceptedNs;
+        }
+        lastAcceptedNs = timestampNs;
+        accepted++;
+        return true;
+    }
+
+    public long getFrameIntervalNs() {
+        return intervalNs;
+    }
+
+    /**
+     * @return 接收的帧数
+     */
+    public long getAccepted() {
+        return accepted;
+    }
+
+    /**
+     * @return 超过目标帧率被丢弃的帧数
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return 帧晚到或时间戳回退、重新对齐期望时间的次数
+     */
+    public long getRealigned() {
+        return realigned;
+    }
+
+    /**
+     * @return 接收的相邻两帧之间的最大间隔
+     */
+    public long getMaxIntervalNs() {
+        return maxIntervalNs;
+    }
+
+    @Override
+    public String toString() {
+        return "FramePacer{" +
+                "intervalMs=" + intervalNs / 1000000.0 +
+                ", accepted=" + accepted +
+                ", dropped=" + dropped +
+                ", realigned=" + realigned +
+                ", maxIntervalMs=" + maxIntervalNs / 1000000.0 +
+                '}';
+    }
+}
@@ -0,0 +1,148 @@
+package com.gpufast.recorder.video;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link PooledI420Buffer}的池
+ * <p>
+ * 按容量分级缓存：容量向上取整到2的幂的1、1.25、1.5、1.75倍，浪费不超过25%，
+ * 分辨率相近的帧（例如旋转、裁剪后的尺寸）可以共用同一级的buffer。
+ * buffer的引用计数归零时自动回到池中，池满时交给GC
+ */
+public class I420BufferPool {
+
+    //平面每一行的字节对齐，编码器和SIMD代码按16字节对齐读取更快
+    public static final int STRIDE_ALIGNMENT = 16;
+    //最小的容量级别
+    static final int MIN_CLASS_SIZE = 4096;
+
+    private final Map<Integer, ArrayDeque<PooledI420Buffer>> free = new HashMap<>();
+    private final int maxPooledPerClass;
+    private final long maxPooledBytes;
+    private long pooledBytes;
+
+    private long acquired;
+    private long allocations;
+    private long allocatedBytes;
+    private long dropped;
+
+    /**
+     * @param maxPooledPerClass 每一级最多缓存的buffer个数
+     * @param maxPooledBytes    所有缓存的buffer的总容量上限
+     */
+    public I420BufferPool(int maxPooledPerClass, long maxPooledBytes) {
+        if (maxPooledPerClass <= 0 || maxPooledBytes <= 0) {
+            throw new IllegalArgumentException("maxPooledPerClass=" + maxPooledPerClass
+                    + " maxPooledBytes=" + maxPooledBytes);
+        }
+        this.maxPooledPerClass = maxPooledPerClass;
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * @return 引用计数为1的buffer，内容未初始化
+     */
+    public PooledI420Buffer acquire(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("width=" + width + " height=" + height);
+        }
+        int strideY = align(width);
+        int strideUV = align((width + 1) / 2);
+        int size = strideY * height + 2 * strideUV * ((height + 1) / 2);
+        int capacity = sizeClass(size);
+        PooledI420Buffer buffer;
+        synchronized (this) {
+            acquired++;
+            ArrayDeque<PooledI420Buffer> queue = free.get(capacity);
+            buffer = queue != null ? queue.pollLast() : null;
+            if (buffer != null) {
+                pooledBytes -= capacity;
+            } else {
+                allocations++;
+                allocatedBytes += capacity;
+            }
+        }
+        if (buffer == null) {
+            buffer = new PooledI420Buffer(this, ByteBuffer.allocateDirect(capacity));
+        }
+        buffer.reset(width, height, strideY, strideUV);
+        return buffer;
+    }
+
+    /**
+     * 引用计数归零时调用
+     */
+    synchronized void recycle(PooledI420Buffer buffer) {
+        int capacity = buffer.capacity();
+        ArrayDeque<PooledI420Buffer> queue = free.get(capacity);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            free.put(capacity, queue);
+        }
+        if (queue.size() >= maxPooledPerClass || pooledBytes + capacity > maxPooledBytes) {
+            dropped++;
+            return;
+        }
+        queue.addLast(buffer);
+        pooledBytes += capacity;
+    }
+
+    /**
+     * 释放所有缓存的buffer，已经取出的buffer归还时仍然可以进入池中
+     */
+    public synchronized void clear() {
+        free.clear();
+        pooledBytes = 0;
+    }
+
+    static int align(int value) {
+        return (value + STRIDE_ALIGNMENT - 1) / STRIDE_ALIGNMENT * STRIDE_ALIGNMENT;
+    }
+
+    /**
+     * @return 不小于size的容量级别
+     */
+    static int sizeClass(int size) {
+        if (size <= MIN_CLASS_SIZE) {
+            return MIN_CLASS_SIZE;
+        }
+        //每个2的幂之间分4级
+        int highBit = Integer.highestOneBit(size - 1);
+        int step = highBit >> 2;
+        return (size + step - 1) / step * step;
+    }
+
+    public synchronized long getAcquired() {
+        return acquired;
+    }
+
+    /**
+     * @return 池中没有合适的buffer、需要新分配的次数
+     */
+    public synchronized long getAllocations() {
+        return allocations;
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "I420BufferPool{" +
+                "acquired=" + acquired +
+                ", allocations=" + allocations +
+                ", allocatedKB=" + allocatedBytes / 1024 +
+                ", pooledKB=" + pooledBytes / 1024 +
+                ", classes=" + free.size() +
+                ", dropped=" + dropped +
+                '}';
+    }
+}
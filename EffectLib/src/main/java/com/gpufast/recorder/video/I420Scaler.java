@@ -0,0 +1,150 @@
+package com.gpufast.recorder.video;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 单个8位平面的双线性缩放
+ * <p>
+ * 先用批量读取把需要的两行源数据拷贝到数组中，竖直方向插值是对数组逐元素的乘加，
+ * 没有分支和跨元素依赖，JIT可以自动向量化；水平方向按预先算好的下标和权重插值，结果写入数组后批量写回。
+ * 坐标和权重都用定点数，权重8位。临时数组按线程复用，缩放过程中不分配内存
+ */
+final class I420Scaler {
+
+    private static final ThreadLocal<I420Scaler> LOCAL = new ThreadLocal<I420Scaler>() {
+        @Override
+        protected I420Scaler initialValue() {
+            return new I420Scaler();
+        }
+    };
+
+    private byte[] row0 = new byte[0];
+    private byte[] row1 = new byte[0];
+    //竖直插值的结果，放大256倍，多一个元素用于最右边的像素
+    private int[] vertical = new int[0];
+    private int[] xIndex = new int[0];
+    private int[] xWeight = new int[0];
+    private byte[] output = new byte[0];
+
+    static I420Scaler get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * 把src中srcWidth x srcHeight的区域缩放后写入dst，偏移都是相对于buffer起点的绝对位置，不改变buffer的position
+     */
+    void scalePlane(ByteBuffer src, int srcOffset, int srcStride, int srcWidth, int srcHeight,
+                    ByteBuffer dst, int dstOffset, int dstStride, int dstWidth, int dstHeight) {
+        ensureCapacity(srcWidth, dstWidth);
+        ByteBuffer in = src.duplicate();
+        ByteBuffer out = dst.duplicate();
+        if (srcWidth == dstWidth && srcHeight == dstHeight) {
+            copyPlane(in, srcOffset, srcStride, out, dstOffset, dstStride, dstWidth, dstHeight);
+            return;
+        }
+        computeColumns(srcWidth, dstWidth);
+
+        final byte[] row0 = this.row0;
+        final byte[] row1 = this.row1;
+        final int[] vertical = this.vertical;
+        final int yStep = (srcHeight << 16) / dstHeight;
+        int loaded0 = -1;
+        int loaded1 = -1;
+        for (int y = 0; y < dstHeight; y++) {
+            int sy = clampPosition((yStep >> 1) - 0x8000 + y * yStep, srcHeight);
+            int y0 = sy >> 16;
+            int y1 = Math.min(y0 + 1, srcHeight - 1);
+            int fy = (sy >> 8) & 0xFF;
+            //放大时相邻的输出行经常使用同样的源行
+            if (loaded0 != y0) {
+                if (loaded1 == y0) {
+                    System.arraycopy(row1, 0, row0, 0, srcWidth);
+                } else {
+                    readRow(in, srcOffset + y0 * srcStride, row0, srcWidth);
+                }
+                loaded0 = y0;
+            }
+            if (fy == 0) {
+                for (int x = 0; x < srcWidth; x++) {
+                    vertical[x] = (row0[x] & 0xFF) << 8;
+                }
+            } else {
+                if (loaded1 != y1) {
+                    readRow(in, srcOffset + y1 * srcStride, row1, srcWidth);
+                    loaded1 = y1;
+                }
+                final int w0 = 256 - fy;
+                for (int x = 0; x < srcWidth; x++) {
+                    vertical[x] = (row0[x] & 0xFF) * w0 + (row1[x] & 0xFF) * fy;
+                }
+            }
+            vertical[srcWidth] = vertical[srcWidth - 1];
+            interpolateRow(dstWidth);
+            out.position(dstOffset + y * dstStride);
+            out.put(output, 0, dstWidth);
+        }
+    }
+
+    private void interpolateRow(int dstWidth) {
+        final int[] vertical = this.vertical;
+        final int[] xIndex = this.xIndex;
+        final int[] xWeight = this.xWeight;
+        final byte[] output = this.output;
+        for (int x = 0; x < dstWidth; x++) {
+            int i = xIndex[x];
+            int fx = xWeight[x];
+            output[x] = (byte) ((vertical[i] * (256 - fx) + vertical[i + 1] * fx + 0x8000) >>> 16);
+        }
+    }
+
+    /**
+     * 按像素中心对齐计算每一列对应的源位置
+     */
+    private void computeColumns(int srcWidth, int dstWidth) {
+        final int xStep = (srcWidth << 16) / dstWidth;
+        for (int x = 0; x < dstWidth; x++) {
+            int sx = clampPosition((xStep >> 1) - 0x8000 + x * xStep, srcWidth);
+            xIndex[x] = sx >> 16;
+            xWeight[x] = (sx >> 8) & 0xFF;
+        }
+    }
+
+    /**
+     * @return 限制在[0, size - 1]之间的16.16定点坐标
+     */
+    private static int clampPosition(int position, int size) {
+        if (position < 0) {
+            return 0;
+        }
+        int max = (size - 1) << 16;
+        return position > max ? max : position;
+    }
+
+    private static void readRow(ByteBuffer in, int offset, byte[] row, int width) {
+        in.position(offset);
+        in.get(row, 0, width);
+    }
+
+    private static void copyPlane(ByteBuffer in, int srcOffset, int srcStride,
+                                  ByteBuffer out, int dstOffset, int dstStride, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            in.limit(srcOffset + y * srcStride + width);
+            in.position(srcOffset + y * srcStride);
+            out.position(dstOffset + y * dstStride);
+            out.put(in);
+        }
+    }
+
+    private void ensureCapacity(int srcWidth, int dstWidth) {
+        if (row0.length < srcWidth) {
+            row0 = new byte[srcWidth];
+            row1 = new byte[srcWidth];
+            vertical = new int[srcWidth + 1];
+        }
+        if (output.length < dstWidth) {
+            output = new byte[dstWidth];
+            xIndex = new int[dstWidth];
+            xWeight = new int[dstWidth];
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.gpufast.recorder.video;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 存放在一整块direct ByteBuffer中的I420数据，带引用计数
+ * <p>
+ * Y、U、V三个平面依次存放，每一行按{@link I420BufferPool#STRIDE_ALIGNMENT}对齐。
+ * 从{@link I420BufferPool}取出时引用计数为1，归零时回到池中；只裁剪不缩放时返回共享同一块内存的视图，
+ * 视图持有原buffer的一个引用。平面数据可以直接交给native代码，不需要拷贝
+ */
+public class PooledI420Buffer implements VideoFrame.I420Buffer {
+
+    private final I420BufferPool pool;
+    private final ByteBuffer slab;
+    //视图引用的原buffer，为null时自己持有slab
+    private final PooledI420Buffer parent;
+    private final AtomicInteger refCount = new AtomicInteger();
+
+    private int width;
+    private int height;
+    private int offsetY;
+    private int strideY;
+    private int offsetU;
+    private int strideU;
+    private int offsetV;
+    private int strideV;
+
+    PooledI420Buffer(I420BufferPool pool, ByteBuffer slab) {
+        this.pool = pool;
+        this.slab = slab;
+        this.parent = null;
+    }
+
+    private PooledI420Buffer(PooledI420Buffer parent, int width, int height,
+                             int offsetY, int offsetU, int offsetV) {
+        this.pool = parent.pool;
+        this.slab = parent.slab;
+        this.parent = parent;
+        this.width = width;
+        this.height = height;
+        this.offsetY = offsetY;
+        this.strideY = parent.strideY;
+        this.offsetU = offsetU;
+        this.strideU = parent.strideU;
+        this.offsetV = offsetV;
+        this.strideV = parent.strideV;
+        refCount.set(1);
+    }
+
+    /**
+     * 从池中取出时重新设置尺寸
+     */
+    void reset(int width, int height, int strideY, int strideUV) {
+        this.width = width;
+        this.height = height;
+        this.strideY = strideY;
+        this.strideU = strideUV;
+        this.strideV = strideUV;
+        offsetY = 0;
+        offsetU = strideY * height;
+        offsetV = offsetU + strideUV * chromaHeight();
+        refCount.set(1);
+    }
+
+    int capacity() {
+        return slab.capacity();
+    }
+
+    private int chromaWidth() {
+        return (width + 1) / 2;
+    }
+
+    private int chromaHeight() {
+        return (height + 1) / 2;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public ByteBuffer getDataY() {
+        return plane(offsetY, strideY, width, height);
+    }
+
+    @Override
+    public ByteBuffer getDataU() {
+        return plane(offsetU, strideU, chromaWidth(), chromaHeight());
+    }
+
+    @Override
+    public ByteBuffer getDataV() {
+        return plane(offsetV, strideV, chromaWidth(), chromaHeight());
+    }
+
+    /**
+     * @return 从平面起点开始的新buffer，容量到最后一行的最后一个像素为止
+     */
+    private ByteBuffer plane(int offset, int stride, int planeWidth, int planeHeight) {
+        ByteBuffer buffer = slab.duplicate();
+        buffer.limit(offset + stride * (planeHeight - 1) + planeWidth);
+        buffer.position(offset);
+        return buffer.slice();
+    }
+
+    @Override
+    public int getStrideY() {
+        return strideY;
+    }
+
+    @Override
+    public int getStrideU() {
+        return strideU;
+    }
+
+    @Override
+    public int getStrideV() {
+        return strideV;
+    }
+
+    @Override
+    public VideoFrame.I420Buffer toI420() {
+        retain();
+        return this;
+    }
+
+    @Override
+    public void retain() {
+        if (refCount.getAndIncrement() <= 0) {
+            refCount.decrementAndGet();
+            throw new IllegalStateException("retain a released buffer");
+        }
+    }
+
+    @Override
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count > 0) {
+            return;
+        }
+        if (count < 0) {
+            refCount.incrementAndGet();
+            throw new IllegalStateException("release a released buffer");
+        }
+        if (parent != null) {
+            parent.release();
+        } else {
+            pool.recycle(this);
+        }
+    }
+
+    /**
+     * 只裁剪时返回共享内存的视图；需要缩放时从同一个池中取出新buffer，用双线性插值缩放
+     *
+     * @param cropX 必须是偶数，色度平面每个采样对应2x2个亮度像素，奇数起点无法对齐，抛出IllegalArgumentException
+     * @param cropY 必须是偶数，同cropX
+     */
+    @Override
+    public VideoFrame.Buffer cropAndScale(int cropX, int cropY, int cropWidth, int cropHeight,
+                                          int scaleWidth, int scaleHeight) {
+        if (cropX < 0 || cropY < 0 || cropWidth <= 0 || cropHeight <= 0
+                || cropX + cropWidth > width || cropY + cropHeight > height
+                || scaleWidth <= 0 || scaleHeight <= 0
+                || (cropX & 1) != 0 || (cropY & 1) != 0) {
+            throw new IllegalArgumentException("crop " + cropX + "," + cropY + " " + cropWidth + "x" + cropHeight
+                    + " scale " + scaleWidth + "x" + scaleHeight + " from " + width + "x" + height);
+        }
+        if (cropWidth == scaleWidth && cropHeight == scaleHeight) {
+            retain();
+            return new PooledI420Buffer(this, cropWidth, cropHeight,
+                    offsetY + cropY * strideY + cropX,
+                    offsetU + cropY / 2 * strideU + cropX / 2,
+                    offsetV + cropY / 2 * strideV + cropX / 2);
+        }
+        PooledI420Buffer dst = pool.acquire(scaleWidth, scaleHeight);
+        I420Scaler scaler = I420Scaler.get();
+        scaler.scalePlane(slab, offsetY + cropY * strideY + cropX, strideY, cropWidth, cropHeight,
+                dst.slab, dst.offsetY, dst.strideY, scaleWidth, scaleHeight);
+        int chromaCropWidth = (cropWidth + 1) / 2;
+        int chromaCropHeight = (cropHeight + 1) / 2;
+        scaler.scalePlane(slab, offsetU + cropY / 2 * strideU + cropX / 2, strideU,
+                chromaCropWidth, chromaCropHeight,
+                dst.slab, dst.offsetU, dst.strideU, dst.chromaWidth(), dst.chromaHeight());
+        scaler.scalePlane(slab, offsetV + cropY / 2 * strideV + cropX / 2, strideV,
+                chromaCropWidth, chromaCropHeight,
+                dst.slab, dst.offsetV, dst.strideV, dst.chromaWidth(), dst.chromaHeight());
+        return dst;
+    }
+
+    @Override
+    public String toString() {
+        return "PooledI420Buffer{" + width + "x" + height +
+                ", strides=" + strideY + "/" + strideU +
+                ", refCount=" + refCount.get() +
+                (parent != null ? ", view" : "") +
+                '}';
+    }
+}
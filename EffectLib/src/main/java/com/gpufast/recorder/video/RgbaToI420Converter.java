@@ -0,0 +1,302 @@
+package com.gpufast.recorder.video;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * RGBA转I420
+ * <p>
+ * 按行拆分到ForkJoinPool中并行转换，每个任务处理连续的若干对行（一对亮度行对应一行色度）。
+ * 系数为8位定点数，输出为有限范围（Y 16~235，UV 16~240），色度取2x2像素的平均值。
+ * 每一行先批量读入数组，在数组上计算后批量写出，临时数组按线程复用。
+ * 并行度为1或者系统没有ForkJoinPool（低于5.0）时在调用线程中转换
+ */
+public class RgbaToI420Converter {
+
+    /**
+     * 色彩标准，决定RGB到YUV的系数
+     */
+    public enum ColorStandard {
+        //标清，Android相机和大部分软编码器的默认值
+        BT601(66, 129, 25, -38, -74, 112, 112, -94, -18),
+        //高清
+        BT709(47, 157, 16, -26, -87, 112, 112, -102, -10);
+
+        final int yr, yg, yb, ur, ug, ub, vr, vg, vb;
+
+        ColorStandard(int yr, int yg, int yb, int ur, int ug, int ub, int vr, int vg, int vb) {
+            this.yr = yr;
+            this.yg = yg;
+            this.yb = yb;
+            this.ur = ur;
+            this.ug = ug;
+            this.ub = ub;
+            this.vr = vr;
+            this.vg = vg;
+            this.vb = vb;
+        }
+
+        /**
+         * GPU转换使用的系数，输入输出都归一化到[0, 1]
+         *
+         * @return 依次为Y、U、V，每组4个数：r、g、b的系数和偏移
+         */
+        public float[] shaderCoefficients() {
+            return new float[]{
+                    yr / 256f, yg / 256f, yb / 256f, 16 / 255f,
+                    ur / 256f, ug / 256f, ub / 256f, 128 / 255f,
+                    vr / 256f, vg / 256f, vb / 256f, 128 / 255f,
+            };
+        }
+    }
+
+    //每个线程分到的任务数，任务多一些可以平衡各个核的速度差异
+    private static final int TASKS_PER_THREAD = 4;
+
+    //按类是否存在判断，不依赖Build.VERSION，JVM单元测试中也可以并行
+    private static final boolean FORK_JOIN_AVAILABLE = isForkJoinAvailable();
+
+    private static final ThreadLocal<RowScratch> SCRATCH = new ThreadLocal<RowScratch>() {
+        @Override
+        protected RowScratch initialValue() {
+            return new RowScratch();
+        }
+    };
+
+    private final I420BufferPool pool;
+    private final ColorStandard standard;
+    private final int parallelism;
+    private final ForkJoinPool forkJoinPool;
+
+    /**
+     * @param pool        输出buffer的池
+     * @param standard    色彩标准
+     * @param parallelism 并行的线程数，1表示在调用线程中转换
+     */
+    public RgbaToI420Converter(I420BufferPool pool, ColorStandard standard, int parallelism) {
+        if (pool == null || standard == null || parallelism <= 0) {
+            throw new IllegalArgumentException("pool=" + pool + " standard=" + standard
+                    + " parallelism=" + parallelism);
+        }
+        this.pool = pool;
+        this.standard = standard;
+        if (parallelism > 1 && FORK_JOIN_AVAILABLE) {
+            this.parallelism = parallelism;
+            forkJoinPool = new ForkJoinPool(parallelism);
+        } else {
+            this.parallelism = 1;
+            forkJoinPool = null;
+        }
+    }
+
+    private static boolean isForkJoinAvailable() {
+        try {
+            Class.forName("java.util.concurrent.ForkJoinPool");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public ColorStandard getColorStandard() {
+        return standard;
+    }
+
+    /**
+     * @param rgba         RGBA数据，从position 0开始，每个像素4字节
+     * @param stride       RGBA每一行的字节数
+     * @param flipVertical 为true时输入的第一行是图像的最后一行，例如glReadPixels的结果
+     * @return 从池中取出的buffer，由调用者release
+     */
+    public PooledI420Buffer convert(ByteBuffer rgba, int stride, int width, int height, boolean flipVertical) {
+        if (width <= 0 || height <= 0 || stride < width * 4
+                || rgba.capacity() < stride * (height - 1) + width * 4) {
+            throw new IllegalArgumentException("width=" + width + " height=" + height + " stride=" + stride
+                    + " capacity=" + rgba.capacity());
+        }
+        PooledI420Buffer dst = pool.acquire(width, height);
+        ConvertTask task = new ConvertTask(rgba, stride, width, height, flipVertical,
+                dst.getDataY(), dst.getStrideY(), dst.getDataU(), dst.getStrideU(),
+                dst.getDataV(), dst.getStrideV(), 0, (height + 1) / 2);
+        try {
+            if (forkJoinPool != null) {
+                forkJoinPool.invoke(task);
+            } else {
+                task.convertRows();
+            }
+        } catch (RuntimeException e) {
+            dst.release();
+            throw e;
+        }
+        return dst;
+    }
+
+    /**
+     * 停止并行转换的线程，之后不能再调用{@link #convert}
+     */
+    public void release() {
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    private static class RowScratch {
+        byte[] rgba0 = new byte[0];
+        byte[] rgba1 = new byte[0];
+        byte[] y0 = new byte[0];
+        byte[] y1 = new byte[0];
+        byte[] u = new byte[0];
+        byte[] v = new byte[0];
+
+        void ensureCapacity(int width) {
+            if (y0.length < width) {
+                rgba0 = new byte[width * 4];
+                rgba1 = new byte[width * 4];
+                y0 = new byte[width];
+                y1 = new byte[width];
+                u = new byte[(width + 1) / 2];
+                v = new byte[(width + 1) / 2];
+            }
+        }
+    }
+
+    /**
+     * 转换[firstPair, endPair)之间的行对，超过阈值时对半拆分
+     */
+    private class ConvertTask extends RecursiveAction {
+        //RecursiveAction实现了Serializable，任务不会被序列化，声明版本号只是消除-Xlint:serial警告
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer rgba;
+        private final int stride;
+        private final int width;
+        private final int height;
+        private final boolean flip;
+        private final ByteBuffer dataY;
+        private final int strideY;
+        private final ByteBuffer dataU;
+        private final int strideU;
+        private final ByteBuffer dataV;
+        private final int strideV;
+        private final int firstPair;
+        private final int endPair;
+
+        ConvertTask(ByteBuffer rgba, int stride, int width, int height, boolean flip,
+                    ByteBuffer dataY, int strideY, ByteBuffer dataU, int strideU,
+                    ByteBuffer dataV, int strideV, int firstPair, int endPair) {
+            this.rgba = rgba;
+            this.stride = stride;
+            this.width = width;
+            this.height = height;
+            this.flip = flip;
+            this.dataY = dataY;
+            this.strideY = strideY;
+            this.dataU = dataU;
+            this.strideU = strideU;
+            this.dataV = dataV;
+            this.strideV = strideV;
+            this.firstPair = firstPair;
+            this.endPair = endPair;
+        }
+
+        @Override
+        protected void compute() {
+            int pairs = endPair - firstPair;
+            int threshold = Math.max(1, (height + 1) / 2 / (parallelism * TASKS_PER_THREAD));
+            if (pairs <= threshold) {
+                convertRows();
+                return;
+            }
+            int middle = firstPair + pairs / 2;
+            invokeAll(split(firstPair, middle), split(middle, endPair));
+        }
+
+        private ConvertTask split(int first, int end) {
+            return new ConvertTask(rgba, stride, width, height, flip,
+                    dataY, strideY, dataU, strideU, dataV, strideV, first, end);
+        }
+
+        void convertRows() {
+            RowScratch scratch = SCRATCH.get();
+            scratch.ensureCapacity(width);
+            //每个任务使用自己的position
+            ByteBuffer in = rgba.duplicate();
+            ByteBuffer outY = dataY.duplicate();
+            ByteBuffer outU = dataU.duplicate();
+            ByteBuffer outV = dataV.duplicate();
+            final int rowBytes = width * 4;
+            final int chromaWidth = (width + 1) / 2;
+            for (int pair = firstPair; pair < endPair; pair++) {
+                int row0 = pair * 2;
+                //高度为奇数时最后一行和自己组成一对
+                int row1 = Math.min(row0 + 1, height - 1);
+                in.position((flip ? height - 1 - row0 : row0) * stride);
+                in.get(scratch.rgba0, 0, rowBytes);
+                in.position((flip ? height - 1 - row1 : row1) * stride);
+                in.get(scratch.rgba1, 0, rowBytes);
+
+                convertLuma(scratch.rgba0, scratch.y0, width);
+                convertLuma(scratch.rgba1, scratch.y1, width);
+                convertChroma(scratch.rgba0, scratch.rgba1, scratch.u, scratch.v, width);
+
+                outY.position(row0 * strideY);
+                outY.put(scratch.y0, 0, width);
+                if (row1 != row0) {
+                    outY.position(row1 * strideY);
+                    outY.put(scratch.y1, 0, width);
+                }
+                outU.position(pair * strideU);
+                outU.put(scratch.u, 0, chromaWidth);
+                outV.position(pair * strideV);
+                outV.put(scratch.v, 0, chromaWidth);
+            }
+        }
+    }
+
+    private void convertLuma(byte[] rgba, byte[] y, int width) {
+        final int yr = standard.yr;
+        final int yg = standard.yg;
+        final int yb = standard.yb;
+        for (int x = 0; x < width; x++) {
+            int i = x * 4;
+            int r = rgba[i] & 0xFF;
+            int g = rgba[i + 1] & 0xFF;
+            int b = rgba[i + 2] & 0xFF;
+            y[x] = (byte) (((yr * r + yg * g + yb * b + 128) >> 8) + 16);
+        }
+    }
+
+    /**
+     * 色度取上下两行、左右两列共4个像素的平均值，宽度为奇数时最后一列和自己平均
+     */
+    private void convertChroma(byte[] rgba0, byte[] rgba1, byte[] u, byte[] v, int width) {
+        final int ur = standard.ur;
+        final int ug = standard.ug;
+        final int ub = standard.ub;
+        final int vr = standard.vr;
+        final int vg = standard.vg;
+        final int vb = standard.vb;
+        final int chromaWidth = (width + 1) / 2;
+        final int lastPixel = (width - 1) * 4;
+        for (int x = 0; x < chromaWidth; x++) {
+            int i = x * 8;
+            int j = Math.min(i + 4, lastPixel);
+            int r = (rgba0[i] & 0xFF) + (rgba0[j] & 0xFF) + (rgba1[i] & 0xFF) + (rgba1[j] & 0xFF);
+            int g = (rgba0[i + 1] & 0xFF) + (rgba0[j + 1] & 0xFF) + (rgba1[i + 1] & 0xFF) + (rgba1[j + 1] & 0xFF);
+            int b = (rgba0[i + 2] & 0xFF) + (rgba0[j + 2] & 0xFF) + (rgba1[i + 2] & 0xFF) + (rgba1[j + 2] & 0xFF);
+            //4个像素的和，系数多除以4
+            u[x] = (byte) (((ur * r + ug * g + ub * b + 512) >> 10) + 128);
+            v[x] = (byte) (((vr * r + vg * g + vb * b + 512) >> 10) + 128);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RgbaToI420Converter{" + standard + ", parallelism=" + parallelism + '}';
+    }
+}
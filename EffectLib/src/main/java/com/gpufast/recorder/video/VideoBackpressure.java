@@ -0,0 +1,218 @@
+package com.gpufast.recorder.video;
+
+/**
+ * 视频编码的背压状态
+ * <p>
+ * 统计已经交给编码线程还没有编码的帧，加上编码器内部还没有输出的帧，和上限比较得到剩余的额度（credits）。
+ * 额度用完时新的帧会被编码器丢弃，前端可以在渲染前通过{@link #getCredits()}判断是否需要为编码准备这一帧，
+ * 并通过{@link Listener}在拥塞时降低特效的开销。
+ * <p>
+ * 拥塞等级升高立即生效，降低需要连续{@link #RECOVER_FRAMES}帧都处于更低的等级，避免来回抖动。
+ * 对象跨多次录制复用，{@link #reset(int)}时只清空队列状态，统计一直累加
+ */
+public class VideoBackpressure {
+
+    public enum Level {
+        //编码器空闲
+        NONE,
+        //编码器队列接近满，建议降低特效开销
+        MODERATE,
+        //没有额度，新的帧会被丢弃
+        SEVERE
+    }
+
+    public interface Listener {
+        /**
+         * 拥塞等级变化，在渲染线程或编码线程中回调，不要做耗时操作
+         *
+         * @param level   新的等级
+         * @param credits 当前剩余的额度
+         */
+        void onCongestionChanged(Level level, int credits);
+    }
+
+    //编码线程的消息队列里允许等待的帧数
+    private static final int IN_FLIGHT_SLACK = 1;
+    //拥塞等级降低前需要连续观察到的帧数
+    static final int RECOVER_FRAMES = 10;
+
+    private int capacity = 1 + IN_FLIGHT_SLACK;
+    //已经交给编码线程、还没有编码的帧
+    private int inFlight;
+    //编码器中还没有输出的帧
+    private int encoderQueued;
+
+    private volatile Level level = Level.NONE;
+    private int recoverCount;
+    private volatile Listener listener;
+
+    private volatile long acquired;
+    private volatile long rejected;
+    private volatile long encoderDrops;
+    private volatile long congestionEvents;
+    private volatile long severeEvents;
+    private volatile long congestedTimeNs;
+    private long congestedSinceNs = -1;
+
+    /**
+     * 开始新的录制时调用
+     *
+     * @param encoderQueueSize 编码器内部最多缓存的帧数，见{@link VideoEncoder#getMaxQueuedFrames()}
+     */
+    public synchronized void reset(int encoderQueueSize) {
+        capacity = Math.max(1, encoderQueueSize) + IN_FLIGHT_SLACK;
+        inFlight = 0;
+        encoderQueued = 0;
+        recoverCount = 0;
+        updateLevel(Level.NONE, true);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 渲染线程在把帧交给编码线程之前调用，有额度时占用一个
+     *
+     * @param queued 编码器当前缓存的帧数
+     * @return false表示没有额度，该帧不应该送去编码
+     */
+    public synchronized boolean tryAcquire(int queued) {
+        encoderQueued = queued;
+        int credits = capacity - inFlight - encoderQueued;
+        if (credits <= 0) {
+            rejected++;
+            updateLevel(Level.SEVERE, false);
+            return false;
+        }
+        updateLevel(credits == 1 ? Level.MODERATE : Level.NONE, false);
+        inFlight++;
+        acquired++;
+        return true;
+    }
+
+    /**
+     * 占用额度之后没有把帧交给编码线程时调用，归还额度
+     */
+    public synchronized void cancel() {
+        if (inFlight > 0) {
+            inFlight--;
+        }
+        acquired--;
+    }
+
+    /**
+     * 编码线程处理完一帧后调用，释放{@link #tryAcquire(int)}占用的额度
+     *
+     * @param queued  编码器当前缓存的帧数
+     * @param dropped 该帧是否被编码器丢弃
+     */
+    public synchronized void onFrameEncoded(int queued, boolean dropped) {
+        if (inFlight > 0) {
+            inFlight--;
+        }
+        encoderQueued = queued;
+        if (dropped) {
+            encoderDrops++;
+            updateLevel(Level.SEVERE, true);
+        }
+    }
+
+    /**
+     * 调用时需要持有锁
+     *
+     * @param force 为true时不等待连续观察，直接切换
+     */
+    private void updateLevel(Level newLevel, boolean force) {
+        Level old = level;
+        if (newLevel.ordinal() < old.ordinal() && !force) {
+            if (++recoverCount < RECOVER_FRAMES) {
+                return;
+            }
+        }
+        recoverCount = 0;
+        if (newLevel == old) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (old == Level.NONE) {
+            congestionEvents++;
+            congestedSinceNs = now;
+        } else if (newLevel == Level.NONE && congestedSinceNs >= 0) {
+            congestedTimeNs += now - congestedSinceNs;
+            congestedSinceNs = -1;
+        }
+        if (newLevel == Level.SEVERE) {
+            severeEvents++;
+        }
+        level = newLevel;
+        Listener l = listener;
+        if (l != null) {
+            l.onCongestionChanged(newLevel, Math.max(0, capacity - inFlight - encoderQueued));
+        }
+    }
+
+    /**
+     * @return 剩余的额度，小于等于0时送来的帧会被丢弃
+     */
+    public synchronized int getCredits() {
+        return Math.max(0, capacity - inFlight - encoderQueued);
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @return 因为没有额度没有送去编码的帧数
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return 送到编码器后被丢弃的帧数
+     */
+    public long getEncoderDrops() {
+        return encoderDrops;
+    }
+
+    /**
+     * @return 从空闲进入拥塞的次数
+     */
+    public long getCongestionEvents() {
+        return congestionEvents;
+    }
+
+    /**
+     * @return 进入{@link Level#SEVERE}的次数
+     */
+    public long getSevereEvents() {
+        return severeEvents;
+    }
+
+    /**
+     * @return 处于拥塞状态的累计时长
+     */
+    public synchronized long getCongestedTimeNs() {
+        long total = congestedTimeNs;
+        if (congestedSinceNs >= 0) {
+            total += System.nanoTime() - congestedSinceNs;
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "VideoBackpressure{" +
+                "level=" + level +
+                ", credits=" + getCredits() +
+                ", acquired=" + acquired +
+                ", rejected=" + rejected +
+                ", encoderDrops=" + encoderDrops +
+                ", congestionEvents=" + congestionEvents +
+                ", severeEvents=" + severeEvents +
+                ", congestedMs=" + getCongestedTimeNs() / 1000000 +
+                '}';
+    }
+}
@@ -7,8 +7,13 @@ import android.os.Message;
 
 import com.gpufast.logger.ELog;
 import com.gpufast.recorder.PresentationTime;
+import com.gpufast.recorder.video.texture.EncodeTextureRing;
+import com.gpufast.recorder.video.texture.YuvReadbackRing;
+import com.gpufast.recorder.video.encoder.VideoCodecStatus;
 
 import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 转发前端传递的图像数据，交给编码前局处理部分
@@ -16,44 +21,295 @@ import java.lang.ref.WeakReference;
  */
 public class VideoClient {
     private static final String TAG = "VideoClient";
+    //停止时等待渲染线程交出读回中的帧的最长时间，渲染线程没有在送帧（例如预览已经暂停）时超时
+    private static final long DRAIN_TIMEOUT_MS = 100;
+    //交出时每一帧等待GPU完成读回的最长时间
+    private static final long DRAIN_FRAME_TIMEOUT_NS = 20000000L;
     private VideoEncoderThread mEncoderThread;
     private PresentationTime pTime;
+    private FramePacer mPacer;
+    private final VideoEncoder mEncoder;
+    private volatile VideoBackpressure mBackpressure = new VideoBackpressure();
+    //编码尺寸，为0时和渲染尺寸相同
+    private int mOutputWidth;
+    private int mOutputHeight;
+    //为null时直接把渲染线程的纹理交给编码线程
+    private volatile EncodeTextureRing mTextureRing;
+    //软编码器需要I420，渲染线程转换后异步读回，为null时不支持软编码器
+    private volatile YuvReadbackRing mYuvRing;
+    //开始新的录制后渲染线程先丢弃上一次录制还没有读回的帧
+    private volatile boolean mYuvRingReset;
+    //停止时设置，渲染线程把读回中的帧交给编码线程后通知，之后编码器才结束编码
+    private volatile CountDownLatch mDrainLatch;
+    //以下状态只在调用start、stop的线程中访问
+    private boolean mThreadStarted;
+    //编码器已经初始化或者初始化请求已经发出
+    private boolean mPrepared;
+    //渲染线程是否可以送帧
+    private volatile boolean mStarted;
 
     public VideoClient(VideoEncoder encoder,
                        VideoEncoder.Settings settings,
                        VideoEncoder.VideoEncoderCallback callback) {
+        this(encoder, settings, callback, 1f);
+    }
+
+    /**
+     * @param speed 播放速度倍数，帧时间戳按该倍数缩放
+     */
+    public VideoClient(VideoEncoder encoder,
+                       VideoEncoder.Settings settings,
+                       VideoEncoder.VideoEncoderCallback callback,
+                       float speed) {
 
+        mEncoder = encoder;
         mEncoderThread = new VideoEncoderThread(encoder, settings, callback);
-        pTime = new PresentationTime(settings.maxFrameRate);
+        pTime = new PresentationTime(settings.maxFrameRate, speed);
+        mPacer = new FramePacer(pTime.getFps());
     }
 
 
+    /**
+     * 设置背压状态，需要在{@link #start()}之前调用。不设置时使用内部的对象
+     *
+     * @param backpressure 可以跨多次录制复用
+     */
+    public void setBackpressure(VideoBackpressure backpressure) {
+        if (backpressure != null) {
+            mBackpressure = backpressure;
+        }
+    }
+
+    /**
+     * 设置纹理环，渲染线程先把纹理拷贝到环中再交给编码线程，避免编码时读到下一帧正在写入的内容
+     *
+     * @param ring 可以和其他分辨率的VideoClient共用，由调用者在每一帧送入前调用{@link EncodeTextureRing#nextFrame()}，
+     *             并在渲染线程中释放
+     */
+    public void setTextureRing(EncodeTextureRing ring) {
+        mTextureRing = ring;
+    }
+
+    /**
+     * 设置I420读回环，编码器是软编码器时渲染线程把纹理转换成I420读回，晚一帧交给编码线程
+     *
+     * @param ring 由调用者在渲染线程中释放
+     */
+    public void setYuvReadbackRing(YuvReadbackRing ring) {
+        mYuvRing = ring;
+    }
+
+    /**
+     * 按指定尺寸编码，编码器绘制时缩放，用于同时录制的低分辨率版本。需要在{@link #start()}之前调用
+     *
+     * @param width  宽度，宽高比需要和渲染尺寸一致
+     * @param height 高度
+     */
+    public void setOutputSize(int width, int height) {
+        mOutputWidth = width;
+        mOutputHeight = height;
+    }
+
+    public VideoBackpressure getBackpressure() {
+        return mBackpressure;
+    }
+
+    /**
+     * 启动编码线程并在其中初始化编码器（创建编解码器、EGL上下文和输入Surface），不等待完成。
+     * 在录制开始前调用可以把这部分耗时移出{@link #start()}；{@link #recycle()}之后调用时重新配置保留的编码器
+     */
+    public void prepare() {
+        if (mPrepared) {
+            return;
+        }
+        mPrepared = true;
+        if (!mThreadStarted) {
+            mThreadStarted = true;
+            mEncoderThread.setBackpressure(mBackpressure);
+            //线程启动时初始化编码器
+            mEncoderThread.start();
+            mEncoderThread.waitUntilReady();
+        } else if (mEncoderThread.isReady()) {
+            mEncoderThread.getHandler().sendToInit();
+        }
+    }
+
+    /**
+     * @return 编码器是否已经初始化完成，可以立即开始录制
+     */
+    public boolean isPrepared() {
+        return mPrepared && mEncoderThread.isEncoderInitialized();
+    }
+
     public void start() {
-        mEncoderThread.start();
-        mEncoderThread.waitUntilReady();
+        prepare();
+        mEncoderThread.waitUntilEncoderInitialized();
+        mBackpressure.reset(mEncoder.getMaxQueuedFrames());
+        mEncoderThread.setBackpressure(mBackpressure);
+        mEncoderThread.getHandler().sendToStart();
+        mPacer.reset();
         pTime.start();
+        mYuvRingReset = true;
+        mStarted = true;
     }
 
 
     public void sendVideoFrame(int textureId, int srcWidth, int srcHeight) {
-        if (mEncoderThread != null && mEncoderThread.isReady()) {
+        if (mDrainLatch != null) {
+            //正在停止，不再提交新的帧
+            drainReadback();
+            return;
+        }
+        if (mStarted && mEncoderThread.isReady()) {
             pTime.record();
-            VideoFrame videoFrame = new VideoFrame(
-                    new TextureBufferImpl(textureId, srcWidth,
-                            srcHeight, VideoFrame.TextureBuffer.TextureType.RGB),
-                    0, pTime.presentationTimeNs);
-            mEncoderThread.getHandler().sendVideoFrame(videoFrame);
+            //超过目标帧率的帧在渲染线程就丢弃，不进入编码线程
+            if (!mPacer.accept(pTime.presentationTimeNs)) {
+                return;
+            }
+            //编码器已经满了，送过去也会被丢弃
+            if (!mBackpressure.tryAcquire(mEncoder.getQueuedFrames())) {
+                return;
+            }
+            VideoFrame.TextureBuffer buffer;
+            EncodeTextureRing ring = mTextureRing;
+            int outputWidth = mOutputWidth > 0 ? mOutputWidth : srcWidth;
+            int outputHeight = mOutputHeight > 0 ? mOutputHeight : srcHeight;
+            YuvReadbackRing yuvRing = mYuvRing;
+            if (yuvRing != null && !mEncoder.isHardwareEncoder()) {
+                sendI420Frames(yuvRing, textureId, outputWidth, outputHeight);
+                return;
+            }
+            if (ring != null) {
+                buffer = ring.publish(textureId, srcWidth, srcHeight, outputWidth, outputHeight);
+                if (buffer == null) {
+                    //没有空闲的纹理槽位
+                    mBackpressure.cancel();
+                    return;
+                }
+            } else {
+                buffer = new TextureBufferImpl(textureId, outputWidth,
+                        outputHeight, VideoFrame.TextureBuffer.TextureType.RGB);
+            }
+            VideoFrame videoFrame = new VideoFrame(buffer, 0, pTime.presentationTimeNs);
+            if (!mEncoderThread.getHandler().sendVideoFrame(videoFrame)) {
+                //编码线程已经退出
+                videoFrame.release();
+                mBackpressure.cancel();
+            }
+        }
+    }
+
+    /**
+     * 先把已经读回的帧交给编码线程、空出PBO，再提交这一帧。调用前已经占用了一个额度，
+     * 第一帧使用这个额度，同时完成的其他帧各自占用额度，没有帧输出时归还
+     */
+    private void sendI420Frames(YuvReadbackRing yuvRing, int textureId, int width, int height) {
+        if (mYuvRingReset) {
+            mYuvRingReset = false;
+            yuvRing.discardPending();
+        }
+        boolean hasCredit = true;
+        VideoFrame frame;
+        while ((frame = yuvRing.poll()) != null) {
+            if (!hasCredit && !mBackpressure.tryAcquire(mEncoder.getQueuedFrames())) {
+                frame.release();
+                continue;
+            }
+            hasCredit = false;
+            if (!mEncoderThread.getHandler().sendVideoFrame(frame)) {
+                frame.release();
+                mBackpressure.cancel();
+            }
+        }
+        yuvRing.submit(textureId, width, height, pTime.presentationTimeNs);
+        if (hasCredit) {
+            mBackpressure.cancel();
+        }
+    }
+
+    /**
+     * 渲染线程调用。停止录制时等待还在读回的帧完成并交给编码线程，这些帧排在结束编码之前；
+     * 没有在停止时不做任何事
+     */
+    public void drainReadback() {
+        CountDownLatch latch = mDrainLatch;
+        if (latch == null) {
+            return;
+        }
+        YuvReadbackRing yuvRing = mYuvRing;
+        if (yuvRing != null && mEncoderThread.isReady()) {
+            VideoFrame frame;
+            while ((frame = yuvRing.poll(DRAIN_FRAME_TIMEOUT_NS)) != null) {
+                if (!mBackpressure.tryAcquire(mEncoder.getQueuedFrames())) {
+                    frame.release();
+                    continue;
+                }
+                if (!mEncoderThread.getHandler().sendVideoFrame(frame)) {
+                    frame.release();
+                    mBackpressure.cancel();
+                }
+            }
+            //超时没有完成的帧丢弃
+            yuvRing.discardPending();
+        }
+        latch.countDown();
+    }
+
+    /**
+     * 软编码时请求渲染线程交出读回中的帧，最多等待{@link #DRAIN_TIMEOUT_MS}
+     */
+    private void awaitReadbackDrain() {
+        if (!mStarted || mYuvRing == null || mEncoder.isHardwareEncoder()) {
+            return;
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        mDrainLatch = latch;
+        try {
+            if (!latch.await(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                ELog.w(TAG, "readback not drained by render thread, pending frames dropped");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        mDrainLatch = null;
+    }
+
+    /**
+     * 结束本次录制，保留编码线程、编解码器和EGL上下文，之后通过{@link #prepare()}重新配置、{@link #start()}开始下一次录制。
+     * 已经送出的帧先编码完，编码器的停止回调在返回前完成
+     *
+     * @return false表示编码器不支持复用或复用失败，资源已经释放，下一次初始化会重新创建
+     */
+    public boolean recycle() {
+        awaitReadbackDrain();
+        mStarted = false;
+        mPrepared = false;
+        if (!mEncoderThread.isReady()) {
+            return false;
+        }
+        boolean kept = mEncoderThread.recycleAndWait();
+        ELog.i(TAG, "video client recycled, kept=" + kept + ", " + mPacer + ", " + mBackpressure);
+        return kept;
     }
 
     public void stop() {
+        awaitReadbackDrain();
+        mStarted = false;
+        mPrepared = false;
         if (mEncoderThread.isReady()) {
             mEncoderThread.getHandler().sendToStop();
             mEncoderThread.waitUntilStop();
-            ELog.i(TAG, "video client has stop");
+            ELog.i(TAG, "video client has stop, " + mPacer + ", " + mBackpressure);
         }
     }
 
+    /**
+     * @return 抽帧统计
+     */
+    public FramePacer getPacer() {
+        return mPacer;
+    }
+
     private static class VideoEncoderThread extends Thread {
         private static final String TAG = VideoEncoderThread.class.getSimpleName();
         private final Object mLock = new Object();
@@ -62,6 +318,13 @@ public class VideoClient {
         private VideoEncoder mVideoEncoder;
         private VideoEncoder.Settings mSettings;
         VideoEncoder.VideoEncoderCallback mCallback;
+        private volatile VideoBackpressure mBackpressure;
+        //以下由mLock保护：编码器初始化和回收的次数
+        private int mInits;
+        private int mRecycles;
+        private boolean mLastRecycleKept;
+        //只在编码线程中访问，start到recycle之间为true，其余时间送来的帧直接丢弃
+        private boolean mSessionOpen;
 
         VideoEncoderThread(VideoEncoder encoder, VideoEncoder.Settings settings,
                            VideoEncoder.VideoEncoderCallback callback) {
@@ -70,6 +333,10 @@ public class VideoClient {
             mCallback = callback;
         }
 
+        void setBackpressure(VideoBackpressure backpressure) {
+            mBackpressure = backpressure;
+        }
+
         boolean isReady() {
             return mReady;
         }
@@ -82,16 +349,17 @@ public class VideoClient {
         public void run() {
             Looper.prepare();
             mEncoderHandler = new EncoderHandler(this);
-            initEncoder();
             synchronized (mLock) {
                 mReady = true;
-                mLock.notify();
+                mLock.notifyAll();
             }
+            //通知之后再初始化，调用prepare的线程不需要等待，start时通过waitUntilEncoderInitialized等待
+            initEncoder();
             Looper.loop();
             deInitEncoder();
             synchronized (mLock) {
                 mReady = false;
-                mLock.notify();
+                mLock.notifyAll();
             }
             ELog.i(TAG, "video encoder thread quit.");
         }
@@ -116,20 +384,82 @@ public class VideoClient {
             }
         }
 
+        boolean isEncoderInitialized() {
+            synchronized (mLock) {
+                return mInits > mRecycles;
+            }
+        }
+
+        void waitUntilEncoderInitialized() {
+            synchronized (mLock) {
+                while (mReady && mInits <= mRecycles) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException ie) { /* not expected */ }
+                }
+            }
+        }
+
+        /**
+         * @return 编码器是否保留了资源
+         */
+        boolean recycleAndWait() {
+            synchronized (mLock) {
+                final int target = mRecycles + 1;
+                if (!mEncoderHandler.sendToRecycle()) {
+                    return false;
+                }
+                while (mReady && mRecycles < target) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException ie) { /* not expected */ }
+                }
+                return mLastRecycleKept;
+            }
+        }
+
         private void initEncoder() {
             if (mVideoEncoder != null) {
                 mVideoEncoder.init(mSettings, mCallback);
             }
+            synchronized (mLock) {
+                mInits++;
+                mLock.notifyAll();
+            }
+        }
+
+        private void recycleEncoder() {
+            mSessionOpen = false;
+            boolean kept = false;
+            if (mVideoEncoder != null) {
+                kept = mVideoEncoder.recycle() == VideoCodecStatus.OK;
+            }
+            synchronized (mLock) {
+                mRecycles = mInits;
+                mLastRecycleKept = kept;
+                mLock.notifyAll();
+            }
+        }
+
+        private void openSession() {
+            mSessionOpen = true;
         }
 
         void sendVideoFrame(VideoFrame frame) {
-            if (mVideoEncoder != null && mReady) {
-                mVideoEncoder.encode(frame);
+            if (mVideoEncoder != null && mReady && mSessionOpen) {
+                VideoCodecStatus status = mVideoEncoder.encode(frame);
+                mBackpressure.onFrameEncoded(mVideoEncoder.getQueuedFrames(),
+                        status == VideoCodecStatus.NO_OUTPUT);
+            } else {
+                mBackpressure.onFrameEncoded(0, false);
             }
+            //编码完成后归还纹理
+            frame.release();
         }
 
         private void shutdown() {
-            Looper.myLooper().quit();
+            //已经发送的帧继续处理完，保证纹理槽位都被归还
+            Looper.myLooper().quitSafely();
         }
 
 
@@ -146,6 +476,9 @@ public class VideoClient {
         private static final String TAG = EncoderHandler.class.getSimpleName();
         private static final int ON_FRAME_AVAILABLE = 0x001;
         private static final int ON_STOP = 0x002;
+        private static final int ON_INIT = 0x003;
+        private static final int ON_START = 0x004;
+        private static final int ON_RECYCLE = 0x005;
 
         private WeakReference<VideoClient.VideoEncoderThread> mWeakEncoderThread;
 
@@ -154,14 +487,26 @@ public class VideoClient {
         }
 
 
-        public void sendVideoFrame(VideoFrame frame) {
-            sendMessage(obtainMessage(ON_FRAME_AVAILABLE, frame));
+        public boolean sendVideoFrame(VideoFrame frame) {
+            return sendMessage(obtainMessage(ON_FRAME_AVAILABLE, frame));
         }
 
         private void sendToStop() {
             sendMessage(obtainMessage(ON_STOP));
         }
 
+        private void sendToInit() {
+            sendMessage(obtainMessage(ON_INIT));
+        }
+
+        private void sendToStart() {
+            sendMessage(obtainMessage(ON_START));
+        }
+
+        private boolean sendToRecycle() {
+            return sendMessage(obtainMessage(ON_RECYCLE));
+        }
+
         @Override
         public void handleMessage(Message msg) {
 
@@ -177,6 +522,15 @@ public class VideoClient {
                 case ON_STOP:
                     encoderThread.shutdown();
                     break;
+                case ON_INIT:
+                    encoderThread.initEncoder();
+                    break;
+                case ON_START:
+                    encoderThread.openSession();
+                    break;
+                case ON_RECYCLE:
+                    encoderThread.recycleEncoder();
+                    break;
             }
         }
     }
@@ -208,6 +562,7 @@ public class VideoClient {
 
         @Override
         public VideoFrame.I420Buffer toI420() {
+            //纹理属于渲染线程的EGL上下文，软编码器使用的I420由渲染线程通过YuvReadbackRing读回
             return null;
         }
 
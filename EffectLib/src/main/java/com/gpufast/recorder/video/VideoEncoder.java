@@ -14,13 +14,24 @@ public interface VideoEncoder {
         public final int startBitrate; // Kilobits per second.
         //最大帧率
         public final int maxFrameRate;
+        //软编码器的速度预设，例如x264的ultrafast、superfast、veryfast，为null时由编码器决定。硬编码器忽略
+        public final String preset;
+        //软编码器的调优，例如x264的zerolatency（使用slice多线程代替frame多线程，延迟更低），可以为null。硬编码器忽略
+        public final String tune;
 
         public Settings(int width, int height,
                         int startBitrate, int maxFrameRate) {
+            this(width, height, startBitrate, maxFrameRate, null, null);
+        }
+
+        public Settings(int width, int height,
+                        int startBitrate, int maxFrameRate, String preset, String tune) {
             this.width = width;
             this.height = height;
             this.startBitrate = startBitrate;
             this.maxFrameRate = maxFrameRate;
+            this.preset = preset;
+            this.tune = tune;
         }
     }
 
@@ -37,6 +48,31 @@ public interface VideoEncoder {
 
     VideoCodecStatus deInit();
 
+    /**
+     * 结束本次编码但保留可以复用的资源，之后可以在同一个线程中再次调用{@link #init}开始新的编码。
+     * 不支持复用的实现直接释放
+     *
+     * @return {@link VideoCodecStatus#OK}表示资源被保留
+     */
+    default VideoCodecStatus recycle() {
+        deInit();
+        return VideoCodecStatus.ERROR;
+    }
+
+    /**
+     * @return 已经送入编码器、还没有输出的帧数，可以在任意线程调用
+     */
+    default int getQueuedFrames() {
+        return 0;
+    }
+
+    /**
+     * @return 编码器内部最多缓存的帧数，超过时送入的帧会被丢弃
+     */
+    default int getMaxQueuedFrames() {
+        return 1;
+    }
+
     interface VideoEncoderCallback {
 
         void onUpdateVideoMediaFormat(MediaFormat format);
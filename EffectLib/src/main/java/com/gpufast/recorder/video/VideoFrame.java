@@ -20,14 +20,21 @@ public class VideoFrame {
 
         /**
          * 返回一个I420的内存数据，如果不是I420，则所有的实现类必须能够做到转换成I420。
+         * 返回的buffer由调用者{@link #release()}，本身就是I420时增加引用计数后返回自己
          */
         I420Buffer toI420();
 
+        /**
+         * 增加引用计数，每一次retain都需要对应一次{@link #release()}。不支持引用计数的实现什么都不做
+         */
+        default void retain() {
+        }
+
         void release();
 
         /**
          * 用指定的参数|cropx|, |cropY|, |cropWidth| and |cropHeight|，裁剪出一个区域。
-         * 用指定的参数：|scaleWidth| x |scaleHeight|，进行缩放
+         * 用指定的参数：|scaleWidth| x |scaleHeight|，进行缩放。返回的buffer由调用者release
          */
         Buffer cropAndScale(
                 int cropX, int cropY, int cropWidth, int cropHeight, int scaleWidth, int scaleHeight);
@@ -89,6 +96,12 @@ public class VideoFrame {
          * the coordinate that should be used to sample that location from the buffer.
          */
         Matrix getTransformMatrix();
+
+        /**
+         * 在采样纹理之前调用，让当前EGL上下文等待生产者写完纹理（GPU等待，不阻塞CPU）
+         */
+        default void waitUntilReady() {
+        }
     }
 
     private final Buffer buffer;
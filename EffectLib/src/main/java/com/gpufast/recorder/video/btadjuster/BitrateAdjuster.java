@@ -8,9 +8,12 @@ public interface BitrateAdjuster {
   void setTargets(int targetBitrateBps, int targetFps);
 
   /**
-   * 报告指定大小的frame已经编码完成，如果码率需要调整，则返回true
+   * 报告一帧已经编码完成，之后通过{@link #getAdjustedBitrateBps()}查看码率是否需要调整
+   *
+   * @param size               编码后的大小（字节）
+   * @param presentationTimeUs 该帧的时间戳（微秒）
    */
-  void reportEncodedFrame(int size);
+  void reportEncodedFrame(int size, long presentationTimeUs);
 
   /** 获取当前的码率. */
   int getAdjustedBitrateBps();
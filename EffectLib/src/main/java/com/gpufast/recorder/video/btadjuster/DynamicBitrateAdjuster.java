@@ -0,0 +1,157 @@
+package com.gpufast.recorder.video.btadjuster;
+
+/**
+ * 闭环码率调整：统计编码器实际输出的大小，按与目标码率的偏差修正配置给编码器的码率。
+ * <p>
+ * 硬件编码器的实际码率经常偏离配置值（有的偏高，有的偏低），而且偏差随场景变化。
+ * 这里用最近{@link #WINDOW_SEC}秒的帧组成滑动窗口，按帧的时间戳跨度（而不是配置帧率）计算实际码率，
+ * 帧率低于配置值或者可变帧率时也不会误判。窗口满了之后最多调整一次，
+ * 调整后清空窗口，等编码器按新码率输出一个完整窗口再做下一次，避免编码器还没响应就继续累加修正。
+ * 每次按偏差的平方根修正并限制单次步长，偏差在{@link #DEAD_BAND}以内不调整。
+ */
+public class DynamicBitrateAdjuster extends BaseBitrateAdjuster {
+
+    //滑动窗口的时长
+    static final int WINDOW_SEC = 1;
+    //实际码率与目标码率的偏差在该比例以内不调整
+    static final double DEAD_BAND = 0.1;
+    //修正的阻尼系数，1表示一次修正到位
+    private static final double GAIN = 0.5;
+    //单次调整的最大倍数
+    private static final double MAX_STEP = 1.5;
+    //配置码率相对目标码率的范围
+    private static final double MIN_SCALE = 0.25;
+    private static final double MAX_SCALE = 4.0;
+    //配置码率按该粒度取整，避免频繁的细小调整
+    private static final int BITRATE_GRANULARITY_BPS = 10000;
+
+    //窗口能容纳的帧数相对配置帧率的倍数，实际帧率更高时窗口按帧数截断
+    private static final int WINDOW_CAPACITY_SCALE = 4;
+    private static final long WINDOW_US = WINDOW_SEC * 1000000L;
+
+    //最近一个窗口内每帧的大小（字节）和时间戳，环形存放，windowHead是最早的一帧
+    private int[] windowSizes = new int[0];
+    private long[] windowPtsUs = new long[0];
+    private int windowHead;
+    private int windowCount;
+    private long windowBytes;
+
+    //配置给编码器的码率
+    private int adjustedBitrateBps;
+    private double measuredBitrateBps;
+    private long adjustments;
+
+    @Override
+    public void setTargets(int targetBitrateBps, int targetFps) {
+        int previousTarget = this.targetBitrateBps;
+        super.setTargets(targetBitrateBps, targetFps);
+        if (previousTarget > 0 && adjustedBitrateBps > 0) {
+            //目标变化时保留已经估计出的编码器偏差
+            adjustedBitrateBps = clamp((double) adjustedBitrateBps * targetBitrateBps / previousTarget);
+        } else {
+            adjustedBitrateBps = targetBitrateBps;
+        }
+        int capacity = Math.max(2, targetFps * WINDOW_SEC * WINDOW_CAPACITY_SCALE);
+        if (windowSizes.length != capacity) {
+            windowSizes = new int[capacity];
+            windowPtsUs = new long[capacity];
+        }
+        resetWindow();
+    }
+
+    @Override
+    public void reportEncodedFrame(int size, long presentationTimeUs) {
+        if (targetFps <= 0 || targetBitrateBps <= 0) {
+            return;
+        }
+        if (windowCount > 0 && presentationTimeUs < newestPtsUs() - WINDOW_US) {
+            //时间戳回退（例如编码器重建），之前的数据无法换算
+            resetWindow();
+        }
+        final int capacity = windowSizes.length;
+        if (windowCount == capacity) {
+            dropOldest();
+        }
+        int tail = (windowHead + windowCount) % capacity;
+        windowSizes[tail] = size;
+        windowPtsUs[tail] = presentationTimeUs;
+        windowBytes += size;
+        windowCount++;
+        //只保留刚好覆盖一个窗口时长所需的帧
+        while (windowCount > 2 && presentationTimeUs - windowPtsUs[(windowHead + 1) % capacity] >= WINDOW_US) {
+            dropOldest();
+        }
+        long spanUs = presentationTimeUs - windowPtsUs[windowHead];
+        if ((spanUs < WINDOW_US && windowCount < capacity) || spanUs <= 0) {
+            return;
+        }
+
+        //最早一帧的数据属于它之前的时间段，按实际时间跨度换算成码率
+        measuredBitrateBps = (windowBytes - windowSizes[windowHead]) * 8.0 * 1000000.0 / spanUs;
+        double ratio = targetBitrateBps / Math.max(1.0, measuredBitrateBps);
+        if (Math.abs(ratio - 1) <= DEAD_BAND) {
+            return;
+        }
+        double step = Math.pow(ratio, GAIN);
+        step = Math.max(1 / MAX_STEP, Math.min(MAX_STEP, step));
+        int next = clamp(adjustedBitrateBps * step);
+        if (next != adjustedBitrateBps) {
+            adjustedBitrateBps = next;
+            adjustments++;
+        }
+        resetWindow();
+    }
+
+    private long newestPtsUs() {
+        return windowPtsUs[(windowHead + windowCount - 1) % windowPtsUs.length];
+    }
+
+    private void dropOldest() {
+        windowBytes -= windowSizes[windowHead];
+        windowHead = (windowHead + 1) % windowSizes.length;
+        windowCount--;
+    }
+
+    private int clamp(double bitrateBps) {
+        double min = targetBitrateBps * MIN_SCALE;
+        double max = targetBitrateBps * MAX_SCALE;
+        double value = Math.max(min, Math.min(max, bitrateBps));
+        long rounded = Math.round(value / BITRATE_GRANULARITY_BPS) * BITRATE_GRANULARITY_BPS;
+        return (int) Math.max(BITRATE_GRANULARITY_BPS, Math.min(Integer.MAX_VALUE, rounded));
+    }
+
+    private void resetWindow() {
+        windowCount = 0;
+        windowHead = 0;
+        windowBytes = 0;
+    }
+
+    @Override
+    public int getAdjustedBitrateBps() {
+        return adjustedBitrateBps;
+    }
+
+    /**
+     * @return 最近一个完整窗口的实际码率
+     */
+    public int getMeasuredBitrateBps() {
+        return (int) measuredBitrateBps;
+    }
+
+    /**
+     * @return 配置码率被修改的次数
+     */
+    public long getAdjustments() {
+        return adjustments;
+    }
+
+    @Override
+    public String toString() {
+        return "DynamicBitrateAdjuster{" +
+                "target=" + targetBitrateBps +
+                ", adjusted=" + adjustedBitrateBps +
+                ", measured=" + (int) measuredBitrateBps +
+                ", adjustments=" + adjustments +
+                '}';
+    }
+}
@@ -0,0 +1,341 @@
+package com.gpufast.recorder.video.encoder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import com.gpufast.logger.ELog;
+import com.gpufast.recorder.hardware.MediaCodecWrapper;
+import com.gpufast.recorder.hardware.MediaCodecWrapperFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 编码器的基准测试
+ * <p>
+ * 用合成的YUV帧以ByteBuffer输入的方式编码一小段，统计吞吐帧率、每帧从送入到输出的延迟和输出的大小。
+ * 录制时使用Surface输入，两者的编码耗时基本一致，ByteBuffer输入不需要EGL环境，可以在任意线程运行。
+ * 时间通过{@link Clock}获取，可以配合脚本化的MediaCodecWrapperFactory验证排序逻辑。
+ * 录制开始时通过{@link Abort}放弃正在进行的测试，把编码器让给录制
+ */
+public class CodecBenchmark {
+    private static final String TAG = CodecBenchmark.class.getSimpleName();
+
+    static final int WIDTH = 640;
+    static final int HEIGHT = 480;
+    static final int FRAME_RATE = 30;
+    static final int BITRATE_BPS = 1500 * 1000;
+    static final int FRAMES = 30;
+    //单个编码器最长的测试时间
+    private static final long TIMEOUT_NS = 3000L * 1000 * 1000;
+    private static final long DEQUEUE_TIMEOUT_US = 5000;
+
+    private static final int PROFILE_BASELINE = 0x01;
+    private static final int PROFILE_MAIN = 0x02;
+    private static final int PROFILE_HIGH = 0x08;
+    private static final int AVC_LEVEL_3 = 0x100;
+
+    public interface Clock {
+        long nanoTime();
+    }
+
+    /**
+     * 每送入或取出一帧检查一次，返回true时放弃本次测试
+     */
+    public interface Abort {
+        boolean shouldAbort();
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * 一个待测试的编码器配置
+     */
+    public static class Config {
+        public final String codecName;
+        public final String mime;
+        //取值见VideoCodecInfo.VALUE_*
+        public final String profile;
+        //ByteBuffer输入使用的颜色格式
+        public final int colorFormat;
+
+        public Config(String codecName, String mime, String profile, int colorFormat) {
+            this.codecName = codecName;
+            this.mime = mime;
+            this.profile = profile;
+            this.colorFormat = colorFormat;
+        }
+
+        public String key() {
+            return key(codecName, profile);
+        }
+
+        static String key(String codecName, String profile) {
+            return codecName + "/" + profile;
+        }
+
+        @Override
+        public String toString() {
+            return key();
+        }
+    }
+
+    /**
+     * 测试结果
+     */
+    public static class Result {
+        public final String codecName;
+        public final String profile;
+        public final boolean success;
+        //每秒编码的帧数
+        public final float fps;
+        public final float avgLatencyMs;
+        public final float maxLatencyMs;
+        //平均每帧输出的字节数
+        public final int avgFrameBytes;
+        //连续失败的次数，成功时为0
+        public final int failures;
+        //测试的时间，System.currentTimeMillis()
+        public final long testedAtMs;
+
+        Result(String codecName, String profile, boolean success, float fps,
+               float avgLatencyMs, float maxLatencyMs, int avgFrameBytes,
+               int failures, long testedAtMs) {
+            this.codecName = codecName;
+            this.profile = profile;
+            this.success = success;
+            this.fps = fps;
+            this.avgLatencyMs = avgLatencyMs;
+            this.maxLatencyMs = maxLatencyMs;
+            this.avgFrameBytes = avgFrameBytes;
+            this.failures = failures;
+            this.testedAtMs = testedAtMs;
+        }
+
+        static Result failed(Config config) {
+            return new Result(config.codecName, config.profile, false, 0, 0, 0, 0,
+                    1, System.currentTimeMillis());
+        }
+
+        /**
+         * @param previous 同一配置上一次的结果
+         * @return 失败时累加上一次的连续失败次数
+         */
+        Result after(Result previous) {
+            if (success || previous == null || previous.success) {
+                return this;
+            }
+            return new Result(codecName, profile, false, fps, avgLatencyMs, maxLatencyMs,
+                    avgFrameBytes, previous.failures + 1, testedAtMs);
+        }
+
+        public String key() {
+            return Config.key(codecName, profile);
+        }
+
+        /**
+         * @return 实际码率相对于配置码率的比例
+         */
+        public float bitrateRatio() {
+            return avgFrameBytes * 8f * FRAME_RATE / BITRATE_BPS;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" + key() +
+                    ", success=" + success +
+                    ", fps=" + fps +
+                    ", avgLatencyMs=" + avgLatencyMs +
+                    ", maxLatencyMs=" + maxLatencyMs +
+                    ", avgFrameBytes=" + avgFrameBytes +
+                    ", failures=" + failures +
+                    '}';
+        }
+    }
+
+    private final MediaCodecWrapperFactory factory;
+    private final Clock clock;
+    //合成的一帧YUV数据，每帧改变亮度避免编码器跳过
+    private byte[] frame;
+
+    public CodecBenchmark(MediaCodecWrapperFactory factory) {
+        this(factory, SYSTEM_CLOCK);
+    }
+
+    public CodecBenchmark(MediaCodecWrapperFactory factory, Clock clock) {
+        this.factory = factory;
+        this.clock = clock;
+    }
+
+    /**
+     * 测试一个配置，会阻塞当前线程，最长{@link #TIMEOUT_NS}
+     */
+    public Result run(Config config) {
+        return run(config, null);
+    }
+
+    /**
+     * 同{@link #run(Config)}
+     *
+     * @param abort 为null时不会放弃
+     * @return 被放弃时返回null，不代表配置不可用
+     */
+    public Result run(Config config, Abort abort) {
+        MediaCodecWrapper codec = null;
+        try {
+            codec = factory.createByCodecName(config.codecName);
+            codec.configure(createFormat(config), null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            codec.start();
+            return encode(codec, config, abort);
+        } catch (Exception e) {
+            //IOException、IllegalStateException以及配置不支持时的CodecException
+            ELog.w(TAG, "benchmark " + config + " failed: " + e);
+            return Result.failed(config);
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (Exception e) {
+                    ELog.w(TAG, "stop " + config + " failed: " + e);
+                }
+                codec.release();
+            }
+        }
+    }
+
+    /**
+     * 单元测试中MediaFormat不可用，可以覆盖
+     */
+    MediaFormat createFormat(Config config) {
+        MediaFormat format = MediaFormat.createVideoFormat(config.mime, WIDTH, HEIGHT);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, BITRATE_BPS);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, config.colorFormat);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+        int profile = profileValue(config.profile);
+        if (profile > 0) {
+            format.setInteger(VideoCodecInfo.H264_PROFILE, profile);
+            format.setInteger("level", AVC_LEVEL_3);
+        }
+        return format;
+    }
+
+    private Result encode(MediaCodecWrapper codec, Config config, Abort abort) {
+        final int frameSize = WIDTH * HEIGHT * 3 / 2;
+        if (frame == null) {
+            frame = new byte[frameSize];
+        }
+        final long[] queuedAtNs = new long[FRAMES];
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        int queued = 0;
+        boolean eosQueued = false;
+        int outputs = 0;
+        long bytes = 0;
+        long totalLatencyNs = 0;
+        long maxLatencyNs = 0;
+        long lastOutputNs = 0;
+        final long startNs = clock.nanoTime();
+        while (outputs < FRAMES) {
+            if (abort != null && abort.shouldAbort()) {
+                ELog.i(TAG, "benchmark " + config + " aborted, outputs=" + outputs);
+                return null;
+            }
+            if (clock.nanoTime() - startNs > TIMEOUT_NS) {
+                ELog.w(TAG, "benchmark " + config + " timeout, outputs=" + outputs);
+                return Result.failed(config);
+            }
+            if (!eosQueued) {
+                int index = codec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                if (index >= 0) {
+                    if (queued < FRAMES) {
+                        ByteBuffer input = codec.getInputBuffer(index);
+                        int size = Math.min(frameSize, input.capacity());
+                        fillFrame(queued, size);
+                        input.clear();
+                        input.put(frame, 0, size);
+                        queuedAtNs[queued] = clock.nanoTime();
+                        codec.queueInputBuffer(index, 0, size, presentationTimeUs(queued), 0);
+                        queued++;
+                    } else {
+                        //有前瞻或B帧的编码器会缓存若干帧，需要结束标志才会输出最后的帧
+                        codec.queueInputBuffer(index, 0, 0, presentationTimeUs(queued),
+                                MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        eosQueued = true;
+                    }
+                }
+            }
+            int index = codec.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+            if (index < 0) {
+                continue;
+            }
+            boolean eos = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0) {
+                int frameIndex = frameIndex(info.presentationTimeUs);
+                long now = clock.nanoTime();
+                if (frameIndex >= 0 && frameIndex < queued) {
+                    long latency = now - queuedAtNs[frameIndex];
+                    totalLatencyNs += latency;
+                    maxLatencyNs = Math.max(maxLatencyNs, latency);
+                }
+                bytes += info.size;
+                lastOutputNs = now;
+                outputs++;
+            }
+            codec.releaseOutputBuffer(index, 0);
+            if (eos) {
+                break;
+            }
+        }
+        if (outputs == 0) {
+            return Result.failed(config);
+        }
+        long elapsedNs = Math.max(1, lastOutputNs - startNs);
+        return new Result(config.codecName, config.profile, true,
+                outputs * 1e9f / elapsedNs,
+                totalLatencyNs / 1e6f / outputs,
+                maxLatencyNs / 1e6f,
+                (int) (bytes / outputs),
+                0, System.currentTimeMillis());
+    }
+
+    /**
+     * 水平渐变加每帧移动的亮度，色度取中间值
+     */
+    private void fillFrame(int index, int size) {
+        final int lumaSize = Math.min(size, WIDTH * HEIGHT);
+        for (int i = 0; i < lumaSize; i++) {
+            frame[i] = (byte) ((i % WIDTH) + index * 8);
+        }
+        for (int i = lumaSize; i < size; i++) {
+            frame[i] = (byte) 128;
+        }
+    }
+
+    private static long presentationTimeUs(int index) {
+        return index * 1000000L / FRAME_RATE;
+    }
+
+    private static int frameIndex(long presentationTimeUs) {
+        return (int) ((presentationTimeUs * FRAME_RATE + 500000) / 1000000);
+    }
+
+    private static int profileValue(String profile) {
+        if (profile == null) {
+            return 0;
+        }
+        switch (profile) {
+            case VideoCodecInfo.VALUE_BASE_LINE:
+                return PROFILE_BASELINE;
+            case VideoCodecInfo.VALUE_main:
+                return PROFILE_MAIN;
+            case VideoCodecInfo.VALUE_height:
+                return PROFILE_HIGH;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.gpufast.recorder.video.encoder;
+
+import com.gpufast.logger.ELog;
+import com.gpufast.recorder.hardware.DeviceCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 编码器基准测试结果的持久化
+ * <p>
+ * 文件头记录设备标识，标识不一致（系统升级、刷机）时视为没有缓存。
+ * 写入时先写临时文件再重命名，进程中途退出不会留下不完整的文件
+ */
+public class CodecRankStore {
+    private static final String TAG = CodecRankStore.class.getSimpleName();
+
+    private static final int MAGIC = 0x43524B31;
+    //结果的字段或测试参数变化时需要增加版本号
+    private static final int VERSION = 2;
+
+    private final File file;
+    //不为null时每次读写前通过DeviceCache查找文件
+    private final String cacheName;
+    private final String fingerprint;
+
+    /**
+     * @param file        缓存文件，为null时不持久化
+     * @param fingerprint 设备标识，见{@link DeviceCache#fingerprint()}
+     */
+    public CodecRankStore(File file, String fingerprint) {
+        this.file = file;
+        this.cacheName = null;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * 文件位于{@link DeviceCache}的目录中，目录在创建之后才设置时也能写入
+     *
+     * @param cacheName 缓存文件名
+     */
+    public CodecRankStore(String cacheName, String fingerprint) {
+        this.file = null;
+        this.cacheName = cacheName;
+        this.fingerprint = fingerprint;
+    }
+
+    private File file() {
+        return cacheName != null ? DeviceCache.getFile(cacheName) : file;
+    }
+
+    /**
+     * @return 是否有可用的缓存文件
+     */
+    public boolean isAvailable() {
+        return file() != null;
+    }
+
+    /**
+     * @return 以{@link CodecBenchmark.Result#key()}为键的结果，没有缓存或缓存失效时为空
+     */
+    public Map<String, CodecBenchmark.Result> load() {
+        Map<String, CodecBenchmark.Result> results = new HashMap<>();
+        final File file = file();
+        if (file == null || !file.exists()) {
+            return results;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !fingerprint.equals(in.readUTF())) {
+                ELog.i(TAG, "codec rank cache is stale, ignore it");
+                return results;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                CodecBenchmark.Result result = new CodecBenchmark.Result(
+                        in.readUTF(), in.readUTF(), in.readBoolean(),
+                        in.readFloat(), in.readFloat(), in.readFloat(), in.readInt(),
+                        in.readInt(), in.readLong());
+                results.put(result.key(), result);
+            }
+        } catch (IOException e) {
+            ELog.w(TAG, "read codec rank cache failed: " + e);
+            results.clear();
+        }
+        return results;
+    }
+
+    /**
+     * 覆盖写入所有结果
+     *
+     * @return 是否写入成功
+     */
+    public boolean save(Collection<CodecBenchmark.Result> results) {
+        final File file = file();
+        if (file == null) {
+            return false;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(fingerprint);
+            out.writeInt(results.size());
+            for (CodecBenchmark.Result result : results) {
+                out.writeUTF(result.codecName);
+                out.writeUTF(result.profile);
+                out.writeBoolean(result.success);
+                out.writeFloat(result.fps);
+                out.writeFloat(result.avgLatencyMs);
+                out.writeFloat(result.maxLatencyMs);
+                out.writeInt(result.avgFrameBytes);
+                out.writeInt(result.failures);
+                out.writeLong(result.testedAtMs);
+            }
+        } catch (IOException e) {
+            ELog.w(TAG, "write codec rank cache failed: " + e);
+            tmp.delete();
+            return false;
+        }
+        if (!tmp.renameTo(file)) {
+            ELog.w(TAG, "rename codec rank cache failed");
+            tmp.delete();
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,273 @@
+package com.gpufast.recorder.video.encoder;
+
+import com.gpufast.logger.ELog;
+import com.gpufast.recorder.hardware.DeviceCache;
+import com.gpufast.recorder.hardware.MediaCodecWrapperFactoryImpl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按基准测试结果对候选编码器排序
+ * <p>
+ * 结果按设备缓存，已有所有候选的结果时直接排序；否则先保持调用者给出的顺序，
+ * 在后台线程测试缺少结果的配置并写入缓存，下一次选择编码器时生效，不阻塞录制参数的设置。
+ * 后台测试只在空闲时进行：延迟一段时间开始，让录制参数设置后的编码器预热先完成；
+ * 录制期间（{@link #setBusy(boolean)}）暂停，正在进行的测试被放弃，录制结束后重新测试这个配置。
+ * <p>
+ * 每测试完一个配置就写入缓存，失败的结果也会保存：失败可能只是编码器被其它应用占用，
+ * 间隔{@link #RETRY_INTERVAL_MS}之后重新测试，连续失败{@link #MAX_FAILURES}次后不再测试。
+ * <p>
+ * 得分综合吞吐帧率、编码延迟和实际码率与配置码率的偏差，测试失败的配置排在最后
+ */
+public class CodecRanker {
+    private static final String TAG = CodecRanker.class.getSimpleName();
+
+    private static final String CACHE_FILE = "codec_rank.bin";
+    //帧率超过录制帧率的倍数之后不再加分，避免只比较空闲时的峰值
+    private static final float MAX_FPS_RATIO = 4f;
+    //每一帧录制间隔的延迟扣除的分数
+    private static final float LATENCY_WEIGHT = 0.5f;
+    //实际码率偏离配置码率的惩罚
+    private static final float BITRATE_WEIGHT = 0.5f;
+    //失败的配置重新测试的间隔
+    static final long RETRY_INTERVAL_MS = 24L * 60 * 60 * 1000;
+    //连续失败的次数达到后视为不可用
+    static final int MAX_FAILURES = 3;
+    //后台测试开始前的延迟
+    private static final long START_DELAY_MS = 3000;
+
+    private static volatile CodecRanker sInstance;
+
+    private final CodecBenchmark benchmark;
+    private final CodecRankStore store;
+    private final long startDelayMs;
+    private Map<String, CodecBenchmark.Result> results;
+    //results是否已经从缓存文件读取过
+    private boolean resultsFromStore;
+    private Thread benchmarkThread;
+
+    //录制期间为true，由idleLock保护
+    private final Object idleLock = new Object();
+    private volatile boolean busy;
+    private final CodecBenchmark.Abort abortWhenBusy = new CodecBenchmark.Abort() {
+        @Override
+        public boolean shouldAbort() {
+            return busy;
+        }
+    };
+
+    public static CodecRanker getInstance() {
+        if (sInstance == null) {
+            synchronized (CodecRanker.class) {
+                if (sInstance == null) {
+                    sInstance = new CodecRanker(new CodecBenchmark(new MediaCodecWrapperFactoryImpl()),
+                            new CodecRankStore(CACHE_FILE, DeviceCache.fingerprint()));
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    public CodecRanker(CodecBenchmark benchmark, CodecRankStore store) {
+        this(benchmark, store, START_DELAY_MS);
+    }
+
+    CodecRanker(CodecBenchmark benchmark, CodecRankStore store, long startDelayMs) {
+        this.benchmark = benchmark;
+        this.store = store;
+        this.startDelayMs = startDelayMs;
+    }
+
+    /**
+     * 录制开始时设置为true，后台测试放弃正在测试的配置并等待，录制结束后设置为false继续
+     */
+    public void setBusy(boolean busy) {
+        synchronized (idleLock) {
+            this.busy = busy;
+            idleLock.notifyAll();
+        }
+    }
+
+    /**
+     * 排序候选配置，缺少结果时在后台测试
+     *
+     * @param candidates 候选配置，按没有测试结果时的优先级排列
+     * @return 排序后的新列表，缺少结果时与candidates顺序一致
+     */
+    public synchronized List<CodecBenchmark.Config> rank(List<CodecBenchmark.Config> candidates) {
+        final List<CodecBenchmark.Config> missing = findMissing(candidates);
+        if (missing.isEmpty()) {
+            return sort(candidates);
+        }
+        if (benchmarkThread == null) {
+            benchmarkThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(startDelayMs);
+                        benchmark(missing, true);
+                    } catch (InterruptedException e) {
+                        ELog.w(TAG, "benchmark interrupted");
+                    }
+                    synchronized (CodecRanker.this) {
+                        benchmarkThread = null;
+                    }
+                }
+            }, "CodecBenchmark");
+            benchmarkThread.setPriority(Thread.MIN_PRIORITY);
+            benchmarkThread.start();
+        }
+        return new ArrayList<>(candidates);
+    }
+
+    /**
+     * 在当前线程测试缺少结果的配置后排序，不会让给录制
+     */
+    public List<CodecBenchmark.Config> rankBlocking(List<CodecBenchmark.Config> candidates) {
+        List<CodecBenchmark.Config> missing;
+        synchronized (this) {
+            missing = findMissing(candidates);
+        }
+        try {
+            benchmark(missing, false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            return sort(candidates);
+        }
+    }
+
+    /**
+     * 等待后台测试结束，用于测试
+     *
+     * @param timeoutMs 大于0
+     * @return 超时时返回false
+     */
+    boolean awaitBackground(long timeoutMs) throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = benchmarkThread;
+        }
+        if (thread != null) {
+            thread.join(timeoutMs);
+            return !thread.isAlive();
+        }
+        return true;
+    }
+
+    /**
+     * @return 已有的测试结果，没有时返回null
+     */
+    public synchronized CodecBenchmark.Result getResult(CodecBenchmark.Config config) {
+        return loadedResults().get(config.key());
+    }
+
+    /**
+     * @param yieldToRecording 是否在录制期间暂停
+     */
+    private void benchmark(List<CodecBenchmark.Config> configs, boolean yieldToRecording)
+            throws InterruptedException {
+        int i = 0;
+        while (i < configs.size()) {
+            CodecBenchmark.Config config = configs.get(i);
+            CodecBenchmark.Result result;
+            if (yieldToRecording) {
+                waitUntilIdle();
+                result = benchmark.run(config, abortWhenBusy);
+                if (result == null) {
+                    //让给录制，空闲后重新测试这个配置
+                    continue;
+                }
+            } else {
+                result = benchmark.run(config);
+            }
+            List<CodecBenchmark.Result> snapshot;
+            synchronized (this) {
+                Map<String, CodecBenchmark.Result> loaded = loadedResults();
+                result = result.after(loaded.get(result.key()));
+                loaded.put(result.key(), result);
+                snapshot = new ArrayList<>(loaded.values());
+            }
+            ELog.i(TAG, "benchmark " + result);
+            //每个配置完成后保存，进程中途退出时已经完成的结果不会丢失
+            store.save(snapshot);
+            i++;
+        }
+    }
+
+    private void waitUntilIdle() throws InterruptedException {
+        synchronized (idleLock) {
+            while (busy) {
+                idleLock.wait();
+            }
+        }
+    }
+
+    private Map<String, CodecBenchmark.Result> loadedResults() {
+        if (results == null || (!resultsFromStore && store.isAvailable())) {
+            //缓存目录在第一次排序之后才设置时，合并文件中的结果，内存中的结果更新
+            Map<String, CodecBenchmark.Result> loaded = store.load();
+            if (results != null) {
+                loaded.putAll(results);
+            }
+            results = loaded;
+            resultsFromStore = store.isAvailable();
+        }
+        return results;
+    }
+
+    private List<CodecBenchmark.Config> findMissing(List<CodecBenchmark.Config> candidates) {
+        List<CodecBenchmark.Config> missing = new ArrayList<>();
+        Map<String, CodecBenchmark.Result> loaded = loadedResults();
+        for (CodecBenchmark.Config config : candidates) {
+            if (needsBenchmark(loaded.get(config.key()))) {
+                missing.add(config);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @return 没有结果，或者失败后已经过了重试间隔
+     */
+    static boolean needsBenchmark(CodecBenchmark.Result result) {
+        if (result == null) {
+            return true;
+        }
+        if (result.success || result.failures >= MAX_FAILURES) {
+            return false;
+        }
+        long elapsedMs = System.currentTimeMillis() - result.testedAtMs;
+        //系统时间被调回时也重新测试
+        return elapsedMs >= RETRY_INTERVAL_MS || elapsedMs < 0;
+    }
+
+    private List<CodecBenchmark.Config> sort(List<CodecBenchmark.Config> candidates) {
+        final Map<String, CodecBenchmark.Result> loaded = loadedResults();
+        List<CodecBenchmark.Config> sorted = new ArrayList<>(candidates);
+        //稳定排序，得分相同的保持原来的优先级
+        Collections.sort(sorted, new Comparator<CodecBenchmark.Config>() {
+            @Override
+            public int compare(CodecBenchmark.Config a, CodecBenchmark.Config b) {
+                return Float.compare(score(loaded.get(b.key())), score(loaded.get(a.key())));
+            }
+        });
+        return sorted;
+    }
+
+    static float score(CodecBenchmark.Result result) {
+        if (result == null || !result.success) {
+            return Float.NEGATIVE_INFINITY;
+        }
+        final float frameIntervalMs = 1000f / CodecBenchmark.FRAME_RATE;
+        float fpsScore = Math.min(result.fps / CodecBenchmark.FRAME_RATE, MAX_FPS_RATIO);
+        float latencyPenalty = LATENCY_WEIGHT * result.avgLatencyMs / frameIntervalMs;
+        float bitratePenalty = BITRATE_WEIGHT * Math.abs(result.bitrateRatio() - 1);
+        return fpsScore - latencyPenalty - bitratePenalty;
+    }
+}
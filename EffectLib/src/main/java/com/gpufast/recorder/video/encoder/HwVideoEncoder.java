@@ -15,6 +15,9 @@ import android.media.MediaCodec;
 import android.media.MediaFormat;
 import android.opengl.EGLContext;
 import android.opengl.GLES20;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.view.Surface;
 
 import com.gpufast.gles.EglCore;
@@ -77,6 +80,16 @@ class HwVideoEncoder implements VideoEncoder {
     private final BitrateAdjuster bitrateAdjuster;
     private final EGLContext sharedContext;
 
+    //是否优先使用异步模式：由编解码器回调输出，不需要轮询的输出线程
+    private final boolean preferAsync;
+    //异步回调所在的线程，为null时使用内部创建的线程
+    private final Handler suppliedCallbackHandler;
+    private HandlerThread callbackThread;
+    //当前编解码器是否工作在异步模式
+    private boolean asyncMode;
+    //异步模式下，保证停止编解码器时没有正在处理的输出回调
+    private final Object asyncLock = new Object();
+
     // Drawer used to draw input textures onto the codec's input surface.
     private final GlRectDrawer textureDrawer = new GlRectDrawer();
     private final VideoFrameDrawer videoFrameDrawer = new VideoFrameDrawer();
@@ -91,6 +104,13 @@ class HwVideoEncoder implements VideoEncoder {
     private VideoEncoderCallback encoderCallback;
 
     private MediaCodecWrapper codec;
+    //recycle之后保留的编解码器，已经停止，下一次init时重新configure
+    private MediaCodecWrapper idleCodec;
+    //为true时停止编解码器后不释放，只在recycle过程中设置
+    private volatile boolean keepCodecOnStop;
+    private volatile boolean codecStopFailed;
+    //复用保留的编解码器和EGL上下文的次数
+    private long reuseCount;
     private Thread outputThread;
     private EglCore mEglCore;
     private Surface textureInputSurface;
@@ -109,6 +129,23 @@ class HwVideoEncoder implements VideoEncoder {
     private volatile Exception shutdownException;
     //将要编码的序列号，用来检测丢帧
     private int frameIndex = 0;
+    //异步模式下编解码器报告的错误次数
+    private volatile int asyncErrors;
+    //异步模式下出现了不可恢复的错误，编码线程在下一帧切换到同步模式
+    private volatile boolean asyncFailed;
+    //切换到同步模式之后不再使用异步模式
+    private boolean syncFallback;
+    //切换过程中重建编解码器，不通知编码结束
+    private boolean restarting;
+    //从异步模式切换到同步模式的次数
+    private int syncFallbacks;
+    //关键帧SPS、PPS处理的统计，只在输出线程中写入
+    private long keyFrames;
+    private long configSharedBytes;
+    //SPS、PPS拼接到关键帧前面时需要拷贝的字节数，单独传递之后省掉了这部分拷贝
+    private long copyAvoidedBytes;
+    //运行时修改码率的次数
+    private long bitrateUpdates;
 
     /**
      * Creates a new HwVideoEncoder with the given codecName, codecType, colorFormat, key frame intervals, and
@@ -125,6 +162,19 @@ class HwVideoEncoder implements VideoEncoder {
                    VideoCodecType codecType, Integer surfaceColorFormat,
                    Map<String, String> params, int keyFrameIntervalSec,
                    BitrateAdjuster bitrateAdjuster, EGLContext sharedContext) {
+        this(mediaCodecWrapperFactory, codecName, codecType, surfaceColorFormat, params,
+                keyFrameIntervalSec, bitrateAdjuster, sharedContext, false, null);
+    }
+
+    /**
+     * @param preferAsync     编解码器支持时使用异步回调模式
+     * @param callbackHandler 异步回调所在的线程，为null时内部创建
+     */
+    HwVideoEncoder(MediaCodecWrapperFactory mediaCodecWrapperFactory, String codecName,
+                   VideoCodecType codecType, Integer surfaceColorFormat,
+                   Map<String, String> params, int keyFrameIntervalSec,
+                   BitrateAdjuster bitrateAdjuster, EGLContext sharedContext,
+                   boolean preferAsync, Handler callbackHandler) {
         this.mediaCodecWrapperFactory = mediaCodecWrapperFactory;
         this.codecName = codecName;
         this.codecType = codecType;
@@ -133,6 +183,8 @@ class HwVideoEncoder implements VideoEncoder {
         this.keyFrameIntervalSec = keyFrameIntervalSec;
         this.bitrateAdjuster = bitrateAdjuster;
         this.sharedContext = sharedContext;
+        this.preferAsync = preferAsync;
+        this.suppliedCallbackHandler = callbackHandler;
         // 构造函数可以执行在其他线程中
         encodeThreadChecker.detachThread();
     }
@@ -162,56 +214,38 @@ class HwVideoEncoder implements VideoEncoder {
     private VideoCodecStatus initEncodeInternal() {
 
         encodeThreadChecker.checkIsOnValidThread();
-        try {
-            codec = mediaCodecWrapperFactory.createByCodecName(codecName);
-        } catch (IOException | IllegalArgumentException e) {
-            ELog.e(TAG, "Cannot create media encoder " + codecName);
-            return VideoCodecStatus.FALLBACK_SOFTWARE;
+        if (idleCodec != null) {
+            //复用recycle保留的编解码器，跳过创建组件，只需要重新configure
+            codec = idleCodec;
+            idleCodec = null;
+            reuseCount++;
+            ELog.i(TAG, "reuse codec " + codecName + ", reuse count: " + reuseCount);
+        } else {
+            try {
+                codec = mediaCodecWrapperFactory.createByCodecName(codecName);
+            } catch (IOException | IllegalArgumentException e) {
+                ELog.e(TAG, "Cannot create media encoder " + codecName);
+                return VideoCodecStatus.FALLBACK_SOFTWARE;
+            }
         }
 
 
-        final int colorFormat = surfaceColorFormat;
-
         try {
-            MediaFormat format = MediaFormat.createVideoFormat(codecType.mimeType(), width, height);
-            //设置码率
-            ELog.i(HwVideoEncoder.class, "rate:" + adjustedBitrate);
-            format.setInteger(MediaFormat.KEY_BIT_RATE, adjustedBitrate);
-            // //设置码率控制模式
-            // format.setInteger(KEY_BITRATE_MODE, VIDEO_ControlRateConstant);
-            //配置颜色格式
-            format.setInteger(MediaFormat.KEY_COLOR_FORMAT, colorFormat);
-            //配置帧率
-            format.setInteger(MediaFormat.KEY_FRAME_RATE, bitrateAdjuster.getCodecConfigFrameRate());
-            //配置关键帧间隔
-            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, keyFrameIntervalSec);
-
-            //配置H264 profile 和level
-            if (codecType == VideoCodecType.H264) {
-                String profile = params.get(VideoCodecInfo.H264_PROFILE);
-                ELog.d(TAG, "video profile =" + profile);
-                if (profile == null)
-                    return VideoCodecStatus.ERROR;
-                switch (profile) {
-                    case VideoCodecInfo.VALUE_BASE_LINE:
-                        format.setInteger(VideoCodecInfo.H264_PROFILE, PROFILE_BASELINE);
-                        format.setInteger("level", VIDEO_AVC_LEVEL_3);
-                        break;
-                    case VideoCodecInfo.VALUE_main:
-                        format.setInteger(VideoCodecInfo.H264_PROFILE, PROFILE_MAIN);
-                        format.setInteger("level", VIDEO_AVC_LEVEL_3);
-                        break;
-                    case VideoCodecInfo.VALUE_height:
-                        format.setInteger(VideoCodecInfo.H264_PROFILE, PROFILE_HEIGHT);
-                        format.setInteger("level", VIDEO_AVC_LEVEL_3);
-                        break;
-                    default:
-                        ELog.w(TAG, "Unknown profile: " + profile);
-                }
+            //setCallback必须在configure之前调用
+            asyncMode = preferAsync && !syncFallback && codec.isAsyncSupported();
+            if (asyncMode) {
+                codec.setCallback(new AsyncCallback(), obtainCallbackHandler());
+            }
+            MediaFormat format = createFormat();
+            if (format == null) {
+                return VideoCodecStatus.ERROR;
             }
             ELog.i(TAG, " video Format: " + format);
             codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-            mEglCore = EglCore.create(sharedContext, EglCore.CONFIG_RECORDABLE);
+            if (mEglCore == null) {
+                mEglCore = createEglCore();
+            }
+            //输入Surface在编解码器停止后失效，每次configure之后重新创建
             textureInputSurface = codec.createInputSurface();
             mEglCore.createSurface(textureInputSurface);
             mEglCore.makeCurrent();
@@ -224,16 +258,90 @@ class HwVideoEncoder implements VideoEncoder {
             deInit();
             return VideoCodecStatus.FALLBACK_SOFTWARE;
         }
-        running = true;
         outputThreadChecker.detachThread();
+        if (asyncMode) {
+            synchronized (asyncLock) {
+                running = true;
+            }
+            ELog.i(TAG, "encoder output in async mode");
+            return VideoCodecStatus.OK;
+        }
+        running = true;
         outputThread = createOutputThread();
         outputThread.start();
         return VideoCodecStatus.OK;
     }
 
+    /**
+     * @return 编码参数，返回null时初始化失败
+     */
+    MediaFormat createFormat() {
+        MediaFormat format = MediaFormat.createVideoFormat(codecType.mimeType(), width, height);
+        //设置码率
+        ELog.i(HwVideoEncoder.class, "rate:" + adjustedBitrate);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, adjustedBitrate);
+        // //设置码率控制模式
+        // format.setInteger(KEY_BITRATE_MODE, VIDEO_ControlRateConstant);
+        //配置颜色格式
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, surfaceColorFormat);
+        //配置帧率
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, bitrateAdjuster.getCodecConfigFrameRate());
+        //配置关键帧间隔
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, keyFrameIntervalSec);
+
+        //配置H264 profile 和level
+        if (codecType == VideoCodecType.H264) {
+            String profile = params.get(VideoCodecInfo.H264_PROFILE);
+            ELog.d(TAG, "video profile =" + profile);
+            if (profile == null)
+                return null;
+            switch (profile) {
+                case VideoCodecInfo.VALUE_BASE_LINE:
+                    format.setInteger(VideoCodecInfo.H264_PROFILE, PROFILE_BASELINE);
+                    format.setInteger("level", VIDEO_AVC_LEVEL_3);
+                    break;
+                case VideoCodecInfo.VALUE_main:
+                    format.setInteger(VideoCodecInfo.H264_PROFILE, PROFILE_MAIN);
+                    format.setInteger("level", VIDEO_AVC_LEVEL_3);
+                    break;
+                case VideoCodecInfo.VALUE_height:
+                    format.setInteger(VideoCodecInfo.H264_PROFILE, PROFILE_HEIGHT);
+                    format.setInteger("level", VIDEO_AVC_LEVEL_3);
+                    break;
+                default:
+                    ELog.w(TAG, "Unknown profile: " + profile);
+            }
+        }
+        return format;
+    }
+
+    /**
+     * @return 绘制到编码器输入Surface所用的EGL上下文，与渲染线程共享纹理
+     */
+    EglCore createEglCore() {
+        return EglCore.create(sharedContext, EglCore.CONFIG_RECORDABLE);
+    }
+
+    private Handler obtainCallbackHandler() {
+        if (suppliedCallbackHandler != null) {
+            return suppliedCallbackHandler;
+        }
+        if (callbackThread == null) {
+            callbackThread = new HandlerThread("HwVideoEncoderCallback");
+            callbackThread.start();
+        }
+        return new Handler(callbackThread.getLooper());
+    }
+
     @Override
     public VideoCodecStatus encode(VideoFrame videoFrame) {
         encodeThreadChecker.checkIsOnValidThread();
+        if (asyncFailed) {
+            VideoCodecStatus status = fallbackToSyncMode();
+            if (status != VideoCodecStatus.OK) {
+                return status;
+            }
+        }
         if (codec == null) {
             return VideoCodecStatus.UNINITIALIZED;
         }
@@ -279,6 +387,11 @@ class HwVideoEncoder implements VideoEncoder {
     private VideoCodecStatus encodeTextureBuffer(VideoFrame videoFrame) {
         encodeThreadChecker.checkIsOnValidThread();
         try {
+            VideoFrame.Buffer buffer = videoFrame.getBuffer();
+            if (buffer instanceof VideoFrame.TextureBuffer) {
+                //渲染线程可能还没有写完纹理
+                ((VideoFrame.TextureBuffer) buffer).waitUntilReady();
+            }
             GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
             // 没有必要去释放这个frame，因为它没有buffer数据.
             VideoFrame deRotatedFrame = new VideoFrame(videoFrame.getBuffer(), 0, videoFrame.getTimestampNs());
@@ -296,6 +409,17 @@ class HwVideoEncoder implements VideoEncoder {
         return "HWEncoder";
     }
 
+    @Override
+    public int getQueuedFrames() {
+        return outputBuilders.size();
+    }
+
+    @Override
+    public int getMaxQueuedFrames() {
+        //队列中超过MAX_ENCODER_Q_SIZE帧时才丢帧
+        return MAX_ENCODER_Q_SIZE + 1;
+    }
+
     /**
      * 重置编码器
      *
@@ -314,6 +438,39 @@ class HwVideoEncoder implements VideoEncoder {
         return initEncodeInternal();
     }
 
+    /**
+     * 异步模式的编解码器出错后不会再产生输出，释放后按同一参数重新创建，改用同步模式和输出线程。
+     * 录制不中断，不通知编码结束，新的编解码器从关键帧开始输出
+     *
+     * @return 重新创建失败时返回{@link VideoCodecStatus#FALLBACK_SOFTWARE}
+     */
+    private VideoCodecStatus fallbackToSyncMode() {
+        encodeThreadChecker.checkIsOnValidThread();
+        asyncFailed = false;
+        syncFallback = true;
+        syncFallbacks++;
+        ELog.w(TAG, "async encoder failed after " + asyncErrors + " errors, restart " + codecName + " in sync mode");
+        restarting = true;
+        try {
+            deInit();
+        } finally {
+            restarting = false;
+        }
+        VideoCodecStatus status = initEncodeInternal();
+        if (status != VideoCodecStatus.OK) {
+            ELog.e(TAG, "restart in sync mode failed: " + status);
+            return VideoCodecStatus.FALLBACK_SOFTWARE;
+        }
+        return VideoCodecStatus.OK;
+    }
+
+    /**
+     * @return 异步模式出错后切换到同步模式的次数
+     */
+    int getSyncFallbacks() {
+        return syncFallbacks;
+    }
+
     private Thread createOutputThread() {
         return new Thread() {
             @Override
@@ -336,48 +493,7 @@ class HwVideoEncoder implements VideoEncoder {
             MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
             int index = codec.dequeueOutputBuffer(info, DEQUEUE_OUTPUT_BUFFER_TIMEOUT_US);
             if (index >= 0) {
-                ByteBuffer outputBuffer = codec.getOutputBuffer(index);
-                outputBuffer.position(info.offset);
-                outputBuffer.limit(info.offset + info.size);
-
-                //表示该buffer是一个编码配置信息buffer
-                if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                    ELog.i(TAG, "Config frame generated. Offset: " + info.offset + ". Size: " + info.size);
-                    configBuffer = ByteBuffer.allocateDirect(info.size);
-                    configBuffer.put(outputBuffer);
-                } else {
-                    //判断是否是关键帧
-                    final boolean isKeyFrame = (info.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0;
-                    //这个buffer必须是一个新的对象
-                    final ByteBuffer frameBuffer;
-                    if (isKeyFrame && codecType == VideoCodecType.H264) {
-                        ELog.d(TAG,
-                                "Prepending config frame of size " + configBuffer.capacity()
-                                        + " to output buffer with offset " + info.offset + ", size " + info.size);
-                        // For H.264 key frame prepend SPS and PPS NALs at the start.
-                        //分配buffer的size= keyFrame+config
-                        frameBuffer = ByteBuffer.allocateDirect(info.size + configBuffer.capacity());
-                        configBuffer.rewind();
-                        frameBuffer.put(configBuffer);
-                        frameBuffer.put(outputBuffer);
-                        frameBuffer.rewind();
-                    } else {
-                        frameBuffer = outputBuffer.slice();
-                    }
-
-                    final EncodedImage.FrameType frameType = isKeyFrame
-                            ? EncodedImage.FrameType.VideoFrameKey
-                            : EncodedImage.FrameType.VideoFrameDelta;
-                    EncodedImage.Builder builder = outputBuilders.poll();
-                    if (builder == null) return;
-                    builder.setBuffer(frameBuffer)
-                            .setBufferInfo(info)
-                            .setFrameType(frameType);
-                    if (encoderCallback != null) {
-                        encoderCallback.onEncodedFrame(builder.createEncodedImage());
-                    }
-                }
-                codec.releaseOutputBuffer(index, info.presentationTimeUs);
+                handleOutputBuffer(index, info);
             } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
                 if (encoderCallback != null) {
                     encoderCallback.onUpdateVideoMediaFormat(codec.getOutputFormat());
@@ -388,46 +504,201 @@ class HwVideoEncoder implements VideoEncoder {
         }
     }
 
+    /**
+     * 处理一个输出buffer，同步模式在输出线程中调用，异步模式在回调线程中调用
+     */
+    private void handleOutputBuffer(int index, MediaCodec.BufferInfo info) {
+        outputThreadChecker.checkIsOnValidThread();
+        ByteBuffer outputBuffer = codec.getOutputBuffer(index);
+        outputBuffer.position(info.offset);
+        outputBuffer.limit(info.offset + info.size);
+
+        //表示该buffer是一个编码配置信息buffer
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            ELog.i(TAG, "Config frame generated. Offset: " + info.offset + ". Size: " + info.size);
+            //只在编码器启动时生成一次，后续关键帧共享
+            configBuffer = ByteBuffer.allocateDirect(info.size);
+            configBuffer.put(outputBuffer);
+            configBuffer.flip();
+        } else {
+            //判断是否是关键帧
+            final boolean isKeyFrame = (info.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0;
+            final boolean withConfig = isKeyFrame && codecType == VideoCodecType.H264 && configBuffer != null;
+            if (isKeyFrame) {
+                keyFrames++;
+            }
+            //每一帧的实际大小都反馈给码率调整器，偏差较大时修改编码器的码率
+            bitrateAdjuster.reportEncodedFrame(info.size, info.presentationTimeUs);
+            if (bitrateAdjuster.getAdjustedBitrateBps() != adjustedBitrate) {
+                updateBitrate();
+            }
+            //编码数据直接引用编码器的输出buffer，在回调返回后才释放
+            ByteBuffer frameBuffer = outputBuffer.slice();
+            ByteBuffer frameConfig = null;
+            if (withConfig) {
+                //SPS和PPS作为单独的片段传递，不拼接；需要连续数据的复用器用EncodedImage.copyTo拷贝到自己的buffer
+                frameConfig = configBuffer;
+                configSharedBytes += configBuffer.limit();
+                copyAvoidedBytes += configBuffer.limit() + info.size;
+            }
+
+            final EncodedImage.FrameType frameType = isKeyFrame
+                    ? EncodedImage.FrameType.VideoFrameKey
+                    : EncodedImage.FrameType.VideoFrameDelta;
+            EncodedImage.Builder builder = outputBuilders.poll();
+            if (builder != null) {
+                builder.setBuffer(frameBuffer)
+                        .setConfigBuffer(frameConfig)
+                        .setBufferInfo(info)
+                        .setFrameType(frameType);
+                if (encoderCallback != null) {
+                    encoderCallback.onEncodedFrame(builder.createEncodedImage());
+                }
+            }
+        }
+        codec.releaseOutputBuffer(index, info.presentationTimeUs);
+    }
+
+    /**
+     * 异步模式的回调，停止后或来自已经被替换的编解码器的回调都会被忽略
+     */
+    private class AsyncCallback implements MediaCodecWrapper.Callback {
+
+        @Override
+        public void onInputBufferAvailable(MediaCodecWrapper wrapper, int index) {
+            //输入来自Surface，不会回调
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodecWrapper wrapper, int index, MediaCodec.BufferInfo info) {
+            synchronized (asyncLock) {
+                if (!running || wrapper != codec) {
+                    return;
+                }
+                try {
+                    handleOutputBuffer(index, info);
+                } catch (Exception e) {
+                    ELog.e(TAG, "deliver Output failed:" + e.getLocalizedMessage());
+                }
+            }
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodecWrapper wrapper, MediaFormat format) {
+            synchronized (asyncLock) {
+                if (!running || wrapper != codec) {
+                    return;
+                }
+                if (encoderCallback != null) {
+                    encoderCallback.onUpdateVideoMediaFormat(format);
+                }
+            }
+        }
+
+        @Override
+        public void onError(MediaCodecWrapper wrapper, Exception e) {
+            if (wrapper != codec) {
+                return;
+            }
+            asyncErrors++;
+            ELog.e(TAG, "encoder error in async mode:" + e.getLocalizedMessage());
+            //暂时性的错误编解码器会自行恢复，其余的错误之后不会再有输出
+            if (!(e instanceof MediaCodec.CodecException) || !((MediaCodec.CodecException) e).isTransient()) {
+                asyncFailed = true;
+            }
+        }
+    }
+
     private void releaseCodecOnOutputThread() {
         outputThreadChecker.checkIsOnValidThread();
         ELog.d(TAG, "Releasing MediaCodec on output thread");
+        releaseCodec();
+        ELog.d(TAG, "Release on output thread done");
+    }
+
+    private void releaseCodec() {
+        codecStopFailed = false;
         try {
             codec.stop();
         } catch (Exception e) {
             ELog.e(TAG, "Media encoder stop failed:" + e.getLocalizedMessage());
+            codecStopFailed = true;
         }
-        try {
-            codec.release();
-        } catch (Exception e) {
-            ELog.e(TAG, "Media encoder deInit failed:" + e.getLocalizedMessage());
-            shutdownException = e;
+        if (!keepCodecOnStop || codecStopFailed) {
+            try {
+                codec.release();
+            } catch (Exception e) {
+                ELog.e(TAG, "Media encoder deInit failed:" + e.getLocalizedMessage());
+                shutdownException = e;
+            }
         }
         configBuffer = null;
-        ELog.d(TAG, "Release on output thread done");
-        if (encoderCallback != null) {
+        ELog.i(TAG, "bitrate updates: " + bitrateUpdates + ", " + bitrateAdjuster);
+        ELog.i(TAG, "key frames: " + keyFrames + ", config shared: " + configSharedBytes
+                + " bytes, copy avoided: " + copyAvoidedBytes + " bytes");
+        if (encoderCallback != null && !restarting) {
             encoderCallback.onVideoEncoderStop();
         }
     }
 
-//    private VideoCodecStatus updateBitrate() {
-//        outputThreadChecker.checkIsOnValidThread();
-//        adjustedBitrate = bitrateAdjuster.getAdjustedBitrateBps();
-//        try {
-//            Bundle params = new Bundle();
-//            params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, adjustedBitrate);
-//            codec.setParameters(params);
-//            return VideoCodecStatus.OK;
-//        } catch (IllegalStateException e) {
-//            ELog.e(TAG, "updateBitrate failed:" + e.getLocalizedMessage());
-//            return VideoCodecStatus.ERROR;
-//        }
-//    }
+    /**
+     * 把码率调整器计算出的码率设置给编码器，调整器内部已经限制了调整频率
+     */
+    private VideoCodecStatus updateBitrate() {
+        outputThreadChecker.checkIsOnValidThread();
+        adjustedBitrate = bitrateAdjuster.getAdjustedBitrateBps();
+        try {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, adjustedBitrate);
+            codec.setParameters(params);
+            bitrateUpdates++;
+            ELog.d(TAG, "updateBitrate: " + adjustedBitrate + " " + bitrateAdjuster);
+            return VideoCodecStatus.OK;
+        } catch (IllegalStateException e) {
+            ELog.e(TAG, "updateBitrate failed:" + e.getLocalizedMessage());
+            return VideoCodecStatus.ERROR;
+        }
+    }
 
     @Override
     public VideoCodecStatus deInit() {
+        return shutdown(false);
+    }
+
+    /**
+     * 停止编解码器但不释放，保留EGL上下文和绘制器，下一次{@link #init}时只需要重新configure和创建输入Surface。
+     * 编解码器停止失败时退化为释放，下一次init重新创建
+     */
+    @Override
+    public VideoCodecStatus recycle() {
+        return shutdown(true);
+    }
+
+    /**
+     * @param keep 是否保留编解码器和EGL上下文
+     */
+    private VideoCodecStatus shutdown(boolean keep) {
         encodeThreadChecker.checkIsOnValidThread();
+        final MediaCodecWrapper stoppingCodec = running ? codec : null;
+        keepCodecOnStop = keep;
+        codecStopFailed = false;
         final VideoCodecStatus returnValue;
-        if (outputThread == null) {
+        if (asyncMode && running) {
+            //等待正在处理的回调结束，之后的回调都会被忽略，不需要等待输出线程
+            synchronized (asyncLock) {
+                running = false;
+            }
+            releaseCodec();
+            if (shutdownException != null) {
+                ELog.e(TAG, "Media encoder deInit exception:" + shutdownException.getLocalizedMessage());
+                returnValue = VideoCodecStatus.ERROR;
+            } else {
+                returnValue = VideoCodecStatus.OK;
+            }
+            if (asyncErrors > 0) {
+                ELog.w(TAG, "encoder reported " + asyncErrors + " errors in async mode");
+            }
+        } else if (outputThread == null) {
             returnValue = VideoCodecStatus.OK;
         } else {
             // The outputThread actually stops and releases the codec once running is false.
@@ -443,22 +714,64 @@ class HwVideoEncoder implements VideoEncoder {
                 returnValue = VideoCodecStatus.OK;
             }
         }
-        textureDrawer.release();
-        videoFrameDrawer.release();
-        if (mEglCore != null) {
-            mEglCore.release();
-            mEglCore = null;
+        //超时的情况下输出线程之后仍会按keepCodecOnStop处理，这里改为释放
+        keepCodecOnStop = false;
+        //已经停止但没有释放的编解码器
+        final boolean stoppedOnly = keep && stoppingCodec != null && !codecStopFailed
+                && returnValue != VideoCodecStatus.TIMEOUT;
+        final boolean kept = stoppedOnly && returnValue == VideoCodecStatus.OK;
+        if (stoppedOnly && !kept) {
+            try {
+                stoppingCodec.release();
+            } catch (Exception e) {
+                ELog.e(TAG, "Media encoder deInit failed:" + e.getLocalizedMessage());
+            }
+        }
+        if (kept) {
+            idleCodec = stoppingCodec;
+            //绘制器在上下文仍然是当前上下文时释放，下一次绘制时重新创建；
+            //上下文保留，只销毁指向旧输入Surface的EGLSurface
+            textureDrawer.release();
+            videoFrameDrawer.release();
+            if (mEglCore != null) {
+                mEglCore.detachCurrent();
+                mEglCore.releaseSurface();
+            }
+        } else {
+            if (idleCodec != null) {
+                try {
+                    idleCodec.release();
+                } catch (Exception e) {
+                    ELog.e(TAG, "release idle codec failed:" + e.getLocalizedMessage());
+                }
+                idleCodec = null;
+            }
+            textureDrawer.release();
+            videoFrameDrawer.release();
+            if (mEglCore != null) {
+                mEglCore.release();
+                mEglCore = null;
+            }
         }
         if (textureInputSurface != null) {
             textureInputSurface.release();
             textureInputSurface = null;
         }
         outputBuilders.clear();
+        if (callbackThread != null && !kept) {
+            callbackThread.quitSafely();
+            callbackThread = null;
+        }
+        asyncMode = false;
         codec = null;
         outputThread = null;
         // Allow changing thread after deInit.
         encodeThreadChecker.detachThread();
 
+        if (keep && !kept) {
+            ELog.w(TAG, "recycle failed, codec released");
+            return VideoCodecStatus.ERROR;
+        }
         return returnValue;
     }
 
@@ -1,16 +1,15 @@
 package com.gpufast.recorder.video.encoder;
 
-import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.opengl.EGLContext;
 import android.os.Build;
 
 import com.gpufast.logger.ELog;
+import com.gpufast.recorder.hardware.CodecCapabilityCache;
 import com.gpufast.recorder.hardware.MediaCodecUtils;
 import com.gpufast.recorder.hardware.MediaCodecWrapperFactoryImpl;
 import com.gpufast.recorder.video.VideoEncoder;
 import com.gpufast.recorder.video.VideoEncoderFactory;
-import com.gpufast.recorder.video.btadjuster.FrameRateBitrateAdjuster;
+import com.gpufast.recorder.video.btadjuster.DynamicBitrateAdjuster;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -28,6 +27,8 @@ public class HwVideoEncoderFactory implements VideoEncoderFactory {
     private EGLContext sharedContext;
     private static final List<String> H264_HW_EXCEPTION_MODELS =
             Arrays.asList("SAMSUNG-SGH-I337", "Nexus 7", "Nexus 4");
+    //编解码器支持时使用异步回调模式输出，不支持时退回到输出线程轮询
+    private static final boolean PREFER_ASYNC_MODE = true;
 
 
     @Override
@@ -35,37 +36,61 @@ public class HwVideoEncoderFactory implements VideoEncoderFactory {
         sharedContext = shareContext;
     }
 
+    /**
+     * 列出所有可用的硬件编码器和profile，按基准测试的结果排序，
+     * 还没有测试结果时保持系统列出的顺序，同一个编码器高级profile优先
+     */
     @Override
     public VideoCodecInfo[] getSupportedCodecs() {
+        List<CodecBenchmark.Config> candidates = new ArrayList<>();
         List<VideoCodecInfo> supportedCodecInfoList = new ArrayList<>();
         for (VideoCodecType type : new VideoCodecType[]{VideoCodecType.H264}) {
-            MediaCodecInfo codecInfo = findCodecForType(type);
-            if (codecInfo != null) {
-                String name = type.name();
+            String mime = type.mimeType();
+            for (CodecCapabilityCache.Codec codecInfo : findCodecsForType(type)) {
+                String codecName = codecInfo.name;
+                Integer colorFormat = MediaCodecUtils.selectColorFormat(
+                        MediaCodecUtils.ENCODER_COLOR_FORMATS, codecInfo.getCapabilitiesForType(mime));
+                List<VideoCodecInfo.Profile> profiles = new ArrayList<>();
                 if (isH264HighProfileSupported(codecInfo)) {
-                    supportedCodecInfoList.add(new VideoCodecInfo(name, VideoCodecInfo.Profile.HHEIGHT));
+                    profiles.add(VideoCodecInfo.Profile.HHEIGHT);
+                }
+                profiles.add(VideoCodecInfo.Profile.BASE_LINE);
+                for (VideoCodecInfo.Profile profile : profiles) {
+                    candidates.add(new CodecBenchmark.Config(codecName, mime,
+                            VideoCodecInfo.profileValue(profile), colorFormat));
+                    supportedCodecInfoList.add(new VideoCodecInfo(type.name(), profile, codecName));
                 }
-                supportedCodecInfoList.add(new VideoCodecInfo(name, VideoCodecInfo.Profile.BASE_LINE));
             }
         }
 
-        int size = supportedCodecInfoList.size();
-
-        return supportedCodecInfoList.toArray(new VideoCodecInfo[size]);
+        List<CodecBenchmark.Config> ranked = CodecRanker.getInstance().rank(candidates);
+        VideoCodecInfo[] sorted = new VideoCodecInfo[ranked.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = supportedCodecInfoList.get(candidates.indexOf(ranked.get(i)));
+        }
+        ELog.d(TAG, "supported codecs: " + Arrays.toString(sorted));
+        return sorted;
     }
 
     @Override
     public VideoEncoder createEncoder(VideoCodecInfo inputCodecInfo) {
         //编码器的类型
         VideoCodecType type = VideoCodecType.valueOf(inputCodecInfo.name);
-        //根据类型查找编码器的信息
-        MediaCodecInfo info = findCodecForType(type);
+        //优先使用指定的编码器，没有指定或者已经不可用时根据类型查找
+        CodecCapabilityCache.Codec info = null;
+        String componentName = inputCodecInfo.getComponentName();
+        if (componentName != null) {
+            info = findCodecByName(type, componentName);
+        }
+        if (info == null) {
+            info = findCodecForType(type);
+        }
         if (info == null) {
             ELog.e(TAG, "can't find Encoder by type" + inputCodecInfo.name);
             return null;
         }
 
-        String codecName = info.getName();
+        String codecName = info.name;
 
         String mime = type.mimeType();
         ELog.d(TAG, "codecName :" + codecName + " mime:" + mime);
@@ -75,8 +100,8 @@ public class HwVideoEncoderFactory implements VideoEncoderFactory {
 
         return new HwVideoEncoder(new MediaCodecWrapperFactoryImpl(), codecName, type,
                 surfaceColorFormat, inputCodecInfo.params, getKeyFrameIntervalSec(type),
-                new FrameRateBitrateAdjuster(),
-                sharedContext);
+                new DynamicBitrateAdjuster(),
+                sharedContext, PREFER_ASYNC_MODE, null);
     }
 
     /**
@@ -96,26 +121,32 @@ public class HwVideoEncoderFactory implements VideoEncoderFactory {
         throw new IllegalArgumentException("Unsupported VideoCodecType " + type);
     }
 
-    private MediaCodecInfo findCodecForType(VideoCodecType type) {
-        for (int i = 0; i < MediaCodecList.getCodecCount(); ++i) {
-            MediaCodecInfo info = null;
-            try {
-                info = MediaCodecList.getCodecInfoAt(i);
-            } catch (IllegalArgumentException e) {
-                ELog.e(TAG, "Cannot retrieve encoder codec info:"+e);
-            }
-            if (info == null || !info.isEncoder()) {
-                continue;
-            }
-            if (isSupportedCodec(info, type)) {
+    private CodecCapabilityCache.Codec findCodecForType(VideoCodecType type) {
+        List<CodecCapabilityCache.Codec> infos = findCodecsForType(type);
+        return infos.isEmpty() ? null : infos.get(0);
+    }
+
+    private CodecCapabilityCache.Codec findCodecByName(VideoCodecType type, String codecName) {
+        for (CodecCapabilityCache.Codec info : findCodecsForType(type)) {
+            if (info.name.equals(codecName)) {
                 return info;
             }
         }
         return null;
     }
 
+    private List<CodecCapabilityCache.Codec> findCodecsForType(VideoCodecType type) {
+        List<CodecCapabilityCache.Codec> infos = new ArrayList<>();
+        for (CodecCapabilityCache.Codec info : MediaCodecUtils.getEncoders()) {
+            if (isSupportedCodec(info, type)) {
+                infos.add(info);
+            }
+        }
+        return infos;
+    }
+
     // 判断编码器是否支持硬编码
-    private boolean isSupportedCodec(MediaCodecInfo info, VideoCodecType type) {
+    private boolean isSupportedCodec(CodecCapabilityCache.Codec info, VideoCodecType type) {
         if (!MediaCodecUtils.codecSupportsType(info, type)) {
             return false;
         }
@@ -127,7 +158,7 @@ public class HwVideoEncoderFactory implements VideoEncoderFactory {
         return isHardwareSupportedInCurrentSdk(info, type);
     }
 
-    private boolean isHardwareSupportedInCurrentSdk(MediaCodecInfo info, VideoCodecType type) {
+    private boolean isHardwareSupportedInCurrentSdk(CodecCapabilityCache.Codec info, VideoCodecType type) {
         switch (type) {
             case H264:
                 return isHardwareSupportedInCurrentSdkH264(info);
@@ -143,11 +174,11 @@ public class HwVideoEncoderFactory implements VideoEncoderFactory {
      * 如果是高通的处理器， 则4.4之后支持硬编码，三星和海思的处理器5.1之后支持
      */
     @SuppressWarnings("all")
-    private boolean isHardwareSupportedInCurrentSdkH264(MediaCodecInfo info) {
+    private boolean isHardwareSupportedInCurrentSdkH264(CodecCapabilityCache.Codec info) {
         if (H264_HW_EXCEPTION_MODELS.contains(Build.MODEL)) {
             return false;
         }
-        String name = info.getName();
+        String name = info.name;
         if (name.startsWith(MediaCodecUtils.QCOM_PREFIX) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             return true;
         }
@@ -164,8 +195,8 @@ public class HwVideoEncoderFactory implements VideoEncoderFactory {
      * @param info info
      * @return true:支持，false不支持
      */
-    private boolean isH264HighProfileSupported(MediaCodecInfo info) {
+    private boolean isH264HighProfileSupported(CodecCapabilityCache.Codec info) {
         return Build.VERSION.SDK_INT > Build.VERSION_CODES.M
-                && info.getName().startsWith(MediaCodecUtils.EXYNOS_PREFIX);
+                && info.name.startsWith(MediaCodecUtils.EXYNOS_PREFIX);
     }
 }
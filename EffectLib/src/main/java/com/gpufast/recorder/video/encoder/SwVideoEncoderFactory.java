@@ -0,0 +1,43 @@
+package com.gpufast.recorder.video.encoder;
+
+import android.opengl.EGLContext;
+
+import com.gpufast.logger.ELog;
+import com.gpufast.recorder.video.VideoEncoder;
+import com.gpufast.recorder.video.VideoEncoderFactory;
+
+/**
+ * 视频软编码器工厂
+ * <p>
+ * 使用x264编码H264，硬件编码器不可用或者输出有问题的设备上作为兜底方案。
+ * 没有打包x264时{@link #getSupportedCodecs()}返回空数组
+ */
+public class SwVideoEncoderFactory implements VideoEncoderFactory {
+
+    private static final String TAG = "SwVideoEncoderFactory";
+
+    @Override
+    public void setShareContext(EGLContext shareContext) {
+        //软编码器在内存中编码I420数据，不需要EGL上下文
+    }
+
+    @Override
+    public VideoCodecInfo[] getSupportedCodecs() {
+        if (!X264VideoEncoder.isSupported()) {
+            ELog.e(TAG, "x264 is not available.");
+            return new VideoCodecInfo[0];
+        }
+        return new VideoCodecInfo[]{
+                new VideoCodecInfo(VideoCodecType.H264.name(), VideoCodecInfo.Profile.HHEIGHT)};
+    }
+
+    @Override
+    public VideoEncoder createEncoder(VideoCodecInfo inputCodecInfo) {
+        if (!VideoCodecType.H264.name().equalsIgnoreCase(inputCodecInfo.name)) {
+            ELog.e(TAG, "unsupported software codec: " + inputCodecInfo);
+            return null;
+        }
+        ELog.i(TAG, "create software video encoder: " + inputCodecInfo);
+        return new X264VideoEncoder(inputCodecInfo.params.get(VideoCodecInfo.H264_PROFILE));
+    }
+}
@@ -11,6 +11,8 @@ public class VideoCodecInfo {
     public static final String VALUE_BASE_LINE = "baseline";
     public static final String VALUE_main = "main";
     public static final String VALUE_height = "height";
+    //指定使用的编码器组件名，没有时按类型查找
+    public static final String CODEC_NAME = "codec-name";
 
     public enum Profile {
         BASE_LINE, MAIN, HHEIGHT
@@ -23,18 +25,27 @@ public class VideoCodecInfo {
     public VideoCodecInfo(String codecName, Profile profile) {
         this.name = codecName;
         this.params = new HashMap<>();
+        params.put(H264_PROFILE, profileValue(profile));
+    }
+
+    /**
+     * @param componentName 编码器组件名，例如OMX.qcom.video.encoder.avc
+     */
+    public VideoCodecInfo(String codecName, Profile profile, String componentName) {
+        this(codecName, profile);
+        params.put(CODEC_NAME, componentName);
+    }
+
+    public static String profileValue(Profile profile) {
         switch (profile) {
-            case BASE_LINE:
-                params.put(H264_PROFILE, VALUE_BASE_LINE);
-                break;
             case MAIN:
-                params.put(H264_PROFILE, VALUE_main);
+                return VALUE_main;
             case HHEIGHT:
-                params.put(H264_PROFILE, VALUE_height);
+                return VALUE_height;
+            case BASE_LINE:
             default:
-                params.put(H264_PROFILE, VALUE_BASE_LINE);
+                return VALUE_BASE_LINE;
         }
-
     }
 
     @Override
@@ -63,4 +74,16 @@ public class VideoCodecInfo {
     Map getParams() {
         return params;
     }
+
+    /**
+     * @return 指定的编码器组件名，没有时返回null
+     */
+    String getComponentName() {
+        return params.get(CODEC_NAME);
+    }
+
+    @Override
+    public String toString() {
+        return "VideoCodecInfo{" + name + ", " + params + '}';
+    }
 }
\ No newline at end of file
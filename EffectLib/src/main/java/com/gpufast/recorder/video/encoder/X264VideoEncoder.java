@@ -1,29 +1,314 @@
 package com.gpufast.recorder.video.encoder;
 
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import com.gpufast.logger.ELog;
+import com.gpufast.recorder.video.EncodedImage;
 import com.gpufast.recorder.video.VideoEncoder;
 import com.gpufast.recorder.video.VideoFrame;
 
+import java.nio.ByteBuffer;
+
+/**
+ * x264软编码器
+ * <p>
+ * 输入I420数据，三个平面的direct ByteBuffer直接把地址交给native层，不拷贝。
+ * x264内部使用frame多线程（默认）或slice多线程（tune为zerolatency时），编码在调用线程中提交，
+ * 输出有若干帧的延迟，见{@link #getQueuedFrames()}。编码结果通过和硬编码器相同的回调输出，
+ * SPS、PPS放在MediaFormat的csd-0、csd-1中，关键帧另外通过{@link EncodedImage#configBuffer}携带。
+ * <p>
+ * 为了兼容MediaMuxer不使用B帧，输出顺序和显示顺序一致。除了{@link #getQueuedFrames()}，只能在编码线程中调用
+ */
 public class X264VideoEncoder implements VideoEncoder {
+    private static final String TAG = "X264VideoEncoder";
+
+    //速度预设的默认值，移动设备上更慢的预设难以实时编码720p以上的分辨率
+    private static final String DEFAULT_PRESET = "superfast";
+    private static final int NAL_SPS = 7;
+    private static final int NAL_PPS = 8;
+    //nativeEncode输出信息的下标
+    private static final int INFO_PTS_US = 0;
+    private static final int INFO_KEY_FRAME = 1;
+    private static final int INFO_STATUS = 2;
+
+    private static final boolean LIBRARY_LOADED = loadLibrary();
+
+    //x264的profile名字
+    private final String profile;
+
+    private long nativeHandle;
+    private VideoEncoderCallback callback;
+    private Settings settings;
+    private int width;
+    private int height;
+    //SPS和PPS，关键帧共享
+    private ByteBuffer configBuffer;
+    private final long[] outInfo = new long[3];
+    private volatile int queuedFrames;
+    private int maxQueuedFrames = 1;
+    private int frameIndex;
+    private boolean loggedNoI420;
+
+    private long encodedFrames;
+    private long keyFrames;
+    private long encodedBytes;
+    private long encodeNs;
+
+    public X264VideoEncoder() {
+        this(VideoCodecInfo.VALUE_height);
+    }
+
+    /**
+     * @param profile {@link VideoCodecInfo#H264_PROFILE}的值
+     */
+    public X264VideoEncoder(String profile) {
+        if (VideoCodecInfo.VALUE_BASE_LINE.equals(profile)) {
+            this.profile = "baseline";
+        } else if (VideoCodecInfo.VALUE_main.equals(profile)) {
+            this.profile = "main";
+        } else {
+            this.profile = "high";
+        }
+    }
+
+    private static boolean loadLibrary() {
+        try {
+            System.loadLibrary("native-lib");
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            ELog.e(TAG, "load native-lib failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return native库中是否编译了x264
+     */
+    public static boolean isSupported() {
+        return LIBRARY_LOADED && nativeIsAvailable();
+    }
+
+    @Override
+    public boolean isHardwareEncoder() {
+        return false;
+    }
+
     @Override
     public VideoCodecStatus init(Settings settings, VideoEncoderCallback encodeCallback) {
-        return null;
+        if (!isSupported()) {
+            return VideoCodecStatus.FALLBACK_SOFTWARE;
+        }
+        this.settings = settings;
+        this.callback = encodeCallback;
+        return open(settings.width, settings.height);
+    }
+
+    private VideoCodecStatus open(int width, int height) {
+        String preset = settings.preset != null ? settings.preset : DEFAULT_PRESET;
+        ELog.i(TAG, "init x264: " + width + "x" + height + " " + settings.startBitrate + "kbps "
+                + settings.maxFrameRate + "fps preset=" + preset + " tune=" + settings.tune + " profile=" + profile);
+        nativeHandle = nativeCreate(width, height, settings.startBitrate, settings.maxFrameRate,
+                preset, settings.tune, profile);
+        if (nativeHandle == 0) {
+            ELog.e(TAG, "open x264 failed");
+            return VideoCodecStatus.ERROR;
+        }
+        this.width = width;
+        this.height = height;
+        maxQueuedFrames = nativeMaxDelayedFrames(nativeHandle) + 1;
+        queuedFrames = 0;
+
+        byte[] sps = nativeGetHeader(nativeHandle, NAL_SPS);
+        byte[] pps = nativeGetHeader(nativeHandle, NAL_PPS);
+        if (sps == null || sps.length == 0 || pps == null || pps.length == 0) {
+            ELog.e(TAG, "x264 header unavailable");
+            nativeRelease(nativeHandle);
+            nativeHandle = 0;
+            return VideoCodecStatus.ERROR;
+        }
+        configBuffer = ByteBuffer.allocateDirect(sps.length + pps.length);
+        configBuffer.put(sps).put(pps).flip();
+        MediaFormat format = MediaFormat.createVideoFormat(VideoCodecType.H264.mimeType(), width, height);
+        format.setByteBuffer("csd-0", ByteBuffer.wrap(sps));
+        format.setByteBuffer("csd-1", ByteBuffer.wrap(pps));
+        format.setInteger(MediaFormat.KEY_BIT_RATE, settings.startBitrate * 1000);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, settings.maxFrameRate);
+        if (callback != null) {
+            callback.onUpdateVideoMediaFormat(format);
+        }
+        return VideoCodecStatus.OK;
     }
 
     @Override
     public VideoCodecStatus encode(VideoFrame frame) {
-        return null;
+        if (nativeHandle == 0) {
+            return VideoCodecStatus.UNINITIALIZED;
+        }
+        VideoFrame.Buffer buffer = frame.getBuffer();
+        //和硬编码器一样，输入尺寸变化时用新尺寸重新打开编码器
+        if (buffer.getWidth() != width || buffer.getHeight() != height) {
+            close();
+            VideoCodecStatus status = open(buffer.getWidth(), buffer.getHeight());
+            if (status != VideoCodecStatus.OK) {
+                return status;
+            }
+        }
+        VideoFrame.I420Buffer i420 = buffer.toI420();
+        if (i420 == null) {
+            if (!loggedNoI420) {
+                loggedNoI420 = true;
+                ELog.e(TAG, "can't convert " + buffer.getClass().getSimpleName() + " to I420");
+            }
+            return VideoCodecStatus.ERROR;
+        }
+        try {
+            ByteBuffer dataY = i420.getDataY();
+            ByteBuffer dataU = i420.getDataU();
+            ByteBuffer dataV = i420.getDataV();
+            if (!dataY.isDirect() || !dataU.isDirect() || !dataV.isDirect()) {
+                ELog.e(TAG, "I420 planes must be direct buffers");
+                return VideoCodecStatus.ERR_PARAMETER;
+            }
+            long start = System.nanoTime();
+            ByteBuffer output = nativeEncode(nativeHandle,
+                    dataY, i420.getStrideY(), dataU, i420.getStrideU(), dataV, i420.getStrideV(),
+                    frame.getTimestampNs() / 1000, outInfo);
+            encodeNs += System.nanoTime() - start;
+            queuedFrames = nativeDelayedFrames(nativeHandle);
+            if (outInfo[INFO_STATUS] < 0) {
+                ELog.e(TAG, "x264 encode failed: " + outInfo[INFO_STATUS]);
+                return VideoCodecStatus.ERROR;
+            }
+            if (output != null) {
+                deliver(output);
+            }
+            return VideoCodecStatus.OK;
+        } finally {
+            i420.release();
+        }
+    }
+
+    /**
+     * @param output 引用x264内部的内存，下一次调用native方法之前有效，和硬编码器一样只在回调期间有效
+     */
+    private void deliver(ByteBuffer output) {
+        boolean isKeyFrame = outInfo[INFO_KEY_FRAME] != 0;
+        long ptsUs = outInfo[INFO_PTS_US];
+        int size = output.remaining();
+        encodedFrames++;
+        encodedBytes += size;
+        if (isKeyFrame) {
+            keyFrames++;
+        }
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.set(0, size, ptsUs, isKeyFrame ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0);
+        EncodedImage image = EncodedImage.builder()
+                .setBuffer(output)
+                .setConfigBuffer(isKeyFrame ? configBuffer : null)
+                .setBufferInfo(info)
+                .setCaptureTimeNs(ptsUs * 1000)
+                .setCompleteFrame(true)
+                .setEncodedWidth(width)
+                .setEncodedHeight(height)
+                .setFrameIndex(++frameIndex)
+                .setFrameType(isKeyFrame ? EncodedImage.FrameType.VideoFrameKey
+                        : EncodedImage.FrameType.VideoFrameDelta)
+                .createEncodedImage();
+        if (callback != null) {
+            callback.onEncodedFrame(image);
+        }
+    }
+
+    /**
+     * 输出编码器中剩余的帧后关闭
+     */
+    private void close() {
+        if (nativeHandle == 0) {
+            return;
+        }
+        ByteBuffer output;
+        while ((output = nativeFlush(nativeHandle, outInfo)) != null) {
+            deliver(output);
+        }
+        nativeRelease(nativeHandle);
+        nativeHandle = 0;
+        queuedFrames = 0;
     }
 
     @Override
     public String getImplementationName() {
-        return null;
+        return "x264";
     }
 
     @Override
     public VideoCodecStatus deInit() {
-        return null;
+        close();
+        //打开失败时也通知复用器，避免等待视频结束
+        if (callback != null) {
+            ELog.i(TAG, "x264 stopped: " + this);
+            callback.onVideoEncoderStop();
+            callback = null;
+        }
+        return VideoCodecStatus.OK;
+    }
+
+    @Override
+    public int getQueuedFrames() {
+        return queuedFrames;
+    }
+
+    @Override
+    public int getMaxQueuedFrames() {
+        return maxQueuedFrames;
     }
 
-    public native int nativeInit(Settings settings, VideoEncoderCallback encodeCallback);
+    @Override
+    public String toString() {
+        return "X264VideoEncoder{" +
+                "size=" + width + "x" + height +
+                ", frames=" + encodedFrames +
+                ", keyFrames=" + keyFrames +
+                ", avgBytes=" + (encodedFrames > 0 ? encodedBytes / encodedFrames : 0) +
+                ", avgEncodeUs=" + (encodedFrames > 0 ? encodeNs / 1000 / encodedFrames : 0) +
+                ", maxDelayed=" + (maxQueuedFrames - 1) +
+                '}';
+    }
+
+    private static native boolean nativeIsAvailable();
+
+    /**
+     * @return native编码器的句柄，失败时返回0
+     */
+    private static native long nativeCreate(int width, int height, int bitrateKbps, int frameRate,
+                                            String preset, String tune, String profile);
+
+    /**
+     * @param type NAL类型，{@link #NAL_SPS}或{@link #NAL_PPS}
+     * @return 带起始码的NAL，句柄为0时返回空数组
+     */
+    private static native byte[] nativeGetHeader(long handle, int type);
+
+    /**
+     * 编码一帧，输入平面直接使用direct buffer的地址
+     *
+     * @param outInfo 输出帧的时间戳、是否关键帧和状态，状态小于0表示失败
+     * @return 编码输出，没有输出时返回null
+     */
+    private static native ByteBuffer nativeEncode(long handle,
+                                                  ByteBuffer dataY, int strideY,
+                                                  ByteBuffer dataU, int strideU,
+                                                  ByteBuffer dataV, int strideV,
+                                                  long ptsUs, long[] outInfo);
+
+    /**
+     * @return 编码器中剩余的一帧，没有时返回null
+     */
+    private static native ByteBuffer nativeFlush(long handle, long[] outInfo);
+
+    private static native int nativeDelayedFrames(long handle);
+
+    private static native int nativeMaxDelayedFrames(long handle);
 
+    private static native void nativeRelease(long handle);
 }
@@ -0,0 +1,178 @@
+package com.gpufast.recorder.video.renderer;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import com.gpufast.gles.GLESUtil;
+import com.gpufast.recorder.video.RgbaToI420Converter;
+
+/**
+ * 在GPU上把RGB纹理转换成I420，结果打包在一张RGBA纹理中
+ * <p>
+ * 每个RGBA像素存放同一行相邻的4个采样，读回时每个视频像素只有1.5字节，是直接读回RGBA的3/8。布局为：
+ * <pre>
+ * +---------+
+ * |    Y    |  height行
+ * +----+----+
+ * | U  | V  |  (height + 1) / 2行
+ * +----+----+
+ * </pre>
+ * 每一行{@link #getStride(int)}字节，U、V各占半行。色度在采样点之间线性插值，相当于2x2像素的平均值。
+ * 输出的第一行是图像的第一行（纹理的最上面），读回后不需要翻转。只能在创建它的GL线程中调用
+ */
+public class YuvConverter {
+
+    //每个输出像素采样4个点，xUnit是相邻两个采样点在纹理坐标中的距离
+    private static final String FRAGMENT_SHADER = "uniform vec2 xUnit;\n"
+            + "uniform vec4 coeffs;\n"
+            + "void main() {\n"
+            + "  gl_FragColor.r = coeffs.a + dot(coeffs.rgb, sample(tc - 1.5 * xUnit).rgb);\n"
+            + "  gl_FragColor.g = coeffs.a + dot(coeffs.rgb, sample(tc - 0.5 * xUnit).rgb);\n"
+            + "  gl_FragColor.b = coeffs.a + dot(coeffs.rgb, sample(tc + 0.5 * xUnit).rgb);\n"
+            + "  gl_FragColor.a = coeffs.a + dot(coeffs.rgb, sample(tc + 1.5 * xUnit).rgb);\n"
+            + "}\n";
+
+    private static class ShaderCallbacks implements GlGenericDrawer.ShaderCallbacks {
+        private final float[] coefficients;
+        private final float[] xUnit = new float[2];
+        //当前绘制的平面在coefficients中的下标
+        private int plane;
+        private int xUnitLoc = -1;
+        private int coeffsLoc = -1;
+
+        ShaderCallbacks(float[] coefficients) {
+            this.coefficients = coefficients;
+        }
+
+        void setPlane(int plane, float stepX) {
+            this.plane = plane;
+            xUnit[0] = stepX;
+        }
+
+        @Override
+        public void onNewShader(GlShader shader) {
+            xUnitLoc = shader.getUniformLocation("xUnit");
+            coeffsLoc = shader.getUniformLocation("coeffs");
+        }
+
+        @Override
+        public void onPrepareShader(GlShader shader, float[] texMatrix, int frameWidth, int frameHeight,
+                                    int viewportWidth, int viewportHeight) {
+            GLES20.glUniform4fv(coeffsLoc, 1, coefficients, plane * 4);
+            GLES20.glUniform2fv(xUnitLoc, 1, xUnit, 0);
+        }
+    }
+
+    private final ShaderCallbacks shaderCallbacks;
+    private final GlGenericDrawer drawer;
+    private final float[] texMatrix = new float[16];
+    private final int[] values = new int[1];
+    private int framebufferId;
+    private int textureId;
+    private int textureWidth;
+    private int textureHeight;
+
+    public YuvConverter(RgbaToI420Converter.ColorStandard standard) {
+        shaderCallbacks = new ShaderCallbacks(standard.shaderCoefficients());
+        drawer = new GlGenericDrawer(FRAGMENT_SHADER, shaderCallbacks);
+    }
+
+    /**
+     * @return 输出的每一行的字节数，Y、U、V都能放下
+     */
+    public static int getStride(int width) {
+        return (width + 7) / 8 * 8;
+    }
+
+    /**
+     * @return 输出的行数
+     */
+    public static int getRows(int height) {
+        return height + (height + 1) / 2;
+    }
+
+    /**
+     * 把纹理缩放到width x height并转换，结果绘制到内部的framebuffer中。
+     * 返回时该framebuffer仍然是当前绑定的framebuffer，调用者从(0, 0)读取
+     * {@link #getStride(int)} / 4 x {@link #getRows(int)}个RGBA像素后自行恢复之前的绑定和视口
+     *
+     * @param srcTextureId GL_TEXTURE_2D，需要使用线性过滤
+     */
+    public void convert(int srcTextureId, int width, int height) {
+        final int stride = getStride(width);
+        final int chromaHeight = (height + 1) / 2;
+        ensureFramebuffer(stride / 4, getRows(height));
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferId);
+
+        //视口宽度是stride个采样，超出width的部分是填充，纹理坐标按比例放大使前width个采样正好覆盖整个纹理
+        final float scaleX = (float) stride / width;
+        //Y
+        setTexMatrix(scaleX, 1f);
+        shaderCallbacks.setPlane(0, 1f / width);
+        drawer.drawRgb(srcTextureId, texMatrix, width, height, 0, 0, stride / 4, height);
+        //U和V，每个输出行覆盖两行源像素
+        setTexMatrix(scaleX, 2f * chromaHeight / height);
+        shaderCallbacks.setPlane(1, 2f / width);
+        drawer.drawRgb(srcTextureId, texMatrix, width, height, 0, height, stride / 8, chromaHeight);
+        shaderCallbacks.setPlane(2, 2f / width);
+        drawer.drawRgb(srcTextureId, texMatrix, width, height, stride / 8, height, stride / 8, chromaHeight);
+        GLESUtil.checkGlError("YuvConverter.convert");
+    }
+
+    /**
+     * 横向放大scaleX，纵向放大scaleY并上下翻转，让输出的第0行对应纹理的最上面
+     */
+    private void setTexMatrix(float scaleX, float scaleY) {
+        Matrix.setIdentityM(texMatrix, 0);
+        texMatrix[0] = scaleX;
+        texMatrix[5] = -scaleY;
+        texMatrix[13] = 1f;
+    }
+
+    private void ensureFramebuffer(int width, int height) {
+        if (framebufferId != 0 && width == textureWidth && height == textureHeight) {
+            return;
+        }
+        if (framebufferId == 0) {
+            GLES20.glGenFramebuffers(1, values, 0);
+            framebufferId = values[0];
+        }
+        if (textureId != 0) {
+            values[0] = textureId;
+            GLES20.glDeleteTextures(1, values, 0);
+        }
+        GLES20.glGetIntegerv(GLES20.GL_TEXTURE_BINDING_2D, values, 0);
+        int boundTexture = values[0];
+        textureId = GLESUtil.generateTexture(GLES20.GL_TEXTURE_2D);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, boundTexture);
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferId);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, textureId, 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            throw new IllegalStateException("framebuffer not complete: " + status);
+        }
+        textureWidth = width;
+        textureHeight = height;
+        GLESUtil.checkGlError("YuvConverter.ensureFramebuffer");
+    }
+
+    public void release() {
+        drawer.release();
+        if (textureId != 0) {
+            values[0] = textureId;
+            GLES20.glDeleteTextures(1, values, 0);
+            textureId = 0;
+        }
+        if (framebufferId != 0) {
+            values[0] = framebufferId;
+            GLES20.glDeleteFramebuffers(1, values, 0);
+            framebufferId = 0;
+        }
+        textureWidth = 0;
+        textureHeight = 0;
+    }
+}
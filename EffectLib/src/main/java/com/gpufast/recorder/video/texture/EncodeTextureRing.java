@@ -0,0 +1,379 @@
+package com.gpufast.recorder.video.texture;
+
+import android.graphics.Matrix;
+
+import com.gpufast.recorder.video.VideoFrame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 渲染线程交给编码线程的纹理环
+ * <p>
+ * 渲染线程传来的纹理在下一帧会被重新绘制，直接交给编码线程会读到正在写入的内容。这里预先分配N个纹理槽位，
+ * 渲染线程把当前帧拷贝到一个空闲槽位并插入栅栏，编码线程在采样之前让GPU等待这个栅栏；
+ * 编码线程用完后同样插入栅栏再归还槽位，渲染线程下次写入这个槽位之前等待它。两边都不需要glFinish。
+ * <p>
+ * 同时录制多个分辨率时所有编码线程共用一个环：渲染线程每一帧先调用{@link #nextFrame()}，
+ * 这一帧第一次{@link #publish}时拷贝，之后的publish返回同一个槽位的引用，各自报告自己的输出尺寸。
+ * 槽位按引用计数归还，所有编码线程都释放后才会被重新写入。
+ * <p>
+ * 没有空闲槽位时{@link #publish(int, int, int)}返回null，这一帧不编码。
+ * GPU操作通过{@link TextureRingOps}完成，纹理的创建和删除只在渲染线程进行
+ */
+public class EncodeTextureRing {
+
+    private final TextureRingOps ops;
+    private final Object lock = new Object();
+
+    private final int[] textures;
+    //每个槽位被编码线程引用的次数
+    private final int[] refCounts;
+    //拷贝后插入的栅栏，所有编码线程都只等待不删除，由渲染线程在重新写入前删除
+    private final Object[] writeFences;
+    //编码线程用完槽位后插入的栅栏，每个引用一个，下次写入前等待
+    private final List<Object>[] readFences;
+    private int next;
+    private int inFlight;
+    //这一帧已经拷贝到的槽位，-1表示还没有拷贝
+    private int currentSlot = -1;
+
+    private boolean initialized;
+    private boolean allocated;
+    private int width;
+    private int height;
+
+    private volatile long published;
+    private volatile long shared;
+    private volatile long starved;
+    private volatile long reallocations;
+    private volatile int peakInFlight;
+
+    /**
+     * @param slots 槽位个数，需要覆盖每个编码线程中排队的帧数加上正在编码的一帧
+     * @param ops   GPU操作
+     */
+    @SuppressWarnings("unchecked")
+    public EncodeTextureRing(int slots, TextureRingOps ops) {
+        if (slots <= 0 || ops == null) {
+            throw new IllegalArgumentException("slots=" + slots + " ops=" + ops);
+        }
+        this.ops = ops;
+        textures = new int[slots];
+        refCounts = new int[slots];
+        writeFences = new Object[slots];
+        readFences = new List[slots];
+        for (int i = 0; i < slots; i++) {
+            readFences[i] = new ArrayList<>(2);
+        }
+    }
+
+    /**
+     * 渲染线程每一帧开始时调用，之后的第一次publish重新拷贝
+     */
+    public void nextFrame() {
+        synchronized (lock) {
+            currentSlot = -1;
+        }
+    }
+
+    /**
+     * 渲染线程调用，把纹理拷贝到一个空闲槽位；同一帧内已经拷贝过时返回同一个槽位的引用
+     *
+     * @param srcTextureId 渲染结果，GL_TEXTURE_2D
+     * @return 交给编码线程的buffer，编码线程用完后必须{@link VideoFrame.Buffer#release()}；
+     * 没有空闲槽位时返回null
+     */
+    public VideoFrame.TextureBuffer publish(int srcTextureId, int srcWidth, int srcHeight) {
+        return publish(srcTextureId, srcWidth, srcHeight, srcWidth, srcHeight);
+    }
+
+    /**
+     * 同{@link #publish(int, int, int)}，buffer报告的尺寸为输出尺寸，编码器绘制时缩放到这个尺寸。
+     * 纹理本身保持原始尺寸，输出尺寸的宽高比需要和原始尺寸一致
+     *
+     * @param outputWidth  编码的宽度
+     * @param outputHeight 编码的高度
+     */
+    public VideoFrame.TextureBuffer publish(int srcTextureId, int srcWidth, int srcHeight,
+                                            int outputWidth, int outputHeight) {
+        final int slot;
+        final Object[] fences;
+        synchronized (lock) {
+            if (currentSlot >= 0 && srcWidth == width && srcHeight == height) {
+                //这一帧已经拷贝过，其他编码线程共用
+                retain(currentSlot);
+                shared++;
+                return new SlotBuffer(currentSlot, textures[currentSlot], outputWidth, outputHeight,
+                        writeFences[currentSlot]);
+            }
+            if (!allocated || srcWidth != width || srcHeight != height) {
+                if (inFlight > 0) {
+                    //尺寸变化时等编码线程归还所有槽位再重新分配
+                    starved++;
+                    return null;
+                }
+                allocate(srcWidth, srcHeight);
+            }
+            slot = findFreeSlot();
+            if (slot < 0) {
+                starved++;
+                return null;
+            }
+            retain(slot);
+            //写入前需要处理的栅栏，拷贝完成前其他publish不会引用这个槽位
+            List<Object> reads = readFences[slot];
+            fences = new Object[reads.size() + 1];
+            reads.toArray(fences);
+            reads.clear();
+            fences[fences.length - 1] = writeFences[slot];
+            writeFences[slot] = null;
+            next = (slot + 1) % textures.length;
+        }
+        for (int i = 0; i < fences.length - 1; i++) {
+            ops.waitFence(fences[i]);
+            ops.deleteFence(fences[i]);
+        }
+        //上一次写入的栅栏，引用它的编码线程都已经归还
+        Object oldWriteFence = fences[fences.length - 1];
+        if (oldWriteFence != null) {
+            ops.deleteFence(oldWriteFence);
+        }
+        ops.copyTexture(srcTextureId, textures[slot], srcWidth, srcHeight);
+        Object writeFence = ops.insertFence();
+        synchronized (lock) {
+            writeFences[slot] = writeFence;
+            currentSlot = slot;
+        }
+        published++;
+        return new SlotBuffer(slot, textures[slot], outputWidth, outputHeight, writeFence);
+    }
+
+    /**
+     * 调用时需要持有lock
+     */
+    private void retain(int slot) {
+        if (refCounts[slot]++ == 0) {
+            inFlight++;
+            if (inFlight > peakInFlight) {
+                peakInFlight = inFlight;
+            }
+        }
+    }
+
+    /**
+     * 调用时需要持有lock
+     */
+    private int findFreeSlot() {
+        for (int i = 0; i < textures.length; i++) {
+            int slot = (next + i) % textures.length;
+            if (refCounts[slot] == 0) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 调用时需要持有lock，并且没有槽位在使用
+     */
+    private void allocate(int w, int h) {
+        if (!initialized) {
+            ops.init();
+            initialized = true;
+        }
+        if (allocated) {
+            deleteTextures();
+            reallocations++;
+        }
+        for (int i = 0; i < textures.length; i++) {
+            textures[i] = ops.createTexture(w, h);
+        }
+        width = w;
+        height = h;
+        next = 0;
+        allocated = true;
+    }
+
+    /**
+     * 调用时需要持有lock
+     */
+    private void deleteTextures() {
+        for (int i = 0; i < textures.length; i++) {
+            for (Object fence : readFences[i]) {
+                ops.deleteFence(fence);
+            }
+            readFences[i].clear();
+            if (writeFences[i] != null) {
+                ops.deleteFence(writeFences[i]);
+                writeFences[i] = null;
+            }
+            ops.deleteTexture(textures[i]);
+            textures[i] = 0;
+        }
+        currentSlot = -1;
+        allocated = false;
+    }
+
+    /**
+     * 编码线程归还一个引用
+     *
+     * @param readFence 为null时表示不需要等待
+     */
+    private void recycle(int slot, Object readFence) {
+        synchronized (lock) {
+            if (readFence != null) {
+                readFences[slot].add(readFence);
+            }
+            if (--refCounts[slot] == 0) {
+                inFlight--;
+            }
+        }
+    }
+
+    /**
+     * 渲染线程调用，释放所有纹理，之后还可以继续使用
+     *
+     * @return 还有槽位在编码线程中时不释放，返回false
+     */
+    public boolean release() {
+        synchronized (lock) {
+            if (inFlight > 0) {
+                return false;
+            }
+            if (allocated) {
+                deleteTextures();
+            }
+            if (initialized) {
+                ops.release();
+                initialized = false;
+            }
+            return true;
+        }
+    }
+
+    public boolean isAllocated() {
+        synchronized (lock) {
+            return allocated;
+        }
+    }
+
+    /**
+     * @return 已经交给编码线程、还没有归还的槽位数
+     */
+    public int getInFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    public int getSlotCount() {
+        return textures.length;
+    }
+
+    /**
+     * @return 没有空闲槽位而放弃的帧数
+     */
+    public long getStarved() {
+        return starved;
+    }
+
+    public long getPublished() {
+        return published;
+    }
+
+    /**
+     * @return 同一帧被其他编码线程共用、没有重新拷贝的次数
+     */
+    public long getShared() {
+        return shared;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodeTextureRing{" +
+                "slots=" + textures.length +
+                ", size=" + width + "x" + height +
+                ", inFlight=" + getInFlight() +
+                ", peakInFlight=" + peakInFlight +
+                ", published=" + published +
+                ", shared=" + shared +
+                ", starved=" + starved +
+                ", reallocations=" + reallocations +
+                '}';
+    }
+
+    private class SlotBuffer implements VideoFrame.TextureBuffer {
+        private final int slot;
+        private final int textureId;
+        private final int width;
+        private final int height;
+        //只在编码线程中访问，槽位的写入栅栏，等待后置为null
+        private Object writeFence;
+        private boolean released;
+
+        SlotBuffer(int slot, int textureId, int width, int height, Object writeFence) {
+            this.slot = slot;
+            this.textureId = textureId;
+            this.width = width;
+            this.height = height;
+            this.writeFence = writeFence;
+        }
+
+        @Override
+        public void waitUntilReady() {
+            if (writeFence != null) {
+                //其他编码线程可能也在等待，栅栏由渲染线程删除
+                ops.waitFence(writeFence);
+                writeFence = null;
+            }
+        }
+
+        @Override
+        public void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            writeFence = null;
+            //编码线程已经释放了EGL上下文时，之前的命令都已经提交，不需要新的栅栏
+            recycle(slot, ops.isContextCurrent() ? ops.insertFence() : null);
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public VideoFrame.I420Buffer toI420() {
+            return null;
+        }
+
+        @Override
+        public VideoFrame.Buffer cropAndScale(int cropX, int cropY, int cropWidth, int cropHeight,
+                                              int scaleWidth, int scaleHeight) {
+            return null;
+        }
+
+        @Override
+        public TextureType getType() {
+            return TextureType.RGB;
+        }
+
+        @Override
+        public int getTextureId() {
+            return textureId;
+        }
+
+        @Override
+        public Matrix getTransformMatrix() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.gpufast.recorder.video.texture;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import com.gpufast.gles.GLESUtil;
+import com.gpufast.logger.ELog;
+
+/**
+ * 基于OpenGL ES的{@link TextureRingOps}
+ * <p>
+ * 纹理拷贝用FBO加glCopyTexSubImage2D，ES2也可以使用；栅栏使用ES3的同步对象，
+ * 同步对象在共享上下文之间共享，glWaitSync只让GPU等待，CPU不会阻塞。
+ * 插入栅栏后需要glFlush，否则另一个上下文可能等待一个还没有提交的栅栏。
+ * 渲染线程和编码线程的上下文版本可能不同，每次调用都按当前上下文判断，两边都是ES3才使用同步对象，
+ * 否则一方插入的栅栏另一方无法等待；不能使用时在拷贝后glFinish
+ * <p>
+ * 纹理和FBO属于init时的上下文，共享上下文变化后在新的上下文中释放时只丢弃编号，不删除同名的对象
+ */
+public class GlTextureRingOps implements TextureRingOps {
+    private static final String TAG = GlTextureRingOps.class.getSimpleName();
+
+    private final int[] values = new int[1];
+    private int framebufferId;
+    //创建纹理和FBO的上下文，即渲染线程的上下文
+    private EGLContext ownerContext;
+    private volatile boolean ownerSyncSupported;
+    private boolean waitWarned;
+
+    @Override
+    public void init() {
+        ownerContext = EGL14.eglGetCurrentContext();
+        ownerSyncSupported = GLESUtil.getCurrentClientVersion() >= 3;
+        if (!ownerSyncSupported) {
+            ELog.w(TAG, "sync objects unsupported in render context ("
+                    + GLESUtil.getCurrentClientVersion() + "), fallback to glFinish");
+        }
+        GLES20.glGenFramebuffers(1, values, 0);
+        GLESUtil.checkGlError("glGenFramebuffers");
+        framebufferId = values[0];
+    }
+
+    /**
+     * @return 当前上下文和渲染线程的上下文是否都能使用ES3的同步对象
+     */
+    private boolean isSyncSupported() {
+        return ownerSyncSupported && GLESUtil.getCurrentClientVersion() >= 3;
+    }
+
+    /**
+     * @return 当前上下文是否是创建纹理的上下文
+     */
+    private boolean isOwnerCurrent() {
+        return ownerContext != null && ownerContext.equals(EGL14.eglGetCurrentContext());
+    }
+
+    @Override
+    public boolean isContextCurrent() {
+        return GLESUtil.getCurrentClientVersion() > 0;
+    }
+
+    @Override
+    public int createTexture(int width, int height) {
+        GLES20.glGetIntegerv(GLES20.GL_TEXTURE_BINDING_2D, values, 0);
+        int boundTexture = values[0];
+        int textureId = GLESUtil.generateTexture(GLES20.GL_TEXTURE_2D);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLESUtil.checkGlError("glTexImage2D");
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, boundTexture);
+        return textureId;
+    }
+
+    @Override
+    public void deleteTexture(int textureId) {
+        if (!isOwnerCurrent()) {
+            return;
+        }
+        values[0] = textureId;
+        GLES20.glDeleteTextures(1, values, 0);
+    }
+
+    @Override
+    public void copyTexture(int srcTextureId, int dstTextureId, int width, int height) {
+        //不改变渲染线程的状态
+        GLES20.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, values, 0);
+        int boundFramebuffer = values[0];
+        GLES20.glGetIntegerv(GLES20.GL_TEXTURE_BINDING_2D, values, 0);
+        int boundTexture = values[0];
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferId);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, srcTextureId, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, dstTextureId);
+        GLES20.glCopyTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, 0, 0, width, height);
+        //解除关联，src被删除时不会残留在FBO上
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, 0, 0);
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, boundTexture);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, boundFramebuffer);
+        GLESUtil.checkGlError("copyTexture");
+    }
+
+    @Override
+    public Object insertFence() {
+        if (isSyncSupported()) {
+            long sync = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            GLES20.glFlush();
+            if (sync != 0) {
+                return sync;
+            }
+            GLES20.glGetError();
+        }
+        GLES20.glFinish();
+        return null;
+    }
+
+    @Override
+    public void waitFence(Object fence) {
+        if (fence == null) {
+            return;
+        }
+        if (isSyncSupported()) {
+            GLES30.glWaitSync((Long) fence, 0, GLES30.GL_TIMEOUT_IGNORED);
+        } else if (!waitWarned) {
+            //编码器的上下文没能创建为ES3，只能依赖插入栅栏后glFlush的提交顺序
+            waitWarned = true;
+            ELog.w(TAG, "can't wait for fence in context " + GLESUtil.getCurrentClientVersion());
+        }
+    }
+
+    @Override
+    public void deleteFence(Object fence) {
+        if (fence != null && isSyncSupported()) {
+            GLES30.glDeleteSync((Long) fence);
+        }
+    }
+
+    @Override
+    public void release() {
+        if (framebufferId != 0 && isOwnerCurrent()) {
+            values[0] = framebufferId;
+            GLES20.glDeleteFramebuffers(1, values, 0);
+        } else if (framebufferId != 0) {
+            ELog.w(TAG, "render context changed, textures are left to the old context");
+        }
+        framebufferId = 0;
+        ownerContext = null;
+    }
+}
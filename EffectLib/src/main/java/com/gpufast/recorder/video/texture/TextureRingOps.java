@@ -0,0 +1,51 @@
+package com.gpufast.recorder.video.texture;
+
+/**
+ * {@link EncodeTextureRing}用到的GPU操作
+ * <p>
+ * 槽位的分配和回收只依赖这个接口，可以用不访问GPU的实现在JVM上验证。
+ * 栅栏用Object表示，由实现决定具体类型，null表示没有栅栏
+ */
+public interface TextureRingOps {
+
+    /**
+     * 在渲染线程第一次分配纹理前调用，需要有当前的EGL上下文
+     */
+    void init();
+
+    /**
+     * @return RGBA纹理
+     */
+    int createTexture(int width, int height);
+
+    void deleteTexture(int textureId);
+
+    /**
+     * 把src的内容拷贝到dst，两者大小相同
+     */
+    void copyTexture(int srcTextureId, int dstTextureId, int width, int height);
+
+    /**
+     * @return 当前线程是否有EGL上下文，没有时不能插入、等待或删除栅栏
+     */
+    boolean isContextCurrent();
+
+    /**
+     * 在当前上下文的命令流中插入栅栏，并保证其他上下文可以等待它
+     *
+     * @return 栅栏，不支持时返回null（实现需要用其他方式保证顺序）
+     */
+    Object insertFence();
+
+    /**
+     * 让当前上下文之后的GPU命令等待栅栏，不阻塞CPU
+     */
+    void waitFence(Object fence);
+
+    void deleteFence(Object fence);
+
+    /**
+     * 释放init中创建的资源，在渲染线程调用
+     */
+    void release();
+}
@@ -0,0 +1,343 @@
+package com.gpufast.recorder.video.texture;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import com.gpufast.gles.GLESUtil;
+import com.gpufast.logger.ELog;
+import com.gpufast.recorder.video.I420BufferPool;
+import com.gpufast.recorder.video.PooledI420Buffer;
+import com.gpufast.recorder.video.RgbaToI420Converter;
+import com.gpufast.recorder.video.VideoFrame;
+import com.gpufast.recorder.video.renderer.YuvConverter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 渲染线程把纹理转换成I420交给软编码器
+ * <p>
+ * 先用{@link YuvConverter}在GPU上转换，读回的数据只有RGBA的3/8；再通过PBO环异步读回：
+ * {@link #submit}把glReadPixels的结果写入一个空闲的PBO并插入栅栏，立即返回；
+ * {@link #poll()}用超时为0的glClientWaitSync检查最早的一帧，GPU完成后映射PBO拷贝到{@link PooledI420Buffer}，
+ * 没有完成时返回null，下一帧再检查。两个PBO时输出比输入晚一帧，渲染线程不会等待GPU。
+ * <p>
+ * PBO和同步对象需要ES3，按初始化时渲染线程的上下文版本判断，ES2的上下文同步读回到内存。
+ * 所有方法只能在渲染线程中调用，输出的帧不依赖GL，可以交给任意线程。
+ * GL对象属于初始化时的上下文，上下文变化后释放时只丢弃编号，不删除同名的对象
+ */
+public class YuvReadbackRing {
+    private static final String TAG = YuvReadbackRing.class.getSimpleName();
+
+    private final RgbaToI420Converter.ColorStandard standard;
+    private final I420BufferPool pool;
+    private final int[] values = new int[4];
+    private final int[] viewport = new int[4];
+
+    private final int[] pbos;
+    private final int[] pboSizes;
+    private final long[] fences;
+    private final int[] widths;
+    private final int[] heights;
+    private final long[] timestampsNs;
+    //ES2时同步读回的数据
+    private final ByteBuffer[] cpuBuffers;
+    //最早发出、还没有输出的槽位
+    private int head;
+    private int pending;
+
+    private YuvConverter converter;
+    private boolean initialized;
+    private boolean pboSupported;
+    //创建PBO和转换器的上下文
+    private EGLContext ownerContext;
+
+    private volatile long submitted;
+    private volatile long delivered;
+    private volatile long dropped;
+    private volatile long notReady;
+    private volatile long copyNs;
+
+    /**
+     * @param slots    PBO个数，2个时每一帧读回的数据有一帧的时间完成传输
+     * @param standard 色彩标准
+     */
+    public YuvReadbackRing(int slots, RgbaToI420Converter.ColorStandard standard) {
+        if (slots <= 0 || standard == null) {
+            throw new IllegalArgumentException("slots=" + slots + " standard=" + standard);
+        }
+        this.standard = standard;
+        //池中保留读回中和编码线程排队的帧
+        pool = new I420BufferPool(slots + 2, 32 * 1024 * 1024);
+        pbos = new int[slots];
+        pboSizes = new int[slots];
+        fences = new long[slots];
+        widths = new int[slots];
+        heights = new int[slots];
+        timestampsNs = new long[slots];
+        cpuBuffers = new ByteBuffer[slots];
+    }
+
+    private void init() {
+        ownerContext = EGL14.eglGetCurrentContext();
+        //GL_VERSION是驱动支持的版本，ES2的上下文中即使驱动支持ES3也不能使用PBO
+        int version = GLESUtil.getCurrentClientVersion();
+        pboSupported = version >= 3;
+        if (pboSupported) {
+            GLES30.glGenBuffers(pbos.length, pbos, 0);
+            GLESUtil.checkGlError("glGenBuffers");
+        } else {
+            ELog.w(TAG, "PBO unsupported in ES" + version + " context, fallback to synchronous glReadPixels");
+        }
+        converter = new YuvConverter(standard);
+        initialized = true;
+    }
+
+    /**
+     * 转换一帧并发出读回，不等待GPU
+     *
+     * @param textureId   渲染结果，GL_TEXTURE_2D
+     * @param width       输出的宽度，和纹理尺寸不同时缩放
+     * @param height      输出的高度
+     * @param timestampNs 随输出的帧返回
+     * @return 没有空闲的槽位时返回false，这一帧被丢弃
+     */
+    public boolean submit(int textureId, int width, int height, long timestampNs) {
+        if (!initialized) {
+            init();
+        }
+        if (pending == pbos.length) {
+            dropped++;
+            return false;
+        }
+        final int slot = (head + pending) % pbos.length;
+        final int size = YuvConverter.getStride(width) * YuvConverter.getRows(height);
+
+        //不改变渲染线程的状态
+        GLES20.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, values, 0);
+        int boundFramebuffer = values[0];
+        GLES20.glGetIntegerv(GLES20.GL_CURRENT_PROGRAM, values, 1);
+        int boundProgram = values[1];
+        GLES20.glGetIntegerv(GLES20.GL_ACTIVE_TEXTURE, values, 2);
+        int activeTexture = values[2];
+        //转换时绑定纹理单元0
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glGetIntegerv(GLES20.GL_TEXTURE_BINDING_2D, values, 3);
+        int boundTexture = values[3];
+        GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, viewport, 0);
+
+        converter.convert(textureId, width, height);
+        final int readWidth = YuvConverter.getStride(width) / 4;
+        final int readHeight = YuvConverter.getRows(height);
+        if (pboSupported) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbos[slot]);
+            if (pboSizes[slot] < size) {
+                GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+                pboSizes[slot] = size;
+            }
+            //数据写入PBO，调用立即返回
+            GLES30.glReadPixels(0, 0, readWidth, readHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            fences[slot] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            //栅栏需要提交给GPU，否则poll时永远等不到
+            GLES20.glFlush();
+        } else {
+            if (cpuBuffers[slot] == null || cpuBuffers[slot].capacity() < size) {
+                cpuBuffers[slot] = ByteBuffer.allocateDirect(size);
+            }
+            cpuBuffers[slot].clear();
+            GLES20.glReadPixels(0, 0, readWidth, readHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE,
+                    cpuBuffers[slot]);
+        }
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, boundFramebuffer);
+        GLES20.glUseProgram(boundProgram);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, boundTexture);
+        GLES20.glActiveTexture(activeTexture);
+        GLES20.glViewport(viewport[0], viewport[1], viewport[2], viewport[3]);
+        GLESUtil.checkGlError("YuvReadbackRing.submit");
+
+        widths[slot] = width;
+        heights[slot] = height;
+        timestampsNs[slot] = timestampNs;
+        pending++;
+        submitted++;
+        return true;
+    }
+
+    /**
+     * 取出最早的一帧，GPU还没有完成时返回null，不等待
+     *
+     * @return 由调用者release
+     */
+    public VideoFrame poll() {
+        return poll(0);
+    }
+
+    /**
+     * 取出最早的一帧，停止录制时用来等待最后几帧读回完成
+     *
+     * @param timeoutNs GPU还没有完成时最多等待的时间
+     * @return 超时或者没有帧时返回null，由调用者release
+     */
+    public VideoFrame poll(long timeoutNs) {
+        if (pending == 0) {
+            return null;
+        }
+        final int slot = head;
+        if (pboSupported && !isComplete(fences[slot], timeoutNs)) {
+            notReady++;
+            return null;
+        }
+        final long start = System.nanoTime();
+        final int width = widths[slot];
+        final int height = heights[slot];
+        final int size = YuvConverter.getStride(width) * YuvConverter.getRows(height);
+        PooledI420Buffer buffer = pool.acquire(width, height);
+        if (pboSupported) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbos[slot]);
+            ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER,
+                    0, size, GLES30.GL_MAP_READ_BIT);
+            if (mapped != null) {
+                copyPlanes(mapped, buffer, width, height);
+                GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            GLES30.glDeleteSync(fences[slot]);
+            fences[slot] = 0;
+            if (mapped == null) {
+                ELog.e(TAG, "glMapBufferRange failed: 0x" + Integer.toHexString(GLES20.glGetError()));
+                buffer.release();
+                freeHead();
+                dropped++;
+                return null;
+            }
+        } else {
+            copyPlanes(cpuBuffers[slot], buffer, width, height);
+        }
+        freeHead();
+        copyNs += System.nanoTime() - start;
+        delivered++;
+        return new VideoFrame(buffer, 0, timestampsNs[slot]);
+    }
+
+    /**
+     * @return 栅栏之前的命令是否已经完成，等待失败时也返回true，由映射PBO完成隐式同步
+     */
+    private static boolean isComplete(long fence, long timeoutNs) {
+        if (fence == 0) {
+            return true;
+        }
+        int status = GLES30.glClientWaitSync(fence, 0, timeoutNs);
+        return status != GLES30.GL_TIMEOUT_EXPIRED;
+    }
+
+    /**
+     * @return 当前上下文是否是创建GL对象的上下文
+     */
+    private boolean isOwnerCurrent() {
+        return ownerContext != null && ownerContext.equals(EGL14.eglGetCurrentContext());
+    }
+
+    private void freeHead() {
+        head = (head + 1) % pbos.length;
+        pending--;
+    }
+
+    /**
+     * 读回的每一行{@link YuvConverter#getStride(int)}字节，Y在前，U、V各占后面每行的一半
+     */
+    static void copyPlanes(ByteBuffer src, PooledI420Buffer dst, int width, int height) {
+        final int stride = YuvConverter.getStride(width);
+        final int chromaWidth = (width + 1) / 2;
+        final int chromaHeight = (height + 1) / 2;
+        ByteBuffer in = src.duplicate();
+        copyPlane(in, 0, stride, dst.getDataY(), dst.getStrideY(), width, height);
+        copyPlane(in, stride * height, stride, dst.getDataU(), dst.getStrideU(), chromaWidth, chromaHeight);
+        copyPlane(in, stride * height + stride / 2, stride, dst.getDataV(), dst.getStrideV(),
+                chromaWidth, chromaHeight);
+    }
+
+    private static void copyPlane(ByteBuffer in, int srcOffset, int srcStride,
+                                  ByteBuffer out, int dstStride, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            in.limit(srcOffset + y * srcStride + width);
+            in.position(srcOffset + y * srcStride);
+            out.position(y * dstStride);
+            out.put(in);
+        }
+        in.clear();
+    }
+
+    /**
+     * 丢弃还没有输出的帧，开始新的录制时调用，避免上一次录制的帧混入
+     */
+    public void discardPending() {
+        final boolean ownerCurrent = isOwnerCurrent();
+        while (pending > 0) {
+            if (fences[head] != 0 && ownerCurrent) {
+                GLES30.glDeleteSync(fences[head]);
+            }
+            fences[head] = 0;
+            freeHead();
+        }
+        head = 0;
+    }
+
+    /**
+     * 释放所有GL资源，之后还可以继续使用。当前上下文不是创建时的上下文时只丢弃编号
+     */
+    public void release() {
+        if (!initialized) {
+            return;
+        }
+        final boolean ownerCurrent = isOwnerCurrent();
+        discardPending();
+        if (pboSupported && ownerCurrent) {
+            GLES30.glDeleteBuffers(pbos.length, pbos, 0);
+        }
+        for (int i = 0; i < pbos.length; i++) {
+            pbos[i] = 0;
+            pboSizes[i] = 0;
+            cpuBuffers[i] = null;
+        }
+        if (ownerCurrent) {
+            converter.release();
+        }
+        converter = null;
+        ownerContext = null;
+        pool.clear();
+        initialized = false;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * @return 没有空闲的槽位而丢弃的帧数
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    @Override
+    public String toString() {
+        return "YuvReadbackRing{" +
+                "slots=" + pbos.length +
+                ", pbo=" + pboSupported +
+                ", submitted=" + submitted +
+                ", delivered=" + delivered +
+                ", dropped=" + dropped +
+                ", notReady=" + notReady +
+                ", avgCopyUs=" + (delivered > 0 ? copyNs / 1000 / delivered : 0) +
+                ", " + pool +
+                '}';
+    }
+}
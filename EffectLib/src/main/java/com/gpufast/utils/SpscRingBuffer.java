@@ -0,0 +1,170 @@
+package com.gpufast.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer/single-consumer ring buffer.
+ * <p>
+ * {@link #offer(Object)} and {@link #poll()} are wait-free and allocation-free. Exactly one thread may
+ * offer and exactly one thread may poll. The consumer can block in {@link #take(long, TimeUnit)}, in
+ * which case it is parked and woken by the producer, so no Looper or lock is involved. Plain JVM code,
+ * no Android dependency.
+ */
+public class SpscRingBuffer<E> {
+
+    private final Object[] slots;
+    private final int mask;
+
+    // Next slot to read; written only by the consumer.
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to write; written only by the producer.
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile Thread parkedConsumer;
+
+    private final AtomicLong offeredCount = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+    private volatile int peakDepth;
+
+    /**
+     * @param capacity requested capacity, rounded up to the next power of two
+     */
+    public SpscRingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        slots = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Producer side. Never blocks.
+     *
+     * @return false if the ring is full; the element is not enqueued and the overflow counter is bumped
+     */
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException("element");
+        }
+        final long t = tail.get();
+        final long depth = t - head.get();
+        if (depth >= slots.length) {
+            overflowCount.incrementAndGet();
+            return false;
+        }
+        slots[(int) t & mask] = element;
+        // Volatile store publishes the slot and orders it before the parkedConsumer read below, so a
+        // consumer that is about to park either sees the new tail or gets unparked.
+        tail.set(t + 1);
+        offeredCount.incrementAndGet();
+        if (depth + 1 > peakDepth) {
+            peakDepth = (int) (depth + 1);
+        }
+        Thread consumer = parkedConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Consumer side. Never blocks.
+     *
+     * @return the oldest element, or null if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        final long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        final int index = (int) h & mask;
+        E element = (E) slots[index];
+        slots[index] = null;
+        head.lazySet(h + 1);
+        return element;
+    }
+
+    /**
+     * Consumer side. Parks the calling thread until an element arrives, {@link #wakeUp()} is called or the
+     * timeout elapses.
+     *
+     * @return the oldest element, or null on timeout / wake-up
+     */
+    public E take(long timeout, TimeUnit unit) {
+        E element = poll();
+        if (element != null) {
+            return element;
+        }
+        parkedConsumer = Thread.currentThread();
+        try {
+            // Re-check after publishing the parked thread so an offer racing with us is not missed.
+            element = poll();
+            if (element == null) {
+                LockSupport.parkNanos(this, unit.toNanos(timeout));
+                element = poll();
+            }
+        } finally {
+            parkedConsumer = null;
+        }
+        return element;
+    }
+
+    /**
+     * Wakes a consumer parked in {@link #take(long, TimeUnit)}, e.g. to let it observe a stop request.
+     */
+    public void wakeUp() {
+        Thread consumer = parkedConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return current number of queued elements; exact only when called from the producer or consumer
+     */
+    public int size() {
+        long depth = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(depth, slots.length));
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    public int getPeakDepth() {
+        return peakDepth;
+    }
+
+    public long getOfferedCount() {
+        return offeredCount.get();
+    }
+
+    /**
+     * @return number of offers rejected because the ring was full
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SpscRingBuffer{" +
+                "capacity=" + slots.length +
+                ", depth=" + size() +
+                ", peakDepth=" + peakDepth +
+                ", offered=" + getOfferedCount() +
+                ", overflow=" + getOverflowCount() +
+                '}';
+    }
+}
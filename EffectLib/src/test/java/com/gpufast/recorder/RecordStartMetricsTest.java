@@ -0,0 +1,97 @@
+package com.gpufast.recorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 用假时钟驱动{@link RecordStartMetrics}，检查被忽略的开始录制请求不影响计时
+ */
+public class RecordStartMetricsTest {
+
+    private static final long MS = 1000000L;
+
+    private final FakeClockMetrics metrics = new FakeClockMetrics();
+
+    @Test
+    public void measuresFromRequest() {
+        metrics.markRequested();
+        metrics.nowNs = 20 * MS;
+        metrics.markStarting();
+        metrics.nowNs = 50 * MS;
+        metrics.markClientsReady(true, false, false);
+        metrics.nowNs = 80 * MS;
+        metrics.markFirstVideoFrame();
+        assertEquals(50, metrics.getLastReadyMs());
+        assertEquals(80, metrics.getLastFirstFrameMs());
+        assertEquals(1, metrics.getSessions());
+        assertEquals(1, metrics.getWarmSessions());
+    }
+
+    @Test
+    public void rejectedStartIsNotUsedByNextSession() {
+        recordSession(0);
+        //录制中再次请求开始，被忽略
+        metrics.nowNs = 1000 * MS;
+        metrics.markRequested();
+        metrics.markRejected();
+        assertEquals(1, metrics.getRejected());
+
+        //下一次开始没有经过markRequested，从开始时计时
+        metrics.nowNs = 5000 * MS;
+        metrics.markStarting();
+        metrics.nowNs = 5030 * MS;
+        metrics.markFirstVideoFrame();
+        assertEquals(30, metrics.getLastFirstFrameMs());
+        assertEquals(2, metrics.getSessions());
+    }
+
+    @Test
+    public void rejectedStartDoesNotDisturbPendingFirstFrame() {
+        metrics.markRequested();
+        metrics.markStarting();
+        metrics.markClientsReady(false, false, false);
+        //第一帧写入之前再次请求开始
+        metrics.nowNs = 10 * MS;
+        metrics.markRequested();
+        metrics.markRejected();
+        metrics.nowNs = 40 * MS;
+        metrics.markFirstVideoFrame();
+        assertEquals(40, metrics.getLastFirstFrameMs());
+        assertEquals(1, metrics.getSessions());
+    }
+
+    @Test
+    public void abandonedSessionIsNotCounted() {
+        //没有视频编码，不会有第一帧
+        metrics.markRequested();
+        metrics.markStarting();
+        metrics.markClientsReady(false, true, false);
+        metrics.markAbandoned();
+        metrics.nowNs = 3000 * MS;
+        metrics.markFirstVideoFrame();
+        assertEquals(-1, metrics.getLastFirstFrameMs());
+        assertEquals(0, metrics.getSessions());
+
+        recordSession(4000 * MS);
+        assertEquals(25, metrics.getLastFirstFrameMs());
+    }
+
+    private void recordSession(long startNs) {
+        metrics.nowNs = startNs;
+        metrics.markRequested();
+        metrics.markStarting();
+        metrics.markClientsReady(false, false, false);
+        metrics.nowNs = startNs + 25 * MS;
+        metrics.markFirstVideoFrame();
+    }
+
+    private static class FakeClockMetrics extends RecordStartMetrics {
+        long nowNs;
+
+        @Override
+        long nowNs() {
+            return nowNs;
+        }
+    }
+}
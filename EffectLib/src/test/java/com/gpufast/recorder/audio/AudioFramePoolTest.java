@@ -0,0 +1,118 @@
+package com.gpufast.recorder.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * {@link AudioFramePool}的借出、归还和耗尽统计
+ */
+public class AudioFramePoolTest {
+
+    @Test
+    public void acquireResetsFrameAndReleaseReturnsIt() {
+        AudioFramePool pool = new AudioFramePool(2, 4096);
+        AudioFrame frame = pool.acquire();
+        assertNotNull(frame);
+        assertEquals(4096, frame.buf.capacity());
+        assertEquals(1, pool.getAvailableCount());
+        frame.buf.position(100);
+        frame.len = 100;
+        frame.timeStamp_us = 5000;
+        frame.release();
+        assertEquals(2, pool.getAvailableCount());
+
+        //同一个帧再次借出时状态被重置
+        AudioFrame second = pool.acquire();
+        AudioFrame third = pool.acquire();
+        AudioFrame reused = second == frame ? second : third;
+        assertSame(frame, reused);
+        assertEquals(0, reused.buf.position());
+        assertEquals(0, reused.len);
+        assertEquals(0, reused.timeStamp_us);
+        assertEquals(3, pool.getAcquiredCount());
+        assertEquals(2, pool.getPeakInUse());
+    }
+
+    @Test
+    public void doubleReleaseIsNoOp() {
+        AudioFramePool pool = new AudioFramePool(2, 1024);
+        AudioFrame frame = pool.acquire();
+        frame.release();
+        frame.release();
+        assertEquals(2, pool.getAvailableCount());
+        //帧只在空闲队列中出现一次
+        AudioFrame a = pool.acquire();
+        AudioFrame b = pool.acquire();
+        assertNotNull(a);
+        assertNotNull(b);
+        assertNotSame(a, b);
+        assertNull(pool.acquire());
+    }
+
+    @Test
+    public void concurrentReleaseRecyclesOnce() throws InterruptedException {
+        final AudioFramePool pool = new AudioFramePool(1, 64);
+        for (int i = 0; i < 2000; i++) {
+            final AudioFrame frame = pool.acquire();
+            assertNotNull(frame);
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[2];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        frame.release();
+                    }
+                });
+                threads[t].start();
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join(1000);
+            }
+            assertEquals("round " + i, 1, pool.getAvailableCount());
+        }
+    }
+
+    @Test
+    public void emptyPoolReturnsNullAndCountsExhaustion() {
+        AudioFramePool pool = new AudioFramePool(2, 1024);
+        AudioFrame a = pool.acquire();
+        AudioFrame b = pool.acquire();
+        assertNull(pool.acquire());
+        assertNull(pool.acquire());
+        assertEquals(2, pool.getExhaustedCount());
+        assertEquals(0, pool.getAvailableCount());
+        a.release();
+        assertNotNull(pool.acquire());
+        b.release();
+        assertEquals(2, pool.getExhaustedCount());
+        assertEquals(3, pool.getAcquiredCount());
+    }
+
+    @Test
+    public void unpooledFrameReleaseIsIgnored() {
+        AudioFrame frame = new AudioFrame(ByteBuffer.allocate(16), 16, 0);
+        frame.release();
+        frame.release();
+        assertEquals(16, frame.len);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyPool() {
+        new AudioFramePool(0, 1024);
+    }
+}
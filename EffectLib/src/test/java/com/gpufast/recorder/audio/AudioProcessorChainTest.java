@@ -0,0 +1,154 @@
+package com.gpufast.recorder.audio;
+
+import android.media.AudioFormat;
+
+import com.gpufast.recorder.audio.processor.ChannelMixer;
+import com.gpufast.recorder.audio.processor.GainProcessor;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AudioProcessorChainTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    //每帧10ms
+    private static final int FRAMES = 480;
+
+    @Test
+    public void processesPooledFrameInPlace() {
+        AudioProcessorChain chain = newChain(1);
+        final ShortBuffer[] seen = new ShortBuffer[1];
+        chain.add(new GainProcessor(2f));
+        chain.add(new AudioProcessor() {
+            @Override
+            public void process(PcmBuffer buffer) {
+                seen[0] = buffer.data;
+            }
+        });
+        AudioFrame frame = newFrame(1, FRAMES);
+        fill(frame, FRAMES, 1000);
+
+        assertTrue(chain.process(frame));
+        //处理器拿到的就是帧本身的视图
+        assertSame(frame.asShortBuffer(), seen[0]);
+        ShortBuffer out = samples(frame);
+        assertEquals(FRAMES, out.remaining());
+        for (int i = 0; i < FRAMES; i++) {
+            assertEquals(2 * (1000 + i), out.get(i));
+        }
+        assertEquals(1, chain.getProcessedFrames());
+        assertEquals(0, chain.getSpareCopies());
+    }
+
+    @Test
+    public void upmixWithinFrameCapacityDoesNotCopy() {
+        AudioProcessorChain chain = newChain(2);
+        chain.add(new ChannelMixer(1));
+        chain.add(new ChannelMixer(2));
+        AudioFrame frame = newFrame(2, FRAMES);
+        ShortBuffer view = frame.asShortBuffer();
+        for (int i = 0; i < FRAMES; i++) {
+            view.put(2 * i, (short) 100);
+            view.put(2 * i + 1, (short) 300);
+        }
+        frame.len = FRAMES * 2 * 2;
+
+        assertTrue(chain.process(frame));
+        ShortBuffer out = samples(frame);
+        assertEquals(FRAMES * 2, out.remaining());
+        for (int i = 0; i < FRAMES * 2; i++) {
+            assertEquals(200, out.get(i));
+        }
+        assertEquals(0, chain.getSpareCopies());
+    }
+
+    @Test
+    public void upmixBeyondFrameCapacityCopiesOnce() {
+        AudioProcessorChain chain = newChain(1);
+        chain.add(new ChannelMixer(2));
+        chain.add(new GainProcessor(0.5f));
+        chain.add(new ChannelMixer(1));
+        AudioFrame frame = newFrame(1, FRAMES);
+        fill(frame, FRAMES, -2000);
+
+        assertTrue(chain.process(frame));
+        ShortBuffer out = samples(frame);
+        assertEquals(FRAMES, out.remaining());
+        for (int i = 0; i < FRAMES; i++) {
+            assertEquals((-2000 + i) >> 1, out.get(i));
+        }
+        assertEquals(1, chain.getSpareCopies());
+        assertEquals(1, chain.getProcessedFrames());
+    }
+
+    @Test
+    public void wrongOutputChannelsKeepsFrame() {
+        AudioProcessorChain chain = newChain(1);
+        chain.add(new ChannelMixer(2));
+        AudioFrame frame = newFrame(1, FRAMES);
+        fill(frame, FRAMES, 0);
+
+        assertTrue(chain.process(frame));
+        assertEquals(FRAMES * 2, frame.len);
+        ShortBuffer out = samples(frame);
+        for (int i = 0; i < FRAMES; i++) {
+            assertEquals(i, out.get(i));
+        }
+        assertEquals(1, chain.getRejectedFrames());
+    }
+
+    @Test
+    public void discardAndBypass() {
+        AudioProcessorChain chain = newChain(1);
+        AudioFrame frame = newFrame(1, FRAMES);
+        fill(frame, FRAMES, 0);
+        assertTrue(chain.process(frame));
+        assertEquals(1, chain.getBypassedFrames());
+
+        AudioProcessor drop = new AudioProcessor() {
+            @Override
+            public void process(PcmBuffer buffer) {
+                buffer.discard = true;
+            }
+        };
+        chain.add(drop);
+        assertFalse(chain.add(drop));
+        assertFalse(chain.process(frame));
+        assertEquals(1, chain.getDiscardedFrames());
+        assertTrue(chain.remove(drop));
+        assertEquals(0, chain.size());
+    }
+
+    private static AudioProcessorChain newChain(int channels) {
+        AudioProcessorChain chain = new AudioProcessorChain();
+        chain.prepare(new AudioSetting(SAMPLE_RATE, 64000, channels, AudioFormat.ENCODING_PCM_16BIT),
+                FRAMES * channels * 2);
+        return chain;
+    }
+
+    private static AudioFrame newFrame(int channels, int frames) {
+        AudioFrame frame = new AudioFramePool(1, frames * channels * 2).acquire();
+        return frame;
+    }
+
+    private static void fill(AudioFrame frame, int frames, int base) {
+        ShortBuffer view = frame.asShortBuffer();
+        for (int i = 0; i < frames; i++) {
+            view.put(i, (short) (base + i));
+        }
+        frame.len = frames * 2;
+    }
+
+    private static ShortBuffer samples(AudioFrame frame) {
+        ShortBuffer view = frame.asShortBuffer().duplicate();
+        view.clear();
+        view.limit(frame.len / 2);
+        return view;
+    }
+}
@@ -0,0 +1,93 @@
+package com.gpufast.recorder.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AudioTimestamperTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    //单声道16位
+    private static final int BYTES_PER_FRAME = 2;
+    //每次读取10ms
+    private static final int READ_BYTES = 480 * BYTES_PER_FRAME;
+    private static final long READ_NS = 10000000L;
+    private static final long READ_US = 10000L;
+    private static final double MAX_SLEW_STEP_US = READ_US * AudioTimestamper.MAX_SLEW_PPM / 1e6;
+
+    @Test
+    public void timestampsFollowSampleCount() {
+        AudioTimestamper timestamper = new AudioTimestamper(SAMPLE_RATE, BYTES_PER_FRAME);
+        timestamper.start(0);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i * READ_US, timestamper.onRead(READ_BYTES, (i + 1) * READ_NS));
+        }
+        assertEquals(0, timestamper.getResyncCount());
+    }
+
+    @Test
+    public void singleLateReadingDoesNotResync() {
+        AudioTimestamper timestamper = new AudioTimestamper(SAMPLE_RATE, BYTES_PER_FRAME);
+        timestamper.start(0);
+        for (int i = 0; i < 100; i++) {
+            long nowNs = (i + 1) * READ_NS;
+            //读取返回后采集线程被抢占了300ms才取到时钟
+            if (i == 50) {
+                nowNs += 300000000L;
+            }
+            assertEquals("read " + i, i * READ_US, timestamper.onRead(READ_BYTES, nowNs));
+        }
+        assertEquals(0, timestamper.getResyncCount());
+        assertEquals(1, timestamper.getDriftSpikes());
+    }
+
+    @Test
+    public void catchUpAfterStallDoesNotResync() {
+        AudioTimestamper timestamper = new AudioTimestamper(SAMPLE_RATE, BYTES_PER_FRAME);
+        timestamper.start(0);
+        long clockNs = 0;
+        long lastPts = -1;
+        for (int i = 0; i < 100; i++) {
+            long dueNs = (i + 1) * READ_NS;
+            //采集线程停顿250ms，之后的读取立即返回缓存中的数据，直到追上实时
+            clockNs = i == 50 ? dueNs + 250000000L : Math.max(dueNs, clockNs);
+            long pts = timestamper.onRead(READ_BYTES, clockNs);
+            //追赶期间漂移回到阈值以下后只做限速的平滑修正，不会跳变
+            if (lastPts >= 0) {
+                assertEquals("read " + i, READ_US, pts - lastPts, MAX_SLEW_STEP_US);
+            }
+            lastPts = pts;
+        }
+        assertEquals(0, timestamper.getResyncCount());
+        assertTrue(timestamper.getDriftSpikes() > 1);
+    }
+
+    @Test
+    public void sustainedLossResyncsByTheLostDuration() {
+        AudioTimestamper timestamper = new AudioTimestamper(SAMPLE_RATE, BYTES_PER_FRAME);
+        timestamper.start(0);
+        long nowNs = 0;
+        for (int i = 0; i < 20; i++) {
+            nowNs += READ_NS;
+            timestamper.onRead(READ_BYTES, nowNs);
+        }
+        //采集丢失了500ms的数据，确认期间时间戳仍然按采样数连续
+        nowNs += 500000000L;
+        long lastPts = -1;
+        int reads = 0;
+        while (timestamper.getResyncCount() == 0) {
+            nowNs += READ_NS;
+            long pts = timestamper.onRead(READ_BYTES, nowNs);
+            if (lastPts >= 0 && timestamper.getResyncCount() == 0) {
+                assertEquals(READ_US, pts - lastPts);
+            }
+            lastPts = pts;
+            reads++;
+            assertTrue(reads <= AudioTimestamper.RESYNC_CONFIRM_US / READ_US);
+        }
+        //重新同步后的时间戳与系统时钟一致
+        nowNs += READ_NS;
+        assertEquals(nowNs / 1000 - READ_US, timestamper.onRead(READ_BYTES, nowNs));
+    }
+}
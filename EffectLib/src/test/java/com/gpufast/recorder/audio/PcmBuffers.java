@@ -0,0 +1,21 @@
+package com.gpufast.recorder.audio;
+
+import java.nio.ShortBuffer;
+
+/**
+ * 其他包的测试构造{@link PcmBuffer}
+ */
+public final class PcmBuffers {
+
+    private PcmBuffers() {
+    }
+
+    /**
+     * @return 直接指向samples的buffer，处理器原地修改samples
+     */
+    public static PcmBuffer wrap(short[] samples, int channels, int sampleRate) {
+        PcmBuffer buffer = new PcmBuffer(0, sampleRate);
+        buffer.wrap(ShortBuffer.wrap(samples), samples.length / channels, channels, 0);
+        return buffer;
+    }
+}
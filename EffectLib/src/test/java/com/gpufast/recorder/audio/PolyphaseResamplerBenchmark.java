@@ -0,0 +1,73 @@
+package com.gpufast.recorder.audio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PolyphaseResampler}处理10ms双声道输入的耗时，背景音乐预读线程按这个粒度重采样
+ * <p>
+ * 在JVM上运行：先编译测试源码（./gradlew :effectlib:compileDebugUnitTestJavaWithJavac），
+ * 再以测试classpath运行本类的main
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolyphaseResamplerBenchmark {
+
+    @Param({"44100:48000", "48000:16000", "16000:48000"})
+    public String rates;
+
+    @Param({"FAST", "HIGH"})
+    public PolyphaseResampler.Quality quality;
+
+    private static final int CHANNELS = 2;
+
+    private PolyphaseResampler resampler;
+    private short[] input;
+    private short[] output;
+    private int inFrames;
+
+    @Setup
+    public void setup() {
+        String[] parts = rates.split(":");
+        int inRate = Integer.parseInt(parts[0]);
+        int outRate = Integer.parseInt(parts[1]);
+        resampler = new PolyphaseResampler(inRate, outRate, CHANNELS, quality);
+        inFrames = inRate / 100;
+        input = new short[inFrames * CHANNELS];
+        Random random = new Random(3);
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (short) (random.nextGaussian() * 4000);
+        }
+        output = new short[resampler.getMaxOutputFrames(inFrames) * CHANNELS];
+    }
+
+    @Benchmark
+    public int resample10ms() {
+        return resampler.resample(input, 0, inFrames, output, 0, output.length / CHANNELS);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PolyphaseResamplerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,148 @@
+package com.gpufast.recorder.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用已知的正弦输入检查{@link PolyphaseResampler}的通带精度、阻带衰减、时间对齐和分段送入
+ */
+public class PolyphaseResamplerTest {
+
+    private static final double AMPLITUDE = 16000;
+    //跳过两端，避开起始的静音填充和末尾尚未输出的半个滤波器
+    private static final int EDGE = 200;
+
+    @Test
+    public void passbandSineIsReproduced() {
+        int[][] rates = {{44100, 48000}, {48000, 44100}, {48000, 16000}, {16000, 48000}};
+        for (int[] r : rates) {
+            assertTrue(snrDb(r[0], r[1], PolyphaseResampler.Quality.FAST) > 55);
+            assertTrue(snrDb(r[0], r[1], PolyphaseResampler.Quality.HIGH) > 80);
+        }
+    }
+
+    @Test
+    public void stopbandToneIsRejected() {
+        //48kHz降到16kHz，12kHz的输入高于输出的奈奎斯特频率，必须被滤掉
+        assertTrue(attenuationDb(PolyphaseResampler.Quality.FAST) > 50);
+        assertTrue(attenuationDb(PolyphaseResampler.Quality.HIGH) > 80);
+    }
+
+    @Test
+    public void dcGainIsExact() {
+        PolyphaseResampler resampler = new PolyphaseResampler(44100, 48000, 2, PolyphaseResampler.Quality.FAST);
+        short[] in = new short[4410 * 2];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (short) (i % 2 == 0 ? 10000 : -20000);
+        }
+        short[] out = new short[resampler.getMaxOutputFrames(4410) * 2];
+        int n = resampler.resample(in, 0, 4410, out, 0, out.length / 2);
+        for (int i = EDGE; i < n; i++) {
+            assertEquals(10000, out[2 * i]);
+            assertEquals(-20000, out[2 * i + 1]);
+        }
+    }
+
+    @Test
+    public void outputLengthFollowsRateRatio() {
+        PolyphaseResampler resampler = new PolyphaseResampler(44100, 48000, 1, PolyphaseResampler.Quality.HIGH);
+        short[] in = new short[441];
+        short[] out = new short[resampler.getMaxOutputFrames(in.length) * 2];
+        long produced = 0;
+        for (int i = 0; i < 100; i++) {
+            produced += resampler.resample(in, 0, in.length, out, 0, out.length);
+        }
+        //1秒的输入，缺少的只有还在滤波器中的约半个滤波器长度
+        assertTrue("produced=" + produced, produced <= 48000 && produced >= 48000 - resampler.getTaps());
+    }
+
+    @Test
+    public void chunkedInputMatchesSingleCall() {
+        short[] in = sine(48000, 44100, 1000, 2);
+        PolyphaseResampler whole = new PolyphaseResampler(48000, 44100, 2, PolyphaseResampler.Quality.FAST);
+        short[] expected = new short[whole.getMaxOutputFrames(48000) * 2];
+        int expectedFrames = whole.resample(in, 0, 48000, expected, 0, expected.length / 2);
+
+        PolyphaseResampler chunked = new PolyphaseResampler(48000, 44100, 2, PolyphaseResampler.Quality.FAST);
+        short[] actual = new short[expected.length];
+        int frames = 0;
+        int offset = 0;
+        int[] sizes = {1, 7, 480, 1024, 333};
+        for (int i = 0; offset < 48000; i++) {
+            int n = Math.min(sizes[i % sizes.length], 48000 - offset);
+            //输出容量故意给小，剩余的数据要在下一次调用时继续输出
+            frames += chunked.resample(in, offset * 2, n, actual, frames * 2, Math.min(64, actual.length / 2 - frames));
+            offset += n;
+        }
+        while (true) {
+            int n = chunked.resample(in, 0, 0, actual, frames * 2, actual.length / 2 - frames);
+            if (n == 0) {
+                break;
+            }
+            frames += n;
+        }
+        assertEquals(expectedFrames, frames);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void floatPathMatchesReference() {
+        PolyphaseResampler resampler = new PolyphaseResampler(16000, 48000, 1, PolyphaseResampler.Quality.HIGH);
+        float[] in = new float[16000];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (float) Math.sin(2 * Math.PI * 440 * i / 16000);
+        }
+        float[] out = new float[resampler.getMaxOutputFrames(in.length)];
+        int n = resampler.resample(in, 0, in.length, out, 0, out.length);
+        for (int i = EDGE; i < n - EDGE; i++) {
+            assertEquals("i=" + i, Math.sin(2 * Math.PI * 440 * i / 48000), out[i], 1e-3);
+        }
+    }
+
+    private static double snrDb(int inRate, int outRate, PolyphaseResampler.Quality quality) {
+        final double freq = 1000;
+        short[] in = sine(inRate, inRate, freq, 1);
+        PolyphaseResampler resampler = new PolyphaseResampler(inRate, outRate, 1, quality);
+        short[] out = new short[resampler.getMaxOutputFrames(in.length)];
+        int n = resampler.resample(in, 0, in.length, out, 0, out.length);
+        double signal = 0;
+        double noise = 0;
+        for (int i = EDGE; i < n - EDGE; i++) {
+            //输出与输入时间对齐，第i个输出对应时刻i/outRate
+            double ref = AMPLITUDE * Math.sin(2 * Math.PI * freq * i / outRate);
+            signal += ref * ref;
+            noise += (ref - out[i]) * (ref - out[i]);
+        }
+        return 10 * Math.log10(signal / noise);
+    }
+
+    private static double attenuationDb(PolyphaseResampler.Quality quality) {
+        short[] in = sine(48000, 48000, 12000, 1);
+        PolyphaseResampler resampler = new PolyphaseResampler(48000, 16000, 1, quality);
+        short[] out = new short[resampler.getMaxOutputFrames(in.length)];
+        int n = resampler.resample(in, 0, in.length, out, 0, out.length);
+        double power = 0;
+        for (int i = EDGE; i < n - EDGE; i++) {
+            power += out[i] * (double) out[i];
+        }
+        power /= n - 2 * EDGE;
+        return power == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(AMPLITUDE * AMPLITUDE / 2 / power);
+    }
+
+    /**
+     * @return length帧的交织正弦，所有声道相同
+     */
+    private static short[] sine(int length, int sampleRate, double freq, int channels) {
+        short[] pcm = new short[length * channels];
+        for (int i = 0; i < length; i++) {
+            short s = (short) Math.round(AMPLITUDE * Math.sin(2 * Math.PI * freq * i / sampleRate));
+            for (int c = 0; c < channels; c++) {
+                pcm[i * channels + c] = s;
+            }
+        }
+        return pcm;
+    }
+}
@@ -0,0 +1,108 @@
+package com.gpufast.recorder.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link WsolaTimeStretcher}的输出时长、片段拼接处的连续性和音调
+ */
+public class WsolaTimeStretcherTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final double FREQ = 440;
+    private static final double AMPLITUDE = 16000;
+    private static final float[] SPEEDS = {0.5f, 0.75f, 1.25f, 1.5f, 2f};
+
+    @Test
+    public void outputLengthIsInputDividedBySpeed() {
+        int[] chunks = {1, 441, 480, 1024};
+        for (float speed : SPEEDS) {
+            for (int chunk : chunks) {
+                short[] out = stretch(sine(SAMPLE_RATE + 123, 1), 1, speed, chunk);
+                assertEquals("speed=" + speed + " chunk=" + chunk,
+                        Math.round((SAMPLE_RATE + 123) / (double) speed), out.length);
+            }
+        }
+    }
+
+    @Test
+    public void overlapBoundariesAreContinuous() {
+        //纯正弦相邻采样之差不会超过 A * 2π * f / fs，拼接处出现相位跳变时会超出
+        final double maxStep = AMPLITUDE * 2 * Math.PI * FREQ / SAMPLE_RATE + 2;
+        final int period = (int) Math.ceil(SAMPLE_RATE / FREQ);
+        for (float speed : SPEEDS) {
+            short[] out = stretch(sine(2 * SAMPLE_RATE, 1), 1, speed, 480);
+            //末尾是flush补的静音，不检查
+            int end = out.length - SAMPLE_RATE / 10;
+            for (int i = 0; i + 1 < end; i++) {
+                assertTrue("speed=" + speed + " i=" + i, Math.abs(out[i + 1] - out[i]) <= maxStep);
+            }
+            //交叉淡化的两段相位一致时幅度不会下陷
+            for (int start = 0; start + period < end; start += period / 2) {
+                int peak = 0;
+                for (int i = start; i < start + period; i++) {
+                    peak = Math.max(peak, Math.abs(out[i]));
+                }
+                assertTrue("speed=" + speed + " start=" + start, peak > AMPLITUDE * 0.98);
+            }
+        }
+    }
+
+    @Test
+    public void pitchIsPreserved() {
+        for (float speed : SPEEDS) {
+            short[] out = stretch(sine(2 * SAMPLE_RATE, 2), 2, speed, 480);
+            int frames = out.length / 2 - SAMPLE_RATE / 10;
+            int crossings = 0;
+            for (int i = 1; i < frames; i++) {
+                assertEquals(out[2 * i], out[2 * i + 1]);
+                if ((out[2 * (i - 1)] < 0) != (out[2 * i] < 0)) {
+                    crossings++;
+                }
+            }
+            double freq = crossings / 2.0 * SAMPLE_RATE / frames;
+            assertEquals("speed=" + speed, FREQ, freq, 2);
+        }
+    }
+
+    private static short[] stretch(short[] in, int channels, float speed, int chunk) {
+        int inFrames = in.length / channels;
+        WsolaTimeStretcher stretcher = new WsolaTimeStretcher(SAMPLE_RATE, channels, speed, chunk);
+        short[] out = new short[((int) (inFrames / speed) + SAMPLE_RATE) * channels];
+        int produced = 0;
+        int offset = 0;
+        while (offset < inFrames) {
+            offset += stretcher.put(in, offset * channels, Math.min(chunk, inFrames - offset));
+            produced = drain(stretcher, out, produced, channels);
+        }
+        while (!stretcher.isFinished()) {
+            stretcher.flush();
+            produced = drain(stretcher, out, produced, channels);
+        }
+        assertEquals(produced, stretcher.getProducedFrames());
+        short[] result = new short[produced * channels];
+        System.arraycopy(out, 0, result, 0, result.length);
+        return result;
+    }
+
+    private static int drain(WsolaTimeStretcher stretcher, short[] out, int produced, int channels) {
+        int n;
+        while ((n = stretcher.receive(out, produced * channels, out.length / channels - produced)) > 0) {
+            produced += n;
+        }
+        return produced;
+    }
+
+    private static short[] sine(int frames, int channels) {
+        short[] pcm = new short[frames * channels];
+        for (int i = 0; i < frames; i++) {
+            short s = (short) Math.round(AMPLITUDE * Math.sin(2 * Math.PI * FREQ * i / SAMPLE_RATE));
+            for (int c = 0; c < channels; c++) {
+                pcm[i * channels + c] = s;
+            }
+        }
+        return pcm;
+    }
+}
@@ -0,0 +1,88 @@
+package com.gpufast.recorder.audio.encoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AacLcEncoder}每帧的编码时间，一帧在48kHz下是21.3ms的音频，
+ * 平均时间远小于这个值才能在编码线程中实时编码
+ * <p>
+ * 在JVM上运行：先编译测试源码（./gradlew :effectlib:compileDebugUnitTestJavaWithJavac），
+ * 再以测试classpath运行本类的main
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AacLcEncoderBenchmark {
+
+    @Param({"1", "2"})
+    public int channels;
+
+    @Param({"64000", "128000"})
+    public int bitrate;
+
+    private static final int SAMPLE_RATE = 48000;
+    //循环送入的输入帧数，避免每次编码完全相同的数据
+    private static final int INPUT_FRAMES = 16;
+
+    private AacLcEncoder encoder;
+    private ByteBuffer pcm;
+    private ByteBuffer out;
+
+    @Setup
+    public void setup() {
+        encoder = new AacLcEncoder(SAMPLE_RATE, channels, bitrate);
+        out = ByteBuffer.allocate(encoder.getMaxFrameBytes());
+        //音乐的近似：几个谐波加上低电平噪声
+        pcm = ByteBuffer.allocate(INPUT_FRAMES * AacLcEncoder.FRAME_LENGTH * channels * 2)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        Random random = new Random(7);
+        for (int i = 0; i < INPUT_FRAMES * AacLcEncoder.FRAME_LENGTH; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            for (int ch = 0; ch < channels; ch++) {
+                double value = 0;
+                for (int h = 1; h <= 8; h++) {
+                    value += 6000 / h * Math.sin(2 * Math.PI * 220 * h * t + ch);
+                }
+                value += random.nextGaussian() * 200;
+                pcm.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value)));
+            }
+        }
+        pcm.clear();
+    }
+
+    @Benchmark
+    public int encodeFrame() {
+        if (!pcm.hasRemaining()) {
+            pcm.clear();
+        }
+        out.clear();
+        return encoder.encode(pcm, out);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AacLcEncoderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
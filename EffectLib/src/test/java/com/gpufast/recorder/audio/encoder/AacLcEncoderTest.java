@@ -0,0 +1,145 @@
+package com.gpufast.recorder.audio.encoder;
+
+import net.sourceforge.jaad.aac.Decoder;
+import net.sourceforge.jaad.aac.SampleBuffer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用JAAD解码{@link AacLcEncoder}的输出，检查码流合法、码率和重建质量
+ */
+public class AacLcEncoderTest {
+
+    private static final int FRAMES = 60;
+
+    @Test
+    public void mdctMatchesDefinition() {
+        AacMdct mdct = new AacMdct();
+        float[] input = new float[2048];
+        Random random = new Random(1);
+        for (int i = 0; i < input.length; i++) {
+            input[i] = random.nextFloat() * 2 - 1;
+        }
+        float[] out = new float[1024];
+        mdct.forward(input, out);
+        for (int k = 0; k < 1024; k++) {
+            double sum = 0;
+            for (int n = 0; n < 2048; n++) {
+                double window = Math.sin(Math.PI / 2048 * (n + 0.5));
+                sum += input[n] * window * Math.cos(2 * Math.PI / 2048 * (n + 512.5) * (k + 0.5));
+            }
+            assertEquals("k=" + k, 2 * sum, out[k], 1e-3);
+        }
+    }
+
+    @Test
+    public void audioSpecificConfig() {
+        //AAC-LC、48kHz(下标3)、双声道
+        assertArrayEquals(new byte[]{0x11, (byte) 0x90}, new AacLcEncoder(48000, 2, 128000).getAudioSpecificConfig());
+        //AAC-LC、44.1kHz(下标4)、单声道
+        assertArrayEquals(new byte[]{0x12, 0x08}, new AacLcEncoder(44100, 1, 64000).getAudioSpecificConfig());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonStandardSampleRate() {
+        new AacLcEncoder(45000, 1, 64000);
+    }
+
+    @Test
+    public void stereoRoundTrip() throws Exception {
+        assertRoundTrip(48000, 2, 128000, 25);
+    }
+
+    @Test
+    public void monoRoundTrip() throws Exception {
+        assertRoundTrip(44100, 1, 64000, 25);
+        assertRoundTrip(16000, 1, 32000, 25);
+    }
+
+    @Test
+    public void silenceIsCheap() throws Exception {
+        AacLcEncoder encoder = new AacLcEncoder(48000, 2, 128000);
+        ByteBuffer pcm = ByteBuffer.allocate(AacLcEncoder.FRAME_LENGTH * 2 * 2);
+        ByteBuffer out = ByteBuffer.allocate(encoder.getMaxFrameBytes());
+        Decoder decoder = new Decoder(encoder.getAudioSpecificConfig());
+        SampleBuffer samples = new SampleBuffer();
+        for (int i = 0; i < 10; i++) {
+            pcm.clear();
+            out.clear();
+            int size = encoder.encode(pcm, out);
+            assertTrue("size=" + size, size < 16);
+            byte[] frame = new byte[size];
+            System.arraycopy(out.array(), 0, frame, 0, size);
+            decoder.decodeFrame(frame, samples);
+            for (byte b : samples.getData()) {
+                assertEquals(0, b);
+            }
+        }
+    }
+
+    /**
+     * 两个正弦波加扫频，编码后解码，和输入对齐（解码输出比输入晚一帧）后计算信噪比
+     */
+    private static void assertRoundTrip(int sampleRate, int channels, int bitrate, double minSnrDb)
+            throws Exception {
+        short[] pcm = new short[FRAMES * AacLcEncoder.FRAME_LENGTH * channels];
+        for (int i = 0; i < pcm.length / channels; i++) {
+            double t = (double) i / sampleRate;
+            for (int ch = 0; ch < channels; ch++) {
+                double value = 8000 * Math.sin(2 * Math.PI * 440 * t + ch)
+                        + 3000 * Math.sin(2 * Math.PI * 3000 * t)
+                        + 1500 * Math.sin(2 * Math.PI * (200 + 1000 * t) * t);
+                pcm[i * channels + ch] = (short) value;
+            }
+        }
+        ByteBuffer input = ByteBuffer.allocate(pcm.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        input.asShortBuffer().put(pcm);
+
+        AacLcEncoder encoder = new AacLcEncoder(sampleRate, channels, bitrate);
+        Decoder decoder = new Decoder(encoder.getAudioSpecificConfig());
+        SampleBuffer samples = new SampleBuffer();
+        samples.setBigEndian(false);
+        ByteBuffer out = ByteBuffer.allocate(encoder.getMaxFrameBytes());
+        short[] decoded = new short[pcm.length];
+        int decodedLength = 0;
+        long encodedBytes = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            out.clear();
+            int size = encoder.encode(input, out);
+            encodedBytes += size;
+            byte[] frame = new byte[size];
+            System.arraycopy(out.array(), 0, frame, 0, size);
+            decoder.decodeFrame(frame, samples);
+            assertEquals(sampleRate, samples.getSampleRate());
+            assertEquals(channels, samples.getChannels());
+            ByteBuffer data = ByteBuffer.wrap(samples.getData()).order(ByteOrder.LITTLE_ENDIAN);
+            while (data.remaining() >= 2) {
+                decoded[decodedLength++] = data.getShort();
+            }
+        }
+        assertEquals(pcm.length, decodedLength);
+
+        long actualBitrate = encodedBytes * 8 * sampleRate / ((long) FRAMES * AacLcEncoder.FRAME_LENGTH);
+        assertTrue("bitrate " + actualBitrate, actualBitrate <= bitrate * 1.05);
+
+        final int delay = AacLcEncoder.FRAME_LENGTH * channels;
+        double signal = 0;
+        double noise = 0;
+        for (int i = delay; i < pcm.length; i++) {
+            double x = pcm[i - delay];
+            double error = x - decoded[i];
+            signal += x * x;
+            noise += error * error;
+        }
+        double snr = 10 * Math.log10(signal / noise);
+        assertTrue(sampleRate + "Hz " + channels + "ch snr=" + snr, snr >= minSnrDb);
+    }
+}
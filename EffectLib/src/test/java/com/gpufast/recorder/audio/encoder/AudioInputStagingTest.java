@@ -0,0 +1,162 @@
+package com.gpufast.recorder.audio.encoder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link AudioInputStaging}按编码器帧长度拆分、时间戳推算、重新锚定和溢出丢弃
+ */
+public class AudioInputStagingTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHUNK = 1024;
+
+    //单声道16位，最多暂存4块
+    private final AudioInputStaging staging = new AudioInputStaging(SAMPLE_RATE, 1, 2, CHUNK, 4 * CHUNK * 2);
+    private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK * 2);
+    //下一次写入的第一个采样的序号，采样值等于序号
+    private int nextSample;
+
+    @Test
+    public void oddSizedWritesAreResplitIntoExactChunks() {
+        int[] writes = {300, 777, 1, 1500, 64, 2000};
+        int expectedFirst = 0;
+        for (int samples : writes) {
+            write(samples, 0);
+            while (staging.hasChunk()) {
+                chunk.clear();
+                staging.readChunk(chunk);
+                assertEquals(CHUNK * 2, chunk.position());
+                //采样连续，没有丢失和重复
+                for (int i = 0; i < CHUNK; i++) {
+                    assertEquals((short) (expectedFirst + i), chunk.getShort(2 * i));
+                }
+                expectedFirst += CHUNK;
+            }
+            assertTrue(staging.getStagedBytes() < CHUNK * 2);
+        }
+        assertEquals(4 * CHUNK, expectedFirst);
+        assertEquals(4, staging.getQueuedChunks());
+        assertEquals((4642 - 4 * CHUNK) * 2, staging.getStagedBytes());
+        assertEquals(0, staging.getDroppedChunks());
+    }
+
+    @Test
+    public void chunkPtsFollowsSampleCount() {
+        assertEquals(0, staging.nextChunkPtsUs());
+        //采集回调的时间戳和采样数一致，每段480个采样
+        long basePtsUs = 1000000;
+        int chunks = 0;
+        for (int i = 0; i < 20; i++) {
+            write(480, basePtsUs + i * 10000L);
+            while (staging.hasChunk()) {
+                assertEquals(basePtsUs + chunks * CHUNK * 1000000L / SAMPLE_RATE, readChunk(), 1);
+                chunks++;
+            }
+        }
+        assertEquals(9, chunks);
+    }
+
+    @Test
+    public void laterWriteWithGapReanchors() {
+        write(1500, 0);
+        assertEquals(0, readChunk());
+        //中间的数据被丢弃，下一段的时间戳跳到500ms，暂存区剩下的476个采样排在它前面
+        write(1024, 500000);
+        assertEquals(500000 - 476 * 1000000L / SAMPLE_RATE, readChunk(), 1);
+        //暂存区的数据跨过两次写入
+        write(500, 521333);
+        assertFalse(staging.hasChunk());
+        write(1024, 900000);
+        assertEquals(900000 - 976 * 1000000L / SAMPLE_RATE, readChunk(), 1);
+    }
+
+    @Test
+    public void ptsStaysMonotonicWhenTimestampsGoBack() {
+        write(CHUNK, 100000);
+        long last = readChunk();
+        //锚点回退到比上一块更早的时间
+        write(CHUNK, 50000);
+        long next = readChunk();
+        assertTrue(next + " <= " + last, next > last);
+        write(CHUNK, next);
+        long third = readChunk();
+        assertTrue(third + " <= " + next, third > next);
+        //回退结束后恢复按采样数推算
+        write(CHUNK, 1000000);
+        assertEquals(1000000, readChunk());
+    }
+
+    @Test
+    public void overflowDropsOldestChunksAndKeepsTimeline() {
+        //每段一块，写6块不读，最旧的2块被丢弃
+        for (int i = 0; i < 6; i++) {
+            write(CHUNK, i * CHUNK * 1000000L / SAMPLE_RATE);
+        }
+        assertEquals(2, staging.getDroppedChunks());
+        assertEquals(4 * CHUNK * 2, staging.getStagedBytes());
+        //留下的第一块是第3块，时间戳计入了丢弃的采样
+        long ptsUs = staging.nextChunkPtsUs();
+        chunk.clear();
+        staging.readChunk(chunk);
+        assertEquals((short) (2 * CHUNK), chunk.getShort(0));
+        assertEquals(2 * CHUNK * 1000000L / SAMPLE_RATE, ptsUs, 1);
+    }
+
+    @Test
+    public void writeLargerThanStagingKeepsNewestSamples() {
+        write(CHUNK / 2, 0);
+        write(10 * CHUNK, 10666);
+        assertEquals(4 * CHUNK * 2, staging.getStagedBytes());
+        assertTrue(staging.getDroppedChunks() >= 6);
+        long ptsUs = staging.nextChunkPtsUs();
+        chunk.clear();
+        staging.readChunk(chunk);
+        int first = CHUNK / 2 + 6 * CHUNK;
+        assertEquals((short) first, chunk.getShort(0));
+        assertEquals(10666 + 6 * CHUNK * 1000000L / SAMPLE_RATE, ptsUs, 1);
+    }
+
+    @Test
+    public void remainderIsReadAfterLastChunk() {
+        write(1500, 0);
+        try {
+            staging.readRemainder(ByteBuffer.allocate(CHUNK * 2));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        readChunk();
+        long ptsUs = staging.nextChunkPtsUs();
+        chunk.clear();
+        assertEquals(476 * 2, staging.readRemainder(chunk));
+        assertEquals((short) CHUNK, chunk.getShort(0));
+        assertEquals(CHUNK * 1000000L / SAMPLE_RATE, ptsUs, 1);
+        assertEquals(0, staging.getStagedBytes());
+        assertEquals(0, staging.readRemainder(chunk));
+        assertEquals(2, staging.getQueuedChunks());
+    }
+
+    private void write(int samples, long ptsUs) {
+        ByteBuffer src = ByteBuffer.allocate(samples * 2);
+        for (int i = 0; i < samples; i++) {
+            src.putShort((short) (nextSample + i));
+        }
+        src.flip();
+        nextSample += samples;
+        staging.write(src, ptsUs);
+        assertFalse(src.hasRemaining());
+    }
+
+    private long readChunk() {
+        long ptsUs = staging.nextChunkPtsUs();
+        chunk.clear();
+        staging.readChunk(chunk);
+        return ptsUs;
+    }
+}
@@ -0,0 +1,219 @@
+package com.gpufast.recorder.audio.encoder;
+
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaCrypto;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.Surface;
+
+import com.gpufast.recorder.audio.AudioFrame;
+import com.gpufast.recorder.audio.AudioSetting;
+import com.gpufast.recorder.audio.EncodedAudio;
+import com.gpufast.recorder.hardware.MediaCodecWrapper;
+import com.gpufast.recorder.hardware.MediaCodecWrapperFactory;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link HwAudioEncoder}停止时送出最后不足一帧的数据并取完编码器输出
+ */
+public class HwAudioEncoderTest {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    @Test
+    public void releaseFlushesRemainderWithEndOfStreamBeforeStop() {
+        final FakeCodec codec = new FakeCodec();
+        HwAudioEncoder encoder = new HwAudioEncoder(new MediaCodecWrapperFactory() {
+            @Override
+            public MediaCodecWrapper createByCodecName(String name) {
+                return codec;
+            }
+        }, AudioCodecType.AAC, "fake.aac");
+        RecordingCallback callback = new RecordingCallback(codec);
+        assertEquals(AudioCodecStatus.OK, encoder.init(
+                new AudioSetting(SAMPLE_RATE, 64000, 1, AudioFormat.ENCODING_PCM_16BIT), callback));
+
+        //3000个采样，两个完整帧加952个采样
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer pcm = ByteBuffer.allocateDirect(2000);
+            encoder.encode(new AudioFrame(pcm, 2000, i * 1000 * 1000000L / SAMPLE_RATE));
+        }
+        assertEquals("in 2048@0, in 2048@21333", codec.events());
+
+        encoder.release();
+        assertEquals("in 2048@0, in 2048@21333, in 1904@42666 eos, "
+                        + "out 0, out 21333, out 42666 eos, stop, release, callback stop",
+                codec.events());
+        assertEquals(3, callback.received);
+    }
+
+    @Test
+    public void releaseWithoutRemainderStillDrainsEncoder() {
+        final FakeCodec codec = new FakeCodec();
+        HwAudioEncoder encoder = new HwAudioEncoder(new MediaCodecWrapperFactory() {
+            @Override
+            public MediaCodecWrapper createByCodecName(String name) {
+                return codec;
+            }
+        }, AudioCodecType.AAC, "fake.aac");
+        RecordingCallback callback = new RecordingCallback(codec);
+        encoder.init(new AudioSetting(SAMPLE_RATE, 64000, 1, AudioFormat.ENCODING_PCM_16BIT), callback);
+        encoder.encode(new AudioFrame(ByteBuffer.allocateDirect(2048), 2048, 0));
+
+        encoder.release();
+        //结束标志的输出没有数据，不转发
+        assertEquals("in 2048@0, in 0@21333 eos, out 0, stop, release, callback stop", codec.events());
+        assertEquals(1, callback.received);
+    }
+
+    /**
+     * 编码器收到结束标志之前不输出，模拟编码器内部缓存
+     */
+    private static class FakeCodec implements MediaCodecWrapper {
+        final List<String> events = new ArrayList<>();
+        final ArrayDeque<long[]> pending = new ArrayDeque<>();
+        final ArrayDeque<long[]> outputs = new ArrayDeque<>();
+
+        String events() {
+            StringBuilder sb = new StringBuilder();
+            for (String event : events) {
+                sb.append(sb.length() == 0 ? "" : ", ").append(event);
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public boolean isAsyncSupported() {
+            return false;
+        }
+
+        @Override
+        public void setCallback(Callback callback, Handler handler) {
+        }
+
+        @Override
+        public void configure(MediaFormat format, Surface surface, MediaCrypto crypto, int flags) {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void stop() {
+            events.add("stop");
+        }
+
+        @Override
+        public void release() {
+            events.add("release");
+        }
+
+        @Override
+        public int dequeueInputBuffer(long timeoutUs) {
+            return 0;
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+            boolean eos = (flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            events.add("in " + size + "@" + presentationTimeUs + (eos ? " eos" : ""));
+            //{时间戳, flags, 输出大小}
+            if (size > 0) {
+                pending.add(new long[]{presentationTimeUs, 0, 10});
+            }
+            if (eos) {
+                //最后一块数据和结束标志在同一个输出中，没有数据时输出一个空的结束buffer
+                if (size > 0) {
+                    pending.peekLast()[1] = MediaCodec.BUFFER_FLAG_END_OF_STREAM;
+                } else {
+                    pending.add(new long[]{presentationTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM, 0});
+                }
+                outputs.addAll(pending);
+                pending.clear();
+            }
+        }
+
+        @Override
+        public int dequeueOutputBuffer(MediaCodec.BufferInfo info, long timeoutUs) {
+            long[] output = outputs.poll();
+            if (output == null) {
+                return MediaCodec.INFO_TRY_AGAIN_LATER;
+            }
+            info.offset = 0;
+            info.size = (int) output[2];
+            info.presentationTimeUs = output[0];
+            info.flags = (int) output[1];
+            boolean eos = info.flags != 0;
+            if (info.size > 0) {
+                events.add("out " + output[0] + (eos ? " eos" : ""));
+            }
+            return 1;
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index, long renderTimestampNs) {
+        }
+
+        @Override
+        public MediaFormat getOutputFormat() {
+            return new MediaFormat();
+        }
+
+        @Override
+        public Surface createInputSurface() {
+            return null;
+        }
+
+        @Override
+        public void setParameters(Bundle params) {
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int inputBufferIndex) {
+            return ByteBuffer.allocateDirect(4096);
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int outputBufferIndex) {
+            return ByteBuffer.allocateDirect(10);
+        }
+    }
+
+    private static class RecordingCallback implements AudioEncoder.AudioEncoderCallback {
+        private final FakeCodec codec;
+        int received;
+
+        RecordingCallback(FakeCodec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public void onUpdateAudioMediaFormat(MediaFormat mediaFormat) {
+        }
+
+        @Override
+        public void onEncodedAudio(EncodedAudio frame) {
+            received++;
+        }
+
+        @Override
+        public void onAudioEncoderStop() {
+            codec.events.add("callback stop");
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.gpufast.recorder.audio.music;
+
+import com.gpufast.recorder.audio.PcmBuffers;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 混音的定点运算，以及从临时目录中生成的WAV文件经预读线程混入采集数据
+ */
+public class BackgroundMusicMixerTest {
+
+    private static final int RECORD_RATE = 48000;
+    //每次采集10ms
+    private static final int CAPTURE_FRAMES = 480;
+    private static final long WAIT_MS = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BackgroundMusicMixer mixer;
+
+    @After
+    public void tearDown() {
+        if (mixer != null) {
+            mixer.release();
+        }
+    }
+
+    private static final int Q_ONE = 1 << 12;
+    private static final int MAX_GAIN_Q = (int) (BackgroundMusicMixer.MAX_GAIN * Q_ONE);
+
+    @Test
+    public void unityGainAddsSamples() {
+        assertEquals(300, BackgroundMusicMixer.mix(100, Q_ONE, 200, Q_ONE));
+        assertEquals(-50, BackgroundMusicMixer.mix(100, Q_ONE, -300, Q_ONE / 2));
+        assertEquals(100, BackgroundMusicMixer.mix(100, Q_ONE, 0, 0));
+    }
+
+    @Test
+    public void fullScaleAtMaxGainSaturatesInsteadOfWrapping() {
+        //32767 * 65536 * 2 超出int，不能回绕成负数
+        assertEquals(Short.MAX_VALUE,
+                BackgroundMusicMixer.mix(Short.MAX_VALUE, MAX_GAIN_Q, Short.MAX_VALUE, MAX_GAIN_Q));
+        assertEquals(Short.MIN_VALUE,
+                BackgroundMusicMixer.mix(Short.MIN_VALUE, MAX_GAIN_Q, Short.MIN_VALUE, MAX_GAIN_Q));
+    }
+
+    @Test
+    public void oppositeSignsCancelAtMaxGain() {
+        assertEquals(-16, BackgroundMusicMixer.mix(Short.MAX_VALUE, MAX_GAIN_Q, Short.MIN_VALUE, MAX_GAIN_Q));
+    }
+
+    @Test
+    public void mixesWithGainAndDownmixesStereo() throws Exception {
+        //左右声道不同的常数，混入单声道时取平均
+        short[] music = new short[4096 * 2];
+        for (int i = 0; i < music.length; i += 2) {
+            music[i] = 1000;
+            music[i + 1] = 3000;
+        }
+        mixer = newMixer(WavFiles.write(folder.newFile("stereo.wav"), RECORD_RATE, 2, music), 1, false);
+        mixer.setMusicGain(0.5f);
+        mixer.setMicGain(2f);
+        short[] out = capture(mixer, 1, 4096, (short) 100);
+        for (int i = 0; i < out.length; i++) {
+            assertEquals("sample " + i, 200 + 1000, out[i]);
+        }
+        assertEquals(4096, mixer.getMixedFrames());
+    }
+
+    @Test
+    public void stopsAtEndOfFile() throws Exception {
+        final int musicFrames = 1500;
+        short[] music = WavFiles.sine(RECORD_RATE, 1, musicFrames, 1000, 8000);
+        mixer = newMixer(WavFiles.write(folder.newFile("short.wav"), RECORD_RATE, 1, music), 1, false);
+        short[] out = capture(mixer, 1, 10 * CAPTURE_FRAMES, (short) 7);
+        for (int i = 0; i < musicFrames; i++) {
+            assertEquals("sample " + i, music[i] + 7, out[i]);
+        }
+        //音乐结束后只有麦克风
+        for (int i = musicFrames; i < out.length; i++) {
+            assertEquals("sample " + i, 7, out[i]);
+        }
+        assertEquals(musicFrames, mixer.getMixedFrames());
+        assertTrue(mixer.isFinished());
+    }
+
+    @Test
+    public void loopsFromStart() throws Exception {
+        final int musicFrames = 1000;
+        short[] music = WavFiles.sine(RECORD_RATE, 1, musicFrames, 480, 8000);
+        mixer = newMixer(WavFiles.write(folder.newFile("loop.wav"), RECORD_RATE, 1, music), 2, true);
+        short[] out = capture(mixer, 2, 3500, (short) 0);
+        for (int f = 0; f < 3500; f++) {
+            short expected = music[f % musicFrames];
+            assertEquals("frame " + f, expected, out[2 * f]);
+            assertEquals("frame " + f, expected, out[2 * f + 1]);
+        }
+        assertEquals(3500, mixer.getMixedFrames());
+        assertEquals(0, mixer.getUnderrunFrames());
+    }
+
+    @Test
+    public void resamplesToRecordRate() throws Exception {
+        //44.1kHz的1秒1kHz正弦波，混入48kHz后仍然是1秒1kHz
+        short[] music = WavFiles.sine(44100, 1, 44100, 1000, 10000);
+        mixer = newMixer(WavFiles.write(folder.newFile("44k.wav"), 44100, 1, music), 1, false);
+        short[] out = capture(mixer, 1, 2 * RECORD_RATE, (short) 0);
+        assertEquals(RECORD_RATE, mixer.getMixedFrames(), 200);
+
+        //中间半秒：过零次数对应频率，峰值对应幅度
+        int crossings = 0;
+        int peak = 0;
+        for (int i = RECORD_RATE / 4; i < RECORD_RATE * 3 / 4; i++) {
+            if ((out[i - 1] < 0) != (out[i] < 0)) {
+                crossings++;
+            }
+            peak = Math.max(peak, Math.abs(out[i]));
+        }
+        assertEquals(1000, crossings, 4);
+        assertEquals(10000, peak, 300);
+    }
+
+    private BackgroundMusicMixer newMixer(File wav, int channels, boolean loop) throws IOException {
+        BackgroundMusicMixer mixer = new BackgroundMusicMixer(PcmFileSource.openWav(wav), RECORD_RATE, channels, loop);
+        mixer.start();
+        return mixer;
+    }
+
+    /**
+     * 像采集线程一样每次处理10ms，处理之前等待预读线程准备好这部分音乐，避免欠载
+     *
+     * @param mic 麦克风的采样值
+     * @return 所有采集帧的混音结果
+     */
+    private static short[] capture(BackgroundMusicMixer mixer, int channels, int frames, short mic)
+            throws InterruptedException {
+        short[] out = new short[frames * channels];
+        short[] chunk = new short[CAPTURE_FRAMES * channels];
+        boolean ended = false;
+        for (int frame = 0; frame < frames; frame += CAPTURE_FRAMES) {
+            int n = Math.min(CAPTURE_FRAMES, frames - frame);
+            if (!ended) {
+                ended = !awaitPrefetched(mixer, frame + n);
+            }
+            short[] samples = n == CAPTURE_FRAMES ? chunk : new short[n * channels];
+            Arrays.fill(samples, mic);
+            mixer.process(PcmBuffers.wrap(samples, channels, RECORD_RATE));
+            System.arraycopy(samples, 0, out, frame * channels, samples.length);
+        }
+        return out;
+    }
+
+    /**
+     * 等待预读的数据覆盖到frames，或者音乐已经全部预读
+     *
+     * @return false表示预读已经停止增加，音乐已经读完
+     */
+    private static boolean awaitPrefetched(BackgroundMusicMixer mixer, long frames) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        long prefetched = -1;
+        int stable = 0;
+        while (System.currentTimeMillis() < deadline) {
+            long blocks = mixer.getPrefetchedBlocks();
+            if (blocks * BackgroundMusicMixer.BLOCK_FRAMES >= frames) {
+                return true;
+            }
+            //文件结束后不再增加，连续几次没有变化就认为已经读完
+            stable = blocks == prefetched ? stable + 1 : 0;
+            if (stable >= 20) {
+                return false;
+            }
+            prefetched = blocks;
+            Thread.sleep(5);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,99 @@
+package com.gpufast.recorder.audio.music;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 解析临时目录中生成的WAV文件
+ */
+public class PcmFileSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parsesHeaderAndSkipsUnknownChunks() throws IOException {
+        short[] samples = WavFiles.sine(44100, 2, 1000, 440, 10000);
+        samples[1] = 1234;
+        File file = WavFiles.write(folder.newFile("music.wav"), 44100, 2, WavFiles.FORMAT_PCM, 16,
+                samples, true, false);
+        PcmFileSource source = PcmFileSource.openWav(file);
+        try {
+            assertEquals(44100, source.getSampleRate());
+            assertEquals(2, source.getChannels());
+            assertEquals(1000, source.getFrameCount());
+            assertEquals(1000 * 1000000L / 44100, source.getDurationUs());
+            assertEquals(1234, source.sample(0, 1));
+            for (int f = 0; f < 1000; f += 37) {
+                assertEquals(samples[f * 2], source.sample(f, 0));
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void streamedWavUsesFileLength() throws IOException {
+        short[] samples = WavFiles.sine(48000, 1, 480, 1000, 8000);
+        File file = WavFiles.write(folder.newFile("stream.wav"), 48000, 1, WavFiles.FORMAT_PCM, 16,
+                samples, false, true);
+        PcmFileSource source = PcmFileSource.openWav(file);
+        try {
+            assertEquals(480, source.getFrameCount());
+            assertEquals(samples[479], source.sample(479, 0));
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void rejectsUnsupportedFormats() throws IOException {
+        short[] samples = new short[64];
+        assertRejected(WavFiles.write(folder.newFile("8bit.wav"), 48000, 1, WavFiles.FORMAT_PCM, 8,
+                samples, false, false));
+        assertRejected(WavFiles.write(folder.newFile("float.wav"), 48000, 1, WavFiles.FORMAT_FLOAT, 16,
+                samples, false, false));
+        File notWav = folder.newFile("text.wav");
+        FileOutputStream stream = new FileOutputStream(notWav);
+        try {
+            stream.write("this is not a riff file".getBytes("UTF-8"));
+        } finally {
+            stream.close();
+        }
+        assertRejected(notWav);
+    }
+
+    @Test
+    public void openChoosesParserByExtension() throws IOException {
+        short[] samples = {1, 2, 3, 4, 5, 6};
+        File wav = WavFiles.write(folder.newFile("a.WAV"), 32000, 2, samples);
+        PcmFileSource source = PcmFileSource.open(wav, 48000, 1);
+        assertEquals(32000, source.getSampleRate());
+        assertEquals(3, source.getFrameCount());
+        source.close();
+
+        //裸PCM按给定的格式解析，整个文件都是数据
+        File raw = WavFiles.write(folder.newFile("a.pcm"), 32000, 2, samples);
+        source = PcmFileSource.open(raw, 48000, 1);
+        assertEquals(48000, source.getSampleRate());
+        assertEquals(raw.length() / 2, source.getFrameCount());
+        assertEquals(0x4952, source.sample(0, 0) & 0xFFFF);
+        source.close();
+    }
+
+    private static void assertRejected(File file) {
+        try {
+            PcmFileSource.openWav(file).close();
+            fail(file.getName());
+        } catch (IOException expected) {
+        }
+    }
+}
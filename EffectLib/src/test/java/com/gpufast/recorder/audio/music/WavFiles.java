@@ -0,0 +1,68 @@
+package com.gpufast.recorder.audio.music;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 测试用的WAV文件
+ */
+final class WavFiles {
+
+    static final int FORMAT_PCM = 1;
+    static final int FORMAT_FLOAT = 3;
+
+    private WavFiles() {
+    }
+
+    /**
+     * @return 频率为hz的正弦波，所有声道相同
+     */
+    static short[] sine(int sampleRate, int channels, int frames, double hz, int amplitude) {
+        short[] samples = new short[frames * channels];
+        for (int f = 0; f < frames; f++) {
+            short value = (short) Math.round(amplitude * Math.sin(2 * Math.PI * hz * f / sampleRate));
+            for (int c = 0; c < channels; c++) {
+                samples[f * channels + c] = value;
+            }
+        }
+        return samples;
+    }
+
+    static File write(File file, int sampleRate, int channels, short[] samples) throws IOException {
+        return write(file, sampleRate, channels, FORMAT_PCM, 16, samples, false, false);
+    }
+
+    /**
+     * @param extraChunk    在fmt和data之间插入一个奇数长度的LIST块，检查跳过和对齐
+     * @param unknownLength data块的长度写成0xFFFFFFFF，模拟流式写出没有回填长度的文件
+     */
+    static File write(File file, int sampleRate, int channels, int format, int bits, short[] samples,
+                      boolean extraChunk, boolean unknownLength) throws IOException {
+        int dataBytes = samples.length * 2;
+        ByteBuffer out = ByteBuffer.allocate(12 + 24 + (extraChunk ? 8 + 4 : 0) + 8 + dataBytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(0x46464952).putInt(out.capacity() - 8).putInt(0x45564157);
+        out.putInt(0x20746d66).putInt(16)
+                .putShort((short) format).putShort((short) channels)
+                .putInt(sampleRate).putInt(sampleRate * channels * bits / 8)
+                .putShort((short) (channels * bits / 8)).putShort((short) bits);
+        if (extraChunk) {
+            //3字节的内容加1字节填充
+            out.putInt(0x5453494c).putInt(3).put((byte) 'a').put((byte) 'b').put((byte) 'c').put((byte) 0);
+        }
+        out.putInt(0x61746164).putInt(unknownLength ? -1 : dataBytes);
+        for (short sample : samples) {
+            out.putShort(sample);
+        }
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(out.array());
+        } finally {
+            stream.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,168 @@
+package com.gpufast.recorder.audio.processor;
+
+import com.gpufast.recorder.audio.PcmBuffer;
+import com.gpufast.recorder.audio.PcmBuffers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link AudioLevelMeter}的电平计算、回调间隔和静音处理
+ */
+public class AudioLevelMeterTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    //10ms
+    private static final int FRAMES = 480;
+
+    private final AudioLevelMeter meter = new AudioLevelMeter();
+
+    @Test
+    public void rmsAndPeakOfKnownSignals() {
+        //满幅方波的RMS和峰值都是0dB
+        meter.process(mono(square(32767)));
+        assertEquals(0, meter.getRmsDb(), 0.01);
+        assertEquals(0, meter.getPeakDb(), 0.01);
+
+        //半幅正弦：峰值-6dB，RMS再低3dB
+        meter.process(mono(sine(16384)));
+        assertEquals(-6.02, meter.getPeakDb(), 0.01);
+        assertEquals(-9.03, meter.getRmsDb(), 0.05);
+
+        meter.process(mono(new short[FRAMES]));
+        assertEquals(AudioLevelMeter.MIN_DB, meter.getRmsDb(), 0);
+        assertEquals(AudioLevelMeter.MIN_DB, meter.getPeakDb(), 0);
+
+        //立体声按两个声道的全部采样计算
+        short[] stereo = new short[2 * FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            stereo[2 * i] = 16384;
+        }
+        meter.process(PcmBuffers.wrap(stereo, 2, SAMPLE_RATE));
+        assertEquals(-6.02 - 3.01, meter.getRmsDb(), 0.01);
+        assertEquals(-6.02, meter.getPeakDb(), 0.01);
+        assertEquals(4, meter.getMeteredFrames());
+    }
+
+    @Test
+    public void listenerReceivesLevelsOfEachInterval() {
+        final List<float[]> levels = new ArrayList<>();
+        meter.setListener(new AudioLevelMeter.OnAudioLevelListener() {
+            @Override
+            public void onAudioLevel(float rmsDb, float peakDb, boolean voice) {
+                levels.add(new float[]{rmsDb, peakDb, voice ? 1 : 0});
+            }
+        }, 50);
+        meter.setHangoverMs(0);
+        //前50ms中有3帧满幅方波，其余静音；后50ms静音
+        for (int i = 0; i < 10; i++) {
+            meter.process(mono(i < 2 || i == 4 ? square(32767) : new short[FRAMES]));
+        }
+        assertEquals(2, levels.size());
+        //能量是满幅的3/5
+        assertEquals(10 * Math.log10(3 / 5.0), levels.get(0)[0], 0.01);
+        assertEquals(0, levels.get(0)[1], 0.01);
+        assertEquals(1, levels.get(0)[2], 0);
+        assertEquals(AudioLevelMeter.MIN_DB, levels.get(1)[0], 0);
+        assertEquals(0, levels.get(1)[2], 0);
+    }
+
+    @Test
+    public void skipDiscardsOnlyAfterHoldTime() {
+        meter.setSilenceMode(AudioLevelMeter.SilenceMode.SKIP);
+        meter.setHangoverMs(100);
+        meter.setSilenceHoldMs(200);
+        PcmBuffer loud = mono(sine(8000));
+        meter.process(loud);
+        assertFalse(loud.discard);
+        assertTrue(meter.isVoice());
+
+        //拖尾加保持共300ms，第30个10ms的静音帧开始丢弃
+        for (int i = 1; i <= 40; i++) {
+            PcmBuffer silent = mono(new short[FRAMES]);
+            meter.process(silent);
+            assertEquals("silent frame " + i, i >= 30, silent.discard);
+            assertEquals("silent frame " + i, i <= 10, meter.isVoice());
+        }
+        assertEquals(11, meter.getSkippedFrames());
+        assertEquals(110000, meter.getSkippedUs());
+
+        //有声音的帧立即恢复，不被丢弃
+        PcmBuffer again = mono(sine(8000));
+        meter.process(again);
+        assertFalse(again.discard);
+        PcmBuffer next = mono(new short[FRAMES]);
+        meter.process(next);
+        assertFalse(next.discard);
+        assertEquals(11, meter.getSkippedFrames());
+    }
+
+    @Test
+    public void feedSilenceZeroesSamplesButKeepsFrame() {
+        meter.setSilenceMode(AudioLevelMeter.SilenceMode.FEED_SILENCE);
+        meter.setHangoverMs(0);
+        meter.setSilenceHoldMs(50);
+        meter.process(mono(sine(8000)));
+
+        //低于阈值的底噪，约-59dBFS
+        for (int i = 1; i <= 8; i++) {
+            short[] noise = sine(50);
+            short[] original = Arrays.copyOf(noise, noise.length);
+            PcmBuffer buffer = mono(noise);
+            meter.process(buffer);
+            assertFalse("frame " + i, buffer.discard);
+            if (i < 5) {
+                assertArrayEquals("frame " + i, original, noise);
+            } else {
+                assertArrayEquals("frame " + i, new short[FRAMES], noise);
+            }
+            //电平按清零之前的数据计算
+            assertTrue(meter.getRmsDb() > AudioLevelMeter.MIN_DB);
+        }
+        assertEquals(40000, meter.getZeroedUs());
+        assertEquals(0, meter.getSkippedFrames());
+    }
+
+    @Test
+    public void offOnlyMeasures() {
+        meter.setSilenceHoldMs(0);
+        short[] samples = sine(20);
+        short[] original = Arrays.copyOf(samples, samples.length);
+        PcmBuffer buffer = mono(samples);
+        meter.process(buffer);
+        assertFalse(buffer.discard);
+        assertArrayEquals(original, samples);
+        assertEquals(10000, meter.getSilentUs());
+    }
+
+    private static PcmBuffer mono(short[] samples) {
+        return PcmBuffers.wrap(samples, 1, SAMPLE_RATE);
+    }
+
+    private static short[] square(int amplitude) {
+        short[] samples = new short[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            samples[i] = (short) (i % 2 == 0 ? amplitude : -amplitude);
+        }
+        return samples;
+    }
+
+    /**
+     * 1kHz，10ms正好10个周期
+     */
+    private static short[] sine(int amplitude) {
+        short[] samples = new short[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            samples[i] = (short) Math.round(amplitude * Math.sin(2 * Math.PI * 1000 * i / SAMPLE_RATE));
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,124 @@
+package com.gpufast.recorder.hardware;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CodecCapabilityCacheTest {
+
+    private static final String FINGERPRINT = "brand/device:11/RQ3A|30|7171";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void encodeDecodeRoundTrip() {
+        List<CodecCapabilityCache.Codec> encoders = sampleEncoders();
+        List<CodecCapabilityCache.Codec> decoded =
+                CodecCapabilityCache.decode(CodecCapabilityCache.encode(FINGERPRINT, encoders), FINGERPRINT);
+        assertNotNull(decoded);
+        assertCodecsEqual(encoders, decoded);
+    }
+
+    @Test
+    public void emptyListRoundTrip() {
+        List<CodecCapabilityCache.Codec> decoded = CodecCapabilityCache.decode(
+                CodecCapabilityCache.encode(FINGERPRINT, Collections.<CodecCapabilityCache.Codec>emptyList()),
+                FINGERPRINT);
+        assertNotNull(decoded);
+        assertTrue(decoded.isEmpty());
+    }
+
+    @Test
+    public void otherFingerprintIsStale() {
+        ByteBuffer data = CodecCapabilityCache.encode(FINGERPRINT, sampleEncoders());
+        assertNull(CodecCapabilityCache.decode(data, FINGERPRINT + "-ota"));
+    }
+
+    @Test
+    public void truncatedOrPaddedDataIsRejected() {
+        ByteBuffer data = CodecCapabilityCache.encode(FINGERPRINT, sampleEncoders());
+        for (int length = 0; length < data.limit(); length += 7) {
+            ByteBuffer truncated = data.duplicate();
+            truncated.limit(length);
+            assertNull("length " + length, CodecCapabilityCache.decode(truncated, FINGERPRINT));
+        }
+        ByteBuffer padded = ByteBuffer.allocate(data.limit() + 1);
+        padded.put(data.duplicate());
+        padded.rewind();
+        assertNull(CodecCapabilityCache.decode(padded, FINGERPRINT));
+    }
+
+    @Test
+    public void persistsOnceCacheDirectoryIsAvailable() {
+        CodecCapabilityCache cache = new CodecCapabilityCache(sampleEncoders(), FINGERPRINT, false);
+        //还没有设置缓存目录
+        assertFalse(cache.persist(null));
+
+        File file = new File(folder.getRoot(), "codec_caps.bin");
+        assertTrue(cache.persist(file));
+        List<CodecCapabilityCache.Codec> read = CodecCapabilityCache.read(file, FINGERPRINT);
+        assertNotNull(read);
+        assertCodecsEqual(cache.getEncoders(), read);
+        //只写入一次
+        assertTrue(file.delete());
+        assertFalse(cache.persist(file));
+        assertFalse(file.exists());
+    }
+
+    private static List<CodecCapabilityCache.Codec> sampleEncoders() {
+        List<CodecCapabilityCache.Codec> encoders = new ArrayList<>();
+        encoders.add(new CodecCapabilityCache.Codec("OMX.qcom.video.encoder.avc", Arrays.asList(
+                new CodecCapabilityCache.TypeCapabilities("video/avc",
+                        new int[]{0x7F000789, 21, 19}, new int[]{1, 2, 8}, new int[]{0x200, 0x400, 0x800},
+                        4096, 2176, 2, 2),
+                new CodecCapabilityCache.TypeCapabilities("video/hevc",
+                        new int[]{0x7F000789}, new int[0], new int[0], 0, 0, 0, 0))));
+        //非ASCII的名字
+        encoders.add(new CodecCapabilityCache.Codec("c2.厂商.aac.encoder",
+                Collections.singletonList(new CodecCapabilityCache.TypeCapabilities("audio/mp4a-latm",
+                        new int[0], new int[]{2}, new int[]{0}, 0, 0, 0, 0))));
+        encoders.add(new CodecCapabilityCache.Codec("OMX.empty",
+                Collections.<CodecCapabilityCache.TypeCapabilities>emptyList()));
+        return encoders;
+    }
+
+    private static void assertCodecsEqual(List<CodecCapabilityCache.Codec> expected,
+                                          List<CodecCapabilityCache.Codec> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            CodecCapabilityCache.Codec e = expected.get(i);
+            CodecCapabilityCache.Codec a = actual.get(i);
+            assertEquals(e.name, a.name);
+            assertEquals(e.getTypes().size(), a.getTypes().size());
+            for (int j = 0; j < e.getTypes().size(); j++) {
+                CodecCapabilityCache.TypeCapabilities et = e.getTypes().get(j);
+                CodecCapabilityCache.TypeCapabilities at = a.getTypes().get(j);
+                assertEquals(et.mime, at.mime);
+                assertArrayEquals(et.colorFormats, at.colorFormats);
+                assertArrayEquals(et.profiles, at.profiles);
+                assertArrayEquals(et.levels, at.levels);
+                assertEquals(et.maxWidth, at.maxWidth);
+                assertEquals(et.maxHeight, at.maxHeight);
+                assertEquals(et.widthAlignment, at.widthAlignment);
+                assertEquals(et.heightAlignment, at.heightAlignment);
+            }
+            assertTrue(a.supportsType(e.getTypes().isEmpty() ? "" : e.getTypes().get(0).mime)
+                    || e.getTypes().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.gpufast.recorder.muxer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link EncodedSampleRing}的GOP淘汰、内存上限、时长窗口和堆外内存的循环使用
+ */
+public class EncodedSampleRingTest {
+
+    private static final long FRAME_US = 33333;
+
+    @Test
+    public void evictionAlwaysRestartsAtGopHead() {
+        //每15帧一个关键帧，GOP约0.5秒
+        EncodedSampleRing ring = new EncodedSampleRing(1024 * 1024, 1000);
+        for (int i = 0; i < 300; i++) {
+            long pts = i * FRAME_US;
+            ring.append(EncodedSampleRing.TRACK_VIDEO, payload(i, 100), 0, 100, pts, 0, i % 15 == 0);
+            ring.append(EncodedSampleRing.TRACK_AUDIO, payload(i, 20), 0, 20, pts + 5000, 0, false);
+            assertHeadIsKeyFrame(ring);
+        }
+        assertTrue(ring.getEvictedGops() > 0);
+        assertEquals(0, ring.getOverflows());
+    }
+
+    @Test
+    public void windowKeepsAtLeastPreRollAndLessThanOneMoreGop() {
+        long gopUs = 15 * FRAME_US;
+        EncodedSampleRing ring = new EncodedSampleRing(1024 * 1024, 2000);
+        ring.setWindowUs(1000000);
+        for (int i = 0; i < 300; i++) {
+            ring.append(EncodedSampleRing.TRACK_VIDEO, payload(i, 100), 0, 100, i * FRAME_US, 0, i % 15 == 0);
+            if (i >= 60 && i % 15 == 0) {
+                //新关键帧到达时裁剪，头部到新关键帧覆盖预录时长，多出的不到一个GOP
+                long retained = i * FRAME_US - ring.getPtsUs(0);
+                assertTrue("retained " + retained, retained >= 1000000);
+                assertTrue("retained " + retained, retained < 1000000 + gopUs);
+            }
+        }
+    }
+
+    @Test
+    public void byteCapEvictsWholeGops() {
+        //每个GOP 5帧共5000字节，最多放下两个
+        EncodedSampleRing ring = new EncodedSampleRing(12000, 60000);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(ring.append(EncodedSampleRing.TRACK_VIDEO, payload(i, 1000), 0, 1000,
+                    i * FRAME_US, 0, i % 5 == 0));
+            assertTrue(ring.getUsedBytes() <= ring.getCapacityBytes());
+            assertHeadIsKeyFrame(ring);
+        }
+        assertTrue(ring.getEvictedGops() > 0);
+        assertEquals(0, ring.getDroppedSamples());
+        assertEquals(0, ring.getOverflows());
+        assertTrue(ring.getPeakBytes() <= 12000);
+    }
+
+    @Test
+    public void gopLargerThanCapacityIsDroppedUntilNextKeyFrame() {
+        EncodedSampleRing ring = new EncodedSampleRing(10000, 60000);
+        //第11帧放不下，只有一个GOP，整体丢弃
+        for (int i = 0; i < 10; i++) {
+            assertTrue(ring.append(EncodedSampleRing.TRACK_VIDEO, payload(i, 1000), 0, 1000,
+                    i * FRAME_US, 0, i == 0));
+        }
+        assertFalse(ring.append(EncodedSampleRing.TRACK_VIDEO, payload(10, 1000), 0, 1000,
+                10 * FRAME_US, 0, false));
+        assertEquals(1, ring.getOverflows());
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.getUsedBytes());
+        //下一个关键帧之前都丢弃
+        assertFalse(ring.append(EncodedSampleRing.TRACK_VIDEO, payload(11, 1000), 0, 1000,
+                11 * FRAME_US, 0, false));
+        assertTrue(ring.append(EncodedSampleRing.TRACK_VIDEO, payload(12, 1000), 0, 1000,
+                12 * FRAME_US, 0, true));
+        assertEquals(12, ring.getDroppedSamples());
+        assertEquals(1, ring.size());
+    }
+
+    @Test
+    public void arenaWrapsAroundAndKeepsData() {
+        //每帧都是关键帧，淘汰一帧就能腾出空间
+        EncodedSampleRing ring = new EncodedSampleRing(4500, 60000);
+        boolean wrapped = false;
+        for (int i = 0; i < 20; i++) {
+            ring.append(EncodedSampleRing.TRACK_VIDEO, payload(i, 1000), 0, 1000, i * FRAME_US, 0, true);
+            for (int j = 1; j < ring.size(); j++) {
+                wrapped |= ring.getOffset(j) < ring.getOffset(j - 1);
+            }
+            assertTrue(ring.getUsedBytes() <= ring.getCapacityBytes());
+            //保留的样本都是最新的几帧，数据没有被覆盖
+            int first = i - ring.size() + 1;
+            for (int j = 0; j < ring.size(); j++) {
+                assertEquals(first + j, ring.getPtsUs(j) / FRAME_US);
+                assertContent(ring, j, payload(first + j, 1000));
+            }
+        }
+        assertTrue(wrapped);
+    }
+
+    @Test
+    public void clearRestartsAtOffsetZeroAndWaitsForKeyFrame() {
+        EncodedSampleRing ring = new EncodedSampleRing(4500, 60000);
+        for (int i = 0; i < 7; i++) {
+            ring.append(EncodedSampleRing.TRACK_VIDEO, payload(i, 1000), 0, 1000, i * FRAME_US, 0, true);
+        }
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.getUsedBytes());
+        assertEquals(0, ring.getBufferedDurationUs());
+        assertFalse(ring.append(EncodedSampleRing.TRACK_VIDEO, payload(7, 1000), 0, 1000, 7 * FRAME_US, 0, false));
+        assertTrue(ring.append(EncodedSampleRing.TRACK_VIDEO, payload(8, 1000), 0, 1000, 8 * FRAME_US, 0, true));
+        assertEquals(0, ring.getOffset(0));
+        assertContent(ring, 0, payload(8, 1000));
+
+        //reset同时清空统计
+        ring.reset();
+        assertEquals(0, ring.getDroppedSamples());
+        assertEquals(0, ring.getPeakBytes());
+    }
+
+    @Test
+    public void configIsStoredInFrontOfKeyFrame() {
+        EncodedSampleRing ring = new EncodedSampleRing(4096, 1000);
+        ByteBuffer config = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x67, 0, 0, 0, 1, 0x68});
+        config.position(3);
+        //编码数据在src中的第4到第9个字节
+        ByteBuffer src = payload(1, 16);
+        src.position(2).limit(12);
+        assertTrue(ring.append(EncodedSampleRing.TRACK_VIDEO, config, src, 4, 6, 0, 1, true));
+        assertEquals(16, ring.getSize(0));
+        assertEquals(1, ring.getFlags(0));
+
+        ByteBuffer expected = ByteBuffer.allocate(16);
+        expected.put(config.array());
+        ByteBuffer data = payload(1, 16);
+        data.position(4).limit(10);
+        expected.put(data);
+        assertContent(ring, 0, expected);
+        //不改变调用者buffer的position和limit
+        assertEquals(3, config.position());
+        assertEquals(2, src.position());
+        assertEquals(12, src.limit());
+    }
+
+    @Test
+    public void audioOnlyRingTreatsEverySampleAsSync() {
+        EncodedSampleRing ring = new EncodedSampleRing(4096, 1000);
+        ring.setAudioIsSync(true);
+        ring.setWindowUs(100000);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(ring.append(EncodedSampleRing.TRACK_AUDIO, payload(i, 10), 0, 10, i * 21333L, 0, false));
+        }
+        assertTrue(ring.isSync(0));
+        long duration = ring.getBufferedDurationUs();
+        assertTrue("duration " + duration, duration >= 100000 && duration < 100000 + 21333);
+    }
+
+    private static void assertHeadIsKeyFrame(EncodedSampleRing ring) {
+        if (ring.size() == 0) {
+            return;
+        }
+        assertEquals(EncodedSampleRing.TRACK_VIDEO, ring.getTrack(0));
+        assertTrue(ring.isSync(0));
+    }
+
+    private static void assertContent(EncodedSampleRing ring, int index, ByteBuffer expected) {
+        ByteBuffer view = ring.getArena().duplicate();
+        int offset = ring.getOffset(index);
+        view.limit(offset + ring.getSize(index)).position(offset);
+        expected.clear();
+        assertEquals("sample " + index, expected, view);
+    }
+
+    /**
+     * 内容由seed决定，用于检查样本数据有没有被覆盖
+     */
+    static ByteBuffer payload(int seed, int size) {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put(i, (byte) (seed * 31 + i));
+        }
+        return buffer;
+    }
+}
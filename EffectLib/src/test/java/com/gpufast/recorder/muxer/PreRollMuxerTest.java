@@ -0,0 +1,287 @@
+package com.gpufast.recorder.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import com.gpufast.recorder.audio.EncodedAudio;
+import com.gpufast.recorder.video.EncodedImage;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link PreRollMuxer}缓存、attach时的写入顺序和时间戳平移，复用器用记录收到内容的假实现
+ */
+public class PreRollMuxerTest {
+
+    private static final byte[] CONFIG = {0, 0, 0, 1, 0x67, 0x42, 0, 0, 0, 1, 0x68};
+
+    private final EncodedSampleRing ring = new EncodedSampleRing(1024 * 1024, 3000);
+    private final RecordingMuxer target = new RecordingMuxer();
+
+    @Test
+    public void flushRebasesToFirstKeyFrameAndDropsEarlierAudio() {
+        PreRollMuxer muxer = new PreRollMuxer(ring, 3000, true, true);
+        //头部关键帧之前的样本不进入缓存
+        muxer.onEncodedAudio(audio(0));
+        muxer.onEncodedFrame(video(10000, false));
+        muxer.onEncodedFrame(video(100000, true));
+        //音频晚到，时间戳早于关键帧
+        muxer.onEncodedAudio(audio(90000));
+        muxer.onEncodedAudio(audio(110000));
+        muxer.onEncodedFrame(video(133333, false));
+        muxer.onEncodedAudio(audio(130000));
+        muxer.onUpdateAudioMediaFormat(new MediaFormat());
+        muxer.onUpdateVideoMediaFormat(new MediaFormat());
+        assertTrue(muxer.getBufferedBytes() > 0);
+
+        muxer.attach(target);
+        assertTrue(muxer.isAttached());
+        assertEquals("audio,video", target.formats());
+        assertEquals("v0 a10000 v33333 a30000", target.samples());
+        assertEquals(33333, muxer.getFlushedDurationUs());
+        assertEquals(0, muxer.getBufferedBytes());
+
+        //关键帧的数据前面拼接了SPS、PPS
+        Sample key = target.received.get(0);
+        assertTrue(key.keyFrame);
+        ByteBuffer expected = ByteBuffer.allocate(CONFIG.length + 64);
+        expected.put(CONFIG).put(payload(100000));
+        expected.flip();
+        assertEquals(expected, ByteBuffer.wrap(key.data));
+    }
+
+    @Test
+    public void liveSamplesAreRebasedOnCopies() {
+        PreRollMuxer muxer = new PreRollMuxer(ring, 3000, true, true);
+        muxer.onEncodedFrame(video(100000, true));
+        muxer.onUpdateAudioMediaFormat(new MediaFormat());
+        muxer.onUpdateVideoMediaFormat(new MediaFormat());
+        muxer.attach(target);
+        target.received.clear();
+
+        EncodedImage frame = video(200000, false);
+        muxer.onEncodedFrame(frame);
+        EncodedAudio early = audio(95000);
+        muxer.onEncodedAudio(early);
+        EncodedAudio late = audio(210000);
+        muxer.onEncodedAudio(late);
+        assertEquals("v100000 a110000", target.samples());
+        //编码器的BufferInfo没有被修改
+        assertEquals(200000, frame.bufferInfo.presentationTimeUs);
+        assertEquals(95000, early.bufferInfo.presentationTimeUs);
+        assertEquals(210000, late.bufferInfo.presentationTimeUs);
+        assertFalse(target.received.get(0).info == frame.bufferInfo);
+        assertFalse(target.received.get(1).info == late.bufferInfo);
+        assertSame(frame.buffer, target.received.get(0).buffer);
+        assertTrue(muxer.toString(), muxer.toString().contains("droppedLive=1"));
+    }
+
+    @Test
+    public void attachBeforeFormatsKeepsBufferingUntilTheyArrive() {
+        PreRollMuxer muxer = new PreRollMuxer(ring, 3000, true, true);
+        muxer.attach(target);
+        assertFalse(muxer.isAttached());
+        muxer.onEncodedFrame(video(0, true));
+        muxer.onUpdateVideoMediaFormat(new MediaFormat());
+        muxer.onEncodedFrame(video(33333, false));
+        assertFalse(muxer.isAttached());
+        assertEquals("", target.samples());
+
+        muxer.onUpdateAudioMediaFormat(new MediaFormat());
+        assertTrue(muxer.isAttached());
+        assertEquals("audio,video", target.formats());
+        assertEquals("v0 v33333", target.samples());
+        //音频编码器每次输出都回调格式，只转发第一次
+        muxer.onUpdateAudioMediaFormat(new MediaFormat());
+        assertEquals("audio,video", target.formats());
+    }
+
+    @Test
+    public void emptyPreRollStartsAtNextLiveKeyFrame() {
+        PreRollMuxer muxer = new PreRollMuxer(ring, 3000, true, true);
+        muxer.onUpdateAudioMediaFormat(new MediaFormat());
+        muxer.onUpdateVideoMediaFormat(new MediaFormat());
+        muxer.attach(target);
+        assertTrue(muxer.isAttached());
+
+        muxer.onEncodedAudio(audio(400000));
+        muxer.onEncodedFrame(video(433333, false));
+        muxer.onEncodedFrame(video(500000, true));
+        muxer.onEncodedAudio(audio(510000));
+        assertEquals("v0 a10000", target.samples());
+    }
+
+    @Test
+    public void audioOnlyRecordingStartsAtFirstAudioSample() {
+        PreRollMuxer muxer = new PreRollMuxer(ring, 3000, false, true);
+        muxer.onEncodedAudio(audio(50000));
+        muxer.onEncodedAudio(audio(71333));
+        //编码配置不进入缓存
+        EncodedAudio config = audio(0);
+        config.bufferInfo.flags = MediaCodec.BUFFER_FLAG_CODEC_CONFIG;
+        muxer.onEncodedAudio(config);
+        muxer.onUpdateAudioMediaFormat(new MediaFormat());
+        muxer.attach(target);
+        assertEquals("audio", target.formats());
+        assertEquals("a0 a21333", target.samples());
+    }
+
+    @Test
+    public void discardReleasesEverything() {
+        PreRollMuxer muxer = new PreRollMuxer(ring, 3000, true, true);
+        muxer.onEncodedFrame(video(0, true));
+        muxer.onEncodedAudio(audio(10000));
+        muxer.onEncodedFrame(video(33333, false));
+        assertTrue(muxer.getBufferedBytes() > 0);
+        assertEquals(33333, muxer.getBufferedDurationUs());
+
+        muxer.discard();
+        assertEquals(0, muxer.getBufferedBytes());
+        assertEquals(0, muxer.getBufferedDurationUs());
+        assertEquals(0, ring.size());
+        //缓存清空后从下一个关键帧开始
+        muxer.onEncodedFrame(video(66666, false));
+        assertEquals(0, ring.size());
+
+        //release等同于discard，缓存可以给下一次录制复用
+        muxer.onEncodedFrame(video(100000, true));
+        muxer.release();
+        assertEquals(0, ring.size());
+        PreRollMuxer next = new PreRollMuxer(ring, 1000, true, false);
+        next.onEncodedFrame(video(0, true));
+        next.onUpdateVideoMediaFormat(new MediaFormat());
+        next.attach(target);
+        assertEquals("v0", target.samples());
+    }
+
+    @Test
+    public void stopBeforeFormatsReachesPendingTarget() {
+        PreRollMuxer muxer = new PreRollMuxer(ring, 3000, true, true);
+        muxer.attach(target);
+        muxer.onVideoEncoderStop();
+        muxer.onAudioEncoderStop();
+        assertEquals(1, target.videoStops);
+        assertEquals(1, target.audioStops);
+    }
+
+    private static EncodedImage video(long ptsUs, boolean keyFrame) {
+        MediaCodec.BufferInfo info = bufferInfo(0, 64, ptsUs, keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+        return EncodedImage.builder()
+                .setBuffer(payload(ptsUs))
+                .setConfigBuffer(keyFrame ? ByteBuffer.wrap(CONFIG) : null)
+                .setBufferInfo(info)
+                .setFrameType(keyFrame ? EncodedImage.FrameType.VideoFrameKey : EncodedImage.FrameType.VideoFrameDelta)
+                .setCompleteFrame(true)
+                .createEncodedImage();
+    }
+
+    private static EncodedAudio audio(long ptsUs) {
+        //数据前面留一段，检查offset
+        ByteBuffer buffer = ByteBuffer.allocate(40);
+        return new EncodedAudio.Builder()
+                .setBuffer(buffer)
+                .setBufferInfo(bufferInfo(8, 32, ptsUs, 0))
+                .createEncodedAudio();
+    }
+
+    private static MediaCodec.BufferInfo bufferInfo(int offset, int size, long ptsUs, int flags) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.offset = offset;
+        info.size = size;
+        info.presentationTimeUs = ptsUs;
+        info.flags = flags;
+        return info;
+    }
+
+    private static ByteBuffer payload(long ptsUs) {
+        return EncodedSampleRingTest.payload((int) (ptsUs / 1000), 64);
+    }
+
+    private static class Sample {
+        final boolean video;
+        final boolean keyFrame;
+        final MediaCodec.BufferInfo info;
+        final ByteBuffer buffer;
+        final byte[] data;
+
+        Sample(boolean video, boolean keyFrame, MediaCodec.BufferInfo info, ByteBuffer buffer, byte[] data) {
+            this.video = video;
+            this.keyFrame = keyFrame;
+            this.info = info;
+            this.buffer = buffer;
+            this.data = data;
+        }
+    }
+
+    private static class RecordingMuxer extends IMediaMuxer {
+        final List<String> formats = new ArrayList<>();
+        final List<Sample> received = new ArrayList<>();
+        int videoStops;
+        int audioStops;
+
+        @Override
+        public void onUpdateVideoMediaFormat(MediaFormat format) {
+            formats.add("video");
+        }
+
+        @Override
+        public void onUpdateAudioMediaFormat(MediaFormat mediaFormat) {
+            formats.add("audio");
+        }
+
+        @Override
+        public void onEncodedFrame(EncodedImage frame) {
+            ByteBuffer data = ByteBuffer.allocate(frame.size());
+            frame.copyTo(data);
+            received.add(new Sample(true, frame.frameType == EncodedImage.FrameType.VideoFrameKey,
+                    frame.bufferInfo, frame.buffer, data.array()));
+        }
+
+        @Override
+        public void onEncodedAudio(EncodedAudio frame) {
+            MediaCodec.BufferInfo info = frame.bufferInfo;
+            assertTrue(info.size > 0 && info.offset + info.size <= frame.buffer.limit());
+            received.add(new Sample(false, false, info, frame.buffer, null));
+        }
+
+        @Override
+        public void onVideoEncoderStop() {
+            videoStops++;
+        }
+
+        @Override
+        public void onAudioEncoderStop() {
+            audioStops++;
+        }
+
+        @Override
+        void release() {
+        }
+
+        String formats() {
+            StringBuilder sb = new StringBuilder();
+            for (String format : formats) {
+                sb.append(sb.length() == 0 ? "" : ",").append(format);
+            }
+            return sb.toString();
+        }
+
+        String samples() {
+            StringBuilder sb = new StringBuilder();
+            for (Sample sample : received) {
+                sb.append(sb.length() == 0 ? "" : " ").append(sample.video ? 'v' : 'a')
+                        .append(sample.info.presentationTimeUs);
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.gpufast.recorder.video;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RgbaToI420Converter}转换一帧的耗时，按分辨率和线程数比较，用于按设备档次选择并行度
+ * <p>
+ * 在JVM上运行：先编译测试源码（./gradlew :effectlib:compileDebugUnitTestJavaWithJavac），
+ * 再以测试classpath运行本类的main
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColorConvertBenchmark {
+
+    @Param({"1280x720", "1920x1080"})
+    public String size;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private int width;
+    private int height;
+    private ByteBuffer rgba;
+    private RgbaToI420Converter converter;
+
+    @Setup
+    public void setup() {
+        String[] parts = size.split("x");
+        width = Integer.parseInt(parts[0]);
+        height = Integer.parseInt(parts[1]);
+        //水平和竖直方向的渐变，避免全部相同的像素
+        rgba = ByteBuffer.allocateDirect(width * height * 4);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                rgba.put((byte) x).put((byte) y).put((byte) (x + y)).put((byte) 0xFF);
+            }
+        }
+        rgba.clear();
+        converter = new RgbaToI420Converter(new I420BufferPool(2, 16 * 1024 * 1024),
+                RgbaToI420Converter.ColorStandard.BT601, threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        converter.release();
+    }
+
+    @Benchmark
+    public int convert() {
+        PooledI420Buffer buffer = converter.convert(rgba, width * 4, width, height, false);
+        int strideY = buffer.getStrideY();
+        buffer.release();
+        return strideY;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ColorConvertBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,136 @@
+package com.gpufast.recorder.video;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link FramePacer}的抽帧、抖动容差、时间戳回退和修改帧率
+ */
+public class FramePacerTest {
+
+    private static final long INPUT_60_NS = 1000000000L / 60;
+
+    @Test
+    public void decimates60To30() {
+        FramePacer pacer = new FramePacer(30);
+        for (int i = 0; i < 120; i++) {
+            //每两帧接收一帧
+            assertEquals("frame " + i, i % 2 == 0, pacer.accept(i * INPUT_60_NS));
+        }
+        assertEquals(60, pacer.getAccepted());
+        assertEquals(60, pacer.getDropped());
+        assertEquals(2 * INPUT_60_NS, pacer.getMaxIntervalNs());
+        assertEquals(0, pacer.getRealigned());
+    }
+
+    @Test
+    public void jitterNearBoundaryNeverDropsTwoFramesInARow() {
+        FramePacer pacer = new FramePacer(30);
+        Random random = new Random(7);
+        boolean lastDropped = false;
+        for (int i = 0; i < 600; i++) {
+            //每帧±4ms的抖动，接近帧间隔的边界
+            long jitter = (random.nextInt(9) - 4) * 1000000L;
+            boolean accepted = pacer.accept(1000000000L + i * INPUT_60_NS + jitter);
+            assertFalse("frame " + i + " dropped after a drop", !accepted && lastDropped);
+            lastDropped = !accepted;
+        }
+        //平均帧率保持30
+        assertEquals(300, pacer.getAccepted(), 2);
+        assertTrue(pacer.toString(), pacer.getMaxIntervalNs() < 3 * INPUT_60_NS);
+    }
+
+    @Test
+    public void jitteredInputAtTargetRateIsNotDecimated() {
+        FramePacer pacer = new FramePacer(30);
+        Random random = new Random(11);
+        long intervalNs = 1000000000L / 30;
+        for (int i = 0; i < 300; i++) {
+            long jitter = (random.nextInt(13) - 6) * 1000000L;
+            assertTrue("frame " + i, pacer.accept(i * intervalNs + jitter + 10000000L));
+        }
+        assertEquals(0, pacer.getDropped());
+    }
+
+    @Test
+    public void stallRealignsWithoutBurst() {
+        FramePacer pacer = new FramePacer(30);
+        for (int i = 0; i < 10; i++) {
+            pacer.accept(i * INPUT_60_NS);
+        }
+        //渲染线程停顿200ms
+        long resumeNs = 9 * INPUT_60_NS + 200000000L;
+        assertTrue(pacer.accept(resumeNs));
+        assertFalse(pacer.accept(resumeNs + INPUT_60_NS));
+        assertTrue(pacer.accept(resumeNs + 2 * INPUT_60_NS));
+        assertEquals(1, pacer.getRealigned());
+    }
+
+    @Test
+    public void backwardJumpRealignsToNewTimeline() {
+        FramePacer pacer = new FramePacer(30);
+        for (int i = 0; i < 60; i++) {
+            pacer.accept(i * INPUT_60_NS);
+        }
+        //时间戳重新从0开始，没有调用reset
+        for (int i = 0; i < 60; i++) {
+            assertEquals("frame " + i, i % 2 == 0, pacer.accept(i * INPUT_60_NS));
+        }
+        assertEquals(1, pacer.getRealigned());
+        assertEquals(60, pacer.getAccepted());
+
+        //比上一帧稍早的帧只是抖动，照常按期望时间判断
+        long lastNs = 58 * INPUT_60_NS;
+        assertFalse(pacer.accept(lastNs - 1000000L));
+        assertEquals(1, pacer.getRealigned());
+    }
+
+    @Test
+    public void resetStartsFreshTimeline() {
+        FramePacer pacer = new FramePacer(30);
+        pacer.accept(5000000000L);
+        pacer.reset();
+        assertTrue(pacer.accept(0));
+        assertFalse(pacer.accept(INPUT_60_NS));
+        assertTrue(pacer.accept(2 * INPUT_60_NS));
+        //统计继续累加
+        assertEquals(3, pacer.getAccepted());
+        assertEquals(0, pacer.getRealigned());
+    }
+
+    @Test
+    public void changedFpsTakesEffectOnNextFrame() {
+        FramePacer pacer = new FramePacer(60);
+        long timeNs = 0;
+        for (int i = 0; i < 30; i++, timeNs += INPUT_60_NS) {
+            assertTrue(pacer.accept(timeNs));
+        }
+        pacer.setFps(30);
+        assertEquals(1000000000L / 30, pacer.getFrameIntervalNs());
+        for (int i = 0; i < 30; i++, timeNs += INPUT_60_NS) {
+            //上一次接收的是第29帧，下一帧的期望时间是第31帧
+            assertEquals("frame " + i, i % 2 == 1, pacer.accept(timeNs));
+        }
+        pacer.setFps(0);
+        for (int i = 0; i < 10; i++, timeNs += INPUT_60_NS) {
+            assertTrue(pacer.accept(timeNs));
+        }
+        assertEquals(30 + 15 + 10, pacer.getAccepted());
+        assertEquals(15, pacer.getDropped());
+    }
+
+    @Test
+    public void zeroFpsAcceptsEverything() {
+        FramePacer pacer = new FramePacer(0);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(pacer.accept(i * 1000L));
+        }
+        assertTrue(pacer.accept(0));
+        assertEquals(0, pacer.getDropped());
+    }
+}
@@ -0,0 +1,106 @@
+package com.gpufast.recorder.video;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link I420Scaler}按像素中心对齐的双线性缩放
+ */
+public class I420ScalerTest {
+
+    //源平面每一行后面的填充，缩放不能读到
+    private static final byte PADDING = (byte) 255;
+
+    @Test
+    public void downscaleAveragesNeighbours() {
+        //0, 10, 20 ... 每两列的中心落在两个源像素之间
+        ByteBuffer src = plane(8, 1, 16, new int[]{0, 10, 20, 30, 40, 50, 60, 70});
+        ByteBuffer dst = ByteBuffer.allocate(4);
+        I420Scaler.get().scalePlane(src, 0, 16, 8, 1, dst, 0, 4, 4, 1);
+        assertRow(new int[]{5, 25, 45, 65}, dst, 0);
+    }
+
+    @Test
+    public void upscaleClampsEdges() {
+        ByteBuffer src = plane(2, 1, 16, new int[]{0, 100});
+        ByteBuffer dst = ByteBuffer.allocate(4);
+        I420Scaler.get().scalePlane(src, 0, 16, 2, 1, dst, 0, 4, 4, 1);
+        assertRow(new int[]{0, 25, 75, 100}, dst, 0);
+    }
+
+    @Test
+    public void verticalMatchesHorizontal() {
+        //一列的8行，和水平缩小的结果相同
+        ByteBuffer src = plane(1, 8, 16, new int[]{0, 10, 20, 30, 40, 50, 60, 70});
+        ByteBuffer dst = ByteBuffer.allocate(4 * 8);
+        I420Scaler.get().scalePlane(src, 0, 16, 1, 8, dst, 0, 8, 1, 4);
+        int[] expected = {5, 25, 45, 65};
+        for (int y = 0; y < expected.length; y++) {
+            assertEquals("row " + y, expected[y], dst.get(y * 8) & 0xFF);
+        }
+    }
+
+    @Test
+    public void constantPlaneStaysConstantAndPaddingIsNotRead() {
+        int[] values = new int[37 * 23];
+        Arrays.fill(values, 77);
+        ByteBuffer src = plane(37, 23, 48, values);
+        int[][] sizes = {{37, 23}, {18, 11}, {64, 40}, {5, 3}, {1, 1}};
+        for (int[] size : sizes) {
+            int stride = I420BufferPool.align(size[0]);
+            ByteBuffer dst = ByteBuffer.allocateDirect(stride * size[1]);
+            I420Scaler.get().scalePlane(src, 0, 48, 37, 23, dst, 0, stride, size[0], size[1]);
+            for (int y = 0; y < size[1]; y++) {
+                for (int x = 0; x < size[0]; x++) {
+                    assertEquals(size[0] + "x" + size[1] + " at " + x + "," + y,
+                            77, dst.get(y * stride + x) & 0xFF);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sameSizeCopiesWithOffsets() {
+        Random random = new Random(3);
+        int[] values = new int[20 * 10];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(256);
+        }
+        ByteBuffer src = plane(20, 10, 32, values);
+        //从第2行第4列开始的12x6区域
+        ByteBuffer dst = ByteBuffer.allocate(100 + 16 * 6);
+        I420Scaler.get().scalePlane(src, 2 * 32 + 4, 32, 12, 6, dst, 100, 16, 12, 6);
+        for (int y = 0; y < 6; y++) {
+            for (int x = 0; x < 12; x++) {
+                assertEquals(values[(y + 2) * 20 + x + 4], dst.get(100 + y * 16 + x) & 0xFF);
+            }
+        }
+        //不改变buffer的position
+        assertEquals(0, src.position());
+        assertEquals(0, dst.position());
+    }
+
+    private static ByteBuffer plane(int width, int height, int stride, int[] values) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(stride * height);
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, PADDING);
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                buffer.put(y * stride + x, (byte) values[y * width + x]);
+            }
+        }
+        return buffer;
+    }
+
+    private static void assertRow(int[] expected, ByteBuffer row, int offset) {
+        for (int x = 0; x < expected.length; x++) {
+            assertEquals("x=" + x, expected[x], row.get(offset + x) & 0xFF, 1);
+        }
+    }
+}
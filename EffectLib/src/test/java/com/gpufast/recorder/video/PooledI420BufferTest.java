@@ -0,0 +1,190 @@
+package com.gpufast.recorder.video;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link PooledI420Buffer}和{@link I420BufferPool}的引用计数、对齐、裁剪视图和缩放
+ */
+public class PooledI420BufferTest {
+
+    private final I420BufferPool pool = new I420BufferPool(4, 16 * 1024 * 1024);
+
+    @Test
+    public void stridesAreAligned() {
+        PooledI420Buffer buffer = pool.acquire(641, 361);
+        assertEquals(0, buffer.getStrideY() % I420BufferPool.STRIDE_ALIGNMENT);
+        assertEquals(0, buffer.getStrideU() % I420BufferPool.STRIDE_ALIGNMENT);
+        assertEquals(656, buffer.getStrideY());
+        //色度宽度向上取整
+        assertEquals(336, buffer.getStrideU());
+        assertEquals(buffer.getStrideU(), buffer.getStrideV());
+        //平面容量到最后一行的最后一个像素为止
+        assertEquals(656 * 360 + 641, buffer.getDataY().capacity());
+        assertEquals(336 * 180 + 321, buffer.getDataU().capacity());
+        assertTrue(buffer.getDataY().isDirect());
+        buffer.release();
+    }
+
+    @Test
+    public void sizeClassesWasteAtMostAQuarter() {
+        assertEquals(I420BufferPool.MIN_CLASS_SIZE, I420BufferPool.sizeClass(1));
+        assertEquals(I420BufferPool.MIN_CLASS_SIZE, I420BufferPool.sizeClass(I420BufferPool.MIN_CLASS_SIZE));
+        for (int size = I420BufferPool.MIN_CLASS_SIZE + 1; size < 4 * 1024 * 1024; size = size * 5 / 4 + 7) {
+            int capacity = I420BufferPool.sizeClass(size);
+            assertTrue(size + " -> " + capacity, capacity >= size);
+            assertTrue(size + " -> " + capacity, capacity <= size * 5 / 4 + 1);
+        }
+    }
+
+    @Test
+    public void releasedBufferReturnsToPool() {
+        PooledI420Buffer first = pool.acquire(320, 240);
+        first.retain();
+        first.release();
+        //还有一个引用，不回到池中
+        assertEquals(0, pool.getPooledBytes());
+        first.release();
+        assertEquals(first.capacity(), pool.getPooledBytes());
+
+        //尺寸相近的帧使用同一级
+        PooledI420Buffer second = pool.acquire(322, 240);
+        assertSame(first, second);
+        assertEquals(1, pool.getAllocations());
+        assertEquals(2, pool.getAcquired());
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(322, second.getWidth());
+        second.release();
+    }
+
+    @Test
+    public void releaseAfterZeroThrows() {
+        PooledI420Buffer buffer = pool.acquire(64, 64);
+        buffer.release();
+        try {
+            buffer.release();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            buffer.retain();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        //多余的release没有让buffer再次进入池中
+        assertEquals(buffer.capacity(), pool.getPooledBytes());
+    }
+
+    @Test
+    public void poolDropsBuffersOverLimit() {
+        I420BufferPool small = new I420BufferPool(1, 1024 * 1024);
+        PooledI420Buffer a = small.acquire(64, 64);
+        PooledI420Buffer b = small.acquire(64, 64);
+        a.release();
+        b.release();
+        assertEquals(a.capacity(), small.getPooledBytes());
+        assertTrue(small.toString(), small.toString().contains("dropped=1"));
+    }
+
+    @Test
+    public void cropSharesMemoryAndKeepsParentAlive() {
+        PooledI420Buffer buffer = pool.acquire(64, 48);
+        fill(buffer);
+        VideoFrame.I420Buffer view = (VideoFrame.I420Buffer) buffer.cropAndScale(10, 6, 20, 16, 20, 16);
+        assertNotSame(buffer, view);
+        assertEquals(20, view.getWidth());
+        assertEquals(16, view.getHeight());
+        assertEquals(buffer.getStrideY(), view.getStrideY());
+        assertEquals(lumaAt(10, 6), view.getDataY().get(0));
+        assertEquals(lumaAt(29, 21), view.getDataY().get(15 * view.getStrideY() + 19));
+        assertEquals(chromaAt(5, 3, 'u'), view.getDataU().get(0));
+        assertEquals(chromaAt(5, 3, 'v'), view.getDataV().get(0));
+
+        //视图和原buffer共享内存
+        buffer.getDataY().put(6 * buffer.getStrideY() + 10, (byte) 99);
+        assertEquals(99, view.getDataY().get(0));
+
+        //原buffer的引用释放后，视图还持有它
+        buffer.release();
+        assertEquals(0, pool.getPooledBytes());
+        view.release();
+        assertEquals(buffer.capacity(), pool.getPooledBytes());
+    }
+
+    @Test
+    public void oddCropOriginIsRejected() {
+        PooledI420Buffer buffer = pool.acquire(64, 48);
+        try {
+            buffer.cropAndScale(1, 0, 20, 16, 20, 16);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            buffer.cropAndScale(0, 3, 20, 16, 10, 8);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            buffer.cropAndScale(50, 0, 20, 16, 20, 16);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        buffer.release();
+        assertEquals(buffer.capacity(), pool.getPooledBytes());
+    }
+
+    @Test
+    public void cropAndScaleUsesNewBuffer() {
+        PooledI420Buffer buffer = pool.acquire(64, 48);
+        fill(buffer);
+        VideoFrame.I420Buffer scaled = (VideoFrame.I420Buffer) buffer.cropAndScale(0, 0, 64, 48, 32, 24);
+        assertTrue(scaled instanceof PooledI420Buffer);
+        assertNotSame(buffer, scaled);
+        assertEquals(32, scaled.getWidth());
+        assertEquals(24, scaled.getHeight());
+        assertEquals(0, scaled.getStrideY() % I420BufferPool.STRIDE_ALIGNMENT);
+        //亮度在两个方向都是线性的，缩小一半后等于对应2x2块的平均值
+        for (int y = 0; y < 24; y++) {
+            for (int x = 0; x < 32; x++) {
+                int expected = ((lumaAt(2 * x, 2 * y) & 0xFF) + (lumaAt(2 * x + 1, 2 * y + 1) & 0xFF) + 1) / 2;
+                assertEquals(x + "," + y, expected, scaled.getDataY().get(y * scaled.getStrideY() + x) & 0xFF, 1);
+            }
+        }
+        //不依赖原buffer
+        buffer.release();
+        assertEquals(buffer.capacity(), pool.getPooledBytes());
+        scaled.release();
+    }
+
+    private static byte lumaAt(int x, int y) {
+        return (byte) (x + 2 * y);
+    }
+
+    private static byte chromaAt(int x, int y, char plane) {
+        return (byte) (plane == 'u' ? 3 * x + y : x + 3 * y + 100);
+    }
+
+    private static void fill(PooledI420Buffer buffer) {
+        ByteBuffer dataY = buffer.getDataY();
+        ByteBuffer dataU = buffer.getDataU();
+        ByteBuffer dataV = buffer.getDataV();
+        for (int y = 0; y < buffer.getHeight(); y++) {
+            for (int x = 0; x < buffer.getWidth(); x++) {
+                dataY.put(y * buffer.getStrideY() + x, lumaAt(x, y));
+            }
+        }
+        for (int y = 0; y < (buffer.getHeight() + 1) / 2; y++) {
+            for (int x = 0; x < (buffer.getWidth() + 1) / 2; x++) {
+                dataU.put(y * buffer.getStrideU() + x, chromaAt(x, y, 'u'));
+                dataV.put(y * buffer.getStrideV() + x, chromaAt(x, y, 'v'));
+            }
+        }
+    }
+}
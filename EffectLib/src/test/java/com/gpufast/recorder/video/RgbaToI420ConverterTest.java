@@ -0,0 +1,78 @@
+package com.gpufast.recorder.video;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link RgbaToI420Converter}的系数和并行转换
+ */
+public class RgbaToI420ConverterTest {
+
+    private final I420BufferPool pool = new I420BufferPool(4, 16 * 1024 * 1024);
+
+    @Test
+    public void primaryColorsUseLimitedRange() {
+        RgbaToI420Converter converter = new RgbaToI420Converter(pool,
+                RgbaToI420Converter.ColorStandard.BT601, 1);
+        //白、黑各一个2x2块
+        ByteBuffer rgba = ByteBuffer.allocateDirect(4 * 2 * 4);
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 4; x++) {
+                byte value = (byte) (x < 2 ? 255 : 0);
+                rgba.put(value).put(value).put(value).put((byte) 255);
+            }
+        }
+        PooledI420Buffer i420 = converter.convert(rgba, 4 * 4, 4, 2, false);
+        assertEquals(235, i420.getDataY().get(0) & 0xFF, 1);
+        assertEquals(16, i420.getDataY().get(3) & 0xFF, 1);
+        assertEquals(128, i420.getDataU().get(0) & 0xFF, 1);
+        assertEquals(128, i420.getDataV().get(1) & 0xFF, 1);
+        i420.release();
+        converter.release();
+    }
+
+    @Test
+    public void parallelMatchesSerial() {
+        int width = 322;
+        int height = 181;
+        ByteBuffer rgba = ByteBuffer.allocateDirect(width * height * 4);
+        Random random = new Random(5);
+        while (rgba.hasRemaining()) {
+            rgba.put((byte) random.nextInt(256));
+        }
+        RgbaToI420Converter serial = new RgbaToI420Converter(pool, RgbaToI420Converter.ColorStandard.BT709, 1);
+        RgbaToI420Converter parallel = new RgbaToI420Converter(pool, RgbaToI420Converter.ColorStandard.BT709, 4);
+        //不依赖Build.VERSION，JVM上也能并行
+        assertEquals(4, parallel.getParallelism());
+        for (boolean flip : new boolean[]{false, true}) {
+            PooledI420Buffer expected = serial.convert(rgba, width * 4, width, height, flip);
+            PooledI420Buffer actual = parallel.convert(rgba, width * 4, width, height, flip);
+            assertPlaneEquals(expected.getDataY(), expected.getStrideY(),
+                    actual.getDataY(), actual.getStrideY(), width, height);
+            assertPlaneEquals(expected.getDataU(), expected.getStrideU(),
+                    actual.getDataU(), actual.getStrideU(), (width + 1) / 2, (height + 1) / 2);
+            assertPlaneEquals(expected.getDataV(), expected.getStrideV(),
+                    actual.getDataV(), actual.getStrideV(), (width + 1) / 2, (height + 1) / 2);
+            expected.release();
+            actual.release();
+        }
+        serial.release();
+        parallel.release();
+    }
+
+    /**
+     * 只比较有效像素，行尾的对齐填充没有初始化
+     */
+    private static void assertPlaneEquals(ByteBuffer expected, int expectedStride,
+                                          ByteBuffer actual, int actualStride, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(x + "," + y, expected.get(y * expectedStride + x), actual.get(y * actualStride + x));
+            }
+        }
+    }
+}
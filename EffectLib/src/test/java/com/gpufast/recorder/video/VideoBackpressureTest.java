@@ -0,0 +1,184 @@
+package com.gpufast.recorder.video;
+
+import com.gpufast.recorder.video.encoder.VideoCodecStatus;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link VideoBackpressure}的额度计算和拥塞等级，编码器的队列长度由测试指定。
+ * 调用方式和{@link VideoClient}相同：渲染线程用编码器当前的队列长度占用额度，编码线程编码后释放
+ */
+public class VideoBackpressureTest {
+
+    private final ScriptedEncoder encoder = new ScriptedEncoder();
+    private final VideoBackpressure backpressure = new VideoBackpressure();
+    private final List<String> changes = new ArrayList<>();
+
+    {
+        backpressure.setListener(new VideoBackpressure.Listener() {
+            @Override
+            public void onCongestionChanged(VideoBackpressure.Level level, int credits) {
+                changes.add(level + ":" + credits);
+            }
+        });
+    }
+
+    @Test
+    public void creditsAreCapacityMinusInFlightMinusEncoderQueued() {
+        //编码器最多缓存3帧，加上编码线程队列里的1帧
+        encoder.maxQueued = 3;
+        backpressure.reset(encoder.getMaxQueuedFrames());
+        assertEquals(4, backpressure.getCredits());
+
+        assertTrue(submit());
+        assertEquals(3, backpressure.getCredits());
+        encoder.queued = 2;
+        //占用前剩1个额度
+        assertTrue(submit());
+        assertEquals(VideoBackpressure.Level.MODERATE, backpressure.getLevel());
+        assertEquals(0, backpressure.getCredits());
+        assertFalse(submit());
+        assertEquals(VideoBackpressure.Level.SEVERE, backpressure.getLevel());
+        assertEquals(1, backpressure.getRejected());
+
+        //编码线程处理完一帧，编码器输出了一帧
+        encoder.queued = 1;
+        encode(VideoCodecStatus.OK);
+        assertEquals(4 - 1 - 1, backpressure.getCredits());
+        assertEquals("MODERATE:1, SEVERE:0", changes());
+    }
+
+    @Test
+    public void creditsClampAtZero() {
+        encoder.maxQueued = 2;
+        backpressure.reset(encoder.getMaxQueuedFrames());
+        //编码器实际缓存的帧数超过了声明的上限
+        encoder.queued = 8;
+        assertFalse(submit());
+        assertEquals(0, backpressure.getCredits());
+        assertEquals("SEVERE:0", changes());
+        assertTrue(backpressure.toString(), backpressure.toString().contains("credits=0"));
+    }
+
+    @Test
+    public void droppedFrameReleasesItsCreditOnce() {
+        encoder.maxQueued = 2;
+        backpressure.reset(encoder.getMaxQueuedFrames());
+        assertTrue(submit());
+        assertTrue(submit());
+        assertEquals(1, backpressure.getCredits());
+
+        //编码器丢弃了这一帧，额度照样归还，并立即进入SEVERE
+        encode(VideoCodecStatus.NO_OUTPUT);
+        assertEquals(1, backpressure.getEncoderDrops());
+        assertEquals(VideoBackpressure.Level.SEVERE, backpressure.getLevel());
+        assertEquals(2, backpressure.getCredits());
+        encode(VideoCodecStatus.OK);
+        assertEquals(3, backpressure.getCredits());
+        //多余的释放不会让额度超过上限
+        encode(VideoCodecStatus.OK);
+        assertEquals(3, backpressure.getCredits());
+
+        //占用后没有送去编码，归还额度
+        assertTrue(submit());
+        backpressure.cancel();
+        assertEquals(3, backpressure.getCredits());
+    }
+
+    @Test
+    public void levelRecoversAfterConsecutiveFrames() {
+        encoder.maxQueued = 4;
+        backpressure.reset(encoder.getMaxQueuedFrames());
+        encoder.queued = 5;
+        assertFalse(submit());
+        encoder.queued = 0;
+        for (int i = 1; i < VideoBackpressure.RECOVER_FRAMES; i++) {
+            assertTrue(submit());
+            encode(VideoCodecStatus.OK);
+            assertEquals("frame " + i, VideoBackpressure.Level.SEVERE, backpressure.getLevel());
+        }
+        assertTrue(submit());
+        assertEquals(VideoBackpressure.Level.NONE, backpressure.getLevel());
+        assertEquals(1, backpressure.getCongestionEvents());
+        assertEquals(1, backpressure.getSevereEvents());
+    }
+
+    @Test
+    public void resetClearsQueueButKeepsStatistics() {
+        encoder.maxQueued = 1;
+        backpressure.reset(encoder.getMaxQueuedFrames());
+        assertTrue(submit());
+        assertTrue(submit());
+        assertFalse(submit());
+        //上一次录制的帧没有释放
+        encoder.maxQueued = 5;
+        backpressure.reset(encoder.getMaxQueuedFrames());
+        assertEquals(6, backpressure.getCredits());
+        assertEquals(VideoBackpressure.Level.NONE, backpressure.getLevel());
+        assertEquals(1, backpressure.getRejected());
+    }
+
+    private boolean submit() {
+        return backpressure.tryAcquire(encoder.getQueuedFrames());
+    }
+
+    private void encode(VideoCodecStatus status) {
+        encoder.status = status;
+        VideoCodecStatus result = encoder.encode(null);
+        backpressure.onFrameEncoded(encoder.getQueuedFrames(), result == VideoCodecStatus.NO_OUTPUT);
+    }
+
+    private String changes() {
+        StringBuilder sb = new StringBuilder();
+        for (String change : changes) {
+            sb.append(sb.length() == 0 ? "" : ", ").append(change);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 队列长度和编码结果由测试指定的编码器
+     */
+    private static class ScriptedEncoder implements VideoEncoder {
+        volatile int queued;
+        volatile int maxQueued = 1;
+        volatile VideoCodecStatus status = VideoCodecStatus.OK;
+
+        @Override
+        public VideoCodecStatus init(Settings settings, VideoEncoderCallback encodeCallback) {
+            return VideoCodecStatus.OK;
+        }
+
+        @Override
+        public VideoCodecStatus encode(VideoFrame frame) {
+            return status;
+        }
+
+        @Override
+        public String getImplementationName() {
+            return "scripted";
+        }
+
+        @Override
+        public VideoCodecStatus deInit() {
+            return VideoCodecStatus.OK;
+        }
+
+        @Override
+        public int getQueuedFrames() {
+            return queued;
+        }
+
+        @Override
+        public int getMaxQueuedFrames() {
+            return maxQueued;
+        }
+    }
+}
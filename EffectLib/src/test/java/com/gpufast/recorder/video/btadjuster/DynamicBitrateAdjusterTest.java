@@ -0,0 +1,116 @@
+package com.gpufast.recorder.video.btadjuster;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用模拟的硬件编码器驱动{@link DynamicBitrateAdjuster}：编码器按配置码率乘以固定偏差输出，
+ * 关键帧更大，帧大小带随机波动，检查实际码率能否收敛到目标码率
+ */
+public class DynamicBitrateAdjusterTest {
+
+    private static final int TARGET_BPS = 4000000;
+    private static final int CONFIG_FPS = 30;
+    private static final int SIMULATED_SEC = 30;
+
+    @Test
+    public void overshootingEncoderConvergesToTarget() {
+        Result result = simulate(1.6, new double[]{30});
+        assertConverged(result);
+        assertTrue(result.adjusted < TARGET_BPS);
+    }
+
+    @Test
+    public void undershootingEncoderConvergesToTarget() {
+        Result result = simulate(0.6, new double[]{30});
+        assertConverged(result);
+        assertTrue(result.adjusted > TARGET_BPS);
+    }
+
+    @Test
+    public void lowFrameRateIsMeasuredByTimestamps() {
+        //暗光下实际只有15fps，编码器仍然按时间分配码率，输出是准确的，不应该调整
+        Result result = simulate(1.0, new double[]{15});
+        assertConverged(result);
+        assertEquals(0, result.adjustments);
+    }
+
+    @Test
+    public void variableFrameRateConverges() {
+        Result result = simulate(1.4, new double[]{30, 24, 12, 20, 30, 8});
+        assertConverged(result);
+    }
+
+    @Test
+    public void timestampJumpBackResetsWindow() {
+        DynamicBitrateAdjuster adjuster = new DynamicBitrateAdjuster();
+        adjuster.setTargets(TARGET_BPS, CONFIG_FPS);
+        long ptsUs = 0;
+        for (int i = 0; i < 45; i++) {
+            adjuster.reportEncodedFrame(TARGET_BPS / 8 / CONFIG_FPS, ptsUs);
+            ptsUs += 1000000 / CONFIG_FPS;
+        }
+        //编码器重建后时间戳从0开始，不能把跨度算成负数或者极大值
+        for (int i = 0; i < 45; i++) {
+            adjuster.reportEncodedFrame(TARGET_BPS / 8 / CONFIG_FPS, i * 1000000L / CONFIG_FPS);
+        }
+        assertEquals(0, adjuster.getAdjustments());
+        assertEquals(TARGET_BPS, adjuster.getMeasuredBitrateBps(), TARGET_BPS * 0.05);
+    }
+
+    private static void assertConverged(Result result) {
+        double error = Math.abs(result.actualBps / TARGET_BPS - 1);
+        assertTrue("actual=" + (int) result.actualBps + " adjusted=" + result.adjusted,
+                error <= DynamicBitrateAdjuster.DEAD_BAND + 0.05);
+    }
+
+    /**
+     * @param bias 编码器实际码率与配置码率之比
+     * @param fps  依次使用的实际帧率，每个帧率持续相同的时长
+     */
+    private static Result simulate(double bias, double[] fps) {
+        DynamicBitrateAdjuster adjuster = new DynamicBitrateAdjuster();
+        adjuster.setTargets(TARGET_BPS, CONFIG_FPS);
+        Random random = new Random(11);
+        final long endUs = SIMULATED_SEC * 1000000L;
+        final long segmentUs = endUs / fps.length;
+        //最后5秒的实际码率
+        final long measureFromUs = endUs - 5000000L;
+        long ptsUs = 0;
+        long lastKeyUs = -1000000;
+        long measuredBytes = 0;
+        while (ptsUs < endUs) {
+            double frameRate = fps[(int) Math.min(fps.length - 1, ptsUs / segmentUs)];
+            long intervalUs = Math.round(1000000 / frameRate);
+            //编码器按时间分配码率：每帧的预算等于码率乘以帧间隔
+            double budget = adjuster.getAdjustedBitrateBps() * bias / 8 * intervalUs / 1e6;
+            boolean key = ptsUs - lastKeyUs >= 1000000;
+            if (key) {
+                lastKeyUs = ptsUs;
+            }
+            //关键帧是普通帧的4倍，每秒的总量仍然等于预算
+            double weight = key ? 4 : (frameRate - 4) / (frameRate - 1);
+            int size = (int) Math.max(1, budget * weight * (1 + random.nextGaussian() * 0.1));
+            adjuster.reportEncodedFrame(size, ptsUs);
+            ptsUs += intervalUs;
+            if (ptsUs > measureFromUs) {
+                measuredBytes += size;
+            }
+        }
+        Result result = new Result();
+        result.actualBps = measuredBytes * 8.0 / ((endUs - measureFromUs) / 1e6);
+        result.adjusted = adjuster.getAdjustedBitrateBps();
+        result.adjustments = adjuster.getAdjustments();
+        return result;
+    }
+
+    private static class Result {
+        double actualBps;
+        int adjusted;
+        long adjustments;
+    }
+}
@@ -0,0 +1,349 @@
+package com.gpufast.recorder.video.encoder;
+
+import android.media.MediaCodec;
+import android.media.MediaCrypto;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.Surface;
+
+import com.gpufast.recorder.hardware.DeviceCache;
+import com.gpufast.recorder.hardware.MediaCodecWrapper;
+import com.gpufast.recorder.hardware.MediaCodecWrapperFactory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用按脚本计时的假编码器驱动{@link CodecBenchmark}和{@link CodecRanker}
+ */
+public class CodecRankerTest {
+
+    private static final String MIME = "video/avc";
+    private static final String FINGERPRINT = "test";
+    private static final CodecBenchmark.Config FAST = config("fast");
+    private static final CodecBenchmark.Config SLOW = config("slow");
+    //工厂中不存在，创建时失败
+    private static final CodecBenchmark.Config MISSING = config("missing");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FakeClock clock = new FakeClock();
+    //编码器名称对应的每帧编码耗时
+    private final Map<String, Long> frameNs = new HashMap<>();
+    private volatile int created;
+    //第几次送入时调用，用于模拟测试过程中开始录制
+    private volatile Runnable onQueue;
+    private volatile int onQueueAt;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        frameNs.put("fast", 5000000L);
+        frameNs.put("slow", 40000000L);
+        file = new File(folder.getRoot(), "codec_rank.bin");
+    }
+
+    @Test
+    public void fasterCodecRanksFirst() {
+        CodecRanker ranker = newRanker();
+        List<CodecBenchmark.Config> ranked = ranker.rankBlocking(Arrays.asList(MISSING, SLOW, FAST));
+        assertEquals(Arrays.asList(FAST, SLOW, MISSING), ranked);
+
+        CodecBenchmark.Result fast = ranker.getResult(FAST);
+        CodecBenchmark.Result slow = ranker.getResult(SLOW);
+        assertTrue(fast.success);
+        assertTrue(slow.success);
+        //串行编码，吞吐帧率由每帧耗时决定
+        assertEquals(25f, slow.fps, 1f);
+        assertTrue("fast=" + fast.fps, fast.fps > 150);
+        assertTrue(fast.avgLatencyMs < slow.avgLatencyMs);
+        assertEquals(3, created);
+    }
+
+    @Test
+    public void partialAndFailedResultsArePersisted() {
+        newRanker().rankBlocking(Arrays.asList(FAST, MISSING));
+
+        CodecRanker reloaded = newRanker();
+        CodecBenchmark.Result fast = reloaded.getResult(FAST);
+        CodecBenchmark.Result missing = reloaded.getResult(MISSING);
+        assertNotNull(fast);
+        assertTrue(fast.success);
+        assertEquals(0, fast.failures);
+        assertNotNull(missing);
+        assertFalse(missing.success);
+        assertEquals(1, missing.failures);
+
+        //失败的时间还没有超过重试间隔，不重新测试
+        int before = created;
+        assertEquals(Arrays.asList(FAST, MISSING), reloaded.rankBlocking(Arrays.asList(MISSING, FAST)));
+        assertEquals(before, created);
+    }
+
+    @Test
+    public void failedConfigIsRetriedAfterInterval() {
+        long expired = System.currentTimeMillis() - CodecRanker.RETRY_INTERVAL_MS - 1;
+        new CodecRankStore(file, FINGERPRINT).save(Arrays.asList(
+                new CodecBenchmark.Result("missing", MISSING.profile, false, 0, 0, 0, 0, 1, expired),
+                new CodecBenchmark.Result("slow", SLOW.profile, false, 0, 0, 0, 0,
+                        CodecRanker.MAX_FAILURES, expired)));
+
+        CodecRanker ranker = newRanker();
+        ranker.rankBlocking(Arrays.asList(MISSING, SLOW));
+        //连续失败次数达到上限的配置不再测试
+        assertEquals(1, created);
+        CodecBenchmark.Result missing = newRanker().getResult(MISSING);
+        assertEquals(2, missing.failures);
+        assertTrue(missing.testedAtMs > expired);
+        assertFalse(newRanker().getResult(SLOW).success);
+    }
+
+    @Test
+    public void successResetsFailures() {
+        long expired = System.currentTimeMillis() - CodecRanker.RETRY_INTERVAL_MS - 1;
+        new CodecRankStore(file, FINGERPRINT).save(Collections.singletonList(
+                new CodecBenchmark.Result("fast", FAST.profile, false, 0, 0, 0, 0, 2, expired)));
+        newRanker().rankBlocking(Collections.singletonList(FAST));
+        CodecBenchmark.Result fast = newRanker().getResult(FAST);
+        assertTrue(fast.success);
+        assertEquals(0, fast.failures);
+    }
+
+    @Test
+    public void backgroundBenchmarkWaitsForRecordingToStop() throws Exception {
+        CodecRanker ranker = newRanker();
+        ranker.setBusy(true);
+        List<CodecBenchmark.Config> candidates = Arrays.asList(SLOW, FAST);
+        //没有结果时保持原来的顺序
+        assertEquals(candidates, ranker.rank(candidates));
+        Thread.sleep(100);
+        assertEquals(0, created);
+        assertNull(ranker.getResult(FAST));
+
+        ranker.setBusy(false);
+        assertTrue(ranker.awaitBackground(5000));
+        assertEquals(2, created);
+        assertEquals(Arrays.asList(FAST, SLOW), ranker.rank(candidates));
+        assertTrue(newRanker().getResult(SLOW).success);
+    }
+
+    @Test
+    public void runningBenchmarkIsAbandonedWhenRecordingStarts() throws Exception {
+        final CodecRanker ranker = newRanker();
+        onQueueAt = 10;
+        onQueue = new Runnable() {
+            @Override
+            public void run() {
+                onQueue = null;
+                ranker.setBusy(true);
+            }
+        };
+        ranker.rank(Collections.singletonList(FAST));
+        while (onQueue != null) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(100);
+        //放弃的测试不记录结果
+        assertFalse(ranker.awaitBackground(10));
+        assertNull(ranker.getResult(FAST));
+        assertEquals(1, created);
+
+        ranker.setBusy(false);
+        assertTrue(ranker.awaitBackground(5000));
+        assertEquals(2, created);
+        assertTrue(ranker.getResult(FAST).success);
+    }
+
+    @Test
+    public void resultsArePersistedOnceCacheDirectoryIsSet() {
+        DeviceCache.setDirectory(null);
+        try {
+            CodecRankStore store = new CodecRankStore("codec_rank.bin", FINGERPRINT);
+            CodecRanker ranker = new CodecRanker(newBenchmark(), store, 0);
+            //还没有设置缓存目录，结果只在内存中
+            ranker.rankBlocking(Collections.singletonList(FAST));
+            assertFalse(store.isAvailable());
+
+            DeviceCache.setDirectory(folder.getRoot());
+            ranker.rankBlocking(Arrays.asList(FAST, SLOW));
+            Map<String, CodecBenchmark.Result> saved = new CodecRankStore(file, FINGERPRINT).load();
+            //之前在内存中的结果也写入了文件
+            assertTrue(saved.get(FAST.key()).success);
+            assertTrue(saved.get(SLOW.key()).success);
+        } finally {
+            DeviceCache.setDirectory(null);
+        }
+    }
+
+    private CodecRanker newRanker() {
+        return new CodecRanker(newBenchmark(), new CodecRankStore(file, FINGERPRINT), 0);
+    }
+
+    private CodecBenchmark newBenchmark() {
+        MediaCodecWrapperFactory factory = new MediaCodecWrapperFactory() {
+            @Override
+            public MediaCodecWrapper createByCodecName(String name) throws IOException {
+                created++;
+                Long ns = frameNs.get(name);
+                if (ns == null) {
+                    throw new IOException("no codec " + name);
+                }
+                return new ScriptedCodec(ns);
+            }
+        };
+        return new CodecBenchmark(factory, clock) {
+            @Override
+            MediaFormat createFormat(Config config) {
+                return null;
+            }
+        };
+    }
+
+    private static CodecBenchmark.Config config(String name) {
+        return new CodecBenchmark.Config(name, MIME, VideoCodecInfo.VALUE_BASE_LINE, 21);
+    }
+
+    private static class FakeClock implements CodecBenchmark.Clock {
+        private volatile long nowNs;
+
+        @Override
+        public long nanoTime() {
+            return nowNs;
+        }
+
+        void advance(long ns) {
+            nowNs += ns;
+        }
+    }
+
+    /**
+     * 串行编码：每一帧在前一帧完成且已经送入之后开始，耗时固定；等待输出时推进假时钟
+     */
+    private class ScriptedCodec implements MediaCodecWrapper {
+        private static final int INPUT_BUFFERS = 4;
+        private final long frameNs;
+        //每个元素为{presentationTimeUs, 完成时间, flags}
+        private final ArrayDeque<long[]> pending = new ArrayDeque<>();
+        private long lastDoneNs;
+        private int queued;
+
+        ScriptedCodec(long frameNs) {
+            this.frameNs = frameNs;
+        }
+
+        @Override
+        public boolean isAsyncSupported() {
+            return false;
+        }
+
+        @Override
+        public void setCallback(Callback callback, Handler handler) {
+        }
+
+        @Override
+        public void configure(MediaFormat format, Surface surface, MediaCrypto crypto, int flags) {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void release() {
+        }
+
+        @Override
+        public int dequeueInputBuffer(long timeoutUs) {
+            return pending.size() < INPUT_BUFFERS ? 0 : -1;
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+            if (++queued == onQueueAt && onQueue != null) {
+                onQueue.run();
+            }
+            boolean eos = (flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            long doneNs = Math.max(lastDoneNs, clock.nanoTime()) + (eos ? 0 : frameNs);
+            lastDoneNs = doneNs;
+            pending.add(new long[]{presentationTimeUs, doneNs, flags});
+        }
+
+        @Override
+        public int dequeueOutputBuffer(MediaCodec.BufferInfo info, long timeoutUs) {
+            long[] head = pending.peek();
+            if (head == null) {
+                clock.advance(timeoutUs * 1000);
+                return -1;
+            }
+            long waitNs = head[1] - clock.nanoTime();
+            if (waitNs > timeoutUs * 1000) {
+                clock.advance(timeoutUs * 1000);
+                return -1;
+            }
+            clock.advance(Math.max(0, waitNs));
+            pending.poll();
+            boolean eos = (head[2] & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            info.presentationTimeUs = head[0];
+            info.flags = (int) head[2];
+            info.size = eos ? 0 : 5000;
+            info.offset = 0;
+            return 1;
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index, long renderTimestampNs) {
+        }
+
+        @Override
+        public MediaFormat getOutputFormat() {
+            return null;
+        }
+
+        @Override
+        public Surface createInputSurface() {
+            return null;
+        }
+
+        @Override
+        public void setParameters(Bundle params) {
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int inputBufferIndex) {
+            return ByteBuffer.allocate(CodecBenchmark.WIDTH * CodecBenchmark.HEIGHT * 3 / 2);
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int outputBufferIndex) {
+            return null;
+        }
+    }
+}
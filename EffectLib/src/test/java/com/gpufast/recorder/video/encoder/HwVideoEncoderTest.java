@@ -0,0 +1,321 @@
+package com.gpufast.recorder.video.encoder;
+
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaCrypto;
+import android.media.MediaFormat;
+import android.opengl.EGLContext;
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.Surface;
+
+import com.gpufast.gles.EglCore;
+import com.gpufast.recorder.hardware.MediaCodecWrapper;
+import com.gpufast.recorder.hardware.MediaCodecWrapperFactory;
+import com.gpufast.recorder.video.EncodedImage;
+import com.gpufast.recorder.video.VideoEncoder;
+import com.gpufast.recorder.video.VideoFrame;
+import com.gpufast.recorder.video.btadjuster.BaseBitrateAdjuster;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用假的编解码器驱动{@link HwVideoEncoder}：异步模式出错后切换到同步模式
+ */
+public class HwVideoEncoderTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private final List<FakeCodec> codecs = new ArrayList<>();
+    private int failCreateAfter = Integer.MAX_VALUE;
+    private int encoderStops;
+    private HwVideoEncoder encoder;
+
+    @Before
+    public void setUp() {
+        MediaCodecWrapperFactory factory = new MediaCodecWrapperFactory() {
+            @Override
+            public MediaCodecWrapper createByCodecName(String name) throws IOException {
+                if (codecs.size() >= failCreateAfter) {
+                    throw new IOException("no codec");
+                }
+                FakeCodec codec = new FakeCodec();
+                codecs.add(codec);
+                return codec;
+            }
+        };
+        Map<String, String> params = new HashMap<>();
+        params.put(VideoCodecInfo.H264_PROFILE, VideoCodecInfo.VALUE_BASE_LINE);
+        encoder = new HwVideoEncoder(factory, "fake.avc.encoder", VideoCodecType.H264, 0x7F000789,
+                params, 1, new BaseBitrateAdjuster(), null, true, null) {
+            @Override
+            MediaFormat createFormat() {
+                return new MediaFormat();
+            }
+
+            @Override
+            EglCore createEglCore() {
+                return new FakeEglCore();
+            }
+        };
+        VideoEncoder.VideoEncoderCallback callback = new VideoEncoder.VideoEncoderCallback() {
+            @Override
+            public void onUpdateVideoMediaFormat(MediaFormat format) {
+            }
+
+            @Override
+            public void onEncodedFrame(EncodedImage frame) {
+            }
+
+            @Override
+            public void onVideoEncoderStop() {
+                encoderStops++;
+            }
+        };
+        assertEquals(VideoCodecStatus.OK,
+                encoder.init(new VideoEncoder.Settings(WIDTH, HEIGHT, 2000, 30), callback));
+    }
+
+    @After
+    public void tearDown() {
+        encoder.deInit();
+    }
+
+    @Test
+    public void fatalAsyncErrorRestartsInSyncMode() {
+        FakeCodec first = codecs.get(0);
+        assertNotNull("async mode", first.callback);
+        encoder.encode(frame(1));
+
+        first.callback.onError(first, new IllegalStateException("codec died"));
+        VideoCodecStatus status = encoder.encode(frame(2));
+
+        assertTrue("status=" + status, status != VideoCodecStatus.FALLBACK_SOFTWARE
+                && status != VideoCodecStatus.UNINITIALIZED);
+        assertEquals(1, encoder.getSyncFallbacks());
+        assertEquals(2, codecs.size());
+        assertTrue(first.released);
+        FakeCodec second = codecs.get(1);
+        assertNotSame(first, second);
+        assertNull("sync mode", second.callback);
+        assertTrue(second.started);
+        //录制没有中断，不能通知复用器编码结束
+        assertEquals(0, encoderStops);
+
+        encoder.deInit();
+        assertTrue(second.released);
+        assertEquals(1, encoderStops);
+    }
+
+    @Test
+    public void errorFromReplacedCodecIsIgnored() {
+        FakeCodec first = codecs.get(0);
+        first.callback.onError(new FakeCodec(), new IllegalStateException("stale"));
+        encoder.encode(frame(1));
+        assertEquals(0, encoder.getSyncFallbacks());
+        assertEquals(1, codecs.size());
+    }
+
+    @Test
+    public void failedRestartAsksForSoftwareFallback() {
+        failCreateAfter = 1;
+        FakeCodec first = codecs.get(0);
+        first.callback.onError(first, new IllegalStateException("codec died"));
+        assertEquals(VideoCodecStatus.FALLBACK_SOFTWARE, encoder.encode(frame(1)));
+        assertEquals(VideoCodecStatus.UNINITIALIZED, encoder.encode(frame(2)));
+    }
+
+    private static VideoFrame frame(long index) {
+        VideoFrame.Buffer buffer = new VideoFrame.Buffer() {
+            @Override
+            public int getWidth() {
+                return WIDTH;
+            }
+
+            @Override
+            public int getHeight() {
+                return HEIGHT;
+            }
+
+            @Override
+            public VideoFrame.I420Buffer toI420() {
+                return null;
+            }
+
+            @Override
+            public void release() {
+            }
+
+            @Override
+            public VideoFrame.Buffer cropAndScale(int cropX, int cropY, int cropWidth, int cropHeight,
+                                                  int scaleWidth, int scaleHeight) {
+                return null;
+            }
+        };
+        return new VideoFrame(buffer, 0, index * 33333333L);
+    }
+
+    private static class FakeCodec implements MediaCodecWrapper {
+        volatile Callback callback;
+        volatile boolean started;
+        volatile boolean released;
+
+        @Override
+        public boolean isAsyncSupported() {
+            return true;
+        }
+
+        @Override
+        public void setCallback(Callback callback, Handler handler) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void configure(MediaFormat format, Surface surface, MediaCrypto crypto, int flags) {
+        }
+
+        @Override
+        public void start() {
+            started = true;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void stop() {
+            started = false;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+
+        @Override
+        public int dequeueInputBuffer(long timeoutUs) {
+            return -1;
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        }
+
+        @Override
+        public int dequeueOutputBuffer(MediaCodec.BufferInfo info, long timeoutUs) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return -1;
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index, long renderTimestampNs) {
+        }
+
+        @Override
+        public MediaFormat getOutputFormat() {
+            return null;
+        }
+
+        @Override
+        public Surface createInputSurface() {
+            return null;
+        }
+
+        @Override
+        public void setParameters(Bundle params) {
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int inputBufferIndex) {
+            return null;
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int outputBufferIndex) {
+            return null;
+        }
+    }
+
+    private static class FakeEglCore implements EglCore {
+        @Override
+        public void createSurface(Surface surface) {
+        }
+
+        @Override
+        public void createSurface(SurfaceTexture surfaceTexture) {
+        }
+
+        @Override
+        public void createDummyPbufferSurface() {
+        }
+
+        @Override
+        public void createPbufferSurface(int width, int height) {
+        }
+
+        @Override
+        public EGLContext getEglContext() {
+            return null;
+        }
+
+        @Override
+        public boolean hasSurface() {
+            return true;
+        }
+
+        @Override
+        public int surfaceWidth() {
+            return WIDTH;
+        }
+
+        @Override
+        public int surfaceHeight() {
+            return HEIGHT;
+        }
+
+        @Override
+        public void releaseSurface() {
+        }
+
+        @Override
+        public void release() {
+        }
+
+        @Override
+        public void makeCurrent() {
+        }
+
+        @Override
+        public void detachCurrent() {
+        }
+
+        @Override
+        public void swapBuffers() {
+        }
+
+        @Override
+        public void swapBuffers(long presentationTimeStampNs) {
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.gpufast.recorder.video.texture;
+
+import com.gpufast.recorder.video.VideoFrame;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EncodeTextureRingTest {
+
+    private static final int SLOTS = 3;
+    private static final int SRC_TEXTURE = 100;
+
+    @Test
+    public void publishCopiesIntoSlotsAndWaitsForReadFences() {
+        StandInTextureRingOps ops = new StandInTextureRingOps();
+        EncodeTextureRing ring = new EncodeTextureRing(SLOTS, ops);
+        for (int i = 0; i < SLOTS * 4; i++) {
+            VideoFrame.TextureBuffer buffer = publish(ring, SRC_TEXTURE, 640, 480);
+            assertNotNull("frame " + i, buffer);
+            assertEquals(640, buffer.getWidth());
+            buffer.waitUntilReady();
+            buffer.release();
+            //重复release不会重复归还
+            buffer.release();
+        }
+        assertEquals(SLOTS * 4, ops.getCopies());
+        assertEquals(SLOTS, ops.getLiveTextures());
+        //编码线程等待写入栅栏，渲染线程重用槽位前等待读取栅栏，最后一轮的读取栅栏还没有被等待
+        assertEquals(SLOTS * 4 + SLOTS * 3, ops.getWaits());
+        assertEquals(0, ops.getInvalidWaits());
+        //每个槽位的写入栅栏和最后一轮的读取栅栏
+        assertEquals(SLOTS * 2, ops.getLiveFences());
+        assertEquals(0, ring.getInFlight());
+        assertEquals(0, ring.getStarved());
+    }
+
+    @Test
+    public void outputSizeIsReportedWithoutReallocating() {
+        StandInTextureRingOps ops = new StandInTextureRingOps();
+        EncodeTextureRing ring = new EncodeTextureRing(SLOTS, ops);
+        VideoFrame.TextureBuffer buffer = ring.publish(SRC_TEXTURE, 1280, 720, 640, 360);
+        assertEquals(640, buffer.getWidth());
+        assertEquals(360, buffer.getHeight());
+        buffer.release();
+        assertEquals(SLOTS, ops.getLiveTextures());
+    }
+
+    @Test
+    public void exhaustedRingDropsFramesUntilASlotReturns() {
+        StandInTextureRingOps ops = new StandInTextureRingOps();
+        EncodeTextureRing ring = new EncodeTextureRing(SLOTS, ops);
+        VideoFrame.TextureBuffer[] buffers = new VideoFrame.TextureBuffer[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            buffers[i] = publish(ring, SRC_TEXTURE, 640, 480);
+            assertNotNull(buffers[i]);
+        }
+        assertNull(publish(ring, SRC_TEXTURE, 640, 480));
+        assertNull(publish(ring, SRC_TEXTURE, 640, 480));
+        assertEquals(2, ring.getStarved());
+        assertEquals(SLOTS, ring.getInFlight());
+
+        buffers[1].release();
+        VideoFrame.TextureBuffer reused = publish(ring, SRC_TEXTURE, 640, 480);
+        assertNotNull(reused);
+        assertEquals(buffers[1].getTextureId(), reused.getTextureId());
+        //所有槽位都在编码线程中，不能释放纹理
+        assertFalse(ring.release());
+        assertEquals(SLOTS, ops.getLiveTextures());
+    }
+
+    @Test
+    public void resizeWaitsForAllSlotsToReturn() {
+        StandInTextureRingOps ops = new StandInTextureRingOps();
+        EncodeTextureRing ring = new EncodeTextureRing(SLOTS, ops);
+        VideoFrame.TextureBuffer buffer = publish(ring, SRC_TEXTURE, 640, 480);
+        assertNull(publish(ring, SRC_TEXTURE, 1280, 720));
+        buffer.release();
+        VideoFrame.TextureBuffer resized = publish(ring, SRC_TEXTURE, 1280, 720);
+        assertNotNull(resized);
+        assertEquals(1280, resized.getWidth());
+        resized.release();
+        assertEquals(SLOTS, ops.getLiveTextures());
+        assertEquals(0, ops.getInvalidWaits());
+    }
+
+    @Test
+    public void releaseFreesTexturesAndFences() {
+        StandInTextureRingOps ops = new StandInTextureRingOps();
+        EncodeTextureRing ring = new EncodeTextureRing(SLOTS, ops);
+        VideoFrame.TextureBuffer first = publish(ring, SRC_TEXTURE, 640, 480);
+        VideoFrame.TextureBuffer second = publish(ring, SRC_TEXTURE, 640, 480);
+        first.waitUntilReady();
+        first.release();
+        assertFalse(ring.release());
+        //没有被编码的帧直接丢弃
+        second.release();
+
+        assertTrue(ring.release());
+        assertFalse(ring.isAllocated());
+        assertTrue(ops.isReleased());
+        assertEquals(0, ops.getLiveTextures());
+        assertEquals(0, ops.getLiveFences());
+
+        //释放后还可以继续使用
+        VideoFrame.TextureBuffer again = publish(ring, SRC_TEXTURE, 640, 480);
+        assertNotNull(again);
+        again.release();
+        assertTrue(ring.release());
+        assertEquals(0, ops.getLiveTextures());
+        assertEquals(0, ops.getLiveFences());
+    }
+
+    @Test
+    public void layersShareOneCopyPerFrame() {
+        StandInTextureRingOps ops = new StandInTextureRingOps();
+        EncodeTextureRing ring = new EncodeTextureRing(SLOTS, ops);
+        VideoFrame.TextureBuffer main = publish(ring, SRC_TEXTURE, 1280, 720);
+        VideoFrame.TextureBuffer layer = ring.publish(SRC_TEXTURE, 1280, 720, 640, 360);
+        assertEquals(main.getTextureId(), layer.getTextureId());
+        assertEquals(1280, main.getWidth());
+        assertEquals(640, layer.getWidth());
+        assertEquals(360, layer.getHeight());
+        assertEquals(1, ops.getCopies());
+        assertEquals(1, ring.getShared());
+        assertEquals(1, ring.getInFlight());
+
+        //两个编码线程等待同一个写入栅栏
+        main.waitUntilReady();
+        layer.waitUntilReady();
+        main.release();
+        //另一路还在使用，槽位不能被重新写入
+        VideoFrame.TextureBuffer second = publish(ring, SRC_TEXTURE, 1280, 720);
+        VideoFrame.TextureBuffer third = publish(ring, SRC_TEXTURE, 1280, 720);
+        assertNotEquals(main.getTextureId(), second.getTextureId());
+        assertNotEquals(main.getTextureId(), third.getTextureId());
+        assertNull(publish(ring, SRC_TEXTURE, 1280, 720));
+
+        //所有引用都归还后重新写入前等待每一路的读取栅栏
+        long waits = ops.getWaits();
+        layer.release();
+        VideoFrame.TextureBuffer reused = publish(ring, SRC_TEXTURE, 1280, 720);
+        assertEquals(main.getTextureId(), reused.getTextureId());
+        assertEquals(waits + 2, ops.getWaits());
+        assertEquals(0, ops.getInvalidWaits());
+
+        second.release();
+        third.release();
+        reused.release();
+        assertTrue(ring.release());
+        //每个栅栏只删除一次
+        assertEquals(0, ops.getLiveFences());
+        assertEquals(0, ops.getLiveTextures());
+    }
+
+    @Test
+    public void frameReleasedEarlyIsStillShared() {
+        StandInTextureRingOps ops = new StandInTextureRingOps();
+        EncodeTextureRing ring = new EncodeTextureRing(SLOTS, ops);
+        VideoFrame.TextureBuffer main = publish(ring, SRC_TEXTURE, 640, 480);
+        //主视频的编码线程在其他分辨率取帧之前就用完了
+        main.release();
+        assertEquals(0, ring.getInFlight());
+        VideoFrame.TextureBuffer layer = ring.publish(SRC_TEXTURE, 640, 480, 320, 240);
+        assertEquals(main.getTextureId(), layer.getTextureId());
+        assertEquals(1, ops.getCopies());
+        assertEquals(1, ring.getInFlight());
+        layer.release();
+        assertTrue(ring.release());
+        assertEquals(0, ops.getLiveFences());
+    }
+
+    @Test
+    public void releaseWithoutContextInsertsNoFence() {
+        StandInTextureRingOps ops = new StandInTextureRingOps();
+        EncodeTextureRing ring = new EncodeTextureRing(1, ops);
+        VideoFrame.TextureBuffer buffer = publish(ring, SRC_TEXTURE, 640, 480);
+        //编码线程已经释放了上下文，不能插入栅栏
+        ops.setContextCurrent(false);
+        buffer.release();
+        ops.setContextCurrent(true);
+        assertEquals(0, ring.getInFlight());
+        //只剩槽位的写入栅栏
+        assertEquals(1, ops.getLiveFences());
+
+        //渲染线程重用槽位时删除上一次的写入栅栏
+        VideoFrame.TextureBuffer next = publish(ring, SRC_TEXTURE, 640, 480);
+        assertNotNull(next);
+        assertEquals(0, ops.getWaits());
+        assertEquals(1, ops.getLiveFences());
+        next.release();
+        assertTrue(ring.release());
+        assertEquals(0, ops.getLiveFences());
+    }
+
+    /**
+     * 渲染线程的新一帧
+     */
+    private static VideoFrame.TextureBuffer publish(EncodeTextureRing ring, int textureId,
+                                                    int width, int height) {
+        ring.nextFrame();
+        return ring.publish(textureId, width, height);
+    }
+}
@@ -0,0 +1,118 @@
+package com.gpufast.recorder.video.texture;
+
+/**
+ * 不访问GPU的{@link TextureRingOps}，纹理和栅栏都只是编号
+ * <p>
+ * 用于在JVM上验证{@link EncodeTextureRing}的槽位分配：记录每种操作的次数，
+ * 可以检查纹理和栅栏是否都被释放、等待的栅栏是否都已经插入过
+ */
+class StandInTextureRingOps implements TextureRingOps {
+
+    private int nextTextureId = 1;
+    private long nextFence = 1;
+
+    private int liveTextures;
+    private int liveFences;
+    private long copies;
+    private long waits;
+    //等待了一个没有插入过或者已经删除的栅栏
+    private long invalidWaits;
+    private boolean released;
+    private boolean contextCurrent = true;
+
+    @Override
+    public synchronized void init() {
+        released = false;
+    }
+
+    @Override
+    public synchronized int createTexture(int width, int height) {
+        liveTextures++;
+        return nextTextureId++;
+    }
+
+    @Override
+    public synchronized void deleteTexture(int textureId) {
+        liveTextures--;
+    }
+
+    @Override
+    public synchronized void copyTexture(int srcTextureId, int dstTextureId, int width, int height) {
+        copies++;
+    }
+
+    @Override
+    public synchronized boolean isContextCurrent() {
+        return contextCurrent;
+    }
+
+    /**
+     * 模拟编码线程已经释放了EGL上下文
+     */
+    synchronized void setContextCurrent(boolean current) {
+        contextCurrent = current;
+    }
+
+    @Override
+    public synchronized Object insertFence() {
+        if (!contextCurrent) {
+            throw new IllegalStateException("no current context");
+        }
+        liveFences++;
+        return nextFence++;
+    }
+
+    @Override
+    public synchronized void waitFence(Object fence) {
+        waits++;
+        if (!(fence instanceof Long) || (Long) fence >= nextFence) {
+            invalidWaits++;
+        }
+    }
+
+    @Override
+    public synchronized void deleteFence(Object fence) {
+        liveFences--;
+    }
+
+    @Override
+    public synchronized void release() {
+        released = true;
+    }
+
+    synchronized int getLiveTextures() {
+        return liveTextures;
+    }
+
+    synchronized int getLiveFences() {
+        return liveFences;
+    }
+
+    synchronized long getCopies() {
+        return copies;
+    }
+
+    synchronized long getWaits() {
+        return waits;
+    }
+
+    synchronized long getInvalidWaits() {
+        return invalidWaits;
+    }
+
+    synchronized boolean isReleased() {
+        return released;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "StandInTextureRingOps{" +
+                "liveTextures=" + liveTextures +
+                ", liveFences=" + liveFences +
+                ", copies=" + copies +
+                ", waits=" + waits +
+                ", invalidWaits=" + invalidWaits +
+                ", released=" + released +
+                '}';
+    }
+}
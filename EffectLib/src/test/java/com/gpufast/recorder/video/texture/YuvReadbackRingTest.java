@@ -0,0 +1,118 @@
+package com.gpufast.recorder.video.texture;
+
+import com.gpufast.recorder.video.I420BufferPool;
+import com.gpufast.recorder.video.PooledI420Buffer;
+import com.gpufast.recorder.video.RgbaToI420Converter;
+import com.gpufast.recorder.video.renderer.YuvConverter;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 读回数据按{@link YuvConverter}的布局拆分到I420平面，不需要GL
+ */
+public class YuvReadbackRingTest {
+
+    private final I420BufferPool pool = new I420BufferPool(2, 1024 * 1024);
+
+    @Test
+    public void copyPlanesSplitsPackedLayout() {
+        assertCopy(16, 8);
+    }
+
+    @Test
+    public void copyPlanesHandlesOddSizes() {
+        //stride向上取整到8，色度宽高向上取整
+        assertCopy(13, 7);
+        assertCopy(1, 1);
+    }
+
+    @Test
+    public void copyPlanesLeavesSourcePositionUnchanged() {
+        ByteBuffer src = packed(24, 10);
+        src.position(5);
+        PooledI420Buffer dst = pool.acquire(24, 10);
+        YuvReadbackRing.copyPlanes(src, dst, 24, 10);
+        assertEquals(5, src.position());
+        dst.release();
+    }
+
+    @Test
+    public void pollWithoutSubmitReturnsNull() {
+        YuvReadbackRing ring = new YuvReadbackRing(2, RgbaToI420Converter.ColorStandard.BT601);
+        assertNull(ring.poll());
+        assertNull(ring.poll(1000000L));
+        //没有初始化时不访问GL
+        ring.discardPending();
+        ring.release();
+        assertEquals(0, ring.getDelivered());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroSlots() {
+        new YuvReadbackRing(0, RgbaToI420Converter.ColorStandard.BT601);
+    }
+
+    private void assertCopy(int width, int height) {
+        ByteBuffer src = packed(width, height);
+        PooledI420Buffer dst = pool.acquire(width, height);
+        YuvReadbackRing.copyPlanes(src, dst, width, height);
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        String size = width + "x" + height;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(size + " Y " + x + "," + y, value('y', x, y),
+                        dst.getDataY().get(y * dst.getStrideY() + x));
+            }
+        }
+        for (int y = 0; y < chromaHeight; y++) {
+            for (int x = 0; x < chromaWidth; x++) {
+                assertEquals(size + " U " + x + "," + y, value('u', x, y),
+                        dst.getDataU().get(y * dst.getStrideU() + x));
+                assertEquals(size + " V " + x + "," + y, value('v', x, y),
+                        dst.getDataV().get(y * dst.getStrideV() + x));
+            }
+        }
+        dst.release();
+    }
+
+    /**
+     * 按读回的布局填充：Y占前height行，之后每行前半是U、后半是V，其余位置是填充
+     */
+    private static ByteBuffer packed(int width, int height) {
+        int stride = YuvConverter.getStride(width);
+        ByteBuffer src = ByteBuffer.allocateDirect(stride * YuvConverter.getRows(height));
+        while (src.hasRemaining()) {
+            src.put((byte) 0xEE);
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                src.put(y * stride + x, value('y', x, y));
+            }
+        }
+        for (int y = 0; y < (height + 1) / 2; y++) {
+            for (int x = 0; x < (width + 1) / 2; x++) {
+                src.put((height + y) * stride + x, value('u', x, y));
+                src.put((height + y) * stride + stride / 2 + x, value('v', x, y));
+            }
+        }
+        src.clear();
+        return src;
+    }
+
+    private static byte value(char plane, int x, int y) {
+        switch (plane) {
+            case 'y':
+                return (byte) (x + 7 * y);
+            case 'u':
+                return (byte) (100 + x + 3 * y);
+            default:
+                return (byte) (200 + 2 * x + y);
+        }
+    }
+}
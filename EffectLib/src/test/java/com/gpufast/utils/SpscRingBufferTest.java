@@ -0,0 +1,90 @@
+package com.gpufast.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpscRingBufferTest {
+
+    @Test
+    public void keepsOrderAcrossWrapAround() {
+        SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(3);
+        // Rounded up to a power of two.
+        assertEquals(4, ring.capacity());
+        int next = 0;
+        int expected = 0;
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(ring.offer(next++));
+            }
+            for (int i = 0; i < 3; i++) {
+                assertEquals(Integer.valueOf(expected++), ring.poll());
+            }
+        }
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+        assertEquals(30, ring.getOfferedCount());
+    }
+
+    @Test
+    public void offerOnFullRingFails() {
+        SpscRingBuffer<String> ring = new SpscRingBuffer<>(2);
+        assertTrue(ring.offer("a"));
+        assertTrue(ring.offer("b"));
+        assertFalse(ring.offer("c"));
+        assertFalse(ring.offer("d"));
+        assertEquals(2, ring.getOverflowCount());
+        assertEquals(2, ring.getPeakDepth());
+        assertEquals(2, ring.size());
+
+        assertEquals("a", ring.poll());
+        assertTrue(ring.offer("e"));
+        assertEquals("b", ring.poll());
+        assertEquals("e", ring.poll());
+        // Peak is a high-water mark, not the current depth.
+        assertEquals(2, ring.getPeakDepth());
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void takeTimesOutOnEmptyRing() {
+        SpscRingBuffer<String> ring = new SpscRingBuffer<>(4);
+        long start = System.nanoTime();
+        assertNull(ring.take(50, TimeUnit.MILLISECONDS));
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        assertTrue("elapsed " + elapsedMs, elapsedMs >= 40);
+    }
+
+    @Test
+    public void takeIsWokenByOffer() throws Exception {
+        final SpscRingBuffer<String> ring = new SpscRingBuffer<>(4);
+        final AtomicReference<String> taken = new AtomicReference<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final long[] elapsedMs = new long[1];
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                long start = System.nanoTime();
+                taken.set(ring.take(10, TimeUnit.SECONDS));
+                elapsedMs[0] = (System.nanoTime() - start) / 1000000;
+            }
+        });
+        consumer.start();
+        started.await();
+        // Give the consumer time to park.
+        Thread.sleep(50);
+        assertTrue(ring.offer("frame"));
+        consumer.join(5000);
+        assertFalse(consumer.isAlive());
+        assertEquals("frame", taken.get());
+        assertTrue("elapsed " + elapsedMs[0], elapsedMs[0] < 5000);
+    }
+}
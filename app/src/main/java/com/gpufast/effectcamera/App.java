@@ -3,11 +3,13 @@ package com.gpufast.effectcamera;
 import android.app.Application;
 
 import com.gpufast.logger.FwLog;
+import com.gpufast.recorder.RecorderEngine;
 
 public class App extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
         FwLog.init(this,"0.0.1");
+        RecorderEngine.setCacheDir(getCacheDir());
     }
 }
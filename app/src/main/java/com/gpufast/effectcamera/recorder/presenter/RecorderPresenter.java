@@ -8,11 +8,13 @@ import com.gpufast.effectcamera.recorder.contract.RecorderContract;
 import com.gpufast.logger.ELog;
 import com.gpufast.recorder.RecorderEngine;
 import com.gpufast.recorder.RecordParams;
-import com.gpufast.recorder.audio.AudioFrame;
 import com.gpufast.recorder.audio.AudioProcessor;
+import com.gpufast.recorder.audio.PcmBuffer;
+import com.gpufast.recorder.video.VideoBackpressure;
 import com.gpufast.render.Render;
 
-public class RecorderPresenter implements RecorderContract.Presenter, Render.OnRenderCallback, AudioProcessor {
+public class RecorderPresenter implements RecorderContract.Presenter, Render.OnRenderCallback, AudioProcessor,
+        VideoBackpressure.Listener {
     private static final String TAG = "RecorderPresenter";
 
     private RecorderContract.View mView;
@@ -34,6 +36,7 @@ public class RecorderPresenter implements RecorderContract.Presenter, Render.OnR
         mCameraEngine.setPreview(preview);
         mCameraEngine.setRenderFrameCallback(this);
         RecorderEngine.setAudioProcessor(this);
+        RecorderEngine.setVideoBackpressureListener(this);
     }
 
     @Override
@@ -49,10 +52,19 @@ public class RecorderPresenter implements RecorderContract.Presenter, Render.OnR
 
     @Override
     public int onFrameCallback(int textureId, int width, int height) {
-        RecorderEngine.sendVideoFrame(textureId, width, height);
+        //编码器已经满了，这一帧送过去也会被丢弃
+        if (RecorderEngine.getVideoCredits() > 0) {
+            RecorderEngine.sendVideoFrame(textureId, width, height);
+        }
         return 0;
     }
 
+    @Override
+    public void onCongestionChanged(VideoBackpressure.Level level, int credits) {
+        //编码器拥塞时可以在这里降低特效的开销
+        ELog.i(TAG, "video encoder congestion: " + level + ", credits: " + credits);
+    }
+
     @Override
     public void onEglContextDestroy() {
     }
@@ -85,8 +97,7 @@ public class RecorderPresenter implements RecorderContract.Presenter, Render.OnR
 
 
     @Override
-    public AudioFrame onReceiveAudioFrame(AudioFrame frame) {
-        //对声音进行编码前预处理
-        return null;
+    public void process(PcmBuffer buffer) {
+        //对声音进行编码前预处理，直接修改buffer中的数据
     }
 }